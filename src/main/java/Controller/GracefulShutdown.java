@@ -0,0 +1,110 @@
+package Controller;
+
+import java.nio.file.Path;
+
+import Service.SocialMediaService;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+/**
+ * Shuts the application down without cutting off work in progress. Main runs
+ * it from a shutdown hook, so it runs on SIGTERM as well as on a normal exit.
+ *
+ * <ol>
+ * <li>GET /ready starts answering 503, and requests keep being served for
+ * "shutdown.readiness_delay_ms" (default 5000), long enough for load
+ * balancers to notice and stop routing new requests here.</li>
+ * <li>Live message streams are sent their queued events and disconnected, and
+ * waiting long polls are answered, since they would otherwise run until the
+ * drain deadline.</li>
+ * <li>The server stops accepting connections and waits for the requests in
+ * flight, for at most "shutdown.drain_timeout_ms" (default 30000).</li>
+ * <li>The startup snapshot is saved, if there is one, and the change log and
+ * DAO are flushed and closed.</li>
+ * <li>The pooled connections are closed, and an embedded H2 file database is
+ * compacted and shut down ("shutdown.compact", default true).</li>
+ * </ol>
+ */
+public class GracefulShutdown implements Runnable {
+    private final Javalin app;
+    private final SocialMediaController controller;
+    private final SocialMediaService service;
+    private final Path snapshotFile;
+    private final long readinessDelayMillis;
+    private final long drainTimeoutMillis;
+    private final boolean compact;
+
+    /**
+     * Creates a shutdown sequence with the configured delay, deadline and
+     * compaction.
+     *
+     * @param app          the started app.
+     * @param controller   the controller serving the app.
+     * @param service      the service underneath any decorators.
+     * @param snapshotFile where to save the startup snapshot, or null.
+     */
+    public GracefulShutdown(Javalin app, SocialMediaController controller, SocialMediaService service,
+            Path snapshotFile) {
+        this(app, controller, service, snapshotFile,
+                AppConfig.getLong("shutdown.readiness_delay_ms", 5000),
+                AppConfig.getLong("shutdown.drain_timeout_ms", 30_000),
+                AppConfig.getBoolean("shutdown.compact", true));
+    }
+
+    /**
+     * @param app                  the started app.
+     * @param controller           the controller serving the app.
+     * @param service              the service underneath any decorators.
+     * @param snapshotFile         where to save the startup snapshot, or null.
+     * @param readinessDelayMillis how long to keep serving after GET /ready
+     *                             starts answering 503.
+     * @param drainTimeoutMillis   the longest time to wait for requests in
+     *                             flight.
+     * @param compact              whether to compact an embedded H2 file
+     *                             database.
+     */
+    public GracefulShutdown(Javalin app, SocialMediaController controller, SocialMediaService service,
+            Path snapshotFile, long readinessDelayMillis, long drainTimeoutMillis, boolean compact) {
+        this.app = app;
+        this.controller = controller;
+        this.service = service;
+        this.snapshotFile = snapshotFile;
+        this.readinessDelayMillis = readinessDelayMillis;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.compact = compact;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        controller.beginShutdown();
+        try {
+            Thread.sleep(readinessDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        service.closeStreams(Math.min(drainTimeoutMillis, 1000));
+        app.jettyServer().server().setStopTimeout(drainTimeoutMillis);
+        long drainStart = System.nanoTime();
+        boolean drained = true;
+        try {
+            app.stop();
+        } catch (RuntimeException e) {
+            // The server is stopped either way; the requests still running were cut off
+            drained = false;
+            Metrics.counter("shutdown.drain_timeouts").increment();
+        }
+        Metrics.timer("shutdown.drain").recordSince(drainStart);
+
+        if (snapshotFile != null) {
+            service.saveSnapshot(snapshotFile);
+        }
+        service.close();
+        ConnectionUtil.shutdown(compact);
+        System.out.println("Shut down in " + (System.nanoTime() - start) / 1_000_000 + " ms"
+                + (drained ? "" : ", cutting off the requests still running after " + drainTimeoutMillis + " ms"));
+    }
+}
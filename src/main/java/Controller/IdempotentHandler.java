@@ -0,0 +1,133 @@
+package Controller;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import Util.IdempotencyStore;
+import Util.Metrics;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+/**
+ * Wraps an endpoint handler so that requests carrying an Idempotency-Key
+ * header run at most once per key.
+ *
+ * A retry of a completed request gets the original status, content type and
+ * response bytes back without the wrapped handler running again. A retry that
+ * arrives while the original is still running waits for it. Reusing a key
+ * with a different request body is answered with 422, and a retry that waits
+ * longer than "idempotency.wait_ms" is answered with 409. Requests that fail
+ * with a 5xx status or an exception are not remembered, so they can be retried.
+ * Requests without the header are passed straight through.
+ *
+ * Keys are scoped to the caller as well as the route, so two clients that
+ * happen to pick the same key neither see each other's responses nor block
+ * each other with 422. Checks that should not apply to replays, such as rate
+ * limits, belong in the wrapped handler: a rejection is an exception, so it
+ * is not remembered either.
+ */
+public class IdempotentHandler implements Handler {
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+    private final Handler handler;
+    private final IdempotencyStore idempotencyStore;
+    private final long waitMillis;
+    private final Function<Context, String> caller;
+
+    /**
+     * @param handler          the endpoint handler to wrap.
+     * @param idempotencyStore where responses are remembered.
+     * @param waitMillis       how long a duplicate waits for the original request.
+     * @param caller           identifies who sent a request, such as its
+     *                         session's account.
+     */
+    public IdempotentHandler(Handler handler, IdempotencyStore idempotencyStore, long waitMillis,
+            Function<Context, String> caller) {
+        this.handler = handler;
+        this.idempotencyStore = idempotencyStore;
+        this.waitMillis = waitMillis;
+        this.caller = caller;
+    }
+
+    @Override
+    public void handle(Context context) throws Exception {
+        String key = context.header(IDEMPOTENCY_KEY);
+        if (key == null || key.isBlank()) {
+            handler.handle(context);
+            return;
+        }
+        // Keys are only unique per caller and route
+        String scopedKey = caller.apply(context) + " " + context.method() + " " + context.path() + " " + key;
+        String fingerprint = fingerprint(context.bodyAsBytes());
+
+        while (true) {
+            IdempotencyStore.Claim claim = idempotencyStore.claim(scopedKey, fingerprint);
+            if (claim.owner) {
+                execute(context, claim.entry);
+                return;
+            }
+            // Verifying that the key is not being reused for a different request
+            if (!claim.entry.getFingerprint().equals(fingerprint)) {
+                context.status(422);
+                return;
+            }
+            IdempotencyStore.StoredResponse response;
+            try {
+                response = claim.entry.getResponse().get(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // The original request failed and was forgotten; try to claim the key again
+                continue;
+            } catch (TimeoutException e) {
+                context.status(409);
+                return;
+            }
+            Metrics.counter("idempotency.replayed").increment();
+            context.status(response.status);
+            if (response.contentType != null) {
+                context.contentType(response.contentType);
+            }
+            context.header(IDEMPOTENT_REPLAYED, "true");
+            context.result(response.body);
+            return;
+        }
+    }
+
+    /**
+     * Runs the wrapped handler for the owner of a key and records its response.
+     */
+    private void execute(Context context, IdempotencyStore.Entry entry) throws Exception {
+        try {
+            handler.handle(context);
+        } catch (Exception e) {
+            idempotencyStore.abandon(entry);
+            entry.getResponse().completeExceptionally(e);
+            throw e;
+        }
+        if (context.statusCode() >= 500) {
+            idempotencyStore.abandon(entry);
+            entry.getResponse().completeExceptionally(new IllegalStateException("Status " + context.statusCode()));
+            return;
+        }
+        // Read the response bytes once, and put them back for this response
+        InputStream result = context.resultInputStream();
+        byte[] body = result == null ? new byte[0] : result.readAllBytes();
+        context.result(body);
+        entry.getResponse().complete(
+                new IdempotencyStore.StoredResponse(context.statusCode(), context.res().getContentType(), body));
+    }
+
+    private static String fingerprint(byte[] body) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
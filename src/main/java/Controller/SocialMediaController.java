@@ -1,15 +1,45 @@
 package Controller;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.NoSuchFileException;
 import java.util.List;
 
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import DAO.UnitOfWorkException;
 import Model.Account;
 import Model.Message;
+import Model.TrendingTopic;
+import Service.MessageStream;
+import Service.ReadYourWrites;
+import Service.SearchIndex;
+import Service.SocialMedia;
 import Service.SocialMediaService;
+import Util.AppConfig;
+import Util.HealthChecker;
+import Util.IdempotencyStore;
+import Util.LoadSheddingException;
+import Util.Metrics;
+import Util.RateLimitExceededException;
+import Util.RateLimiter;
+import Util.SegmentLog;
+import Util.SessionStore;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.sse.SseClient;
+import jakarta.servlet.ServletOutputStream;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your
@@ -19,10 +49,69 @@ import io.javalin.http.Context;
  * controller may be built.
  */
 public class SocialMediaController {
-    SocialMediaService socialMediaService;
+    private static final Logger logger = LoggerFactory.getLogger(SocialMediaController.class);
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+    private static final String SESSION_TOKEN = "Session-Token";
+    private static final String CHANGES_LAST_OFFSET = "Changes-Last-Offset";
+    /**
+     * Context attribute holding the message of a POST /messages, parsed once
+     * by the rate limit check and reused by the handler.
+     */
+    private static final String POSTED_MESSAGE = "postedMessage";
+    /**
+     * Shared by every request; ObjectMapper is thread-safe once configured.
+     */
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    SocialMedia socialMediaService;
+    RateLimiter rateLimiter;
+    SessionStore sessionStore;
+    IdempotencyStore idempotencyStore;
+    /**
+     * Checks the dependencies in the background while the app is started, so
+     * GET /health and GET /ready answer from its latest result.
+     */
+    HealthChecker healthChecker;
+    /**
+     * When true, message writes must present a session token; when false,
+     * writes without one fall back to checking that posted_by exists.
+     */
+    boolean sessionsRequired;
+    /**
+     * Cleared once shutdown begins, so that GET /ready tells load balancers to
+     * stop routing new requests here while the ones in flight drain.
+     */
+    volatile boolean ready = true;
 
     public SocialMediaController() {
-        socialMediaService = new SocialMediaService();
+        this(new SocialMediaService());
+    }
+
+    /**
+     * @param socialMediaService the service to serve requests with.
+     */
+    public SocialMediaController(SocialMedia socialMediaService) {
+        this(socialMediaService, new RateLimiter(), new SessionStore(), new IdempotencyStore(), new HealthChecker());
+    }
+
+    /**
+     * @param socialMediaService the service to serve requests with.
+     * @param rateLimiter        the per account, IP and global write limits.
+     * @param sessionStore       where login sessions are kept.
+     * @param idempotencyStore   where responses to Idempotency-Key requests are
+     *                           kept.
+     * @param healthChecker      checks the dependencies for the probes; started
+     *                           and stopped with the app.
+     */
+    public SocialMediaController(SocialMedia socialMediaService, RateLimiter rateLimiter,
+            SessionStore sessionStore, IdempotencyStore idempotencyStore, HealthChecker healthChecker) {
+        this.socialMediaService = socialMediaService;
+        this.rateLimiter = rateLimiter;
+        this.sessionStore = sessionStore;
+        this.idempotencyStore = idempotencyStore;
+        this.healthChecker = healthChecker;
+        sessionsRequired = AppConfig.getBoolean("sessions.required", true);
     }
 
     /**
@@ -35,18 +124,157 @@ public class SocialMediaController {
      */
     public Javalin startAPI() {
         Javalin app = Javalin.create();
-        app.post("/register", this::postRegisterAccountHandler);
+        // Counts the requests in flight, so a stop with a timeout waits for them (see GracefulShutdown)
+        app.jettyServer().server().setHandler(new StatisticsHandler());
+        app.events(event -> {
+            event.serverStarted(healthChecker::start);
+            event.serverStopped(healthChecker::close);
+        });
+        // Lets the service scope read-your-writes to the client making the request
+        app.before(context -> ReadYourWrites.setCaller(callerScope(context)));
+        app.after(context -> ReadYourWrites.clearCaller());
+        // POST /messages is rate limited inside its idempotent handler, so replays are not charged
+        app.before("/messages/{message_id}", this::rateLimitWritesHandler);
+        app.exception(RateLimitExceededException.class, this::rateLimitExceededHandler);
+        app.exception(LoadSheddingException.class, this::loadSheddingHandler);
+        app.exception(UnitOfWorkException.class, this::unitOfWorkFailedHandler);
+        app.post("/register", idempotent(this::postRegisterAccountHandler));
         app.post("/login", this::postLoginHandler);
-        app.post("/messages", this::postMessageHandler);
+        app.post("/logout", this::postLogoutHandler);
+        app.post("/messages", idempotent(context -> {
+            rateLimitWritesHandler(context);
+            postMessageHandler(context);
+        }));
         app.get("/messages", this::getAllMessages);
+        app.get("/messages/search", this::getSearchMessagesHandler);
+        app.sse("/messages/stream", this::messageStreamHandler);
         app.get("/messages/{message_id}", this::getMessageByIdHandler);
         app.get("/accounts/{account_id}/messages", this::getAllMessagesByAccountId);
         app.delete("/messages/{message_id}", this::deleteMessageByIdHandler);
         app.patch("/messages/{message_id}", this::patchMessageByIdHandler);
+        app.post("/accounts/{account_id}/following/{followed_id}", this::postFollowHandler);
+        app.get("/accounts/{account_id}/feed", this::getFeedHandler);
+        app.get("/trending", this::getTrendingHandler);
+        app.get("/changes", this::getChangesHandler);
+        app.get("/metrics", this::getMetricsHandler);
+        app.get("/live", this::getLiveHandler);
+        app.get("/ready", this::getReadyHandler);
+        app.get("/health", this::getHealthHandler);
 
         return app;
     }
 
+    /**
+     * Makes GET /ready answer 503 from now on. Requests are still served, so
+     * that those sent before load balancers notice are not refused.
+     */
+    public void beginShutdown() {
+        ready = false;
+    }
+
+    /**
+     * Makes a handler replay its original response to retries that carry the
+     * same Idempotency-Key header, instead of running again.
+     * 
+     * @param handler the endpoint handler to wrap.
+     * @return the wrapped handler.
+     */
+    private Handler idempotent(Handler handler) {
+        return new IdempotentHandler(handler, idempotencyStore, AppConfig.getLong("idempotency.wait_ms", 10_000),
+                this::callerScope);
+    }
+
+    /**
+     * Identifies the caller of a request, for scoping Idempotency-Keys and
+     * read-your-writes: the account of a valid session, or else the client IP
+     * address.
+     * 
+     * @param context the request.
+     * @return the caller's scope.
+     */
+    private String callerScope(Context context) {
+        String authorization = context.header(AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER)) {
+            Integer account_id = sessionStore.getAccountId(authorization.substring(BEARER.length()));
+            if (account_id != null) {
+                return "account:" + account_id;
+            }
+        }
+        return "ip:" + context.ip();
+    }
+
+    /**
+     * Applies the per-IP rate limit to message writes, and the per-account and
+     * then the global limit to new messages. Runs before PATCH requests, and
+     * inside the idempotent handler for POST /messages, so that replays are
+     * not charged. Edits are charged to their poster's account and the global
+     * limit in patchMessageByIdHandler, once the message has been looked up.
+     * The parsed message of a POST is kept as a context attribute, so
+     * postMessageHandler does not parse the body again.
+     * 
+     * @param context object to handle request information and create a response.
+     * @throws RateLimitExceededException if the request is over a rate limit.
+     */
+    private void rateLimitWritesHandler(Context context) {
+        if (context.method() != HandlerType.POST && context.method() != HandlerType.PATCH) {
+            return;
+        }
+        rateLimiter.acquireForIp(context.ip());
+        if (context.method() != HandlerType.POST) {
+            return;
+        }
+
+        // Malformed bodies are left for the endpoint handler to reject
+        Message message;
+        try {
+            message = objectMapper.readValue(context.body(), Message.class);
+        } catch (JsonProcessingException e) {
+            return;
+        }
+        context.attribute(POSTED_MESSAGE, message);
+        // Account ids start at 1, so 0 means the body had no posted_by
+        if (message.getPosted_by() > 0) {
+            rateLimiter.acquireForAccount(message.getPosted_by());
+        }
+    }
+
+    /**
+     * Exception handler that turns a rate limit rejection into a 429 response.
+     * 
+     * @param exception the rejection, holding how long the client should wait.
+     * @param context   object to handle request information and create a response.
+     */
+    private void rateLimitExceededHandler(RateLimitExceededException exception, Context context) {
+        context.header("Retry-After", String.valueOf(exception.getRetryAfterSeconds()));
+        context.status(429);
+    }
+
+    /**
+     * Exception handler that turns a request shed by a concurrency limiter into a
+     * 503 response.
+     * 
+     * @param exception the rejection.
+     * @param context   object to handle request information and create a response.
+     */
+    private void loadSheddingHandler(LoadSheddingException exception, Context context) {
+        context.header("Retry-After", "1");
+        context.status(503);
+    }
+
+    /**
+     * Exception handler that turns a write whose transaction failed and was
+     * rolled back into a 500 response. Nothing was written, so the client may
+     * retry; an Idempotency-Key lets it do so safely.
+     * 
+     * @param exception the failure, wrapping the SQLException that caused it.
+     * @param context   object to handle request information and create a response.
+     */
+    private void unitOfWorkFailedHandler(UnitOfWorkException exception, Context context) {
+        Metrics.counter("transactions.failed_requests").increment();
+        logger.error("{} {} failed and was rolled back", context.method(), context.path(), exception);
+        context.status(500);
+    }
+
     /**
      * POST handler to register a new account.
      * 
@@ -56,7 +284,6 @@ public class SocialMediaController {
      */
     private void postRegisterAccountHandler(Context context) throws JsonProcessingException {
         // Convert JSON in POST request to Account object
-        ObjectMapper objectMapper = new ObjectMapper();
         Account newAccount = objectMapper.readValue(context.body(), Account.class);
 
         String username = newAccount.getUsername();
@@ -87,24 +314,33 @@ public class SocialMediaController {
      */
     private void postLoginHandler(Context context) throws JsonProcessingException {
         // Convert JSON in POST request to Account object
-        ObjectMapper objectMapper = new ObjectMapper();
         Account account = objectMapper.readValue(context.body(), Account.class);
 
-        // Searching for matching account in database by username
-        Account matchingAccount = socialMediaService.getAccountByUsername(account.getUsername());
-
-        // Verifying that username exists in database
+        // Verifying the username and password against the database
+        Account matchingAccount = socialMediaService.login(account.getUsername(), account.getPassword());
         if (matchingAccount == null) {
             context.status(401);
-        }
-        // Verifying password matches username
-        else if (!matchingAccount.getPassword().equals(account.getPassword())) {
-            context.status(401);
         } else {
+            // Start a session that authenticates later writes by this account
+            context.header(SESSION_TOKEN, sessionStore.create(matchingAccount.getAccount_id()));
             context.json(matchingAccount).status(200);
         }
     }
 
+    /**
+     * POST handler to end the session given in the Authorization header.
+     * Logging out of a session that does not exist is not an error.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void postLogoutHandler(Context context) {
+        String authorization = context.header(AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER)) {
+            sessionStore.remove(authorization.substring(BEARER.length()));
+        }
+        context.status(200);
+    }
+
     /**
      * POST handler for creating new messages.
      * 
@@ -113,30 +349,55 @@ public class SocialMediaController {
      *                                 json to an Message object.
      */
     private void postMessageHandler(Context context) throws JsonProcessingException {
-        // Convert JSON in POST request to Message object
-        ObjectMapper objectMapper = new ObjectMapper();
-        Message message = objectMapper.readValue(context.body(), Message.class);
-
-        // Fetching matching user account for account verification
-        Account matchingAccount = socialMediaService.getAccountById(message.getPosted_by());
-
-        // Verifying that the message is posted by an existing user
-        if (matchingAccount == null) {
-            context.status(400);
+        // Convert JSON in POST request to Message object, unless the rate limit check already has
+        Message message = context.attribute(POSTED_MESSAGE);
+        if (message == null) {
+            message = objectMapper.readValue(context.body(), Message.class);
         }
+
         // Verifying that message is not blank
-        else if (message.getMessage_text().isBlank()) {
+        if (message.getMessage_text().isBlank()) {
             context.status(400);
         }
         // Verifying that message is less than 255 characters
         else if (message.getMessage_text().length() > 255) {
             context.status(400);
+        }
+        // Verifying that the message is posted by the logged in user, or by an
+        // existing user when sessions are not required and none is presented
+        else if (!isAuthorizedFor(context, message.getPosted_by())) {
+            // An unknown posted_by is a client error; a missing or wrong session is unauthorized
+            context.status(context.header(AUTHORIZATION) == null
+                    && socialMediaService.getAccountById(message.getPosted_by()) == null ? 400 : 401);
         } else {
             message = socialMediaService.postMessage(message);
             context.json(message).status(200);
         }
     }
 
+    /**
+     * Checks whether a request may write on behalf of an account.
+     * 
+     * A request carrying an "Authorization: Bearer {token}" header is checked
+     * against the in-memory session store only, with no database lookup. A
+     * request without one is refused, unless "sessions.required" has been
+     * turned off, and then only allowed for an account that exists in the
+     * database.
+     * 
+     * @param context    the request.
+     * @param account_id the account the request writes on behalf of.
+     * @return true if the write is allowed.
+     */
+    private boolean isAuthorizedFor(Context context, int account_id) {
+        String authorization = context.header(AUTHORIZATION);
+        if (authorization != null) {
+            String token = authorization.startsWith(BEARER) ? authorization.substring(BEARER.length()) : null;
+            Integer session_account_id = sessionStore.getAccountId(token);
+            return session_account_id != null && session_account_id == account_id;
+        }
+        return !sessionsRequired && socialMediaService.getAccountById(account_id) != null;
+    }
+
     /**
      * GET handler for fetching all messages from the database.
      * 
@@ -148,6 +409,77 @@ public class SocialMediaController {
         context.json(messages).status(200);
     }
 
+    /**
+     * GET handler for searching the text of all messages. The "q" query parameter
+     * holds the words to search for, and the optional "offset" and "limit" query
+     * parameters select a page of the ranked results, no deeper than
+     * SearchIndex.MAX_RESULTS.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getSearchMessagesHandler(Context context) {
+        String query = context.queryParam("q");
+        String offsetParam = context.queryParam("offset");
+        String limitParam = context.queryParam("limit");
+        int offset = offsetParam == null ? 0 : Integer.parseInt(offsetParam);
+        int limit = limitParam == null ? 20 : Integer.parseInt(limitParam);
+
+        // Verifying that a query was provided and the page is valid
+        if (query == null || query.isBlank() || offset < 0 || limit < 1 || limit > 100
+                || offset > SearchIndex.MAX_RESULTS - limit) {
+            context.status(400);
+        } else {
+            List<Message> messages = socialMediaService.searchMessages(query, offset, limit);
+            context.json(messages).status(200);
+        }
+    }
+
+    /**
+     * Server-sent events handler that pushes every posted, edited and deleted
+     * message to the client as it happens, as "created", "updated" and
+     * "deleted" events whose data is the message JSON. The optional
+     * "account_id" query parameter limits the stream to that account's
+     * messages. Clients that fall too far behind are disconnected.
+     * 
+     * @param client the connected event stream client.
+     */
+    private void messageStreamHandler(SseClient client) {
+        String accountParam = client.ctx.queryParam("account_id");
+        Integer account_id;
+        ServletOutputStream output;
+        try {
+            account_id = accountParam == null ? null : Integer.valueOf(accountParam);
+            output = client.ctx.res().getOutputStream();
+        } catch (NumberFormatException | IOException e) {
+            // The stream has already started, so all that is left is to end it
+            client.close();
+            return;
+        }
+
+        client.keepAlive();
+        MessageStream.Subscription subscription = socialMediaService.subscribeToMessages(account_id,
+                new MessageStream.Sink() {
+                    @Override
+                    public void send(byte[] frame) throws IOException {
+                        output.write(frame);
+                        output.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        client.close();
+                    }
+
+                    @Override
+                    public void abort() {
+                        // Closing the connection fails a write blocked on it
+                        Request.getBaseRequest(client.ctx.req()).getHttpChannel().getEndPoint().close();
+                        client.close();
+                    }
+                });
+        client.onClose(subscription::cancel);
+    }
+
     /**
      * GET handler for fetching the message with the matching message_id from the
      * database.
@@ -156,7 +488,7 @@ public class SocialMediaController {
      */
     private void getMessageByIdHandler(Context context) {
         // Get message_id from path parameter
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
+        long message_id = Long.parseLong(context.pathParam("message_id"));
 
         Message message = socialMediaService.getMessageById(message_id);
         if (message == null) {
@@ -174,9 +506,16 @@ public class SocialMediaController {
      */
     private void deleteMessageByIdHandler(Context context) {
         // Get message_id from path parameter
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
+        long message_id = Long.parseLong(context.pathParam("message_id"));
 
-        Message message = socialMediaService.getMessageById(message_id);
+        Message originalMessage = socialMediaService.getMessageById(message_id);
+        // Verifying that the request's session belongs to the message's poster
+        if (originalMessage != null && !isAuthorizedFor(context, originalMessage.getPosted_by())) {
+            context.status(401);
+            return;
+        }
+
+        Message message = socialMediaService.deleteMessageById(message_id);
         if (message == null) {
             context.status(200);
         } else {
@@ -194,26 +533,29 @@ public class SocialMediaController {
      */
     private void patchMessageByIdHandler(Context context) throws JsonProcessingException {
         // Convert JSON in POST request to Message object
-        ObjectMapper objectMapper = new ObjectMapper();
         Message updatedMessage = objectMapper.readValue(context.body(), Message.class);
 
         // Get message_text from request body
         String message_text = updatedMessage.getMessage_text();
         // Get message_id from path parameter
-        int message_id = Integer.parseInt(context.pathParam("message_id"));
+        long message_id = Long.parseLong(context.pathParam("message_id"));
 
         Message originalMessage = socialMediaService.getMessageById(message_id);
         // Verifying message with matching message_id was found in database
         if (originalMessage == null) {
             context.status(400);
+            return;
         }
-        // Verifying that message_text is not blank
-        else if (message_text.isBlank()) {
+        // Edits count against the rate limit of the message's poster
+        rateLimiter.acquireForAccount(originalMessage.getPosted_by());
+
+        // Verifying that message_text is not blank and less than 255 characters
+        if (message_text.isBlank() || message_text.length() > 255) {
             context.status(400);
         }
-        // Verifying message length is less than 255 characters
-        else if (message_text.length() > 255) {
-            context.status(400);
+        // Verifying that the request's session belongs to the message's poster
+        else if (!isAuthorizedFor(context, originalMessage.getPosted_by())) {
+            context.status(401);
         } else {
             updatedMessage = socialMediaService.updateMessageById(message_id, message_text);
             context.json(updatedMessage).status(200);
@@ -222,7 +564,10 @@ public class SocialMediaController {
 
     /**
      * GET handler for fetching all messages from the database belonging to the
-     * account that has a matching account_id.
+     * account that has a matching account_id. With a "limit" query parameter
+     * (1 to 100), or a "before" message_id, only one page of messages is
+     * returned, highest message_id first; the last message_id of a page is the
+     * "before" of the next.
      * 
      * @param context object to handle request information and create a response.
      */
@@ -230,9 +575,24 @@ public class SocialMediaController {
 
         // Get account_id value from the path parameter
         int account_id = Integer.parseInt(context.pathParam("account_id"));
+        String beforeParam = context.queryParam("before");
+        String limitParam = context.queryParam("limit");
+
+        List<Message> messages;
+        if (beforeParam == null && limitParam == null) {
+            // Retrieve list of all messages with a posted_by value matching the account_id
+            messages = socialMediaService.getAllMessagesByAccountId(account_id);
+        } else {
+            long before = beforeParam == null ? Long.MAX_VALUE : Long.parseLong(beforeParam);
+            int limit = limitParam == null ? 50 : Integer.parseInt(limitParam);
 
-        // Retrieve list of all messages with a posted_by value matching the account_id
-        List<Message> messages = socialMediaService.getAllMessagesByAccountId(account_id);
+            // Verifying that the limit is valid
+            if (limit < 1 || limit > 100) {
+                context.status(400);
+                return;
+            }
+            messages = socialMediaService.getMessagesByAccountIdBefore(account_id, before, limit);
+        }
 
         // Verifying that messages for the specified account exist
         if (messages == null) {
@@ -242,4 +602,210 @@ public class SocialMediaController {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * POST handler for making the account matching account_id follow the account
+     * matching followed_id.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void postFollowHandler(Context context) {
+        // Get account_id and followed_id values from the path parameters
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        int followed_id = Integer.parseInt(context.pathParam("followed_id"));
+
+        // Verifying that the account is not following itself
+        if (account_id == followed_id) {
+            context.status(400);
+        }
+        // Verifying that both accounts exist
+        else if (socialMediaService.getAccountById(account_id) == null
+                || socialMediaService.getAccountById(followed_id) == null) {
+            context.status(400);
+        }
+        // Verifying that the follow was recorded and did not already exist
+        else if (!socialMediaService.followAccount(account_id, followed_id)) {
+            context.status(400);
+        } else {
+            context.status(200);
+        }
+    }
+
+    /**
+     * GET handler for fetching the home feed of the account that has a matching
+     * account_id. An optional "limit" query parameter caps the number of
+     * messages returned, from 1 to 100.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getFeedHandler(Context context) {
+        // Get account_id value from the path parameter
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        String limitParam = context.queryParam("limit");
+        int limit = limitParam == null ? 50 : Integer.parseInt(limitParam);
+
+        // Verifying that the limit is valid
+        if (limit < 1 || limit > 100) {
+            context.status(400);
+            return;
+        }
+        List<Message> feed = socialMediaService.getFeed(account_id, limit);
+        if (feed == null) {
+            context.status(200);
+        } else {
+            context.json(feed).status(200);
+        }
+    }
+
+    /**
+     * GET handler for fetching trending topics. The optional "type" query
+     * parameter selects "hashtags" (the default) or "mentions", and the optional
+     * "limit" query parameter caps the number of topics returned.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getTrendingHandler(Context context) {
+        String type = context.queryParamAsClass("type", String.class).getOrDefault("hashtags");
+        String limitParam = context.queryParam("limit");
+        int limit = limitParam == null ? 10 : Integer.parseInt(limitParam);
+
+        // Verifying that the topic type and limit are valid
+        if (!type.equals("hashtags") && !type.equals("mentions")) {
+            context.status(400);
+        } else if (limit < 1 || limit > 100) {
+            context.status(400);
+        } else {
+            List<TrendingTopic> topics = socialMediaService.getTrending(type.equals("mentions"), limit);
+            context.json(topics).status(200);
+        }
+    }
+
+    /**
+     * GET handler for following message changes. The optional "since" query
+     * parameter is the offset of the last change already read (default 0),
+     * "limit" caps the number of changes returned (default 1000), and
+     * "wait_ms" is how long to wait for a change when there is none yet
+     * (default 0, at most 30000), so consumers can long poll.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getChangesHandler(Context context) throws IOException {
+        long since = context.queryParamAsClass("since", Long.class).getOrDefault(0L);
+        int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(1000);
+        long wait_ms = context.queryParamAsClass("wait_ms", Long.class).getOrDefault(0L);
+
+        // Verifying that the offset, batch size and wait are valid
+        if (since < 0 || limit < 1 || limit > 10_000 || wait_ms < 0 || wait_ms > 30_000) {
+            context.status(400);
+        } else if (wait_ms == 0) {
+            writeChanges(context, since, limit);
+        } else {
+            // Wait without holding a server thread, then answer with whatever is there
+            context.future(() -> socialMediaService.awaitChanges(since, wait_ms).thenAccept(ignored -> {
+                try {
+                    writeChanges(context, since, limit);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Sends the changes after an offset as newline-delimited JSON, straight
+     * from the change log file. The "Changes-Last-Offset" header holds the
+     * offset to pass as "since" next time. Responds 410 if the changes after
+     * the offset are no longer kept.
+     * 
+     * @param context object to handle request information and create a response.
+     * @param since   the offset of the last change already read.
+     * @param limit   the most changes to send.
+     * @throws IOException if the changes could not be sent.
+     */
+    private void writeChanges(Context context, long since, int limit) throws IOException {
+        SegmentLog.Slice changes = socialMediaService.getChanges(since, limit);
+        if (changes == null) {
+            context.status(410);
+            return;
+        }
+        MappedByteBuffer records = null;
+        if (changes.getByteCount() > 0) {
+            try {
+                records = changes.map();
+            } catch (NoSuchFileException e) {
+                // The segment was deleted after it was found
+                context.status(410);
+                return;
+            }
+        }
+        context.status(200).contentType("application/x-ndjson")
+                .header(CHANGES_LAST_OFFSET, String.valueOf(changes.getLastOffset()));
+        context.res().setContentLengthLong(changes.getByteCount());
+        if (records == null) {
+            return;
+        }
+        ServletOutputStream output = context.res().getOutputStream();
+        if (output instanceof HttpOutput) {
+            // Jetty writes the mapped file pages to the socket without copying them
+            ((HttpOutput) output).sendContent(records);
+        } else {
+            changes.transferTo(Channels.newChannel(output));
+        }
+    }
+
+    /**
+     * GET handler for reading the current value of every registered metric.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getMetricsHandler(Context context) {
+        context.json(Metrics.snapshot()).status(200);
+    }
+
+    /**
+     * GET handler for liveness checks: answers 200 as long as the server can
+     * serve requests at all, including while it shuts down.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getLiveHandler(Context context) {
+        context.result("OK").status(200);
+    }
+
+    /**
+     * GET handler for readiness checks: answers 200 while the server should
+     * receive new work, and 503 with the reason once shutdown has begun or the
+     * latest health check found the database unreachable or the concurrency
+     * limits saturated over several checks. Answered from memory, without
+     * touching the database.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getReadyHandler(Context context) {
+        String problem = ready ? healthChecker.getProblem() : "Shutting down";
+        if (problem == null) {
+            context.result("OK").status(200);
+        } else {
+            context.result(problem).status(503);
+        }
+    }
+
+    /**
+     * GET handler for the latest health check report: the status of every
+     * database, and the connection pool, concurrency, queue and cache
+     * figures. Answers 200 if the report is recent and every database was
+     * reachable, 503 otherwise. The report is serialized once per check, so
+     * this only copies bytes.
+     * 
+     * @param context object to handle request information and create a response.
+     */
+    private void getHealthHandler(Context context) {
+        HealthChecker.Result result = healthChecker.getResult();
+        if (result == null) {
+            context.result("Not checked yet").status(503);
+            return;
+        }
+        context.contentType("application/json").result(result.getJson())
+                .status(healthChecker.isHealthy() ? 200 : 503);
+    }
+
+}
@@ -0,0 +1,27 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import Model.Account;
+
+/**
+ * Maps account rows selected with COLUMNS to Account objects.
+ */
+public class AccountRowMapper implements RowMapper<Account> {
+    /**
+     * The columns queries must select, in this order, e.g.
+     * "SELECT " + AccountRowMapper.COLUMNS + " FROM account".
+     */
+    public static final String COLUMNS = "account_id, username, password";
+
+    public static final AccountRowMapper INSTANCE = new AccountRowMapper();
+
+    @Override
+    public Account map(ResultSet resultSet) throws SQLException {
+        return new Account(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getString(3));
+    }
+}
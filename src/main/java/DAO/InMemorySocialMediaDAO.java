@@ -0,0 +1,998 @@
+package DAO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Account;
+import Model.Message;
+import Util.AppConfig;
+import Util.Metrics;
+import Util.SnowflakeIdGenerator;
+import Util.WriteAheadLog;
+
+/**
+ * A SocialMediaDAO that keeps accounts, messages and follows in memory, for
+ * nodes where even an embedded database commit is too slow.
+ *
+ * Reads go straight to concurrent maps and never block. Writes are applied
+ * one at a time and appended to a memory-mapped WriteAheadLog, and each DAO
+ * call returns once its record is on disk; concurrent writers share fsyncs.
+ * A record holds the whole new state of what changed, so replaying a record
+ * that is already part of the state is harmless. If a transaction fails, the
+ * records that undo its changes are appended too, so replaying the log ends in
+ * the state from before the transaction.
+ *
+ * The log is split into two segments, of which writes go to one at a time.
+ * When it is half full, and every "storage.compaction_interval_ms" (default
+ * 60000) if it holds anything, the state is copied and writes switch to the
+ * other segment; both take only a moment under the write lock. The copy is
+ * then written to a snapshot file on the compaction thread, and the retired
+ * segment emptied, while writes continue. A writer only waits for a snapshot
+ * if it fills the new segment before the snapshot is done. Each segment
+ * starts with its generation, so startup loads the snapshot and replays the
+ * segments oldest first. When the directory holds neither, the store is
+ * filled from the configured database first, so a node can switch to memory
+ * mode without losing data; message tags are not imported, since nothing
+ * reads them back.
+ *
+ * Files live in "storage.dir" (default "store"); each segment is
+ * "storage.wal_bytes" long (default 64 MiB) and "storage.fsync" (default
+ * true) controls whether writes wait for the disk. Only one instance may use
+ * a directory: opening it again closes the previous instance.
+ */
+public class InMemorySocialMediaDAO extends SocialMediaDAO {
+    private static final byte PUT_ACCOUNT = 1;
+    private static final byte PUT_MESSAGE = 2;
+    private static final byte DELETE_MESSAGE = 3;
+    private static final byte PUT_FOLLOW = 4;
+    private static final byte PUT_TAGS = 5;
+    private static final byte SEGMENT = 6;
+    private static final byte DELETE_ACCOUNT = 7;
+    private static final byte DELETE_FOLLOW = 8;
+    private static final byte DELETE_TAGS = 9;
+    private static final int SNAPSHOT_MAGIC = 0x534D5331;
+    private static final Logger logger = LoggerFactory.getLogger(InMemorySocialMediaDAO.class);
+    private static final Map<Path, InMemorySocialMediaDAO> open = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Account> accountsByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Message> messages = new ConcurrentSkipListMap<>();
+    private final Map<Integer, ConcurrentSkipListMap<Long, Message>> messagesByAccount = new ConcurrentHashMap<>();
+    /**
+     * Followed account_id to the account_ids following it, and the reverse.
+     */
+    private final Map<Integer, Set<Integer>> followers = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> following = new ConcurrentHashMap<>();
+    private final Map<Long, List<List<String>>> tags = new ConcurrentHashMap<>();
+
+    /**
+     * Held while changing the state, so records reach the log in the order
+     * their changes were applied.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * The position in each log segment a running transaction must wait for
+     * before it returns.
+     */
+    private final ThreadLocal<long[]> transactionPositions = new ThreadLocal<>();
+    /**
+     * The records that undo the running transaction's changes so far, in the
+     * order they were made.
+     */
+    private final ThreadLocal<List<byte[]>> transactionUndo = new ThreadLocal<>();
+    /**
+     * Held while writing a snapshot, so compactions finish one at a time.
+     */
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final Path directory;
+    private final WriteAheadLog[] segments = new WriteAheadLog[2];
+    private final ScheduledExecutorService compactor;
+    /**
+     * The index of the segment being written to.
+     */
+    private int active;
+    private long generation;
+    private int nextAccountId = 1;
+    private long nextMessageId = 1;
+    private boolean compactionScheduled;
+    /**
+     * The compaction whose snapshot is not written yet; the other segment is
+     * only reused once it is.
+     */
+    private volatile Compaction pendingCompaction;
+
+    /**
+     * Opens the store configured by "storage.dir", "storage.wal_bytes",
+     * "storage.fsync" and "storage.compaction_interval_ms".
+     */
+    public InMemorySocialMediaDAO() {
+        this(Paths.get(AppConfig.getString("storage.dir", "store")),
+                AppConfig.getInt("storage.wal_bytes", 64 * 1024 * 1024),
+                AppConfig.getBoolean("storage.fsync", true),
+                AppConfig.getLong("storage.compaction_interval_ms", 60_000),
+                configuredMessageIds());
+    }
+
+    /**
+     * @param directory            where the snapshot and log are kept.
+     * @param walBytes             the size of the log file.
+     * @param fsync                whether writes wait for the disk.
+     * @param compactionIntervalMs how often to compact a non-empty log, or 0
+     *                             to only compact when it is half full.
+     * @param messageIds           generator for new message ids, or null for
+     *                             sequential ids.
+     */
+    public InMemorySocialMediaDAO(Path directory, int walBytes, boolean fsync, long compactionIntervalMs,
+            SnowflakeIdGenerator messageIds) {
+        super(messageIds);
+        this.directory = directory.toAbsolutePath().normalize();
+        InMemorySocialMediaDAO previous = open.put(this.directory, this);
+        if (previous != null) {
+            previous.close();
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "store-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(this.directory);
+            Path snapshot = snapshotFile();
+            boolean empty = !Files.exists(snapshot) && !Files.exists(segmentFile(0));
+            if (Files.exists(snapshot)) {
+                loadSnapshot(snapshot);
+            }
+            for (int segment = 0; segment < segments.length; segment++) {
+                segments[segment] = new WriteAheadLog(segmentFile(segment), walBytes, fsync);
+            }
+            // Replay the older segment first; an empty segment has no generation and nothing to replay
+            long[] generations = { segmentGeneration(segments[0]), segmentGeneration(segments[1]) };
+            active = generations[1] > generations[0] ? 1 : 0;
+            segments[1 - active].forEach(this::apply);
+            segments[active].forEach(this::apply);
+            if (empty) {
+                importDatabase();
+                compact();
+            } else if (segments[1 - active].size() > 0) {
+                // A compaction was cut off before its snapshot was written; redo it before reusing the segment
+                writeLock.lock();
+                try {
+                    pendingCompaction = new Compaction(this, segments[1 - active]);
+                } finally {
+                    writeLock.unlock();
+                }
+                finishCompaction(pendingCompaction);
+            }
+        } catch (IOException e) {
+            compactor.shutdownNow();
+            throw new UncheckedIOException("Could not open store in " + this.directory, e);
+        }
+
+        if (compactionIntervalMs > 0) {
+            compactor.scheduleWithFixedDelay(this::compactIfNotEmpty, compactionIntervalMs, compactionIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        Metrics.gauge("storage.wal_bytes_used", () -> segments[0].size() + segments[1].size());
+    }
+
+    /**
+     * Runs work holding the write lock, so other writers see all of its changes
+     * or none. Changes are applied as they happen, and readers outside the lock
+     * may see them early; if the work throws, they are undone by writing
+     * records that restore what they replaced, before the lock is released.
+     * The records are made durable together when the outermost transaction
+     * returns or throws.
+     */
+    @Override
+    public <T> T inTransaction(int shard, UnitOfWork.Work<T> work) {
+        writeLock.lock();
+        boolean outermost = transactionUndo.get() == null;
+        if (outermost) {
+            transactionUndo.set(new ArrayList<>());
+        }
+        try {
+            return work.execute();
+        } catch (SQLException e) {
+            if (outermost) {
+                rollBack(e);
+            }
+            throw new UnitOfWorkException(e);
+        } catch (RuntimeException e) {
+            if (outermost) {
+                rollBack(e);
+            }
+            throw e;
+        } finally {
+            if (outermost) {
+                transactionUndo.remove();
+            }
+            writeLock.unlock();
+            if (outermost) {
+                long[] positions = transactionPositions.get();
+                transactionPositions.remove();
+                if (positions != null) {
+                    for (int segment = 0; segment < segments.length; segment++) {
+                        segments[segment].awaitDurable(positions[segment]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Undoes the running transaction's changes, newest first. Must hold the
+     * write lock.
+     *
+     * @param cause the failure of the transaction, which a failure to undo is
+     *              added to.
+     */
+    private void rollBack(Exception cause) {
+        List<byte[]> undo = transactionUndo.get();
+        // The undo records themselves are not undone
+        transactionUndo.set(null);
+        try {
+            for (int i = undo.size() - 1; i >= 0; i--) {
+                awaitDurable(writeRecord(undo.get(i)));
+            }
+            Metrics.counter("storage.rollbacks").increment();
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public Account insertNewAccount(Account account) {
+        writeLock.lock();
+        Account inserted;
+        long position;
+        try {
+            if (account.getUsername() == null || accountsByUsername.containsKey(account.getUsername())) {
+                return null;
+            }
+            inserted = new Account(nextAccountId, account.getUsername(), account.getPassword());
+            position = write(PUT_ACCOUNT, out -> writeAccount(out, inserted));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return inserted;
+    }
+
+    @Override
+    public Account getAccountById(int account_id) {
+        return accounts.get(account_id);
+    }
+
+    @Override
+    public Account getAccountByUsername(String username) {
+        return username == null ? null : accountsByUsername.get(username);
+    }
+
+    @Override
+    public void updateAccountPassword(int account_id, String password) {
+        writeLock.lock();
+        long position;
+        try {
+            Account account = accounts.get(account_id);
+            if (account == null) {
+                return;
+            }
+            position = write(PUT_ACCOUNT, out -> writeAccount(out, account.withPassword(password)));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public Message insertNewMessage(Message message) {
+        writeLock.lock();
+        Message inserted;
+        long position;
+        try {
+            if (!accounts.containsKey(message.getPosted_by())) {
+                return null;
+            }
+            long message_id = messageIds != null
+                    ? messageIds.nextId(Sharding.shardForAccount(message.getPosted_by()))
+                    : nextMessageId;
+            inserted = message.withMessage_id(message_id);
+            position = write(PUT_MESSAGE, out -> writeMessage(out, inserted));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return inserted;
+    }
+
+    @Override
+    public Message getMessageById(long message_id) {
+        return messages.get(message_id);
+    }
+
+    @Override
+    public Message deleteMessageById(long message_id) {
+        writeLock.lock();
+        Message deleted;
+        long position;
+        try {
+            deleted = messages.get(message_id);
+            if (deleted == null) {
+                return null;
+            }
+            position = write(DELETE_MESSAGE, out -> out.writeLong(message_id));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return deleted;
+    }
+
+    @Override
+    public void updateMessageById(long message_id, String message_text) {
+        writeLock.lock();
+        long position;
+        try {
+            Message message = messages.get(message_id);
+            if (message == null) {
+                return;
+            }
+            Message updated = new Message(message_id, message.getPosted_by(), message_text,
+                    message.getTime_posted_epoch());
+            position = write(PUT_MESSAGE, out -> writeMessage(out, updated));
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return new ArrayList<>(messages.values());
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountId(int account_id) {
+        Map<Long, Message> posted = messagesByAccount.get(account_id);
+        return posted == null ? new ArrayList<>() : new ArrayList<>(posted.values());
+    }
+
+    @Override
+    public boolean insertFollow(int follower_id, int followed_id) {
+        writeLock.lock();
+        long position;
+        try {
+            Set<Integer> followed = following.get(follower_id);
+            if (!accounts.containsKey(follower_id) || !accounts.containsKey(followed_id)
+                    || (followed != null && followed.contains(followed_id))) {
+                return false;
+            }
+            position = write(PUT_FOLLOW, out -> {
+                out.writeInt(follower_id);
+                out.writeInt(followed_id);
+            });
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public Map<Integer, Integer> getFollowedAccountFollowerCounts(int follower_id) {
+        Map<Integer, Integer> followerCounts = new HashMap<>();
+        for (Integer followed_id : following.getOrDefault(follower_id, Set.of())) {
+            followerCounts.put(followed_id, followers.getOrDefault(followed_id, Set.of()).size());
+        }
+        return followerCounts;
+    }
+
+    @Override
+    public List<Integer> getFollowerIds(int followed_id) {
+        return new ArrayList<>(followers.getOrDefault(followed_id, Set.of()));
+    }
+
+    @Override
+    public List<Message> getRecentMessagesByAccountId(int account_id, int limit) {
+        Map<Long, Message> posted = messagesByAccount.get(account_id);
+        if (posted == null) {
+            return new ArrayList<>();
+        }
+        return posted.values().stream()
+                .sorted(Comparator.comparingLong(Message::getTime_posted_epoch)
+                        .thenComparingLong(Message::getMessage_id).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountIdBefore(int account_id, long before_message_id, int limit) {
+        ConcurrentSkipListMap<Long, Message> posted = messagesByAccount.get(account_id);
+        if (posted == null) {
+            return new ArrayList<>();
+        }
+        return posted.headMap(before_message_id).descendingMap().values().stream()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void replaceMessageTags(long message_id, Collection<String> hashtags, Collection<String> mentions) {
+        writeLock.lock();
+        long position;
+        try {
+            if (!messages.containsKey(message_id)) {
+                return;
+            }
+            position = write(PUT_TAGS, out -> {
+                out.writeLong(message_id);
+                writeStrings(out, hashtags);
+                writeStrings(out, mentions);
+            });
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(position);
+    }
+
+    /**
+     * Saves the whole state to the snapshot file and empties the log segment
+     * it was logged in. Writes wait only while the state is copied.
+     *
+     * @throws IOException if the snapshot could not be written; the segment is
+     *                     then kept, and the next compaction tries again.
+     */
+    public void compact() throws IOException {
+        while (true) {
+            Compaction compaction;
+            boolean started = false;
+            writeLock.lock();
+            try {
+                compaction = pendingCompaction;
+                if (compaction == null) {
+                    compaction = startCompaction();
+                    started = true;
+                }
+            } finally {
+                compactionScheduled = false;
+                writeLock.unlock();
+            }
+            finishCompaction(compaction);
+            // Finishing an earlier compaction only saved the state up to its copy
+            if (started) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops background compaction and closes the log. The state stays
+     * readable, but the instance must not be written to anymore.
+     */
+    @Override
+    public void close() {
+        open.remove(directory, this);
+        compactor.shutdownNow();
+        // A snapshot cut off here is redone on the next start; one still finishing must not outlive the instance
+        try {
+            compactor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (WriteAheadLog segment : segments) {
+            if (segment != null) {
+                segment.close();
+            }
+        }
+    }
+
+    private Path snapshotFile() {
+        return directory.resolve("snapshot.bin");
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve("wal-" + segment + ".log");
+    }
+
+    private void compactIfNotEmpty() {
+        try {
+            if (segments[0].size() > 0 || segments[1].size() > 0) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            compactionFailed(e);
+        }
+    }
+
+    /**
+     * Encodes a record, applies it to the state and appends it to the active
+     * log segment, switching segments first if it is full. Must hold the
+     * write lock.
+     *
+     * @return the log position to wait for, with the segment in its lowest
+     *         bit.
+     */
+    private long write(byte type, RecordWriter writer) {
+        try {
+            return writeRecord(encode(type, writer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Applies an encoded record and appends it to the active log segment,
+     * first noting how to undo it if a transaction is running. Must hold the
+     * write lock.
+     *
+     * @return the log position to wait for, with the segment in its lowest
+     *         bit.
+     */
+    private long writeRecord(byte[] record) {
+        WriteAheadLog log = segments[active];
+        try {
+            List<byte[]> undo = transactionUndo.get();
+            if (undo != null) {
+                undo.addAll(undoRecords(record));
+            }
+            if (!log.hasRoom(record.length)) {
+                // Only waits for a snapshot if the previous one is still being written
+                Compaction previous = pendingCompaction;
+                if (previous != null) {
+                    finishCompaction(previous);
+                }
+                Compaction compaction = startCompaction();
+                compactor.execute(() -> finishQuietly(compaction));
+                log = segments[active];
+            }
+            if (log.size() == 0) {
+                log.append(encode(SEGMENT, out -> out.writeLong(++generation)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long position = log.append(record);
+        apply(ByteBuffer.wrap(record));
+        // Compact in the background well before the log fills up
+        if (!compactionScheduled && pendingCompaction == null && log.size() > log.capacity() / 2) {
+            compactionScheduled = true;
+            compactor.execute(this::compactIfNotEmpty);
+        }
+        return position << 1 | active;
+    }
+
+    /**
+     * Waits for a write's record to be durable, or leaves that to the
+     * surrounding transaction.
+     *
+     * @param written the value returned by write.
+     */
+    private void awaitDurable(long written) {
+        int segment = (int) (written & 1);
+        long position = written >>> 1;
+        if (writeLock.isHeldByCurrentThread()) {
+            long[] positions = transactionPositions.get();
+            if (positions == null) {
+                positions = new long[segments.length];
+                transactionPositions.set(positions);
+            }
+            positions[segment] = Math.max(positions[segment], position);
+        } else {
+            segments[segment].awaitDurable(position);
+        }
+    }
+
+    /**
+     * Copies the state and switches writes to the other log segment, which
+     * must be empty. Must hold the write lock.
+     */
+    private Compaction startCompaction() {
+        Compaction compaction = new Compaction(this, segments[active]);
+        active = 1 - active;
+        pendingCompaction = compaction;
+        return compaction;
+    }
+
+    /**
+     * Writes a compaction's copy to the snapshot file and empties the segment
+     * it retired, unless that has been done already. Needs no write lock.
+     */
+    private void finishCompaction(Compaction compaction) throws IOException {
+        snapshotLock.lock();
+        try {
+            if (compaction.finished) {
+                return;
+            }
+            Path temporary = directory.resolve("snapshot.tmp");
+            FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)));
+                compaction.writeTo(out);
+                out.flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary, snapshotFile(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // The retired segment's records are all in the snapshot now
+            compaction.retired.clear();
+            compaction.finished = true;
+            pendingCompaction = null;
+            Metrics.counter("storage.compactions").increment();
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    private void finishQuietly(Compaction compaction) {
+        try {
+            finishCompaction(compaction);
+        } catch (IOException | RuntimeException e) {
+            compactionFailed(e);
+        }
+    }
+
+    /**
+     * Counts and logs a background compaction that failed; the next one tries
+     * again.
+     */
+    private void compactionFailed(Exception e) {
+        Metrics.counter("storage.compaction_failures").increment();
+        logger.warn("Compaction of {} failed", directory, e);
+    }
+
+    /**
+     * @param record a record about to be applied.
+     * @return the records that restore what it changes, in the order to write
+     *         them when undoing it after later records were undone.
+     * @throws IOException if the record is malformed.
+     */
+    private List<byte[]> undoRecords(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        List<byte[]> undo = new ArrayList<>(2);
+        switch (in.readByte()) {
+            case PUT_ACCOUNT:
+                int account_id = in.readInt();
+                Account account = accounts.get(account_id);
+                undo.add(account != null ? encode(PUT_ACCOUNT, out -> writeAccount(out, account))
+                        : encode(DELETE_ACCOUNT, out -> out.writeInt(account_id)));
+                break;
+            case PUT_MESSAGE:
+                long message_id = in.readLong();
+                Message message = messages.get(message_id);
+                undo.add(message != null ? encode(PUT_MESSAGE, out -> writeMessage(out, message))
+                        : encode(DELETE_MESSAGE, out -> out.writeLong(message_id)));
+                break;
+            case DELETE_MESSAGE:
+                long deleted_id = in.readLong();
+                Message deleted = messages.get(deleted_id);
+                if (deleted != null) {
+                    // Written last to first, so the message comes back before its tags
+                    undo.add(tagsRecord(deleted_id));
+                    undo.add(encode(PUT_MESSAGE, out -> writeMessage(out, deleted)));
+                }
+                break;
+            case PUT_FOLLOW:
+                int follower_id = in.readInt();
+                int followed_id = in.readInt();
+                if (!following.getOrDefault(follower_id, Set.of()).contains(followed_id)) {
+                    undo.add(encode(DELETE_FOLLOW, out -> {
+                        out.writeInt(follower_id);
+                        out.writeInt(followed_id);
+                    }));
+                }
+                break;
+            case PUT_TAGS:
+                undo.add(tagsRecord(in.readLong()));
+                break;
+            default:
+                break;
+        }
+        return undo;
+    }
+
+    /**
+     * @return a record that sets a message's tags back to what they are now.
+     */
+    private byte[] tagsRecord(long message_id) throws IOException {
+        List<List<String>> current = tags.get(message_id);
+        if (current == null) {
+            return encode(DELETE_TAGS, out -> out.writeLong(message_id));
+        }
+        return encode(PUT_TAGS, out -> {
+            out.writeLong(message_id);
+            writeStrings(out, current.get(0));
+            writeStrings(out, current.get(1));
+        });
+    }
+
+    /**
+     * @return the generation a log segment starts with, or 0 if it is empty.
+     */
+    private long segmentGeneration(WriteAheadLog segment) {
+        long[] found = new long[1];
+        segment.forEach(record -> {
+            if (found[0] == 0 && record.get(0) == SEGMENT) {
+                found[0] = record.getLong(1);
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Applies one record to the state; used for new writes, the snapshot and
+     * log replay alike.
+     */
+    private void apply(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            switch (in.readByte()) {
+                case PUT_ACCOUNT:
+                    Account account = new Account(in.readInt(), in.readUTF(), in.readUTF());
+                    Account previous = accounts.put(account.getAccount_id(), account);
+                    if (previous != null && !previous.getUsername().equals(account.getUsername())) {
+                        accountsByUsername.remove(previous.getUsername());
+                    }
+                    accountsByUsername.put(account.getUsername(), account);
+                    nextAccountId = Math.max(nextAccountId, account.getAccount_id() + 1);
+                    break;
+                case PUT_MESSAGE:
+                    Message message = new Message(in.readLong(), in.readInt(), in.readUTF(), in.readLong());
+                    messages.put(message.getMessage_id(), message);
+                    messagesByAccount.computeIfAbsent(message.getPosted_by(), key -> new ConcurrentSkipListMap<>())
+                            .put(message.getMessage_id(), message);
+                    nextMessageId = Math.max(nextMessageId, message.getMessage_id() + 1);
+                    break;
+                case DELETE_MESSAGE:
+                    long message_id = in.readLong();
+                    Message removed = messages.remove(message_id);
+                    if (removed != null) {
+                        messagesByAccount.get(removed.getPosted_by()).remove(message_id);
+                    }
+                    tags.remove(message_id);
+                    break;
+                case PUT_FOLLOW:
+                    int follower_id = in.readInt();
+                    int followed_id = in.readInt();
+                    following.computeIfAbsent(follower_id, key -> ConcurrentHashMap.newKeySet()).add(followed_id);
+                    followers.computeIfAbsent(followed_id, key -> ConcurrentHashMap.newKeySet()).add(follower_id);
+                    break;
+                case PUT_TAGS:
+                    long tagged_id = in.readLong();
+                    tags.put(tagged_id, List.of(readStrings(in), readStrings(in)));
+                    break;
+                case SEGMENT:
+                    generation = Math.max(generation, in.readLong());
+                    break;
+                case DELETE_ACCOUNT:
+                    Account deletedAccount = accounts.remove(in.readInt());
+                    if (deletedAccount != null) {
+                        accountsByUsername.remove(deletedAccount.getUsername(), deletedAccount);
+                    }
+                    break;
+                case DELETE_FOLLOW:
+                    int unfollower_id = in.readInt();
+                    int unfollowed_id = in.readInt();
+                    following.getOrDefault(unfollower_id, Set.of()).remove(unfollowed_id);
+                    followers.getOrDefault(unfollowed_id, Set.of()).remove(unfollower_id);
+                    break;
+                case DELETE_TAGS:
+                    tags.remove(in.readLong());
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type in " + directory);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt record in " + directory, e);
+        }
+    }
+
+    private void loadSnapshot(Path snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + snapshot);
+            }
+            nextAccountId = in.readInt();
+            nextMessageId = in.readLong();
+            int length;
+            while ((length = in.readInt()) > 0) {
+                byte[] record = new byte[length];
+                in.readFully(record);
+                apply(ByteBuffer.wrap(record));
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot: " + snapshot, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Fills the empty store with the accounts, messages and follows in the
+     * configured database. Starts empty if the database can't be read.
+     */
+    private void importDatabase() {
+        try {
+            Connection connection = UnitOfWork.getConnection();
+            try {
+                ResultSet accountRows = connection.prepareStatement(
+                        "SELECT " + AccountRowMapper.COLUMNS + " FROM account ORDER BY account_id").executeQuery();
+                for (Account account : AccountRowMapper.INSTANCE.mapAll(accountRows)) {
+                    apply(ByteBuffer.wrap(encode(PUT_ACCOUNT, out -> writeAccount(out, account))));
+                }
+                ResultSet followRows = connection.prepareStatement(
+                        "SELECT follower_id, followed_id FROM follow").executeQuery();
+                while (followRows.next()) {
+                    int follower_id = followRows.getInt(1);
+                    int followed_id = followRows.getInt(2);
+                    apply(ByteBuffer.wrap(encode(PUT_FOLLOW, out -> {
+                        out.writeInt(follower_id);
+                        out.writeInt(followed_id);
+                    })));
+                }
+            } finally {
+                UnitOfWork.release(connection);
+            }
+            List<Message> imported = super.getAllMessages();
+            if (imported != null) {
+                for (Message message : imported) {
+                    apply(ByteBuffer.wrap(encode(PUT_MESSAGE, out -> writeMessage(out, message))));
+                }
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            Metrics.counter("storage.import_failures").increment();
+            logger.warn("Starting {} with an empty store, could not import the database", directory, e);
+        }
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSnapshotRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    private static void writeAccount(DataOutputStream out, Account account) throws IOException {
+        out.writeInt(account.getAccount_id());
+        out.writeUTF(account.getUsername());
+        out.writeUTF(account.getPassword());
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        out.writeLong(message.getMessage_id());
+        out.writeInt(message.getPosted_by());
+        out.writeUTF(message.getMessage_text());
+        out.writeLong(message.getTime_posted_epoch());
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    /**
+     * Writes the fields of one record.
+     */
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A copy of the whole state, taken under the write lock, waiting to be
+     * written to the snapshot file. Copying only the references is quick, and
+     * the accounts and messages themselves are immutable.
+     */
+    private static class Compaction {
+        final int nextAccountId;
+        final long nextMessageId;
+        final List<Account> accounts;
+        final List<Message> messages;
+        final List<int[]> follows = new ArrayList<>();
+        final Map<Long, List<List<String>>> tags;
+        /**
+         * The log segment whose records the copy includes, emptied once the
+         * snapshot is written.
+         */
+        final WriteAheadLog retired;
+        boolean finished;
+
+        Compaction(InMemorySocialMediaDAO dao, WriteAheadLog retired) {
+            this.nextAccountId = dao.nextAccountId;
+            this.nextMessageId = dao.nextMessageId;
+            this.accounts = new ArrayList<>(dao.accounts.values());
+            this.messages = new ArrayList<>(dao.messages.values());
+            for (Map.Entry<Integer, Set<Integer>> entry : dao.following.entrySet()) {
+                for (Integer followed_id : entry.getValue()) {
+                    follows.add(new int[] { entry.getKey(), followed_id });
+                }
+            }
+            this.tags = new HashMap<>(dao.tags);
+            this.retired = retired;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(nextAccountId);
+            out.writeLong(nextMessageId);
+            for (Account account : accounts) {
+                writeSnapshotRecord(out, encode(PUT_ACCOUNT, record -> writeAccount(record, account)));
+            }
+            for (Message message : messages) {
+                writeSnapshotRecord(out, encode(PUT_MESSAGE, record -> writeMessage(record, message)));
+            }
+            for (int[] follow : follows) {
+                writeSnapshotRecord(out, encode(PUT_FOLLOW, record -> {
+                    record.writeInt(follow[0]);
+                    record.writeInt(follow[1]);
+                }));
+            }
+            for (Map.Entry<Long, List<List<String>>> entry : tags.entrySet()) {
+                writeSnapshotRecord(out, encode(PUT_TAGS, record -> {
+                    record.writeLong(entry.getKey());
+                    writeStrings(record, entry.getValue().get(0));
+                    writeStrings(record, entry.getValue().get(1));
+                }));
+            }
+            out.writeInt(0);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import Model.Message;
+
+/**
+ * Maps message rows selected with COLUMNS to Message objects.
+ */
+public class MessageRowMapper implements RowMapper<Message> {
+    /**
+     * The columns queries must select, in this order, e.g.
+     * "SELECT " + MessageRowMapper.COLUMNS + " FROM message".
+     */
+    public static final String COLUMNS = "message_id, posted_by, message_text, time_posted_epoch";
+
+    public static final MessageRowMapper INSTANCE = new MessageRowMapper();
+
+    @Override
+    public Message map(ResultSet resultSet) throws SQLException {
+        return new Message(
+                resultSet.getLong(1),
+                resultSet.getInt(2),
+                resultSet.getString(3),
+                resultSet.getLong(4));
+    }
+}
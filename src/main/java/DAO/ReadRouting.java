@@ -0,0 +1,45 @@
+package DAO;
+
+import java.sql.Connection;
+import java.util.function.Supplier;
+
+import Util.ConnectionUtil;
+
+/**
+ * Lets a caller run DAO reads on a read replica.
+ *
+ * DAO methods use the primary database unless they are called inside
+ * onReplica, in which case they use ConnectionUtil.getReplicaConnection.
+ * Only reads that can tolerate replication lag should be run this way; a unit
+ * of work always stays on the primary.
+ */
+public class ReadRouting {
+    private static final ThreadLocal<Boolean> replica = new ThreadLocal<>();
+
+    /**
+     * Runs DAO reads against a replica.
+     *
+     * @param reads the DAO calls to run.
+     * @return the result of reads.
+     */
+    public static <T> T onReplica(Supplier<T> reads) {
+        if (Boolean.TRUE.equals(replica.get())) {
+            return reads.get();
+        }
+        replica.set(Boolean.TRUE);
+        try {
+            return reads.get();
+        } finally {
+            replica.remove();
+        }
+    }
+
+    /**
+     * @return a replica connection inside onReplica, otherwise a primary
+     *         connection.
+     */
+    static Connection getConnection() {
+        return Boolean.TRUE.equals(replica.get()) ? ConnectionUtil.getReplicaConnection()
+                : ConnectionUtil.getConnection();
+    }
+}
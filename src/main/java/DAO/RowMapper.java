@@ -0,0 +1,54 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the current row of a ResultSet into an object.
+ *
+ * Mappers read columns by position, so each one publishes the column list its
+ * queries must select, in order. Reading by index skips the per-column name
+ * lookup, and a query that selects explicit columns keeps working when
+ * columns are added to its table.
+ *
+ * @param <T> the type each row is mapped to.
+ */
+public interface RowMapper<T> {
+
+    /**
+     * Maps the row the ResultSet is currently positioned on.
+     *
+     * @param resultSet a ResultSet selecting this mapper's columns, in order.
+     * @return the mapped object.
+     * @throws SQLException if a column could not be read.
+     */
+    T map(ResultSet resultSet) throws SQLException;
+
+    /**
+     * Maps the first row of a ResultSet.
+     *
+     * @param resultSet a ResultSet selecting this mapper's columns, in order.
+     * @return the mapped first row, or null if there are no rows.
+     * @throws SQLException if the rows could not be read.
+     */
+    default T mapFirst(ResultSet resultSet) throws SQLException {
+        return resultSet.next() ? map(resultSet) : null;
+    }
+
+    /**
+     * Maps every remaining row of a ResultSet.
+     *
+     * @param resultSet a ResultSet selecting this mapper's columns, in order.
+     * @return the mapped rows, in ResultSet order.
+     * @throws SQLException if the rows could not be read.
+     */
+    default List<T> mapAll(ResultSet resultSet) throws SQLException {
+        List<T> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            rows.add(map(resultSet));
+        }
+        return rows;
+    }
+}
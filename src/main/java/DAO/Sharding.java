@@ -0,0 +1,135 @@
+package DAO;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import Util.ConnectionUtil;
+
+/**
+ * Decides which shard holds a message.
+ *
+ * Messages are partitioned by posted_by, so all of an account's messages live
+ * on one shard. Every message_id encodes its shard as well (see
+ * ConnectionUtil.prepareMessageShard), so a message can be found from its id
+ * alone. Accounts and follows live on shard 0, the primary database.
+ *
+ * A multi-step write on messages must run its unit of work inside onShard,
+ * so that the unit of work's connection is opened on the right shard.
+ */
+public class Sharding {
+    private static final ThreadLocal<Integer> currentShard = new ThreadLocal<>();
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    /**
+     * Threads that query the other shards while the calling thread queries
+     * shard 0.
+     */
+    private static final ExecutorService scatterPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-scatter-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param account_id the account that posted the messages.
+     * @return the shard holding the account's messages.
+     */
+    public static int shardForAccount(int account_id) {
+        return shardForAccount(account_id, ConnectionUtil.getShardCount());
+    }
+
+    /**
+     * @param account_id the account that posted the messages.
+     * @param shardCount the total number of shards.
+     * @return the shard holding the account's messages.
+     */
+    public static int shardForAccount(int account_id, int shardCount) {
+        // Offset by one so the first account's messages stay on the primary
+        return Math.floorMod(account_id - 1, shardCount);
+    }
+
+    /**
+     * @param message_id the id of a message.
+     * @return the shard holding the message.
+     */
+    public static int shardForMessage(long message_id) {
+        return shardForMessage(message_id, ConnectionUtil.getShardCount());
+    }
+
+    /**
+     * @param message_id the id of a message.
+     * @param shardCount the total number of shards.
+     * @return the shard holding the message.
+     */
+    public static int shardForMessage(long message_id, int shardCount) {
+        return (int) Math.floorMod(message_id - 1, (long) shardCount);
+    }
+
+    /**
+     * Runs work with new connections, including a unit of work's, opened on a
+     * shard.
+     *
+     * @param shard the shard to use.
+     * @param work  the DAO calls to run.
+     * @return the result of work.
+     */
+    public static <T> T onShard(int shard, Supplier<T> work) {
+        Integer previous = currentShard.get();
+        currentShard.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                currentShard.remove();
+            } else {
+                currentShard.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Runs a query on every shard in parallel. Shard 0 is queried on the
+     * calling thread, so it keeps the caller's ReadRouting.
+     *
+     * @param query the query to run, given a shard number.
+     * @return each shard's result, indexed by shard number.
+     */
+    static <T> List<T> scatter(IntFunction<T> query) {
+        List<CompletableFuture<T>> others = new ArrayList<>();
+        for (int shard = 1; shard < ConnectionUtil.getShardCount(); shard++) {
+            int target = shard;
+            others.add(CompletableFuture.supplyAsync(() -> query.apply(target), scatterPool));
+        }
+        List<T> results = new ArrayList<>();
+        results.add(query.apply(0));
+        for (CompletableFuture<T> other : others) {
+            results.add(other.join());
+        }
+        return results;
+    }
+
+    /**
+     * @return the shard set by the innermost onShard, or 0 outside of one.
+     */
+    static int currentShard() {
+        Integer shard = currentShard.get();
+        return shard == null ? 0 : shard;
+    }
+
+    /**
+     * Opens a connection to a shard. Shard 0 honours ReadRouting, the other
+     * shards have no replicas.
+     *
+     * @param shard the shard to connect to.
+     * @return an open auto-commit connection.
+     */
+    static Connection getConnection(int shard) {
+        return shard == 0 ? ReadRouting.getConnection() : ConnectionUtil.getShardConnection(shard);
+    }
+}
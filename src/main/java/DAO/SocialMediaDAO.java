@@ -6,13 +6,97 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import Model.Account;
 import Model.Message;
+import Util.AppConfig;
 import Util.ConnectionUtil;
-
+import Util.SnowflakeIdGenerator;
+
+/**
+ * Reads and writes accounts, messages and follows. Each method runs on its own
+ * auto-commit connection, unless it is called inside a UnitOfWork, in which
+ * case it joins the unit of work's connection and transaction.
+ *
+ * Message methods connect to the shard that holds the message or poster (see
+ * Sharding); everything else uses the primary database.
+ *
+ * New message ids come from the database's identity column by default. With
+ * "ids.generator" set to "snowflake", they are generated in process by a
+ * SnowflakeIdGenerator for node "ids.node_id" (default 0) instead, so
+ * inserts need no generated-keys round trip and message_id order is
+ * chronological across nodes.
+ */
 public class SocialMediaDAO {
+    /**
+     * Generator for new message ids, or null to use the identity column.
+     */
+    SnowflakeIdGenerator messageIds;
+
+    /**
+     * Creates a DAO using the configured message id generator.
+     */
+    public SocialMediaDAO() {
+        this(configuredMessageIds());
+    }
+
+    /**
+     * @param messageIds generator for new message ids, or null to let the
+     *                   database generate them.
+     */
+    public SocialMediaDAO(SnowflakeIdGenerator messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    /**
+     * Releases what the DAO itself holds, once it is no longer used. Database
+     * connections are pooled by ConnectionUtil and closed by its shutdown.
+     */
+    public void close() {
+    }
+
+    /**
+     * Creates the DAO for the configured "storage.mode": "database" (the
+     * default) or "memory" for an InMemorySocialMediaDAO.
+     * 
+     * @return a new DAO.
+     */
+    public static SocialMediaDAO create() {
+        if (AppConfig.getString("storage.mode", "database").equals("memory")) {
+            return new InMemorySocialMediaDAO();
+        }
+        return new SocialMediaDAO();
+    }
+
+    /**
+     * @return a generator for the configured "ids.generator" and "ids.node_id",
+     *         or null to use the identity column.
+     */
+    static SnowflakeIdGenerator configuredMessageIds() {
+        if (!AppConfig.getString("ids.generator", "identity").equals("snowflake")) {
+            return null;
+        }
+        return new SnowflakeIdGenerator(AppConfig.getLong("ids.node_id", 0), ConnectionUtil.getShardCount(),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Runs several DAO calls as one transaction on the shard of the message or
+     * poster they write.
+     * 
+     * @param shard the shard the calls use.
+     * @param work  the DAO calls to run.
+     * @return the work's result.
+     * @throws UnitOfWorkException if the transaction failed and was rolled back.
+     */
+    public <T> T inTransaction(int shard, UnitOfWork.Work<T> work) {
+        return Sharding.onShard(shard, () -> UnitOfWork.run(work));
+    }
 
     /**
      * Inserts new account object into database.
@@ -23,7 +107,7 @@ public class SocialMediaDAO {
      *         or null value if SQLException ocurred.
      */
     public Account insertNewAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
+        Connection connection = UnitOfWork.getConnection();
         try {
             // Create SQL INSERT statement to add new account to database
             String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
@@ -38,12 +122,13 @@ public class SocialMediaDAO {
             ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
             if (pkeyResultSet.next()) {
                 int generated_account_id = (int) pkeyResultSet.getInt(1);
-                connection.close();
                 return new Account(generated_account_id, account.getUsername(), account.getPassword());
             }
 
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
 
@@ -53,10 +138,9 @@ public class SocialMediaDAO {
      * Searches through database for mat
      */
     public Account getAccountById(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        Account account = null;
+        Connection connection = UnitOfWork.getConnection();
         try {
-            String sql = "SELECT * FROM account WHERE account_id = ?";
+            String sql = "SELECT " + AccountRowMapper.COLUMNS + " FROM account WHERE account_id = ?";
 
             // Execute SQL query with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -64,19 +148,12 @@ public class SocialMediaDAO {
 
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            // Retrieve query results
-            while (resultSet.next()) {
-                // Read record into new Account object
-                account = new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-            }
-            connection.close();
             // Return matching account if one is found in the database
-            return account;
+            return AccountRowMapper.INSTANCE.mapFirst(resultSet);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         // Retrun null if no account was found or an error occurred
         return null;
@@ -90,10 +167,9 @@ public class SocialMediaDAO {
      *         null if no matching username can be found or an exception occurs
      */
     public Account getAccountByUsername(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        Account account = null;
+        Connection connection = UnitOfWork.getConnection();
         try {
-            String sql = "SELECT * FROM account WHERE username = ?";
+            String sql = "SELECT " + AccountRowMapper.COLUMNS + " FROM account WHERE username = ?";
 
             // Execute SQL query with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
@@ -101,24 +177,41 @@ public class SocialMediaDAO {
 
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            // Retrieve query results
-            while (resultSet.next()) {
-                // Read record into new Account object
-                account = new Account(
-                        resultSet.getInt("account_id"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-            }
-            connection.close();
             // Return matching account if one is found in the database
-            return account;
+            return AccountRowMapper.INSTANCE.mapFirst(resultSet);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         // Retrun null if no account was found or an error occurred
         return null;
     }
 
+    /**
+     * Replaces the stored password of an account.
+     * 
+     * @param account_id an integer matching an existing account_id.
+     * @param password   the new stored password value, normally a hash.
+     */
+    public void updateAccountPassword(int account_id, String password) {
+        Connection connection = UnitOfWork.getConnection();
+        try {
+            String sql = "UPDATE account SET password = ? WHERE account_id = ?";
+
+            // Execute SQL update with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
+            preparedStatement.executeUpdate();
+
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+    }
+
     /**
      * @param message a new Message object, without an existing message_id, to be
      *                inserted into the database.
@@ -126,7 +219,11 @@ public class SocialMediaDAO {
      *         exception occurred, then null is returned
      */
     public Message insertNewMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
+        int shard = Sharding.shardForAccount(message.getPosted_by());
+        if (messageIds != null) {
+            return insertNewMessage(message.withMessage_id(messageIds.nextId(shard)), shard);
+        }
+        Connection connection = UnitOfWork.getConnection(shard);
         try {
             // Create SQL INSERT statement to add new message to database
             String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
@@ -141,93 +238,98 @@ public class SocialMediaDAO {
             // Get generated key to return in new Account object with credentials
             ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
             if (pkeyResultSet.next()) {
-                int generated_message_id = (int) pkeyResultSet.getInt(1);
-                connection.close();
-                return new Message(
-                        generated_message_id,
-                        message.getPosted_by(),
-                        message.getMessage_text(),
-                        message.getTime_posted_epoch());
+                long generated_message_id = pkeyResultSet.getLong(1);
+                return message.withMessage_id(generated_message_id);
             }
 
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
     }
 
     /**
-     * Fetches a message that matches the message_id parameter.
+     * Inserts a message whose message_id was generated in process.
      * 
-     * @param message_id an integer matching an existing message_id in the database.
-     * @return a Message object with a message_id matching the message_id parameter,
-     *         if no matching message is found, returns null.
+     * @param message a new Message object with its message_id.
+     * @param shard   the shard of the message's poster.
+     * @return the inserted message, or null if an exception occurred.
      */
-    public Message getMessageById(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        Message message = null;
+    private Message insertNewMessage(Message message, int shard) {
+        Connection connection = UnitOfWork.getConnection(shard);
         try {
-            String sql = "SELECT * FROM message WHERE message_id = ?";
+            String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) "
+                    + "VALUES (?, ?, ?, ?)";
 
-            // Execute SQL query with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, message_id);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            // Retrieve query results
-            while (resultSet.next()) {
-                // Read record into new Message object
-                message = new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch"));
-            }
-            connection.close();
-            // Return matching message if one is found in the database
+            preparedStatement.setLong(1, message.getMessage_id());
+            preparedStatement.setInt(2, message.getPosted_by());
+            preparedStatement.setString(3, message.getMessage_text());
+            preparedStatement.setLong(4, message.getTime_posted_epoch());
+            preparedStatement.executeUpdate();
             return message;
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
     }
 
     /**
-     * Deletes a message with a message_id that matches the message_id parameter.
+     * Fetches a message that matches the message_id parameter.
      * 
      * @param message_id an integer matching an existing message_id in the database.
      * @return a Message object with a message_id matching the message_id parameter,
      *         if no matching message is found, returns null.
      */
-    public Message deleteMessageById(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        Message message = null;
+    public Message getMessageById(long message_id) {
+        Connection connection = UnitOfWork.getConnection(Sharding.shardForMessage(message_id));
         try {
-            String sql = "DELETE FROM message WHERE message_id = ?";
+            String sql = "SELECT " + MessageRowMapper.COLUMNS + " FROM message WHERE message_id = ?";
 
             // Execute SQL query with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, message_id);
+            preparedStatement.setLong(1, message_id);
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            // Retrieve query results
-            while (resultSet.next()) {
-                // Read record into new Message object
-                message = new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch"));
-            }
-            connection.close();
             // Return matching message if one is found in the database
-            return message;
+            return MessageRowMapper.INSTANCE.mapFirst(resultSet);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
     }
 
+    /**
+     * Deletes a message with a message_id that matches the message_id parameter.
+     * 
+     * @param message_id an integer matching an existing message_id in the database.
+     * @return a Message object with a message_id matching the message_id parameter,
+     *         if no matching message is found, returns null.
+     * @throws UnitOfWorkException if the delete failed and was rolled back.
+     */
+    public Message deleteMessageById(long message_id) {
+        // Read and delete in one transaction, so the returned message is exactly the one removed
+        return Sharding.onShard(Sharding.shardForMessage(message_id), () -> UnitOfWork.run(() -> {
+            Message message = getMessageById(message_id);
+            if (message != null) {
+                String sql = "DELETE FROM message WHERE message_id = ?";
+
+                // Execute SQL delete with prepared statement
+                PreparedStatement preparedStatement = UnitOfWork.getConnection(Sharding.shardForMessage(message_id))
+                        .prepareStatement(sql);
+                preparedStatement.setLong(1, message_id);
+                preparedStatement.executeUpdate();
+            }
+            return message;
+        }));
+    }
+
     /**
      * Updates a message with a message_id that matches the message_id parameter.
      * 
@@ -236,56 +338,69 @@ public class SocialMediaDAO {
      * @param message_text text to update the original message text with.
      * 
      */
-    public void updateMessageById(int message_id, String message_text) {
-        Connection connection = ConnectionUtil.getConnection();
+    public void updateMessageById(long message_id, String message_text) {
+        Connection connection = UnitOfWork.getConnection(Sharding.shardForMessage(message_id));
         try {
             String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
 
             // Execute SQL update with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setString(1, message_text);
-            preparedStatement.setInt(2, message_id);
+            preparedStatement.setLong(2, message_id);
             preparedStatement.executeUpdate();
 
-            connection.close();
 
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
     }
 
     /*
-     * Fetches list of all messages.
+     * Fetches list of all messages. When messages are sharded, every shard is
+     * queried in parallel and the results are merged.
      * 
-     * @return list of all messages, or null if an error occurred.
+     * @return list of all messages ordered by message_id, or null if an error
+     *         occurred.
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
+        if (ConnectionUtil.getShardCount() == 1) {
+            return getAllMessagesOnShard(0);
+        }
+        List<List<Message>> shardMessages = Sharding.scatter(this::getAllMessagesOnShard);
         List<Message> messages = new ArrayList<>();
-        Message message;
+        for (List<Message> shard : shardMessages) {
+            if (shard == null) {
+                return null;
+            }
+            messages.addAll(shard);
+        }
+        // Each shard's list is already sorted, and List.sort merges sorted runs in linear time per run
+        messages.sort(Comparator.comparingLong(Message::getMessage_id));
+        return messages;
+    }
+
+    /**
+     * @param shard the shard to read.
+     * @return every message on the shard ordered by message_id, or null if an
+     *         error occurred.
+     */
+    private List<Message> getAllMessagesOnShard(int shard) {
+        Connection connection = UnitOfWork.getConnection(shard);
 
         try {
-            String sql = "SELECT * FROM message";
+            String sql = "SELECT " + MessageRowMapper.COLUMNS + " FROM message ORDER BY message_id";
 
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             ResultSet resultSet = preparedStatement.executeQuery();
 
-            // Iterate through query results to fill out messages list
-            while (resultSet.next()) {
-                // Read record into new Message object
-                message = new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch"));
-
-                // Add record to list
-                messages.add(message);
-            }
-            connection.close();
-            return messages;
+            // Read every record into a new Message object
+            return MessageRowMapper.INSTANCE.mapAll(resultSet);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
     }
@@ -296,34 +411,227 @@ public class SocialMediaDAO {
      * @return a list of all messages belonging to a specific user account
      */
     public List<Message> getAllMessagesByAccountId(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        List<Message> messages = new ArrayList<>();
-        Message message;
+        Connection connection = UnitOfWork.getConnection(Sharding.shardForAccount(account_id));
         try {
             // Looks for account_id values that match posted_by values in the message table
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
+            String sql = "SELECT " + MessageRowMapper.COLUMNS + " FROM message WHERE posted_by = ?";
 
             // Execute SQL query with prepared statement
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, account_id);
             ResultSet resultSet = preparedStatement.executeQuery();
 
+            // Return matching messages
+            return MessageRowMapper.INSTANCE.mapAll(resultSet);
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+        return null;
+    }
+
+    /**
+     * Records that one account follows another.
+     * 
+     * @param follower_id the account_id of the account doing the following.
+     * @param followed_id the account_id of the account being followed.
+     * @return true if the follow was recorded, false if it already existed or an
+     *         exception occurred.
+     */
+    public boolean insertFollow(int follower_id, int followed_id) {
+        Connection connection = UnitOfWork.getConnection();
+        try {
+            String sql = "INSERT INTO follow (follower_id, followed_id) VALUES (?, ?)";
+
+            // Execute SQL insert with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followed_id);
+            int rowsInserted = preparedStatement.executeUpdate();
+
+            return rowsInserted == 1;
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+        return false;
+    }
+
+    /**
+     * Fetches every account followed by the given account, along with the
+     * number of followers each of those accounts has.
+     * 
+     * @param follower_id the account_id of the following account.
+     * @return a map of followed account_id to that account's follower count, or
+     *         null if an exception occurred.
+     */
+    public Map<Integer, Integer> getFollowedAccountFollowerCounts(int follower_id) {
+        Connection connection = UnitOfWork.getConnection();
+        Map<Integer, Integer> followerCounts = new HashMap<>();
+        try {
+            // Counts followers for every followed account in a single round trip
+            String sql = "SELECT f.followed_id, "
+                    + "(SELECT COUNT(*) FROM follow c WHERE c.followed_id = f.followed_id) "
+                    + "FROM follow f WHERE f.follower_id = ?";
+
+            // Execute SQL query with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, follower_id);
+            ResultSet resultSet = preparedStatement.executeQuery();
+
             // Retrieve query results
             while (resultSet.next()) {
-                // Read record into new Message object
-                message = new Message(
-                        resultSet.getInt("message_id"),
-                        resultSet.getInt("posted_by"),
-                        resultSet.getString("message_text"),
-                        resultSet.getLong("time_posted_epoch"));
-                messages.add(message);
+                followerCounts.put(resultSet.getInt(1), resultSet.getInt(2));
             }
-            connection.close();
-            // Return matching message if one is found in the database
-            return messages;
+            return followerCounts;
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
         }
         return null;
     }
+
+    /**
+     * Fetches the account_id of every follower of the given account.
+     * 
+     * @param followed_id the account_id of the followed account.
+     * @return a list of follower account_ids, or null if an exception occurred.
+     */
+    public List<Integer> getFollowerIds(int followed_id) {
+        Connection connection = UnitOfWork.getConnection();
+        List<Integer> followerIds = new ArrayList<>();
+        try {
+            String sql = "SELECT follower_id FROM follow WHERE followed_id = ?";
+
+            // Execute SQL query with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, followed_id);
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            // Retrieve query results
+            while (resultSet.next()) {
+                followerIds.add(resultSet.getInt(1));
+            }
+            return followerIds;
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the most recent messages posted by an account, newest first.
+     * 
+     * @param account_id the account_id of the message poster.
+     * @param limit      the maximum number of messages to return.
+     * @return a list of at most limit messages ordered by time_posted_epoch
+     *         descending, or null if an exception occurred.
+     */
+    public List<Message> getRecentMessagesByAccountId(int account_id, int limit) {
+        Connection connection = UnitOfWork.getConnection(Sharding.shardForAccount(account_id));
+        try {
+            String sql = "SELECT " + MessageRowMapper.COLUMNS + " FROM message WHERE posted_by = ? "
+                    + "ORDER BY time_posted_epoch DESC, message_id DESC LIMIT ?";
+
+            // Execute SQL query with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setInt(2, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            return MessageRowMapper.INSTANCE.mapAll(resultSet);
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches a page of the messages posted by an account, highest message_id
+     * first. The (posted_by, message_id) index serves the query without a sort.
+     * 
+     * @param account_id        the account_id of the message poster.
+     * @param before_message_id only messages with a smaller message_id are
+     *                          returned.
+     * @param limit             the maximum number of messages to return.
+     * @return a list of at most limit messages ordered by message_id
+     *         descending, or null if an exception occurred.
+     */
+    public List<Message> getMessagesByAccountIdBefore(int account_id, long before_message_id, int limit) {
+        Connection connection = UnitOfWork.getConnection(Sharding.shardForAccount(account_id));
+        try {
+            String sql = "SELECT " + MessageRowMapper.COLUMNS + " FROM message WHERE posted_by = ? "
+                    + "AND message_id < ? ORDER BY message_id DESC LIMIT ?";
+
+            // Execute SQL query with prepared statement
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setLong(2, before_message_id);
+            preparedStatement.setInt(3, limit);
+            ResultSet resultSet = preparedStatement.executeQuery();
+
+            return MessageRowMapper.INSTANCE.mapAll(resultSet);
+        } catch (SQLException e) {
+            UnitOfWork.failed(e);
+        } finally {
+            UnitOfWork.release(connection);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the hashtags and mentions recorded for a message.
+     * 
+     * @param message_id the message_id of the message the tags were taken from.
+     * @param hashtags   the hashtags in the message text, without the '#'.
+     * @param mentions   the usernames mentioned in the message text, without the
+     *                   '@'.
+     */
+    public void replaceMessageTags(long message_id, Collection<String> hashtags, Collection<String> mentions) {
+        try {
+            // Old and new tags are swapped in one transaction, on the message's shard
+            Sharding.onShard(Sharding.shardForMessage(message_id), () -> UnitOfWork.run(() -> {
+                Connection connection = UnitOfWork.getConnection(Sharding.shardForMessage(message_id));
+
+                PreparedStatement deleteHashtags = connection.prepareStatement(
+                        "DELETE FROM message_hashtag WHERE message_id = ?");
+                deleteHashtags.setLong(1, message_id);
+                deleteHashtags.executeUpdate();
+
+                PreparedStatement deleteMentions = connection.prepareStatement(
+                        "DELETE FROM message_mention WHERE message_id = ?");
+                deleteMentions.setLong(1, message_id);
+                deleteMentions.executeUpdate();
+
+                // Insert every tag in a single batch per table
+                PreparedStatement insertHashtag = connection.prepareStatement(
+                        "INSERT INTO message_hashtag (message_id, hashtag) VALUES (?, ?)");
+                for (String hashtag : hashtags) {
+                    insertHashtag.setLong(1, message_id);
+                    insertHashtag.setString(2, hashtag);
+                    insertHashtag.addBatch();
+                }
+                insertHashtag.executeBatch();
+
+                PreparedStatement insertMention = connection.prepareStatement(
+                        "INSERT INTO message_mention (message_id, username) VALUES (?, ?)");
+                for (String mention : mentions) {
+                    insertMention.setLong(1, message_id);
+                    insertMention.setString(2, mention);
+                    insertMention.addBatch();
+                }
+                insertMention.executeBatch();
+                return null;
+            }));
+        } catch (UnitOfWorkException e) {
+            UnitOfWork.failed(e.getCause());
+        }
+    }
 }
@@ -0,0 +1,225 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+/**
+ * Runs several DAO calls on one connection, in one transaction.
+ *
+ * While a unit of work is running, its connection is bound to the current
+ * thread and every SocialMediaDAO method called on that thread uses it
+ * instead of opening its own auto-commit connection. The transaction commits
+ * once when the work returns, and rolls back if any DAO call fails.
+ *
+ * Transactions that fail with a lock timeout or deadlock are retried
+ * with a short backoff, up to "transactions.max_attempts" times (default 3).
+ * The isolation level is "transactions.isolation" (default READ_COMMITTED)
+ * unless one is given. A unit of work started inside another joins it.
+ *
+ * A unit of work runs on a single database: the shard chosen by
+ * Sharding.onShard, or the primary database outside of one.
+ */
+public class UnitOfWork {
+    /**
+     * H2 error code for a lock that could not be acquired in time.
+     */
+    private static final int LOCK_TIMEOUT = 50200;
+    /**
+     * SQL state for a transaction rolled back due to deadlock or serialization
+     * failure.
+     */
+    private static final String SERIALIZATION_FAILURE = "40001";
+    /**
+     * SQL state PostgreSQL uses for a transaction rolled back due to deadlock.
+     */
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private static final ThreadLocal<Connection> current = new ThreadLocal<>();
+    /**
+     * The shard the current unit of work's connection belongs to.
+     */
+    private static final ThreadLocal<Integer> currentShard = new ThreadLocal<>();
+
+    /**
+     * Work to run inside a unit of work.
+     */
+    public interface Work<T> {
+        T execute() throws SQLException;
+    }
+
+    /**
+     * Runs work in a transaction at the configured isolation level.
+     *
+     * @param work the DAO calls to run.
+     * @return the work's result.
+     * @throws UnitOfWorkException if the transaction failed and was rolled back.
+     */
+    public static <T> T run(Work<T> work) {
+        return run(configuredIsolation(), work);
+    }
+
+    /**
+     * Runs work in a transaction.
+     *
+     * @param isolation a java.sql.Connection TRANSACTION_* isolation level.
+     * @param work      the DAO calls to run.
+     * @return the work's result.
+     * @throws UnitOfWorkException if the transaction failed and was rolled back.
+     */
+    public static <T> T run(int isolation, Work<T> work) {
+        // Join a unit of work that is already running on this thread
+        if (current.get() != null) {
+            try {
+                return work.execute();
+            } catch (SQLException e) {
+                throw new UnitOfWorkException(e);
+            }
+        }
+
+        int maxAttempts = AppConfig.getInt("transactions.max_attempts", 3);
+        for (int attempt = 1;; attempt++) {
+            int shard = Sharding.currentShard();
+            Connection connection = ConnectionUtil.getShardConnection(shard);
+            try {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(isolation);
+                current.set(connection);
+                currentShard.set(shard);
+
+                T result = work.execute();
+                connection.commit();
+                return result;
+            } catch (SQLException | UnitOfWorkException e) {
+                SQLException cause = e instanceof UnitOfWorkException ? ((UnitOfWorkException) e).getCause()
+                        : (SQLException) e;
+                rollback(connection);
+                if (attempt >= maxAttempts || !isRetryable(cause)) {
+                    Metrics.counter("transactions.failed").increment();
+                    throw new UnitOfWorkException(cause);
+                }
+                Metrics.counter("transactions.retried").increment();
+                backoff(attempt);
+            } catch (RuntimeException e) {
+                rollback(connection);
+                throw e;
+            } finally {
+                current.remove();
+                currentShard.remove();
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * @return true if the current thread is running a unit of work.
+     */
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    /**
+     * Fetches the connection DAO methods should use for the primary database:
+     * the current unit of work's connection, or a new auto-commit connection
+     * chosen by ReadRouting.
+     *
+     * @return an open connection.
+     */
+    static Connection getConnection() {
+        return getConnection(0);
+    }
+
+    /**
+     * Fetches the connection DAO methods should use for a message shard: the
+     * current unit of work's connection, or a new auto-commit connection to
+     * the shard.
+     *
+     * @param shard the shard the DAO call reads or writes.
+     * @return an open connection.
+     */
+    static Connection getConnection(int shard) {
+        Connection connection = current.get();
+        if (connection == null) {
+            return Sharding.getConnection(shard);
+        }
+        if (currentShard.get() != shard) {
+            throw new IllegalStateException("Unit of work on shard " + currentShard.get()
+                    + " cannot use shard " + shard + "; run it inside Sharding.onShard(" + shard + ", ...)");
+        }
+        return connection;
+    }
+
+    /**
+     * Closes a connection returned by getConnection, unless it belongs to the
+     * current unit of work.
+     *
+     * @param connection the connection to release.
+     */
+    static void release(Connection connection) {
+        if (connection != null && connection != current.get()) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Reports a failed DAO call. Inside a unit of work the failure is rethrown
+     * so the transaction rolls back; outside one it is printed, and the DAO
+     * method returns its usual error value.
+     *
+     * @param e the exception thrown by the DAO call.
+     * @throws UnitOfWorkException if a unit of work is running.
+     */
+    static void failed(SQLException e) {
+        if (current.get() != null) {
+            throw new UnitOfWorkException(e);
+        }
+        System.out.println(e.getMessage());
+    }
+
+    private static boolean isRetryable(SQLException e) {
+        return e.getErrorCode() == LOCK_TIMEOUT || SERIALIZATION_FAILURE.equals(e.getSQLState())
+                || DEADLOCK_DETECTED.equals(e.getSQLState());
+    }
+
+    private static int configuredIsolation() {
+        switch (AppConfig.getString("transactions.isolation", "READ_COMMITTED")) {
+            case "READ_UNCOMMITTED":
+                return Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "REPEATABLE_READ":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            default:
+                return Connection.TRANSACTION_READ_COMMITTED;
+        }
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            // Jittered exponential backoff: 10ms, 20ms, 40ms... plus up to 10ms
+            Thread.sleep((10L << Math.min(attempt - 1, 6)) + (long) (Math.random() * 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.setAutoCommit(true);
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
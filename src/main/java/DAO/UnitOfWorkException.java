@@ -0,0 +1,19 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a unit of work fails and is rolled back. Wraps the SQLException
+ * that caused the failure.
+ */
+public class UnitOfWorkException extends RuntimeException {
+
+    public UnitOfWorkException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
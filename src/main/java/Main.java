@@ -1,14 +1,77 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import Controller.GracefulShutdown;
 import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Service.CachingSocialMedia;
+import Service.MeteredSocialMedia;
+import Service.RateLimitedSocialMedia;
+import Service.RetryingSocialMedia;
+import Service.SocialMedia;
+import Service.SocialMediaService;
+import Util.AppConfig;
+import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 /**
  * This class is provided with a main method to allow you to manually run and test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
+ *
+ * On startup the database schema is created if it is missing or out of date. If "startup.snapshot" names a file, the
+ * caches are warmed from it and saved to it again on shutdown. The server listens on "server.port" (default 8080).
+ * On exit, including on SIGTERM, GracefulShutdown drains the requests in flight before closing the database.
+ *
+ * Main is also where the application is put together: the DAO is passed to the service, the service is wrapped in the
+ * decorators listed in "service.decorators", and the result is passed to the controller. The list is comma separated
+ * and innermost first, from "retry", "cache", "rate_limit" and "metrics"; for example "retry,cache,metrics" times
+ * cached reads, and retries only the reads the cache misses. It is empty by default.
  */
 public class Main {
     public static void main(String[] args) {
-        SocialMediaController controller = new SocialMediaController();
+        long start = System.nanoTime();
+        ConnectionUtil.ensureSchema();
+        String snapshot = AppConfig.getString("startup.snapshot", null);
+        Path snapshotFile = snapshot == null ? null : Paths.get(snapshot);
+        SocialMediaService core = new SocialMediaService(SocialMediaDAO.create(), snapshotFile);
+        SocialMedia service = decorate(core, AppConfig.getString("service.decorators", ""));
+        SocialMediaController controller = new SocialMediaController(service);
         Javalin app = controller.startAPI();
-        app.start(8080);
+        app.start(AppConfig.getInt("server.port", 8080));
+        Runtime.getRuntime().addShutdownHook(new Thread(new GracefulShutdown(app, controller, core, snapshotFile),
+                "graceful-shutdown"));
+        System.out.println("Started in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Wraps a service in decorators.
+     *
+     * @param service    the service to wrap.
+     * @param decorators comma separated decorator names, innermost first.
+     * @return the outermost decorator, or service if there are none.
+     * @throws IllegalArgumentException if a name is not a known decorator.
+     */
+    static SocialMedia decorate(SocialMedia service, String decorators) {
+        for (String name : decorators.split(",")) {
+            switch (name.trim()) {
+                case "":
+                    break;
+                case "retry":
+                    service = new RetryingSocialMedia(service);
+                    break;
+                case "cache":
+                    service = new CachingSocialMedia(service);
+                    break;
+                case "rate_limit":
+                    service = new RateLimitedSocialMedia(service);
+                    break;
+                case "metrics":
+                    service = new MeteredSocialMedia(service);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown service decorator: " + name.trim());
+            }
+        }
+        return service;
     }
 }
@@ -1,31 +1,35 @@
 package Model;
 
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * This is a class that models an Account.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Accounts are immutable, so one instance can be cached and handed to any
+ * number of threads without copying. Use the with* methods to derive a
+ * changed copy.
  *
  */
-public class Account {
+public final class Account {
     /**
      * An id for this Account which will be automatically generated by the database.
      */
-    public int account_id;
+    private final int account_id;
     /**
      * A username for this Account (must be unique and not blank)
      */
-    public String username;
+    private final String username;
     /**
      * A password for this account (must be over 4 characters)
      */
-    public String password;
+    private final String password;
     /**
-     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
-     * Jackson Objectmapper to work.
+     * Cached hash code, computed on first use. Zero means not yet computed.
      */
-    public Account(){
-
-    }
+    private int hash;
     /**
      * When posting a new Account, the id can be generated by the database. In that case, a constructor without
      * account_id is needed.
@@ -33,62 +37,50 @@ public class Account {
      * @param password
      */
     public Account(String username, String password){
-        this.username = username;
-        this.password = password;
+        this(0, username, password);
     }
     /**
      * Whem retrieving an Account from the database, all fields will be needed. In that case, a constructor with all
-     * fields is needed.
+     * fields is needed. Jackson ObjectMapper also uses this constructor; fields missing from the JSON default to 0
+     * or null.
      * @param account_id
      * @param username
      * @param password
      */
-    public Account(int account_id, String username, String password) {
+    @JsonCreator
+    public Account(@JsonProperty("account_id") int account_id, @JsonProperty("username") String username,
+            @JsonProperty("password") String password) {
         this.account_id = account_id;
         this.username = username;
         this.password = password;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return account_id
      */
     public int getAccount_id() {
         return account_id;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param account_id
-     */
-    public void setAccount_id(int account_id) {
-        this.account_id = account_id;
-    }
-    /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return username
      */
     public String getUsername() {
         return username;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param username
-     */
-    public void setUsername(String username) {
-        this.username = username;
-    }
-    /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return password
      */
     public String getPassword() {
         return password;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @param password
+     * @return a copy of this account with the given password.
      */
-    public void setPassword(String password) {
-        this.password = password;
+    public Account withPassword(String password) {
+        return new Account(account_id, username, password);
     }
     /**
      * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
@@ -101,7 +93,24 @@ public class Account {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Account account = (Account) o;
-        return account_id == account.account_id && username.equals(account.username) && password.equals(account.password);
+        return account_id == account.account_id && Objects.equals(username, account.username)
+                && Objects.equals(password, account.password);
+    }
+    /**
+     * Consistent with equals(). The fields never change, so the result is computed once and cached; the benign
+     * race on the cache only means two threads may both compute it.
+     * @return a hash of all fields.
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = account_id;
+            h = 31 * h + (username == null ? 0 : username.hashCode());
+            h = 31 * h + (password == null ? 0 : password.hashCode());
+            hash = h;
+        }
+        return h;
     }
     /**
      * Overriding the default toString() method allows for easy debugging.
@@ -0,0 +1,79 @@
+package Model;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * This is a class that models one entry of the change stream: a message that
+ * was created, updated or deleted, and the position of that change in the
+ * stream.
+ */
+public final class ChangeEvent {
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    /**
+     * The position of this change in the stream. Offsets start at 1 and every
+     * change gets the next one.
+     */
+    private final long offset;
+    /**
+     * One of "created", "updated" or "deleted".
+     */
+    private final String type;
+    /**
+     * The message as it was after the change; for a deletion, as it was when
+     * it was deleted.
+     */
+    private final Message message;
+
+    /**
+     * @param offset
+     * @param type
+     * @param message
+     */
+    @JsonCreator
+    public ChangeEvent(@JsonProperty("offset") long offset, @JsonProperty("type") String type,
+            @JsonProperty("message") Message message) {
+        this.offset = offset;
+        this.type = type;
+        this.message = message;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChangeEvent that = (ChangeEvent) o;
+        return offset == that.offset && Objects.equals(type, that.type) && Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, type, message);
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "offset=" + offset +
+                ", type='" + type + '\'' +
+                ", message=" + message +
+                '}';
+    }
+}
@@ -1,35 +1,41 @@
 package Model;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * This is a class that models a Message.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS!
+ * Messages are immutable, so one instance can be cached and handed to any
+ * number of threads without copying. Use the with* methods to derive a
+ * changed copy.
  *
  */
-public class Message {
+public final class Message {
     /**
      * An id for this message which will be automatically generated by the database.
      */
-    public int message_id;
+    private final long message_id;
     /**
      * The id for the user who has posted this message. We will assume that this is provided by the front-end of this
      * application.
      */
-    public int posted_by;
+    private final int posted_by;
     /**
      * The text for this message- eg "this is my first post!". Must be not blank and under 255 characters
      */
-    public String message_text;
+    private final String message_text;
     /**
      * The epoch time when this tweet was posted (number of seconds since Jan 1, 1970). Longs are large enough
      * to store this number. We will assume that this number is provided by the front-end of this application.
      */
-    public long time_posted_epoch;
+    private final long time_posted_epoch;
     /**
-     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
-     * Jackson Objectmapper to work.
+     * Cached hash code, computed on first use. Zero means not yet computed.
      */
-    public Message(){
-    }
+    private int hash;
     /**
      * When posting a new message, the id can be generated by the database. In that case, a constructor without
      * message_id is needed.
@@ -38,79 +44,60 @@ public class Message {
      * @param time_posted_epoch
      */
     public Message(int posted_by, String message_text, long time_posted_epoch) {
-        this.posted_by = posted_by;
-        this.message_text = message_text;
-        this.time_posted_epoch = time_posted_epoch;
+        this(0, posted_by, message_text, time_posted_epoch);
     }
     /**
      * Whem retrieving a message from the database, all fields will be needed. In that case, a constructor with all
-     * fields is needed.
+     * fields is needed. Jackson ObjectMapper also uses this constructor; fields missing from the JSON default to 0
+     * or null.
      * @param message_id
      * @param posted_by
      * @param message_text
      * @param time_posted_epoch
      */
-    public Message(int message_id, int posted_by, String message_text, long time_posted_epoch) {
+    @JsonCreator
+    public Message(@JsonProperty("message_id") long message_id, @JsonProperty("posted_by") int posted_by,
+            @JsonProperty("message_text") String message_text,
+            @JsonProperty("time_posted_epoch") long time_posted_epoch) {
         this.message_id = message_id;
         this.posted_by = posted_by;
         this.message_text = message_text;
         this.time_posted_epoch = time_posted_epoch;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return message_id
      */
-    public int getMessage_id() {
+    public long getMessage_id() {
         return message_id;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param message_id
-     */
-    public void setMessage_id(int message_id) {
-        this.message_id = message_id;
-    }
-    /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return posted_by
      */
     public int getPosted_by() {
         return posted_by;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param posted_by
-     */
-    public void setPosted_by(int posted_by) {
-        this.posted_by = posted_by;
-    }
-    /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return message_text
      */
     public String getMessage_text() {
         return message_text;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param message_text
-     */
-    public void setMessage_text(String message_text) {
-        this.message_text = message_text;
-    }
-    /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * Properly named getters are necessary for Jackson ObjectMapper to work. You may use them as well.
      * @return time_posted_epoch
      */
     public long getTime_posted_epoch() {
         return time_posted_epoch;
     }
     /**
-     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
-     * @param time_posted_epoch
+     * @param message_id
+     * @return a copy of this message with the given message_id.
      */
-    public void setTime_posted_epoch(long time_posted_epoch) {
-        this.time_posted_epoch = time_posted_epoch;
+    public Message withMessage_id(long message_id) {
+        return new Message(message_id, posted_by, message_text, time_posted_epoch);
     }
     /**
      * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
@@ -124,7 +111,25 @@ public class Message {
         if (o == null || getClass() != o.getClass()) return false;
         Message message = (Message) o;
         return message_id == message.message_id && posted_by == message.posted_by
-                && time_posted_epoch == message.time_posted_epoch && message_text.equals(message.message_text);
+                && time_posted_epoch == message.time_posted_epoch
+                && Objects.equals(message_text, message.message_text);
+    }
+    /**
+     * Consistent with equals(). The fields never change, so the result is computed once and cached; the benign
+     * race on the cache only means two threads may both compute it.
+     * @return a hash of all fields.
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Long.hashCode(message_id);
+            h = 31 * h + posted_by;
+            h = 31 * h + (message_text == null ? 0 : message_text.hashCode());
+            h = 31 * h + Long.hashCode(time_posted_epoch);
+            hash = h;
+        }
+        return h;
     }
     /**
      * Overriding the default toString() method allows for easy debugging.
@@ -0,0 +1,68 @@
+package Model;
+
+/**
+ * This is a class that models a trending hashtag or mentioned username, along
+ * with how many times it was used within the trending window.
+ */
+public class TrendingTopic {
+    /**
+     * The hashtag or username, without its leading '#' or '@'.
+     */
+    public String topic;
+    /**
+     * The number of times the topic was used within the trending window.
+     */
+    public long count;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public TrendingTopic() {
+    }
+
+    /**
+     * @param topic
+     * @param count
+     */
+    public TrendingTopic(String topic, long count) {
+        this.topic = topic;
+        this.count = count;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrendingTopic that = (TrendingTopic) o;
+        return count == that.count && topic.equals(that.topic);
+    }
+
+    @Override
+    public int hashCode() {
+        return topic.hashCode() * 31 + Long.hashCode(count);
+    }
+
+    @Override
+    public String toString() {
+        return "TrendingTopic{" +
+                "topic='" + topic + '\'' +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,206 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import Model.Message;
+import Util.AppConfig;
+import Util.Metrics;
+
+/**
+ * Caches message reads (getMessageById and getAllMessages) in front of the
+ * wrapped implementation. Entries expire after "service.cache.ttl_ms"
+ * (default 1000), and beyond "service.cache.max_entries" (default 10000) the
+ * roughly least recently used are evicted in a batch. Posting, updating or
+ * deleting a message through this decorator invalidates that message and the
+ * list of all messages, so callers read their own writes; writes made
+ * elsewhere, such as by another server, are seen once the entries expire.
+ *
+ * Entries live in a ConcurrentHashMap, so hits take no lock. The cached list
+ * of all messages is unmodifiable, since every caller shares it.
+ */
+public class CachingSocialMedia extends ForwardingSocialMedia {
+    private static final String ALL_MESSAGES = "all";
+
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    /**
+     * Counts invalidations, so a read that started before a write does not
+     * keep what it read once the write has invalidated it.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * Held by the one thread evicting, so the others keep serving.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder hits = Metrics.counter("service.cache.hits");
+    private final LongAdder misses = Metrics.counter("service.cache.misses");
+
+    /**
+     * Creates a cache with the configured size and expiry.
+     *
+     * @param delegate the implementation to cache reads from.
+     */
+    public CachingSocialMedia(SocialMedia delegate) {
+        this(delegate, AppConfig.getInt("service.cache.max_entries", 10_000),
+                AppConfig.getLong("service.cache.ttl_ms", 1000), System::currentTimeMillis);
+    }
+
+    /**
+     * @param delegate   the implementation to cache reads from.
+     * @param maxEntries the most reads to remember.
+     * @param ttlMillis  how long to remember a read.
+     * @param clock      source of the current time in milliseconds.
+     */
+    public CachingSocialMedia(SocialMedia delegate, int maxEntries, long ttlMillis, LongSupplier clock) {
+        super(delegate);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        Metrics.gauge("service.cache.entries", this::size);
+    }
+
+    @Override
+    public Message getMessageById(long message_id) {
+        return cached(message_id, () -> delegate.getMessageById(message_id));
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return cached(ALL_MESSAGES, () -> {
+            List<Message> messages = delegate.getAllMessages();
+            return messages == null ? null : List.copyOf(messages);
+        });
+    }
+
+    @Override
+    public Message postMessage(Message message) {
+        try {
+            return delegate.postMessage(message);
+        } finally {
+            // A new message can only change the list; misses are not cached
+            invalidate(ALL_MESSAGES);
+        }
+    }
+
+    @Override
+    public Message updateMessageById(long message_id, String message_text) {
+        try {
+            return delegate.updateMessageById(message_id, message_text);
+        } finally {
+            invalidate(message_id, ALL_MESSAGES);
+        }
+    }
+
+    @Override
+    public Message deleteMessageById(long message_id) {
+        try {
+            return delegate.deleteMessageById(message_id);
+        } finally {
+            invalidate(message_id, ALL_MESSAGES);
+        }
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * @return the number of reads currently cached.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets the given reads.
+     */
+    private void invalidate(Object... keys) {
+        // Before removing, so a load that overlaps the removal sees the change and drops its entry
+        generation.incrementAndGet();
+        for (Object key : keys) {
+            entries.remove(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(Object key, Supplier<T> load) {
+        long now = clock.getAsLong();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt > now) {
+            entry.lastUsed = now;
+            hits.increment();
+            return (T) entry.value;
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+        T value = load.get();
+        // Misses are not cached, so a message posted later is found at once
+        if (value != null) {
+            Entry loaded = new Entry(value, clock.getAsLong() + ttlMillis, now);
+            entries.put(key, loaded);
+            // A write during the load may have changed what was read
+            if (generation.get() != loadGeneration) {
+                entries.remove(key, loaded);
+            } else if (entries.size() > maxEntries) {
+                evict();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops expired entries, then the least recently used, until a tenth of
+     * the capacity is free again, so eviction runs once per many inserts.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = clock.getAsLong();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+            int excess = entries.size() - (maxEntries - maxEntries / 10);
+            if (excess <= 0) {
+                return;
+            }
+            List<Map.Entry<Object, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.getValue().lastUsed));
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                entries.remove(candidates.get(i).getKey(), candidates.get(i).getValue());
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final long expiresAt;
+        /**
+         * Written on every hit without a lock; eviction only needs it roughly
+         * right.
+         */
+        volatile long lastUsed;
+
+        Entry(Object value, long expiresAt, long lastUsed) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
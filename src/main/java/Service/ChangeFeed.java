@@ -0,0 +1,150 @@
+package Service;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.ChangeEvent;
+import Model.Message;
+import Util.AppConfig;
+import Util.Metrics;
+import Util.SegmentLog;
+
+/**
+ * Publishes every committed message change to a SegmentLog, one JSON
+ * ChangeEvent per line, so downstream systems can follow changes instead of
+ * re-reading every message.
+ *
+ * The log lives in "changes.dir" (default "changes"), starts a new segment
+ * every "changes.segment_bytes" (default 64 MiB) and keeps the newest
+ * "changes.max_segments" segments (default 16, so at most 1 GiB with the
+ * default segment size; 0 keeps all).
+ *
+ * Ordering: the changes to one message are appended in the order they
+ * committed (see ChangeOrder). Changes to different messages are appended in
+ * the order their writers reach the log, which may differ from the order they
+ * committed.
+ *
+ * Durability: a change is appended after its transaction commits, and
+ * publish waits until it is forced to disk, so every change acknowledged to
+ * its writer is in the log. Concurrent writers share one fsync (see
+ * SegmentLog.awaitDurable). Setting "changes.fsync" to false leaves the
+ * records to the operating system instead. Only a crash between the commit and
+ * the append, before the writer is answered, can leave a change in the
+ * database but missing from the log. A change is never appended for a
+ * transaction that rolled back.
+ */
+public class ChangeFeed {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeed.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    /**
+     * Runs the callbacks of long polls, so that neither the writer that
+     * completes a poll nor the timeout timer has to send its response.
+     */
+    private static final ExecutorService notifier = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "change-feed-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    SegmentLog log;
+    private final boolean fsync;
+
+    public ChangeFeed() {
+        this(SegmentLog.open(Paths.get(AppConfig.getString("changes.dir", "changes")),
+                AppConfig.getLong("changes.segment_bytes", 64L * 1024 * 1024),
+                AppConfig.getInt("changes.max_segments", 16)),
+                AppConfig.getBoolean("changes.fsync", true));
+    }
+
+    /**
+     * @param log   the log to publish to and read from.
+     * @param fsync whether publish waits for each change to be forced to disk.
+     */
+    public ChangeFeed(SegmentLog log, boolean fsync) {
+        this.log = log;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Appends a change to the log and waits until it is durable. Called once
+     * the change has committed, while holding the message's place in
+     * ChangeOrder and before the writer is answered; a failure to append is
+     * counted and logged but does not undo the change.
+     *
+     * @param type    one of the ChangeEvent types.
+     * @param message the message as it was after the change.
+     */
+    public void publish(String type, Message message) {
+        try {
+            long offset = log.append(next -> {
+                try {
+                    return objectMapper.writeValueAsBytes(new ChangeEvent(next, type, message));
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Could not serialize change", e);
+                }
+            });
+            if (fsync) {
+                log.awaitDurable(offset);
+            }
+        } catch (IOException | RuntimeException e) {
+            Metrics.counter("changes.publish_failures").increment();
+            logger.warn("Could not publish change to message {}", message.getMessage_id(), e);
+        }
+    }
+
+    /**
+     * @param since the offset of the last change already read, or 0.
+     * @param limit the most changes to return.
+     * @return the next changes as newline-delimited JSON in the log file, or
+     *         null if changes after since are no longer kept.
+     */
+    public SegmentLog.Slice read(long since, int limit) {
+        return log.read(since, limit);
+    }
+
+    /**
+     * @return the offset of the last change published, or 0 if there is none.
+     */
+    public long getLastOffset() {
+        return log.getLastOffset();
+    }
+
+    /**
+     * @param since      the offset of the last change already read.
+     * @param waitMillis the longest time to wait.
+     * @return a future completed on a change feed thread once there is a change
+     *         after since, or once waitMillis has passed.
+     */
+    public CompletableFuture<Void> await(long since, long waitMillis) {
+        return log.awaitAfter(since)
+                .completeOnTimeout(null, waitMillis, TimeUnit.MILLISECONDS)
+                .thenApplyAsync(ignored -> null, notifier);
+    }
+
+    /**
+     * Answers every waiting long poll with the changes there are now.
+     */
+    public void releaseWaiters() {
+        log.releaseWaiters();
+    }
+
+    /**
+     * Releases the log; it is forced to disk and closed once every ChangeFeed
+     * sharing it has been closed.
+     */
+    public void close() {
+        log.close();
+    }
+}
@@ -0,0 +1,100 @@
+package Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes the changes to each message take effect after commit in the order
+ * they committed: appended to the change feed, pushed to live streams and
+ * applied to the search index and feeds.
+ *
+ * An edit or delete holds its message's lock from before its transaction
+ * until its change has been applied. The database serializes writes to one
+ * message row, so two such changes commit and are applied in the same order.
+ * A post cannot lock a message_id it does not know yet, so it registers the
+ * new id inside its transaction instead, without blocking, and an edit or
+ * delete of that message waits after committing until the post has been
+ * applied. Posts never wait on a lock, so a transaction holding database
+ * locks never waits for an edit.
+ *
+ * Locks are striped by message_id, so unrelated messages occasionally share
+ * one.
+ */
+class ChangeOrder {
+    private final ReentrantLock[] locks;
+    private final Map<Long, CountDownLatch> unappliedPosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param stripes the number of locks shared by all messages.
+     */
+    ChangeOrder(int stripes) {
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks a message before the transaction that edits or deletes it.
+     *
+     * @param message_id the message to change.
+     */
+    void lock(long message_id) {
+        lockFor(message_id).lock();
+    }
+
+    /**
+     * Waits until a post of the message has been applied, if it has not yet.
+     * Called after the edit or delete has committed, with its lock held.
+     *
+     * @param message_id the changed message.
+     */
+    void awaitPostApplied(long message_id) {
+        CountDownLatch applied = unappliedPosts.get(message_id);
+        if (applied == null) {
+            return;
+        }
+        try {
+            applied.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Unlocks a message once its edit or delete has been applied.
+     *
+     * @param message_id the changed message.
+     */
+    void unlock(long message_id) {
+        lockFor(message_id).unlock();
+    }
+
+    /**
+     * Registers a message being posted, from inside the post's transaction.
+     *
+     * @param message_id the new message's id.
+     */
+    void posting(long message_id) {
+        unappliedPosts.put(message_id, new CountDownLatch(1));
+    }
+
+    /**
+     * Releases the edits and deletes waiting for a post, once it has been
+     * applied or its transaction has failed.
+     *
+     * @param message_id the posted message's id.
+     */
+    void postApplied(long message_id) {
+        CountDownLatch applied = unappliedPosts.remove(message_id);
+        if (applied != null) {
+            applied.countDown();
+        }
+    }
+
+    private ReentrantLock lockFor(long message_id) {
+        return locks[Math.floorMod(Long.hashCode(message_id), locks.length)];
+    }
+}
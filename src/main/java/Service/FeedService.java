@@ -0,0 +1,369 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.AppConfig;
+import Util.Metrics;
+
+/**
+ * Builds home feeds for accounts from the messages of the accounts they follow.
+ *
+ * Messages from accounts with fewer followers than the celebrity threshold are
+ * fanned out on write: posting pushes the message into the precomputed feed of
+ * every follower. Messages from accounts at or above the threshold are fanned
+ * out on read: their timelines are k-way merged into the feed when it is
+ * requested, so a single post never has to touch millions of feeds.
+ */
+public class FeedService {
+    /**
+     * Orders messages newest first, breaking ties on message_id.
+     */
+    static final Comparator<Message> NEWEST_FIRST = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingLong(Message::getMessage_id)
+            .reversed();
+
+    SocialMediaDAO socialMediaDAO;
+    int celebrityThreshold;
+    int feedCapacity;
+    int maxFeeds;
+
+    /**
+     * Precomputed feeds, keyed by follower account_id. Feeds are built lazily on
+     * first read and kept up to date by fan-out on write afterwards. Beyond
+     * maxFeeds, an arbitrary feed is evicted for each new one; it is rebuilt
+     * if it is read again.
+     */
+    Map<Integer, LinkedList<Message>> materializedFeeds = new ConcurrentHashMap<>();
+
+    Metrics.Timer fanOutOnWriteTimer = Metrics.timer("feed.fanout_on_write");
+    Metrics.Timer fanOutOnReadTimer = Metrics.timer("feed.fanout_on_read");
+    Metrics.Timer feedHydrationTimer = Metrics.timer("feed.hydration");
+
+    /**
+     * Creates a FeedService configured from "feed.celebrity_threshold",
+     * "feed.capacity" and "feed.max_feeds".
+     *
+     * @param socialMediaDAO the DAO used to read follows and timelines.
+     */
+    public FeedService(SocialMediaDAO socialMediaDAO) {
+        this(socialMediaDAO,
+                AppConfig.getInt("feed.celebrity_threshold", 1000),
+                AppConfig.getInt("feed.capacity", 800),
+                AppConfig.getInt("feed.max_feeds", 100_000));
+    }
+
+    /**
+     * @param socialMediaDAO     the DAO used to read follows and timelines.
+     * @param celebrityThreshold follower count at which an account's messages
+     *                           stop being fanned out on write.
+     * @param feedCapacity       the maximum number of messages kept in, and
+     *                           returned from, a feed.
+     * @param maxFeeds           the maximum number of precomputed feeds kept.
+     */
+    public FeedService(SocialMediaDAO socialMediaDAO, int celebrityThreshold, int feedCapacity, int maxFeeds) {
+        this.socialMediaDAO = socialMediaDAO;
+        this.celebrityThreshold = celebrityThreshold;
+        this.feedCapacity = feedCapacity;
+        this.maxFeeds = maxFeeds;
+        Metrics.gauge("feed.materialized", materializedFeeds::size);
+    }
+
+    /**
+     * Records a follow and drops the follower's precomputed feed so that it is
+     * rebuilt with the newly followed account's messages on the next read.
+     *
+     * @param follower_id the account_id of the account doing the following.
+     * @param followed_id the account_id of the account being followed.
+     * @return true if the follow was recorded, false otherwise.
+     */
+    public boolean follow(int follower_id, int followed_id) {
+        boolean followed = socialMediaDAO.insertFollow(follower_id, followed_id);
+        if (followed) {
+            materializedFeeds.remove(follower_id);
+        }
+        return followed;
+    }
+
+    /**
+     * Pushes a newly posted message into the precomputed feeds of its author's
+     * followers, unless the author is a celebrity.
+     *
+     * @param message the message that was just persisted.
+     */
+    public void onMessagePosted(Message message) {
+        long start = System.nanoTime();
+        List<Integer> followerIds = socialMediaDAO.getFollowerIds(message.getPosted_by());
+        if (followerIds == null || followerIds.size() >= celebrityThreshold) {
+            return;
+        }
+        for (Integer followerId : followerIds) {
+            LinkedList<Message> feed = materializedFeeds.get(followerId);
+            // Feeds that have not been built yet will pick the message up on hydration
+            if (feed != null) {
+                synchronized (feed) {
+                    insertSorted(feed, message);
+                }
+            }
+        }
+        fanOutOnWriteTimer.recordSince(start);
+    }
+
+    /**
+     * Replaces an edited message in the precomputed feeds of its author's
+     * followers.
+     *
+     * @param message the message as it now exists in the database.
+     */
+    public void onMessageUpdated(Message message) {
+        for (LinkedList<Message> feed : followerFeeds(message.getPosted_by())) {
+            synchronized (feed) {
+                feed.replaceAll(existing -> existing.getMessage_id() == message.getMessage_id() ? message : existing);
+            }
+        }
+    }
+
+    /**
+     * Removes a deleted message from the precomputed feeds of its author's
+     * followers.
+     *
+     * @param message the message as it was when deleted.
+     */
+    public void onMessageDeleted(Message message) {
+        for (LinkedList<Message> feed : followerFeeds(message.getPosted_by())) {
+            synchronized (feed) {
+                feed.removeIf(existing -> existing.getMessage_id() == message.getMessage_id());
+            }
+        }
+    }
+
+    /**
+     * @param account_id the author whose message changed.
+     * @return the precomputed feeds of the author's followers that have been
+     *         built. Celebrities are included, since a feed built while its
+     *         author was below the threshold may still hold their messages.
+     */
+    private List<LinkedList<Message>> followerFeeds(int account_id) {
+        List<Integer> followerIds = socialMediaDAO.getFollowerIds(account_id);
+        if (followerIds == null) {
+            // Without the followers, check every feed rather than leave one stale
+            return new ArrayList<>(materializedFeeds.values());
+        }
+        List<LinkedList<Message>> feeds = new ArrayList<>();
+        for (Integer followerId : followerIds) {
+            LinkedList<Message> feed = materializedFeeds.get(followerId);
+            if (feed != null) {
+                feeds.add(feed);
+            }
+        }
+        return feeds;
+    }
+
+    /**
+     * @param maxFeeds the most feeds to return.
+     * @return copies of up to maxFeeds precomputed feeds, keyed by account_id.
+     */
+    Map<Integer, List<Message>> getMaterializedFeeds(int maxFeeds) {
+        Map<Integer, List<Message>> feeds = new HashMap<>();
+        for (Map.Entry<Integer, LinkedList<Message>> entry : materializedFeeds.entrySet()) {
+            if (feeds.size() >= maxFeeds) {
+                break;
+            }
+            synchronized (entry.getValue()) {
+                feeds.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+        return feeds;
+    }
+
+    /**
+     * Installs a precomputed feed, for example one saved before a restart.
+     *
+     * @param account_id the account_id of the feed owner.
+     * @param feed       the feed's messages, newest first.
+     */
+    void restoreFeed(int account_id, List<Message> feed) {
+        LinkedList<Message> restored = new LinkedList<>(feed);
+        while (restored.size() > feedCapacity) {
+            restored.removeLast();
+        }
+        materializedFeeds.put(account_id, restored);
+        evictFeeds();
+    }
+
+    /**
+     * Builds the home feed of an account: the precomputed feed of messages from
+     * regular accounts, merged with the timelines of followed celebrities.
+     *
+     * @param account_id the account_id of the feed owner.
+     * @param limit      the maximum number of messages to return.
+     * @return the newest messages from followed accounts, newest first; an empty
+     *         list if the account follows nobody, or null if an error occurred.
+     */
+    public List<Message> getFeed(int account_id, int limit) {
+        limit = Math.min(limit, feedCapacity);
+        Map<Integer, Integer> followerCounts = socialMediaDAO.getFollowedAccountFollowerCounts(account_id);
+        if (followerCounts == null) {
+            return null;
+        }
+
+        // Split followed accounts into fan-out-on-write and fan-out-on-read authors
+        List<Integer> regularAuthors = new ArrayList<>();
+        List<Integer> celebrityAuthors = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : followerCounts.entrySet()) {
+            if (entry.getValue() >= celebrityThreshold) {
+                celebrityAuthors.add(entry.getKey());
+            } else {
+                regularAuthors.add(entry.getKey());
+            }
+        }
+
+        List<List<Message>> timelines = new ArrayList<>();
+        LinkedList<Message> feed = materializedFeeds.get(account_id);
+        if (feed == null) {
+            feed = hydrate(account_id, regularAuthors);
+        }
+        synchronized (feed) {
+            timelines.add(new ArrayList<>(feed));
+        }
+
+        long start = System.nanoTime();
+        for (Integer authorId : celebrityAuthors) {
+            List<Message> timeline = socialMediaDAO.getRecentMessagesByAccountId(authorId, limit);
+            if (timeline != null) {
+                timelines.add(timeline);
+            }
+        }
+        List<Message> merged = merge(timelines, limit);
+        if (!celebrityAuthors.isEmpty()) {
+            fanOutOnReadTimer.recordSince(start);
+        }
+        return merged;
+    }
+
+    /**
+     * Builds an account's precomputed feed from scratch by merging the recent
+     * timelines of the given authors.
+     *
+     * The feed is installed, empty and locked, before the timelines are read.
+     * A post fanned out during hydration then waits for the feed, and is
+     * inserted once it is filled, instead of finding no feed and being
+     * skipped. Readers of the same feed wait for it too.
+     *
+     * @param account_id the account_id of the feed owner.
+     * @param authorIds  the account_ids whose messages belong in the feed.
+     * @return the account's feed, holding at most feedCapacity messages,
+     *         newest first.
+     */
+    private LinkedList<Message> hydrate(int account_id, List<Integer> authorIds) {
+        LinkedList<Message> feed = new LinkedList<>();
+        synchronized (feed) {
+            LinkedList<Message> existing = materializedFeeds.putIfAbsent(account_id, feed);
+            if (existing != null) {
+                return existing;
+            }
+            evictFeeds();
+
+            long start = System.nanoTime();
+            List<List<Message>> timelines = new ArrayList<>();
+            for (Integer authorId : authorIds) {
+                List<Message> timeline = socialMediaDAO.getRecentMessagesByAccountId(authorId, feedCapacity);
+                if (timeline != null) {
+                    timelines.add(timeline);
+                }
+            }
+            feed.addAll(merge(timelines, feedCapacity));
+            feedHydrationTimer.recordSince(start);
+        }
+        return feed;
+    }
+
+    /**
+     * Evicts arbitrary feeds until at most maxFeeds are kept. Choosing any feed
+     * needs no shared recency bookkeeping on reads.
+     */
+    private void evictFeeds() {
+        Iterator<Integer> accountIds = materializedFeeds.keySet().iterator();
+        while (materializedFeeds.size() > maxFeeds && accountIds.hasNext()) {
+            accountIds.next();
+            accountIds.remove();
+            Metrics.counter("feed.evictions").increment();
+        }
+    }
+
+    /**
+     * Inserts a message into a newest-first feed, unless the feed already holds
+     * it, trimming the oldest message if the feed grows past its capacity.
+     */
+    private void insertSorted(LinkedList<Message> feed, Message message) {
+        // New posts almost always belong at the head, so scan from the front
+        ListIterator<Message> iterator = feed.listIterator();
+        while (iterator.hasNext()) {
+            Message existing = iterator.next();
+            if (existing.getMessage_id() == message.getMessage_id()) {
+                // Already read by hydration, or a change replayed twice
+                return;
+            }
+            if (NEWEST_FIRST.compare(existing, message) >= 0) {
+                iterator.previous();
+                break;
+            }
+        }
+        iterator.add(message);
+        if (feed.size() > feedCapacity) {
+            feed.removeLast();
+        }
+    }
+
+    /**
+     * Performs a k-way merge of newest-first timelines, dropping duplicate
+     * messages that appear in more than one timeline.
+     *
+     * @param timelines lists of messages, each already sorted newest first.
+     * @param limit     the maximum number of messages to return.
+     * @return a single newest-first list of at most limit messages.
+     */
+    static List<Message> merge(List<List<Message>> timelines, int limit) {
+        if (timelines.size() == 1 && timelines.get(0).size() <= limit) {
+            return timelines.get(0);
+        }
+
+        // Each cursor is {timeline index, position within timeline}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, timelines.size()),
+                (a, b) -> NEWEST_FIRST.compare(timelines.get(a[0]).get(a[1]), timelines.get(b[0]).get(b[1])));
+        for (int i = 0; i < timelines.size(); i++) {
+            if (!timelines.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+
+        List<Message> merged = new ArrayList<>(Math.min(limit, 64));
+        Set<Long> seen = new HashSet<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] cursor = heads.poll();
+            List<Message> timeline = timelines.get(cursor[0]);
+            Message message = timeline.get(cursor[1]);
+            if (seen.add(message.getMessage_id())) {
+                merged.add(message);
+            }
+            if (++cursor[1] < timeline.size()) {
+                heads.add(cursor);
+            }
+        }
+        return merged.isEmpty() ? Collections.emptyList() : merged;
+    }
+}
@@ -0,0 +1,131 @@
+package Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import Model.Account;
+import Model.Message;
+import Model.TrendingTopic;
+import Util.SegmentLog;
+
+/**
+ * Base for decorators of SocialMedia. Every operation is forwarded to the
+ * wrapped implementation through call, so a decorator that treats all
+ * operations alike only overrides call, and one that changes particular
+ * operations overrides just those.
+ */
+public abstract class ForwardingSocialMedia implements SocialMedia {
+    protected final SocialMedia delegate;
+
+    /**
+     * @param delegate the implementation to forward to.
+     */
+    protected ForwardingSocialMedia(SocialMedia delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Runs one operation on the delegate.
+     *
+     * @param operation  the name of the SocialMedia method.
+     * @param idempotent whether running the operation again has no further
+     *                   effect, so it may be retried.
+     * @param invocation calls the delegate.
+     * @return the delegate's result.
+     */
+    protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+        return invocation.get();
+    }
+
+    @Override
+    public Account addAccount(Account account) {
+        return call("addAccount", false, () -> delegate.addAccount(account));
+    }
+
+    @Override
+    public Account login(String username, String password) {
+        return call("login", false, () -> delegate.login(username, password));
+    }
+
+    @Override
+    public Account getAccountByUsername(String username) {
+        return call("getAccountByUsername", true, () -> delegate.getAccountByUsername(username));
+    }
+
+    @Override
+    public Account getAccountById(int account_id) {
+        return call("getAccountById", true, () -> delegate.getAccountById(account_id));
+    }
+
+    @Override
+    public Message postMessage(Message message) {
+        return call("postMessage", false, () -> delegate.postMessage(message));
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return call("getAllMessages", true, delegate::getAllMessages);
+    }
+
+    @Override
+    public Message getMessageById(long message_id) {
+        return call("getMessageById", true, () -> delegate.getMessageById(message_id));
+    }
+
+    @Override
+    public Message deleteMessageById(long message_id) {
+        return call("deleteMessageById", false, () -> delegate.deleteMessageById(message_id));
+    }
+
+    @Override
+    public Message updateMessageById(long message_id, String message_text) {
+        return call("updateMessageById", false, () -> delegate.updateMessageById(message_id, message_text));
+    }
+
+    @Override
+    public List<Message> getAllMessagesByAccountId(int account_id) {
+        return call("getAllMessagesByAccountId", true, () -> delegate.getAllMessagesByAccountId(account_id));
+    }
+
+    @Override
+    public List<Message> getMessagesByAccountIdBefore(int account_id, long before_message_id, int limit) {
+        return call("getMessagesByAccountIdBefore", true,
+                () -> delegate.getMessagesByAccountIdBefore(account_id, before_message_id, limit));
+    }
+
+    @Override
+    public SegmentLog.Slice getChanges(long since, int limit) {
+        return call("getChanges", true, () -> delegate.getChanges(since, limit));
+    }
+
+    @Override
+    public CompletableFuture<Void> awaitChanges(long since, long waitMillis) {
+        return call("awaitChanges", true, () -> delegate.awaitChanges(since, waitMillis));
+    }
+
+    @Override
+    public MessageStream.Subscription subscribeToMessages(Integer account_id, MessageStream.Sink sink) {
+        return call("subscribeToMessages", false, () -> delegate.subscribeToMessages(account_id, sink));
+    }
+
+    @Override
+    public boolean followAccount(int follower_id, int followed_id) {
+        return call("followAccount", false, () -> delegate.followAccount(follower_id, followed_id));
+    }
+
+    @Override
+    public List<Message> getFeed(int account_id, int limit) {
+        return call("getFeed", true, () -> delegate.getFeed(account_id, limit));
+    }
+
+    @Override
+    public List<Message> searchMessages(String query, int offset, int limit) {
+        return call("searchMessages", true, () -> delegate.searchMessages(query, offset, limit));
+    }
+
+    @Override
+    public List<TrendingTopic> getTrending(boolean mentions, int limit) {
+        return call("getTrending", true, () -> delegate.getTrending(mentions, limit));
+    }
+}
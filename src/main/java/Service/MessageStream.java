@@ -0,0 +1,318 @@
+package Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.AppConfig;
+import Util.Metrics;
+
+/**
+ * Pushes message changes to live subscribers as server-sent events.
+ *
+ * Each change is serialized to one event frame, and the same bytes are queued
+ * for every interested subscriber: those following all messages, and those
+ * following the poster's account. Subscribers are drained by a small pool of
+ * "stream.writer_threads" threads (default: one per core), each drain running
+ * until the subscriber's queue is empty, so no thread is tied to an idle
+ * subscriber. A subscriber whose queue already holds
+ * "stream.buffer_events" (default 256) unsent events is too slow to keep up;
+ * it is disconnected rather than buffered without bound, and can reconnect.
+ *
+ * Writes block, so a client that stops reading would hold its writer thread
+ * once the network buffers fill. Every write therefore has a deadline of
+ * "stream.write_timeout_ms" (default 10000): a watchdog aborts the connection
+ * of a subscriber whose write has run past it, which fails the write and
+ * frees the thread for the other subscribers.
+ */
+public class MessageStream {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Set<Subscription> allMessages = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Set<Subscription>> byAccount = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    /**
+     * Checks the write deadlines of every MessageStream.
+     */
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-stream-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int bufferEvents;
+    private final long writeTimeoutNanos;
+    private final ThreadPoolExecutor writers;
+    private final ScheduledFuture<?> deadlineChecks;
+
+    public MessageStream() {
+        this(AppConfig.getInt("stream.buffer_events", 256),
+                AppConfig.getInt("stream.writer_threads", Runtime.getRuntime().availableProcessors()),
+                AppConfig.getLong("stream.write_timeout_ms", 10_000));
+    }
+
+    /**
+     * @param bufferEvents       the most events queued for one subscriber.
+     * @param writerThreads      the number of threads writing to subscribers.
+     * @param writeTimeoutMillis the longest one write to a subscriber may
+     *                           take before the subscriber is disconnected.
+     */
+    public MessageStream(int bufferEvents, int writerThreads, long writeTimeoutMillis) {
+        this.bufferEvents = bufferEvents;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "message-stream-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        writers.allowCoreThreadTimeOut(true);
+        long checkMillis = Math.max(10, writeTimeoutMillis / 4);
+        this.deadlineChecks = watchdog.scheduleAtFixedRate(this::abortStalledWrites, checkMillis, checkMillis,
+                TimeUnit.MILLISECONDS);
+        Metrics.gauge("stream.subscribers", subscriberCount::get);
+    }
+
+    /**
+     * Starts sending message changes to a subscriber.
+     *
+     * @param account_id the account whose messages to send, or null for every
+     *                   message.
+     * @param sink       where to write the subscriber's events.
+     * @return the subscription, to cancel once the subscriber disconnects.
+     */
+    public Subscription subscribe(Integer account_id, Sink sink) {
+        Subscription subscription = new Subscription(account_id, sink, new ArrayBlockingQueue<>(bufferEvents));
+        if (account_id == null) {
+            allMessages.add(subscription);
+        } else {
+            byAccount.compute(account_id, (key, subscribers) -> {
+                Set<Subscription> set = subscribers == null ? ConcurrentHashMap.newKeySet() : subscribers;
+                set.add(subscription);
+                return set;
+            });
+        }
+        subscriberCount.incrementAndGet();
+        return subscription;
+    }
+
+    /**
+     * Sends a message change to every interested subscriber.
+     *
+     * @param type    the event name, one of the ChangeEvent types.
+     * @param message the message as it was after the change.
+     */
+    public void broadcast(String type, Message message) {
+        Set<Subscription> accountSubscribers = byAccount.get(message.getPosted_by());
+        if (allMessages.isEmpty() && (accountSubscribers == null || accountSubscribers.isEmpty())) {
+            return;
+        }
+        byte[] frame;
+        try {
+            frame = ("event: " + type + "\ndata: " + objectMapper.writeValueAsString(message) + "\n\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            System.out.println("Could not serialize message: " + e.getMessage());
+            return;
+        }
+        for (Subscription subscription : allMessages) {
+            subscription.offer(frame);
+        }
+        if (accountSubscribers != null) {
+            for (Subscription subscription : accountSubscribers) {
+                subscription.offer(frame);
+            }
+        }
+        Metrics.counter("stream.events").increment();
+    }
+
+    /**
+     * Sends the events already queued, waiting up to timeoutMillis for them,
+     * then disconnects every subscriber. Events broadcast afterwards are not
+     * sent.
+     *
+     * @param timeoutMillis the longest time to wait for queued events.
+     */
+    public void close(long timeoutMillis) {
+        writers.shutdown();
+        try {
+            writers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deadlineChecks.cancel(false);
+        List<Subscription> subscriptions = new ArrayList<>(allMessages);
+        byAccount.values().forEach(subscriptions::addAll);
+        for (Subscription subscription : subscriptions) {
+            subscription.cancel();
+            subscription.sink.close();
+        }
+    }
+
+    /**
+     * Disconnects every subscriber whose current write has passed its
+     * deadline.
+     */
+    private void abortStalledWrites() {
+        long now = System.nanoTime();
+        List<Subscription> subscriptions = new ArrayList<>(allMessages);
+        byAccount.values().forEach(subscriptions::addAll);
+        for (Subscription subscription : subscriptions) {
+            long deadline = subscription.writeDeadlineNanos;
+            if (deadline != 0 && now - deadline > 0) {
+                Metrics.counter("stream.write_timeouts").increment();
+                subscription.cancel();
+                subscription.sink.abort();
+            }
+        }
+    }
+
+    /**
+     * @return the number of connected subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * Where a subscriber's events are written, typically an HTTP response.
+     */
+    public interface Sink {
+        /**
+         * Writes and flushes one complete event frame.
+         *
+         * @param frame the encoded event; shared with other subscribers, so it
+         *              must not be modified.
+         * @throws IOException if the subscriber can no longer be reached.
+         */
+        void send(byte[] frame) throws IOException;
+
+        /**
+         * Ends the subscriber's connection.
+         */
+        void close();
+
+        /**
+         * Ends the subscriber's connection at once, failing a send blocked on
+         * it. By default the same as close.
+         */
+        default void abort() {
+            close();
+        }
+    }
+
+    /**
+     * One subscriber's queue of unsent events.
+     */
+    public class Subscription {
+        private final Integer account_id;
+        private final Sink sink;
+        private final BlockingQueue<byte[]> pending;
+        /**
+         * Whether a drain of this subscriber is queued or running, so at most
+         * one thread writes to it at a time.
+         */
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        /**
+         * When the write in progress must have finished, or 0 between writes.
+         */
+        private volatile long writeDeadlineNanos;
+
+        Subscription(Integer account_id, Sink sink, BlockingQueue<byte[]> pending) {
+            this.account_id = account_id;
+            this.sink = sink;
+            this.pending = pending;
+        }
+
+        /**
+         * Stops sending events to this subscriber. Safe to call more than once.
+         */
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                if (account_id == null) {
+                    allMessages.remove(this);
+                } else {
+                    // Drop the account's set with its last subscriber
+                    byAccount.computeIfPresent(account_id, (key, subscribers) -> {
+                        subscribers.remove(this);
+                        return subscribers.isEmpty() ? null : subscribers;
+                    });
+                }
+                subscriberCount.decrementAndGet();
+                pending.clear();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        private void offer(byte[] frame) {
+            if (cancelled.get()) {
+                return;
+            }
+            if (!pending.offer(frame)) {
+                Metrics.counter("stream.slow_subscribers_dropped").increment();
+                cancel();
+                // A writer may be blocked on the subscriber, so fail its write too
+                sink.abort();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            byte[] frame;
+            try {
+                while ((frame = pending.poll()) != null) {
+                    // Never 0, which means no write is in progress
+                    writeDeadlineNanos = (System.nanoTime() + writeTimeoutNanos) | 1;
+                    sink.send(frame);
+                    writeDeadlineNanos = 0;
+                }
+            } catch (IOException e) {
+                // The subscriber went away, or its write passed the deadline
+                cancel();
+                sink.close();
+            } finally {
+                writeDeadlineNanos = 0;
+                draining.set(false);
+            }
+            // An event queued after the last poll but before draining was cleared
+            if (!pending.isEmpty() && !cancelled.get()) {
+                scheduleDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package Service;
+
+import java.util.function.Supplier;
+
+import Util.Metrics;
+
+/**
+ * Records the latency of every operation as the timer
+ * "service.{operation}", and the operations that threw as the counter
+ * "service.{operation}.errors".
+ */
+public class MeteredSocialMedia extends ForwardingSocialMedia {
+
+    /**
+     * @param delegate the implementation to measure.
+     */
+    public MeteredSocialMedia(SocialMedia delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+        long start = System.nanoTime();
+        try {
+            return invocation.get();
+        } catch (RuntimeException e) {
+            Metrics.counter("service." + operation + ".errors").increment();
+            throw e;
+        } finally {
+            Metrics.timer("service." + operation).recordSince(start);
+        }
+    }
+}
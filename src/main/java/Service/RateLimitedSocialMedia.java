@@ -0,0 +1,50 @@
+package Service;
+
+import java.util.function.Supplier;
+
+import Util.InMemoryRateLimiterBackend;
+import Util.RateLimiter;
+
+/**
+ * Takes a token from one token bucket, shared by every operation, before
+ * each operation. Unlike the controller's per account and per IP limits, this
+ * bounds the total load put on the wrapped implementation by all callers. The
+ * bucket is configured as "ratelimit.service.capacity" (default 1000) and
+ * "ratelimit.service.refill_per_second" (default 500).
+ */
+public class RateLimitedSocialMedia extends ForwardingSocialMedia {
+    private static final String KEY = "service";
+
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Limit limit;
+
+    /**
+     * Creates a configured limit kept in local memory.
+     *
+     * @param delegate the implementation to protect.
+     */
+    public RateLimitedSocialMedia(SocialMedia delegate) {
+        this(delegate, new RateLimiter(new InMemoryRateLimiterBackend()),
+                RateLimiter.Limit.configured(KEY, 1000, 500));
+    }
+
+    /**
+     * @param delegate    the implementation to protect.
+     * @param rateLimiter the rate limiter holding the bucket.
+     * @param limit       the bucket's capacity and refill rate.
+     */
+    public RateLimitedSocialMedia(SocialMedia delegate, RateLimiter rateLimiter, RateLimiter.Limit limit) {
+        super(delegate);
+        this.rateLimiter = rateLimiter;
+        this.limit = limit;
+    }
+
+    /**
+     * @throws Util.RateLimitExceededException if the bucket is empty.
+     */
+    @Override
+    protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+        rateLimiter.acquire(limit, KEY);
+        return invocation.get();
+    }
+}
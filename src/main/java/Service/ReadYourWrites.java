@@ -0,0 +1,124 @@
+package Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import DAO.ReadRouting;
+import Util.AppConfig;
+import Util.Metrics;
+
+/**
+ * Decides whether a read may go to a read replica.
+ *
+ * Write paths record the keys they changed, such as "message:7". For a short
+ * window afterwards, reads of those keys stay on the primary database, so a
+ * client that just wrote something reads it back even if the replicas have
+ * not caught up yet. Other reads go to a replica.
+ *
+ * Keys that every write touches, such as the list of all messages, are scoped
+ * with forCaller to the client the current thread serves, which the
+ * controller sets for each request. Only the client that wrote then reads that
+ * list from the primary; other clients keep reading it from a replica.
+ *
+ * The window is "db.replicas.read_your_writes_ms" (default 5000); it should
+ * exceed the worst replication lag the replicas are allowed.
+ */
+public class ReadYourWrites {
+    private static final ThreadLocal<String> caller = new ThreadLocal<>();
+
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final long windowMillis;
+    private final LongSupplier clock;
+    private final AtomicLong lastSweepMillis;
+
+    public ReadYourWrites() {
+        this(AppConfig.getLong("db.replicas.read_your_writes_ms", 5000), System::currentTimeMillis);
+    }
+
+    /**
+     * @param windowMillis how long reads of a written key stay on the primary.
+     * @param clock        source of the current time in milliseconds.
+     */
+    public ReadYourWrites(long windowMillis, LongSupplier clock) {
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+        this.lastSweepMillis = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Sets the client that the current thread is serving.
+     *
+     * @param caller_id identifies the client, such as "account:3".
+     */
+    public static void setCaller(String caller_id) {
+        caller.set(caller_id);
+    }
+
+    /**
+     * Forgets the client that the current thread was serving.
+     */
+    public static void clearCaller() {
+        caller.remove();
+    }
+
+    /**
+     * @param key a key every write touches, such as "messages".
+     * @return the key scoped to the client the current thread serves, or the
+     *         key itself if no client is set.
+     */
+    public static String forCaller(String key) {
+        String caller_id = caller.get();
+        return caller_id == null ? key : key + "@" + caller_id;
+    }
+
+    /**
+     * Records that keys were just written.
+     *
+     * @param keys the keys the write changed.
+     */
+    public void written(String... keys) {
+        long now = clock.getAsLong();
+        for (String key : keys) {
+            recentWrites.put(key, now);
+        }
+        sweepIfDue(now);
+    }
+
+    /**
+     * Runs a read on a replica, unless the key was written within the window.
+     *
+     * @param key   the key the read depends on, or null if it depends on none.
+     * @param reads the DAO calls to run.
+     * @return the result of reads.
+     */
+    public <T> T read(String key, Supplier<T> reads) {
+        if (key != null && isRecent(key)) {
+            Metrics.counter("replicas.read_your_writes").increment();
+            return reads.get();
+        }
+        return ReadRouting.onReplica(reads);
+    }
+
+    /**
+     * @param key a key that may have been written.
+     * @return true if the key was written within the window.
+     */
+    public boolean isRecent(String key) {
+        Long writtenAt = recentWrites.get(key);
+        return writtenAt != null && clock.getAsLong() - writtenAt < windowMillis;
+    }
+
+    /**
+     * Forgets expired writes, at most once per window.
+     */
+    private void sweepIfDue(long now) {
+        long lastSweep = lastSweepMillis.get();
+        if (now - lastSweep < windowMillis || !lastSweepMillis.compareAndSet(lastSweep, now)) {
+            return;
+        }
+        recentWrites.values().removeIf(writtenAt -> now - writtenAt >= windowMillis);
+    }
+}
@@ -0,0 +1,76 @@
+package Service;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import Util.AppConfig;
+import Util.LoadSheddingException;
+import Util.Metrics;
+import Util.RateLimitExceededException;
+
+/**
+ * Retries idempotent operations (reads) that fail with an exception, up to
+ * "service.retry.attempts" (default 3) attempts in all, waiting
+ * "service.retry.backoff_ms" (default 10) before the first retry and twice as
+ * long before each one after. Writes are never retried, since a write that
+ * failed may still have been applied. Neither are rejections by a rate or
+ * concurrency limit, since retrying at once would only add to the load those
+ * limits shed.
+ */
+public class RetryingSocialMedia extends ForwardingSocialMedia {
+    private final int attempts;
+    private final long backoffMillis;
+    private final LongAdder retries = Metrics.counter("service.retries");
+
+    /**
+     * Creates a retrying decorator with the configured attempts and backoff.
+     *
+     * @param delegate the implementation to retry.
+     */
+    public RetryingSocialMedia(SocialMedia delegate) {
+        this(delegate, AppConfig.getInt("service.retry.attempts", 3),
+                AppConfig.getLong("service.retry.backoff_ms", 10));
+    }
+
+    /**
+     * @param delegate      the implementation to retry.
+     * @param attempts      the most times to run an operation, at least 1.
+     * @param backoffMillis the wait before the first retry.
+     */
+    public RetryingSocialMedia(SocialMedia delegate, int attempts, long backoffMillis) {
+        super(delegate);
+        if (attempts < 1) {
+            throw new IllegalArgumentException("attempts must be at least 1");
+        }
+        this.attempts = attempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    @Override
+    protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+        long backoff = backoffMillis;
+        for (int attempt = 1;; attempt++) {
+            try {
+                return invocation.get();
+            } catch (LoadSheddingException | RateLimitExceededException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (!idempotent || attempt >= attempts) {
+                    throw e;
+                }
+                retries.increment();
+                sleep(backoff, e);
+                backoff *= 2;
+            }
+        }
+    }
+
+    private static void sleep(long millis, RuntimeException failure) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+}
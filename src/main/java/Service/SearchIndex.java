@@ -0,0 +1,714 @@
+package Service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Model.Message;
+import Util.Metrics;
+
+/**
+ * In-memory inverted index over message_text, ranked with BM25.
+ *
+ * Every indexed message gets a document number, handed out in increasing
+ * order, and each term's postings are parallel int arrays of document numbers
+ * and term frequencies in document order. The index keeps only the message_id
+ * and term count of each document, not the message itself; callers read the
+ * matching messages by message_id.
+ *
+ * Searches are evaluated with MaxScore: each term has an upper bound on the
+ * score it can add, and once the k-th best score found so far is above the sum
+ * of the bounds of the rarest-scoring terms, documents that only contain those
+ * terms are skipped, and the remaining terms are only looked up (by galloping
+ * search) for documents that can still make the top k. Postings are also split
+ * into blocks with their own, tighter bounds, so that runs of documents where
+ * no term's block can lift a document into the top k are skipped at once.
+ *
+ * A removed or replaced message only marks its document number as removed; its
+ * postings are dropped, and document numbers renumbered, once removed
+ * documents reach an eighth of the live ones. Until then, removed documents
+ * still count towards their terms' document frequencies.
+ *
+ * The index is maintained incrementally from the message write path, so a
+ * search never scans the database. Reads share a lock and run in parallel;
+ * writes take the lock exclusively.
+ */
+public class SearchIndex {
+    /**
+     * BM25 term frequency saturation parameter.
+     */
+    private static final double K1 = 1.2;
+    /**
+     * BM25 document length normalization parameter.
+     */
+    private static final double B = 0.75;
+    /**
+     * The deepest ranked result a search can reach: offset + limit never goes
+     * beyond it, so a search keeps at most this many hits.
+     */
+    public static final int MAX_RESULTS = 1000;
+    /**
+     * The number of postings per block of a term's postings.
+     */
+    private static final int BLOCK_SIZE = 32;
+    /**
+     * The length of a removed document.
+     */
+    private static final int REMOVED = -1;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> documentNumbers = new HashMap<>();
+    private long[] messageIds = new long[64];
+    private int[] lengths = new int[64];
+    private int documentCount;
+    private int removedCount;
+    private int maxLength;
+    private long totalTerms;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a message to the index, replacing any earlier version of it.
+     *
+     * @param message a persisted message with its message_id.
+     */
+    public void index(Message message) {
+        List<String> terms = tokenize(message.getMessage_text());
+        Map<String, Integer> frequencies = countTerms(terms);
+        lock.writeLock().lock();
+        try {
+            removeLocked(message.getMessage_id());
+            int document = addDocumentLocked(message.getMessage_id(), terms.size());
+            double averageLength = averageLengthLocked();
+            for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+                postings.computeIfAbsent(frequency.getKey(), key -> new Postings())
+                        .add(document, frequency.getValue(), terms.size(), averageLength);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a message from the index if it is present.
+     *
+     * @param message_id the message_id of the message to remove.
+     */
+    public void remove(long message_id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(message_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the messages that best match a free-text query.
+     *
+     * @param query  words to search for; a message matches if it contains any of
+     *               them, and messages containing more and rarer words rank
+     *               higher.
+     * @param offset number of ranked results to skip.
+     * @param limit  maximum number of results to return.
+     * @return the message_ids of one page of matching messages, best match
+     *         first. Ties are broken by newest message_id. Results beyond
+     *         MAX_RESULTS are not returned.
+     */
+    public long[] search(String query, int offset, int limit) {
+        Map<String, Integer> queryTerms = countTerms(tokenize(query));
+        if (queryTerms.isEmpty() || limit <= 0 || offset >= MAX_RESULTS) {
+            return new long[0];
+        }
+        int topK = (int) Math.min((long) offset + limit, MAX_RESULTS);
+
+        lock.readLock().lock();
+        try {
+            int liveCount = documentCount - removedCount;
+            double averageLength = averageLengthLocked();
+
+            // The length part of the BM25 denominator, for every document length
+            double[] lengthNorms = new double[maxLength + 1];
+            for (int length = 0; length <= maxLength; length++) {
+                lengthNorms[length] = K1 * (1 - B + B * length / averageLength);
+            }
+
+            List<Cursor> cursorList = new ArrayList<>(queryTerms.size());
+            for (Map.Entry<String, Integer> queryTerm : queryTerms.entrySet()) {
+                Postings termPostings = postings.get(queryTerm.getKey());
+                if (termPostings != null) {
+                    // A word repeated in the query counts once per repeat
+                    double idf = Math.log(1 + (liveCount - termPostings.size + 0.5) / (termPostings.size + 0.5));
+                    cursorList.add(new Cursor(termPostings, idf * queryTerm.getValue() * (K1 + 1), lengthNorms,
+                            averageLength));
+                }
+            }
+            if (cursorList.isEmpty()) {
+                return new long[0];
+            }
+            Cursor[] cursors = cursorList.toArray(new Cursor[0]);
+            return topDocuments(cursors, lengthNorms, topK, offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages currently indexed.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentCount - removedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the index, so that it can be read back without the messages.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the index could not be written.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(documentCount);
+            for (int document = 0; document < documentCount; document++) {
+                out.writeLong(messageIds[document]);
+                out.writeInt(lengths[document]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> term : postings.entrySet()) {
+                Postings termPostings = term.getValue();
+                out.writeUTF(term.getKey());
+                out.writeInt(termPostings.size);
+                for (int i = 0; i < termPostings.size; i++) {
+                    out.writeInt(termPostings.documents[i]);
+                    out.writeInt(termPostings.frequencies[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads an index written by writeTo.
+     *
+     * @param in the stream to read from.
+     * @return the index.
+     * @throws IOException if the index could not be read.
+     */
+    public static SearchIndex readFrom(DataInputStream in) throws IOException {
+        SearchIndex searchIndex = new SearchIndex();
+        int documentCount = in.readInt();
+        for (int document = 0; document < documentCount; document++) {
+            long message_id = in.readLong();
+            int length = in.readInt();
+            searchIndex.addDocumentLocked(message_id, Math.max(length, 0));
+            if (length == REMOVED) {
+                searchIndex.markRemovedLocked(document);
+            }
+        }
+        double averageLength = searchIndex.averageLengthLocked();
+        int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            Postings termPostings = new Postings();
+            int previous = -1;
+            for (int j = 0; j < size; j++) {
+                int document = in.readInt();
+                int frequency = in.readInt();
+                if (document <= previous || document >= documentCount) {
+                    throw new IOException("postings of " + term + " out of order");
+                }
+                termPostings.add(document, frequency, Math.max(searchIndex.lengths[document], 0), averageLength);
+                previous = document;
+            }
+            if (termPostings.size > 0) {
+                searchIndex.postings.put(term, termPostings);
+            }
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Replaces the contents of this index with those of another, which must
+     * no longer be used.
+     *
+     * @param other the index to take the contents of.
+     */
+    void replaceWith(SearchIndex other) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            postings.putAll(other.postings);
+            documentNumbers.clear();
+            documentNumbers.putAll(other.documentNumbers);
+            messageIds = other.messageIds;
+            lengths = other.lengths;
+            documentCount = other.documentCount;
+            removedCount = other.removedCount;
+            maxLength = other.maxLength;
+            totalTerms = other.totalTerms;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lowercase alphanumeric terms.
+     *
+     * @param text the text to split, may be null.
+     * @return the terms in order, including repeats.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @return each distinct term with the number of times it occurs.
+     */
+    private static Map<String, Integer> countTerms(List<String> terms) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String term : terms) {
+            counts.merge(term, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Runs MaxScore over the query terms' postings. The caller must hold the
+     * read lock.
+     *
+     * @param cursors     a cursor over the postings of each query term.
+     * @param lengthNorms the length part of the BM25 denominator by length.
+     * @param topK        the number of best documents to keep.
+     * @param offset      the number of best documents to skip.
+     * @return the message_ids of the best documents after offset, best first.
+     */
+    private long[] topDocuments(Cursor[] cursors, double[] lengthNorms, int topK, int offset) {
+        // Terms that can add the least come first; bounds[i] is the most the first i terms can add together
+        Arrays.sort(cursors, Comparator.comparingDouble(cursor -> cursor.bound));
+        double[] bounds = new double[cursors.length + 1];
+        for (int i = 0; i < cursors.length; i++) {
+            bounds[i + 1] = bounds[i] + cursors[i].bound;
+        }
+        double[] contributions = new double[cursors.length];
+
+        // The worst of the best hits so far is on top
+        PriorityQueue<Hit> best = new PriorityQueue<>(topK + 1);
+        double cutoff = Double.NEGATIVE_INFINITY;
+        int firstEssential = 0;
+        int checkedUpTo = -1;
+        while (firstEssential < cursors.length) {
+            // The next document containing a term that could make the top k on its own with the cheaper terms
+            int document = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < cursors.length; i++) {
+                document = Math.min(document, cursors[i].document());
+            }
+            if (document == Integer.MAX_VALUE) {
+                break;
+            }
+
+            if (cutoff > Double.NEGATIVE_INFINITY && document > checkedUpTo) {
+                // Up to blockEnd, every term's postings from document on are in its current block
+                int blockEnd = Integer.MAX_VALUE;
+                for (int i = 0; i < cursors.length; i++) {
+                    if (i < firstEssential) {
+                        cursors[i].advanceTo(document);
+                    }
+                    if (cursors[i].document() != Integer.MAX_VALUE) {
+                        blockEnd = Math.min(blockEnd, cursors[i].blockLastDocument());
+                    }
+                }
+                double blockBound = 0;
+                for (Cursor cursor : cursors) {
+                    if (cursor.document() <= blockEnd) {
+                        blockBound += cursor.blockBound();
+                    }
+                }
+                // Skip the documents up to blockEnd if none of them can make the top k
+                if (blockBound < cutoff) {
+                    for (int i = firstEssential; i < cursors.length; i++) {
+                        cursors[i].advanceTo(blockEnd + 1);
+                    }
+                    continue;
+                }
+                // Every document up to blockEnd may make the top k; check again after it
+                checkedUpTo = blockEnd;
+            }
+
+            double score = 0;
+            Arrays.fill(contributions, 0);
+            int length = lengths[document];
+            for (int i = firstEssential; i < cursors.length; i++) {
+                Cursor cursor = cursors[i];
+                if (cursor.document() == document) {
+                    if (length != REMOVED) {
+                        contributions[i] = cursor.score(length);
+                        score += contributions[i];
+                    }
+                    cursor.next();
+                }
+            }
+            if (length == REMOVED) {
+                continue;
+            }
+
+            // Look the cheaper terms up from the largest bound down, while the document can still make the top k
+            boolean pruned = false;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + bounds[i + 1] < cutoff) {
+                    pruned = true;
+                    break;
+                }
+                Cursor cursor = cursors[i];
+                cursor.advanceTo(document);
+                if (cursor.document() == document) {
+                    contributions[i] = cursor.score(length);
+                    score += contributions[i];
+                }
+            }
+            if (pruned) {
+                continue;
+            }
+
+            // The same summation order for every document, so equal documents get equal scores
+            score = 0;
+            for (double contribution : contributions) {
+                score += contribution;
+            }
+            if (best.size() == topK) {
+                Hit worst = best.peek();
+                if (score < worst.score || (score == worst.score && messageIds[document] < worst.message_id)) {
+                    continue;
+                }
+                best.poll();
+            }
+            best.add(new Hit(score, messageIds[document]));
+            if (best.size() == topK) {
+                // Allow for rounding in the partial sums compared against it
+                double threshold = best.peek().score;
+                cutoff = threshold - Math.abs(threshold) * 1e-9;
+                while (firstEssential < cursors.length && bounds[firstEssential + 1] < cutoff) {
+                    firstEssential++;
+                }
+            }
+        }
+
+        long[] ranked = new long[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll().message_id;
+        }
+        return offset >= ranked.length ? new long[0] : Arrays.copyOfRange(ranked, offset, ranked.length);
+    }
+
+    /**
+     * @return the average term count of the live documents, or 1 if there are
+     *         none. The caller must hold the lock.
+     */
+    private double averageLengthLocked() {
+        int liveCount = documentCount - removedCount;
+        return liveCount == 0 || totalTerms == 0 ? 1 : (double) totalTerms / liveCount;
+    }
+
+    /**
+     * Hands out the next document number. The caller must hold the write lock.
+     */
+    private int addDocumentLocked(long message_id, int length) {
+        if (documentCount == messageIds.length) {
+            messageIds = Arrays.copyOf(messageIds, documentCount * 2);
+            lengths = Arrays.copyOf(lengths, documentCount * 2);
+        }
+        int document = documentCount++;
+        messageIds[document] = message_id;
+        lengths[document] = length;
+        documentNumbers.put(message_id, document);
+        maxLength = Math.max(maxLength, length);
+        totalTerms += length;
+        return document;
+    }
+
+    /**
+     * Removes a message's document, if it has one. The caller must hold the
+     * write lock.
+     */
+    private void removeLocked(long message_id) {
+        Integer document = documentNumbers.get(message_id);
+        if (document == null) {
+            return;
+        }
+        markRemovedLocked(document);
+        if (removedCount > (documentCount - removedCount) / 8) {
+            compactLocked();
+        }
+    }
+
+    /**
+     * Marks a document as removed. The caller must hold the write lock.
+     */
+    private void markRemovedLocked(int document) {
+        documentNumbers.remove(messageIds[document]);
+        totalTerms -= lengths[document];
+        lengths[document] = REMOVED;
+        removedCount++;
+    }
+
+    /**
+     * Drops the postings of removed documents and renumbers the rest, keeping
+     * their order. The caller must hold the write lock.
+     */
+    private void compactLocked() {
+        int[] renumbered = new int[documentCount];
+        int liveCount = 0;
+        maxLength = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (lengths[document] == REMOVED) {
+                renumbered[document] = REMOVED;
+            } else {
+                renumbered[document] = liveCount;
+                messageIds[liveCount] = messageIds[document];
+                lengths[liveCount] = lengths[document];
+                maxLength = Math.max(maxLength, lengths[document]);
+                liveCount++;
+            }
+        }
+        documentCount = liveCount;
+        removedCount = 0;
+        documentNumbers.clear();
+        for (int document = 0; document < documentCount; document++) {
+            documentNumbers.put(messageIds[document], document);
+        }
+        double averageLength = averageLengthLocked();
+        postings.values().removeIf(termPostings -> termPostings.compact(renumbered, lengths, averageLength));
+        Metrics.counter("search.compactions").increment();
+    }
+
+    /**
+     * @return the BM25 term frequency part of a term's score in a document,
+     *         before multiplying by the term's idf and K1 + 1.
+     */
+    private static double impact(int frequency, int length, double averageLength) {
+        return frequency / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /**
+     * The postings of one term: document numbers in increasing order with the
+     * term's frequency in each, and for every block of BLOCK_SIZE postings the
+     * highest impact in it, computed with the average document length when the
+     * block was started.
+     *
+     * An impact computed with average length a is at most a' / a times lower
+     * than the same impact under a larger average length a', and never lower
+     * under a smaller one, so a block's impacts stay bounded as the average
+     * changes.
+     */
+    private static final class Postings {
+        private int[] documents = new int[2];
+        private int[] frequencies = new int[2];
+        private int size;
+        private int maxFrequency;
+        private int minLength = Integer.MAX_VALUE;
+        private double[] blockImpacts = new double[1];
+        private double[] blockAverageLengths = new double[1];
+        private double maxImpact;
+        private double minAverageLength = Double.MAX_VALUE;
+
+        /**
+         * Appends a document with a higher number than any before it.
+         */
+        void add(int document, int frequency, int length, double averageLength) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            int block = size / BLOCK_SIZE;
+            if (block == blockImpacts.length) {
+                blockImpacts = Arrays.copyOf(blockImpacts, block * 2);
+                blockAverageLengths = Arrays.copyOf(blockAverageLengths, block * 2);
+            }
+            if (size % BLOCK_SIZE == 0) {
+                blockImpacts[block] = 0;
+                blockAverageLengths[block] = averageLength;
+                minAverageLength = Math.min(minAverageLength, averageLength);
+            }
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+            double impact = impact(frequency, length, blockAverageLengths[block]);
+            blockImpacts[block] = Math.max(blockImpacts[block], impact);
+            maxImpact = Math.max(maxImpact, impact);
+            maxFrequency = Math.max(maxFrequency, frequency);
+            minLength = Math.min(minLength, length);
+        }
+
+        /**
+         * Keeps only the postings of documents that were not removed, under
+         * their new numbers.
+         *
+         * @return true if no postings are left.
+         */
+        boolean compact(int[] renumbered, int[] lengths, double averageLength) {
+            int[] oldDocuments = documents;
+            int[] oldFrequencies = frequencies;
+            int oldSize = size;
+            size = 0;
+            maxFrequency = 0;
+            minLength = Integer.MAX_VALUE;
+            maxImpact = 0;
+            minAverageLength = Double.MAX_VALUE;
+            documents = new int[Math.max(2, oldSize)];
+            frequencies = new int[Math.max(2, oldSize)];
+            for (int i = 0; i < oldSize; i++) {
+                int document = renumbered[oldDocuments[i]];
+                if (document != REMOVED) {
+                    add(document, oldFrequencies[i], lengths[document], averageLength);
+                }
+            }
+            return size == 0;
+        }
+    }
+
+    /**
+     * A position in a term's postings during a search.
+     */
+    private static final class Cursor {
+        private final Postings postings;
+        private final double weight;
+        private final double[] lengthNorms;
+        private final double averageLength;
+        private final double bound;
+        private int position;
+
+        /**
+         * @param postings      the term's postings.
+         * @param weight        the term's idf, times its count in the query,
+         *                      times K1 + 1.
+         * @param lengthNorms   the length part of the BM25 denominator by length.
+         * @param averageLength the current average document length.
+         */
+        Cursor(Postings postings, double weight, double[] lengthNorms, double averageLength) {
+            this.postings = postings;
+            this.weight = weight;
+            this.lengthNorms = lengthNorms;
+            this.averageLength = averageLength;
+            this.bound = Math.min(score(postings.maxFrequency, postings.minLength),
+                    weight * postings.maxImpact * Math.max(1, averageLength / postings.minAverageLength));
+        }
+
+        /**
+         * @return the current document, or Integer.MAX_VALUE past the end.
+         */
+        int document() {
+            return position < postings.size ? postings.documents[position] : Integer.MAX_VALUE;
+        }
+
+        /**
+         * @return the term's score in the current document.
+         */
+        double score(int length) {
+            return score(postings.frequencies[position], length);
+        }
+
+        /**
+         * @return the most the term can score in the current block.
+         */
+        double blockBound() {
+            int block = position / BLOCK_SIZE;
+            return weight * postings.blockImpacts[block]
+                    * Math.max(1, averageLength / postings.blockAverageLengths[block]);
+        }
+
+        /**
+         * @return the last document of the current block.
+         */
+        int blockLastDocument() {
+            int last = Math.min((position / BLOCK_SIZE + 1) * BLOCK_SIZE, postings.size) - 1;
+            return postings.documents[last];
+        }
+
+        void next() {
+            position++;
+        }
+
+        /**
+         * Moves to the first document at or after target, galloping from the
+         * current position.
+         */
+        void advanceTo(int target) {
+            int[] documents = postings.documents;
+            if (position >= postings.size || documents[position] >= target) {
+                return;
+            }
+            int low = position;
+            int step = 1;
+            int high = position + step;
+            while (high < postings.size && documents[high] < target) {
+                low = high;
+                step <<= 1;
+                high = position + step;
+            }
+            high = Math.min(high, postings.size);
+            // documents[low] < target, and documents[high] >= target or high is past the end
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                if (documents[middle] < target) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            position = high;
+        }
+
+        private double score(int frequency, int length) {
+            return weight * frequency / (frequency + lengthNorms[length]);
+        }
+    }
+
+    /**
+     * A scored document, ordered from worst to best so that a PriorityQueue
+     * evicts the worst. Ties are broken by message_id, newest best.
+     */
+    private static final class Hit implements Comparable<Hit> {
+        private final double score;
+        private final long message_id;
+
+        Hit(double score, long message_id) {
+            this.score = score;
+            this.message_id = message_id;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(message_id, other.message_id);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import Model.Account;
+import Model.Message;
+import Model.TrendingTopic;
+import Util.SegmentLog;
+
+/**
+ * The operations the controller serves. SocialMediaService implements them
+ * against the DAO; the ForwardingSocialMedia decorators add metrics, caching,
+ * rate limiting and retries around any other implementation, so those layers
+ * can be stacked and turned on through configuration (see Main).
+ */
+public interface SocialMedia {
+
+    /**
+     * @return the new account with its account_id, or null if it could not
+     *         be added.
+     */
+    Account addAccount(Account account);
+
+    /**
+     * @return the account if the credentials match, null otherwise.
+     */
+    Account login(String username, String password);
+
+    /**
+     * @return the account with the username, or null if there is none.
+     */
+    Account getAccountByUsername(String username);
+
+    /**
+     * @return the account with the account_id, or null if there is none.
+     */
+    Account getAccountById(int account_id);
+
+    /**
+     * @return the posted message with its message_id, or null if it could not
+     *         be added.
+     */
+    Message postMessage(Message message);
+
+    /**
+     * @return every message; an empty list if there are none.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @return the message with the message_id, or null if there is none.
+     */
+    Message getMessageById(long message_id);
+
+    /**
+     * @return the deleted message, or null if there was none.
+     */
+    Message deleteMessageById(long message_id);
+
+    /**
+     * @return the updated message, or null if there is none or the text is
+     *         invalid.
+     */
+    Message updateMessageById(long message_id, String message_text);
+
+    /**
+     * @return every message posted by the account.
+     */
+    List<Message> getAllMessagesByAccountId(int account_id);
+
+    /**
+     * @return one page of the account's messages with a message_id below
+     *         before_message_id, highest message_id first, or null on error.
+     */
+    List<Message> getMessagesByAccountIdBefore(int account_id, long before_message_id, int limit);
+
+    /**
+     * @return the changes after since, or null if they are no longer kept.
+     */
+    SegmentLog.Slice getChanges(long since, int limit);
+
+    /**
+     * @return a future completed when there is a change after since or
+     *         waitMillis has passed.
+     */
+    CompletableFuture<Void> awaitChanges(long since, long waitMillis);
+
+    /**
+     * @return the subscription pushing message changes to the sink.
+     */
+    MessageStream.Subscription subscribeToMessages(Integer account_id, MessageStream.Sink sink);
+
+    /**
+     * @return true if the follow was recorded.
+     */
+    boolean followAccount(int follower_id, int followed_id);
+
+    /**
+     * @return the account's home feed, newest first, or null on error.
+     */
+    List<Message> getFeed(int account_id, int limit);
+
+    /**
+     * @return one page of messages matching the query, best match first.
+     */
+    List<Message> searchMessages(String query, int offset, int limit);
+
+    /**
+     * @return the most used hashtags, or mentioned usernames, most used
+     *         first.
+     */
+    List<TrendingTopic> getTrending(boolean mentions, int limit);
+}
@@ -1,19 +1,62 @@
 package Service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import DAO.Sharding;
 import DAO.SocialMediaDAO;
+import DAO.UnitOfWorkException;
 import Model.Account;
+import Model.ChangeEvent;
 import Model.Message;
+import Model.TrendingTopic;
+import Util.AdaptiveConcurrencyLimiter;
+import Util.AppConfig;
+import Util.PasswordHasher;
+import Util.SegmentLog;
 
-public class SocialMediaService {
+public class SocialMediaService implements SocialMedia {
     SocialMediaDAO socialMediaDAO;
+    FeedService feedService;
+    SearchIndex searchIndex;
+    TrendingService trendingService;
 
     /**
-     * No args SocialMediaService constructor, instantiates SocialMediaDAO.
+     * Separate adaptive concurrency limits for database reads and writes, so a
+     * burst of one cannot starve the other.
+     */
+    AdaptiveConcurrencyLimiter readLimiter;
+    AdaptiveConcurrencyLimiter writeLimiter;
+    PasswordHasher passwordHasher;
+    /**
+     * Routes message reads to read replicas, except reads of recently written
+     * messages. Account lookups always use the primary, because registration,
+     * login and authorization must see the latest accounts.
+     */
+    ReadYourWrites readYourWrites;
+    /**
+     * Log of committed message changes, for consumers that follow changes
+     * instead of polling every message.
+     */
+    ChangeFeed changeFeed;
+    /**
+     * Pushes message changes to live subscribers.
+     */
+    MessageStream messageStream;
+    /**
+     * Applies the changes to each message after commit in the order they
+     * committed.
+     */
+    ChangeOrder changeOrder;
+
+    /**
+     * No args SocialMediaService constructor, instantiates the configured SocialMediaDAO.
      */
     public SocialMediaService() {
-        socialMediaDAO = new SocialMediaDAO();
+        this(SocialMediaDAO.create());
     }
 
     /**
@@ -22,18 +65,127 @@ public class SocialMediaService {
      * @param SocialMediaDAO
      */
     public SocialMediaService(SocialMediaDAO socialMediaDAO) {
+        this(socialMediaDAO, null);
+    }
+
+    /**
+     * Creates a service whose caches are warmed from a startup snapshot (see
+     * saveSnapshot) when there is a usable one, and built from the database
+     * otherwise.
+     * 
+     * @param socialMediaDAO the DAO to use.
+     * @param snapshotFile   the startup snapshot, or null to build the caches
+     *                       from the database.
+     */
+    public SocialMediaService(SocialMediaDAO socialMediaDAO, Path snapshotFile) {
         this.socialMediaDAO = socialMediaDAO;
+        this.feedService = new FeedService(socialMediaDAO);
+        this.trendingService = new TrendingService(socialMediaDAO);
+        this.readLimiter = new AdaptiveConcurrencyLimiter("read");
+        this.writeLimiter = new AdaptiveConcurrencyLimiter("write");
+        this.passwordHasher = new PasswordHasher();
+        this.readYourWrites = new ReadYourWrites();
+        this.changeFeed = new ChangeFeed();
+        this.messageStream = new MessageStream();
+        this.changeOrder = new ChangeOrder(256);
+        this.searchIndex = new SearchIndex();
+        if (snapshotFile == null || !StartupSnapshot.restore(snapshotFile, searchIndex, feedService, changeFeed)) {
+            indexAllMessages(socialMediaDAO, searchIndex);
+        }
+    }
+
+    /**
+     * Fills the message search index with every message currently in the
+     * database. From then on the index is kept up to date by the write methods
+     * of this service.
+     * 
+     * @param socialMediaDAO the DAO to load existing messages from.
+     * @param searchIndex    the empty index to fill.
+     */
+    private static void indexAllMessages(SocialMediaDAO socialMediaDAO, SearchIndex searchIndex) {
+        List<Message> messages = socialMediaDAO.getAllMessages();
+        if (messages != null) {
+            messages.forEach(searchIndex::index);
+        }
     }
 
     /**
-     * Creates new account in the database
+     * Saves the search index and up to "startup.snapshot_feeds" (default 1000)
+     * precomputed feeds, for a later start to be warmed from. Failures are
+     * logged; the next start then builds its caches from the database.
+     * 
+     * @param snapshotFile the file to write.
+     */
+    public void saveSnapshot(Path snapshotFile) {
+        try {
+            StartupSnapshot.save(snapshotFile, searchIndex, feedService, changeFeed,
+                    AppConfig.getInt("startup.snapshot_feeds", 1000));
+        } catch (IOException e) {
+            System.out.println("Could not save startup snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the message events already queued and disconnects the live
+     * subscribers, then answers every waiting long poll, so that neither holds
+     * up draining the server before shutdown.
+     * 
+     * @param timeoutMillis the longest time to wait for queued events.
+     */
+    public void closeStreams(long timeoutMillis) {
+        messageStream.close(timeoutMillis);
+        changeFeed.releaseWaiters();
+    }
+
+    /**
+     * Forces the change log to disk and closes it and the DAO. Call once no
+     * more requests are served.
+     */
+    public void close() {
+        changeFeed.close();
+        socialMediaDAO.close();
+    }
+
+    /**
+     * Creates new account in the database, storing a salted hash of its password
      * 
      * @param account - an account object with username and password
      * @return the account object with generated account_id in addition
      *         to username and password if it was successfully added, null otherwise
      */
     public Account addAccount(Account account) {
-        return socialMediaDAO.insertNewAccount(account);
+        // Hash before taking a database slot, so slow hashing can't hold one
+        String passwordHash = passwordHasher.hash(account.getPassword());
+        Account storedAccount = writeLimiter.call(() -> socialMediaDAO.insertNewAccount(
+                new Account(account.getUsername(), passwordHash)));
+        if (storedAccount == null) {
+            return null;
+        }
+        return storedAccount.withPassword(account.getPassword());
+    }
+
+    /**
+     * Checks a username and password. Passwords stored as plaintext or hashed
+     * with an outdated work factor are rehashed after a successful check.
+     * 
+     * @param username the username of the account.
+     * @param password the plaintext password to check.
+     * @return the account with the given password if the credentials match,
+     *         null otherwise.
+     */
+    public Account login(String username, String password) {
+        Account matchingAccount = getAccountByUsername(username);
+        if (matchingAccount == null || !passwordHasher.verify(password, matchingAccount.getPassword())) {
+            return null;
+        }
+        if (passwordHasher.needsUpgrade(matchingAccount.getPassword())) {
+            String passwordHash = passwordHasher.hash(password);
+            writeLimiter.call(() -> {
+                socialMediaDAO.updateAccountPassword(matchingAccount.getAccount_id(), passwordHash);
+                return null;
+            });
+        }
+        return matchingAccount.withPassword(password);
     }
 
     /**
@@ -44,7 +196,7 @@ public class SocialMediaService {
      *         to username and password if it was successfully added, null otherwise
      */
     public Account getAccountByUsername(String username) {
-        return socialMediaDAO.getAccountByUsername(username);
+        return readLimiter.call(() -> socialMediaDAO.getAccountByUsername(username));
     }
 
     /**
@@ -56,7 +208,7 @@ public class SocialMediaService {
      *         returned.
      */
     public Account getAccountById(int account_id) {
-        return socialMediaDAO.getAccountById(account_id);
+        return readLimiter.call(() -> socialMediaDAO.getAccountById(account_id));
     }
 
     /**
@@ -64,11 +216,39 @@ public class SocialMediaService {
      * 
      * @param message a new message submitted by a user.
      * @return a message object matching the object added to the database with
-     *         auto_generated message_id, if an exception occurred, then null is
-     *         returned.
+     *         auto_generated message_id.
+     * @throws UnitOfWorkException if the write failed and was rolled back.
      */
     public Message postMessage(Message message) {
-        return socialMediaDAO.insertNewMessage(message);
+        return writeLimiter.call(() -> {
+            // Every id this post registered, one per attempt of its transaction
+            List<Long> posting = new ArrayList<>();
+            try {
+                // Insert the message and its tags in one transaction on the poster's shard
+                Message postedMessage = socialMediaDAO.inTransaction(
+                        Sharding.shardForAccount(message.getPosted_by()), () -> {
+                            Message insertedMessage = socialMediaDAO.insertNewMessage(message);
+                            if (insertedMessage != null) {
+                                trendingService.saveTags(insertedMessage);
+                                changeOrder.posting(insertedMessage.getMessage_id());
+                                posting.add(insertedMessage.getMessage_id());
+                            }
+                            return insertedMessage;
+                        });
+                // In-memory structures are only updated once the write has committed
+                if (postedMessage != null) {
+                    messageWritten(postedMessage);
+                    changeFeed.publish(ChangeEvent.CREATED, postedMessage);
+                    messageStream.broadcast(ChangeEvent.CREATED, postedMessage);
+                    searchIndex.index(postedMessage);
+                    trendingService.countTags(postedMessage);
+                    feedService.onMessagePosted(postedMessage);
+                }
+                return postedMessage;
+            } finally {
+                posting.forEach(changeOrder::postApplied);
+            }
+        });
     }
 
     /**
@@ -78,7 +258,8 @@ public class SocialMediaService {
      *         messages, then an empty list is returned.
      */
     public List<Message> getAllMessages() {
-        return socialMediaDAO.getAllMessages();
+        return readLimiter.call(() -> readYourWrites.read(ReadYourWrites.forCaller(ALL_MESSAGES_KEY),
+                () -> socialMediaDAO.getAllMessages()));
     }
 
     /**
@@ -89,8 +270,9 @@ public class SocialMediaService {
      *         database, if no matching message exists, then a null value is
      *         returned.
      */
-    public Message getMessageById(int message_id) {
-        return socialMediaDAO.getMessageById(message_id);
+    public Message getMessageById(long message_id) {
+        return readLimiter.call(() -> readYourWrites.read(messageKey(message_id),
+                () -> socialMediaDAO.getMessageById(message_id)));
     }
 
     /**
@@ -100,9 +282,26 @@ public class SocialMediaService {
      * @return a message object matching the message_id if it exists in the
      *         database, if no matching message exists, then a null value is
      *         returned.
+     * @throws UnitOfWorkException if the write failed and was rolled back.
      */
-    public Message deleteMessageById(int message_id) {
-        return socialMediaDAO.deleteMessageById(message_id);
+    public Message deleteMessageById(long message_id) {
+        return writeLimiter.call(() -> {
+            changeOrder.lock(message_id);
+            try {
+                Message deletedMessage = socialMediaDAO.deleteMessageById(message_id);
+                if (deletedMessage != null) {
+                    changeOrder.awaitPostApplied(message_id);
+                    messageWritten(deletedMessage);
+                    changeFeed.publish(ChangeEvent.DELETED, deletedMessage);
+                    messageStream.broadcast(ChangeEvent.DELETED, deletedMessage);
+                    searchIndex.remove(message_id);
+                    feedService.onMessageDeleted(deletedMessage);
+                }
+                return deletedMessage;
+            } finally {
+                changeOrder.unlock(message_id);
+            }
+        });
     }
 
     /**
@@ -112,10 +311,41 @@ public class SocialMediaService {
      * @return a message object matching the message_id if it exists in the
      *         database, if no matching message exists, then a null value is
      *         returned.
+     * @throws UnitOfWorkException if the write failed and was rolled back.
      */
-    public Message updateMessageById(int message_id, String message_text) {
-        socialMediaDAO.updateMessageById(message_id, message_text);
-        return socialMediaDAO.getMessageById(message_id);
+    public Message updateMessageById(long message_id, String message_text) {
+        return writeLimiter.call(() -> {
+            changeOrder.lock(message_id);
+            try {
+                // The message as it was before the edit, read in the same transaction
+                Message[] previousMessage = new Message[1];
+                // Read, update, read back and re-tag the message in one transaction on its shard
+                Message updatedMessage = socialMediaDAO.inTransaction(Sharding.shardForMessage(message_id), () -> {
+                    previousMessage[0] = socialMediaDAO.getMessageById(message_id);
+                    if (previousMessage[0] == null) {
+                        return null;
+                    }
+                    socialMediaDAO.updateMessageById(message_id, message_text);
+                    Message message = socialMediaDAO.getMessageById(message_id);
+                    if (message != null) {
+                        trendingService.saveTags(message);
+                    }
+                    return message;
+                });
+                if (updatedMessage != null) {
+                    changeOrder.awaitPostApplied(message_id);
+                    messageWritten(updatedMessage);
+                    changeFeed.publish(ChangeEvent.UPDATED, updatedMessage);
+                    messageStream.broadcast(ChangeEvent.UPDATED, updatedMessage);
+                    searchIndex.index(updatedMessage);
+                    trendingService.countNewTags(previousMessage[0], updatedMessage);
+                    feedService.onMessageUpdated(updatedMessage);
+                }
+                return updatedMessage;
+            } finally {
+                changeOrder.unlock(message_id);
+            }
+        });
     }
 
     /**
@@ -128,7 +358,151 @@ public class SocialMediaService {
      *         returned.
      */
     public List<Message> getAllMessagesByAccountId(int account_id) {
-        return socialMediaDAO.getAllMessagesByAccountId(account_id);
+        return readLimiter.call(() -> readYourWrites.read(postedByKey(account_id),
+                () -> socialMediaDAO.getAllMessagesByAccountId(account_id)));
+    }
+
+    /**
+     * Fetches one page of an account's messages, paging backwards by
+     * message_id. Passing the last message_id of a page as before_message_id
+     * fetches the next page, which stays stable while new messages are posted.
+     * 
+     * @param account_id        the account_id of the message poster.
+     * @param before_message_id only messages with a smaller message_id are
+     *                          returned; Long.MAX_VALUE for the first page.
+     * @param limit             the maximum number of messages to return.
+     * @return at most limit messages, highest message_id first, or null if an
+     *         exception occurred.
+     */
+    public List<Message> getMessagesByAccountIdBefore(int account_id, long before_message_id, int limit) {
+        return readLimiter.call(() -> readYourWrites.read(postedByKey(account_id),
+                () -> socialMediaDAO.getMessagesByAccountIdBefore(account_id, before_message_id, limit)));
+    }
+
+    /**
+     * Reads the message changes after an offset from the change log.
+     * 
+     * @param since the offset of the last change already read, or 0.
+     * @param limit the most changes to return.
+     * @return the changes as newline-delimited JSON ChangeEvents, possibly
+     *         none; or null if changes after since are no longer kept.
+     */
+    public SegmentLog.Slice getChanges(long since, int limit) {
+        return changeFeed.read(since, limit);
+    }
+
+    /**
+     * Waits for a message change after an offset.
+     * 
+     * @param since      the offset of the last change already read.
+     * @param waitMillis the longest time to wait.
+     * @return a future completed when there is a newer change or the wait is
+     *         over, whichever comes first.
+     */
+    public CompletableFuture<Void> awaitChanges(long since, long waitMillis) {
+        return changeFeed.await(since, waitMillis);
+    }
+
+    /**
+     * Starts pushing message changes to a live subscriber.
+     * 
+     * @param account_id the account whose messages to push, or null for every
+     *                   message.
+     * @param sink       where to write the subscriber's events.
+     * @return the subscription, to cancel once the subscriber disconnects.
+     */
+    public MessageStream.Subscription subscribeToMessages(Integer account_id, MessageStream.Sink sink) {
+        return messageStream.subscribe(account_id, sink);
+    }
+
+    /**
+     * Keeps reads of a just written message and its poster's messages, and the
+     * writing client's reads of the list of all messages, on the primary
+     * database for the read-your-writes window.
+     * 
+     * @param message the message that was posted, updated or deleted.
+     */
+    private void messageWritten(Message message) {
+        readYourWrites.written(messageKey(message.getMessage_id()), postedByKey(message.getPosted_by()),
+                ReadYourWrites.forCaller(ALL_MESSAGES_KEY));
+    }
+
+    /**
+     * Written by every message write, since the list of all messages includes
+     * every message. Scoped to the writing client, so one client's writes do
+     * not send every other client's reads of the list to the primary.
+     */
+    private static final String ALL_MESSAGES_KEY = "messages";
+
+    private static String messageKey(long message_id) {
+        return "message:" + message_id;
+    }
+
+    private static String postedByKey(int account_id) {
+        return "posted_by:" + account_id;
+    }
+
+    /**
+     * Makes one account follow another.
+     * 
+     * @param follower_id an integer matching the account doing the following.
+     * @param followed_id an integer matching the account to follow.
+     * @return true if the follow was recorded, false if it already existed or
+     *         could not be recorded.
+     */
+    public boolean followAccount(int follower_id, int followed_id) {
+        return writeLimiter.call(() -> feedService.follow(follower_id, followed_id));
+    }
+
+    /**
+     * Fetches the home feed of an account, built from the messages of every
+     * account it follows.
+     * 
+     * @param account_id an integer matching the feed owner's account.
+     * @param limit      the maximum number of messages to return.
+     * @return a list of messages, newest first; empty if the account follows
+     *         nobody, or null if an error occurred.
+     */
+    public List<Message> getFeed(int account_id, int limit) {
+        return readLimiter.call(() -> feedService.getFeed(account_id, limit));
+    }
+
+    /**
+     * Searches message_text of every message for the given words. The index
+     * only holds message_ids, so the page of matching messages is then read by
+     * message_id.
+     * 
+     * @param query  the words to search for.
+     * @param offset the number of ranked results to skip.
+     * @param limit  the maximum number of results to return.
+     * @return one page of matching messages, best match first; an empty list if
+     *         nothing matches.
+     */
+    public List<Message> searchMessages(String query, int offset, int limit) {
+        long[] message_ids = searchIndex.search(query, offset, limit);
+        return readLimiter.call(() -> {
+            List<Message> messages = new ArrayList<>(message_ids.length);
+            for (long message_id : message_ids) {
+                // Skip a message deleted since it was found
+                Message message = socialMediaDAO.getMessageById(message_id);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        });
+    }
+
+    /**
+     * Fetches the most used hashtags or most mentioned usernames in recently
+     * posted and edited messages.
+     * 
+     * @param mentions true for mentioned usernames, false for hashtags.
+     * @param limit    the maximum number of topics to return.
+     * @return a list of topics with their counts, most used first.
+     */
+    public List<TrendingTopic> getTrending(boolean mentions, int limit) {
+        return mentions ? trendingService.getTrendingMentions(limit) : trendingService.getTrendingHashtags(limit);
     }
 
-}
\ No newline at end of file
+}
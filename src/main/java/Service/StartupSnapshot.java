@@ -0,0 +1,223 @@
+package Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.ChangeEvent;
+import Model.Message;
+import Util.Metrics;
+import Util.SegmentLog;
+
+/**
+ * Saves the caches that are expensive to build on startup, the search index
+ * and the precomputed feeds of the accounts that read them, so that a
+ * restarted server starts warm instead of scanning every message. Only the
+ * messages in the saved feeds are written; the search index is saved as its
+ * postings.
+ *
+ * A snapshot records the change feed offset it was taken at, and restoring it
+ * replays the changes published since, so writes made after the snapshot are
+ * not lost. If those changes are no longer in the change feed, the snapshot is
+ * not used. Follows are not in the change feed: a follow made by another
+ * server after the snapshot is missing from the follower's restored feed until
+ * the feed is rebuilt.
+ */
+class StartupSnapshot {
+    private static final int MAGIC = 0x534D5732;
+    private static final int CHANGE_BATCH = 1000;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Writes a snapshot, replacing any earlier one atomically.
+     *
+     * @param file        the snapshot file.
+     * @param searchIndex the index to save.
+     * @param feedService the service whose precomputed feeds to save.
+     * @param changeFeed  the change feed the caches are kept up to date with.
+     * @param maxFeeds    the most feeds to save.
+     * @throws IOException if the snapshot could not be written.
+     */
+    static void save(Path file, SearchIndex searchIndex, FeedService feedService, ChangeFeed changeFeed,
+            int maxFeeds) throws IOException {
+        // Read first, so changes made while saving are replayed on restore rather than lost
+        long offset = changeFeed.getLastOffset();
+        Map<Integer, List<Message>> feeds = feedService.getMaterializedFeeds(maxFeeds);
+        Map<Long, Message> messages = new HashMap<>();
+        for (List<Message> feed : feeds.values()) {
+            for (Message message : feed) {
+                messages.put(message.getMessage_id(), message);
+            }
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(offset);
+            searchIndex.writeTo(out);
+            out.writeInt(messages.size());
+            for (Message message : messages.values()) {
+                out.writeLong(message.getMessage_id());
+                out.writeInt(message.getPosted_by());
+                out.writeUTF(message.getMessage_text());
+                out.writeLong(message.getTime_posted_epoch());
+            }
+            out.writeInt(feeds.size());
+            for (Map.Entry<Integer, List<Message>> feed : feeds.entrySet()) {
+                out.writeInt(feed.getKey());
+                out.writeInt(feed.getValue().size());
+                for (Message message : feed.getValue()) {
+                    out.writeLong(message.getMessage_id());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.counter("startup.snapshots_saved").increment();
+    }
+
+    /**
+     * Loads a snapshot into empty caches and brings them up to date from the
+     * change feed. Nothing is loaded unless the whole snapshot can be used.
+     *
+     * @param file        the snapshot file.
+     * @param searchIndex an empty index to fill.
+     * @param feedService the service to install the saved feeds in.
+     * @param changeFeed  the change feed to catch up from.
+     * @return true if the caches were restored, false if there is no usable
+     *         snapshot and they must be built from the database.
+     */
+    static boolean restore(Path file, SearchIndex searchIndex, FeedService feedService, ChangeFeed changeFeed) {
+        long offset;
+        SearchIndex savedIndex;
+        Map<Long, Message> messages;
+        Map<Integer, long[]> feeds;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    System.out.println("Ignoring startup snapshot " + file + ": not a snapshot");
+                    return false;
+                }
+                offset = in.readLong();
+                savedIndex = SearchIndex.readFrom(in);
+                int messageCount = in.readInt();
+                messages = new HashMap<>(messageCount * 2);
+                for (int i = 0; i < messageCount; i++) {
+                    Message message = new Message(in.readLong(), in.readInt(), in.readUTF(), in.readLong());
+                    messages.put(message.getMessage_id(), message);
+                }
+                int feedCount = in.readInt();
+                feeds = new HashMap<>(feedCount * 2);
+                for (int i = 0; i < feedCount; i++) {
+                    int account_id = in.readInt();
+                    long[] message_ids = new long[in.readInt()];
+                    for (int j = 0; j < message_ids.length; j++) {
+                        message_ids[j] = in.readLong();
+                    }
+                    feeds.put(account_id, message_ids);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            System.out.println("Ignoring startup snapshot " + file + ": " + e.getMessage());
+            return false;
+        }
+
+        List<ChangeEvent> changes = changesSince(offset, changeFeed);
+        if (changes == null) {
+            System.out.println("Ignoring startup snapshot " + file + ": changes since it are no longer kept");
+            return false;
+        }
+
+        searchIndex.replaceWith(savedIndex);
+        for (Map.Entry<Integer, long[]> feed : feeds.entrySet()) {
+            List<Message> feedMessages = new ArrayList<>(feed.getValue().length);
+            for (long message_id : feed.getValue()) {
+                Message message = messages.get(message_id);
+                if (message != null) {
+                    feedMessages.add(message);
+                }
+            }
+            feedService.restoreFeed(feed.getKey(), feedMessages);
+        }
+        // The same updates the write path makes, so replaying a change twice is harmless
+        for (ChangeEvent change : changes) {
+            Message message = change.getMessage();
+            switch (change.getType()) {
+                case ChangeEvent.CREATED:
+                    searchIndex.index(message);
+                    feedService.onMessagePosted(message);
+                    break;
+                case ChangeEvent.UPDATED:
+                    searchIndex.index(message);
+                    feedService.onMessageUpdated(message);
+                    break;
+                case ChangeEvent.DELETED:
+                    searchIndex.remove(message.getMessage_id());
+                    feedService.onMessageDeleted(message);
+                    break;
+                default:
+                    break;
+            }
+        }
+        Metrics.counter("startup.snapshots_restored").increment();
+        Metrics.counter("startup.changes_replayed").add(changes.size());
+        return true;
+    }
+
+    /**
+     * @return every change after offset, or null if some are no longer kept
+     *         or the change feed is older than the snapshot.
+     */
+    private static List<ChangeEvent> changesSince(long offset, ChangeFeed changeFeed) {
+        if (offset > changeFeed.getLastOffset()) {
+            return null;
+        }
+        List<ChangeEvent> changes = new ArrayList<>();
+        long since = offset;
+        try {
+            while (true) {
+                SegmentLog.Slice slice = changeFeed.read(since, CHANGE_BATCH);
+                if (slice == null) {
+                    return null;
+                }
+                if (slice.getRecordCount() == 0) {
+                    return changes;
+                }
+                ByteBuffer records = slice.map();
+                byte[] bytes = new byte[records.remaining()];
+                records.get(bytes);
+                int start = 0;
+                for (int i = 0; i < bytes.length; i++) {
+                    if (bytes[i] == '\n') {
+                        changes.add(objectMapper.readValue(bytes, start, i - start, ChangeEvent.class));
+                        start = i + 1;
+                    }
+                }
+                since = slice.getLastOffset();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read changes: " + e.getMessage());
+            return null;
+        }
+    }
+}
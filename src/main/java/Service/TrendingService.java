@@ -0,0 +1,286 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Model.TrendingTopic;
+import Util.AppConfig;
+import Util.SlidingWindowCounter;
+
+/**
+ * Extracts #hashtags and @mentions from messages as they are written, records
+ * them in the message_hashtag and message_mention tables, and keeps sliding
+ * window counters of their use so trending topics can be served from memory.
+ */
+public class TrendingService {
+    /**
+     * A tag must start a word, so "issue#5" and "bob@example.com" are not tags.
+     */
+    private static final Pattern HASHTAG = Pattern.compile("(?<!\\w)#(\\w+)");
+    private static final Pattern MENTION = Pattern.compile("(?<!\\w)@(\\w+)");
+
+    SocialMediaDAO socialMediaDAO;
+    TopicCounters hashtagCounters;
+    TopicCounters mentionCounters;
+    LongSupplier currentMinute;
+
+    /**
+     * Creates a TrendingService configured from "trending.window_minutes" and
+     * "trending.tracked_topics".
+     *
+     * @param socialMediaDAO the DAO used to record extracted tags.
+     */
+    public TrendingService(SocialMediaDAO socialMediaDAO) {
+        this(socialMediaDAO,
+                AppConfig.getInt("trending.window_minutes", 60),
+                AppConfig.getInt("trending.tracked_topics", 100),
+                () -> System.currentTimeMillis() / 60_000);
+    }
+
+    /**
+     * @param socialMediaDAO the DAO used to record extracted tags.
+     * @param windowMinutes  the number of most recent minutes counted towards a
+     *                       topic's trend.
+     * @param trackedTopics  the number of top topics kept ready to serve.
+     * @param currentMinute  clock returning minutes since the epoch.
+     */
+    public TrendingService(SocialMediaDAO socialMediaDAO, int windowMinutes, int trackedTopics,
+            LongSupplier currentMinute) {
+        this.socialMediaDAO = socialMediaDAO;
+        this.hashtagCounters = new TopicCounters(windowMinutes, trackedTopics);
+        this.mentionCounters = new TopicCounters(windowMinutes, trackedTopics);
+        this.currentMinute = currentMinute;
+    }
+
+    /**
+     * Write path stage for a posted or edited message: records its hashtags and
+     * mentions in the database. Called inside the unit of work that writes the
+     * message, so the tags commit together with it.
+     *
+     * @param message the message as it now exists in the database.
+     */
+    public void saveTags(Message message) {
+        socialMediaDAO.replaceMessageTags(message.getMessage_id(),
+                extract(HASHTAG, message.getMessage_text(), true),
+                extract(MENTION, message.getMessage_text(), false));
+    }
+
+    /**
+     * Counts a posted message's hashtags and mentions towards trending topics.
+     * Called once the message's write has committed.
+     *
+     * @param message the message as it now exists in the database.
+     */
+    public void countTags(Message message) {
+        long minute = currentMinute.getAsLong();
+        for (String hashtag : extract(HASHTAG, message.getMessage_text(), true)) {
+            hashtagCounters.record(hashtag, minute);
+        }
+        for (String mention : extract(MENTION, message.getMessage_text(), false)) {
+            mentionCounters.record(mention, minute);
+        }
+    }
+
+    /**
+     * Counts the hashtags and mentions an edit added to a message towards
+     * trending topics. The tags the message already had were counted when they
+     * were first written, so they are not counted again.
+     *
+     * @param previous the message before the edit.
+     * @param message  the message as it now exists in the database.
+     */
+    public void countNewTags(Message previous, Message message) {
+        long minute = currentMinute.getAsLong();
+        Set<String> previousHashtags = extract(HASHTAG, previous.getMessage_text(), true);
+        for (String hashtag : extract(HASHTAG, message.getMessage_text(), true)) {
+            if (!previousHashtags.contains(hashtag)) {
+                hashtagCounters.record(hashtag, minute);
+            }
+        }
+        Set<String> previousMentions = extract(MENTION, previous.getMessage_text(), false);
+        for (String mention : extract(MENTION, message.getMessage_text(), false)) {
+            if (!previousMentions.contains(mention)) {
+                mentionCounters.record(mention, minute);
+            }
+        }
+    }
+
+    /**
+     * @param limit the maximum number of topics to return.
+     * @return the most used hashtags in the trending window, most used first.
+     */
+    public List<TrendingTopic> getTrendingHashtags(int limit) {
+        return hashtagCounters.top(limit, currentMinute.getAsLong());
+    }
+
+    /**
+     * @param limit the maximum number of topics to return.
+     * @return the most mentioned usernames in the trending window, most
+     *         mentioned first.
+     */
+    public List<TrendingTopic> getTrendingMentions(int limit) {
+        return mentionCounters.top(limit, currentMinute.getAsLong());
+    }
+
+    /**
+     * Finds every distinct match of a tag pattern in a message.
+     *
+     * @param pattern   a pattern whose first group is the tag without its prefix.
+     * @param text      the message text.
+     * @param lowercase whether to normalize tags to lowercase.
+     * @return the distinct tags in order of first appearance.
+     */
+    static Set<String> extract(Pattern pattern, String text, boolean lowercase) {
+        Set<String> tags = new LinkedHashSet<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            tags.add(lowercase ? matcher.group(1).toLowerCase() : matcher.group(1));
+        }
+        return tags;
+    }
+
+    /**
+     * Sliding window counters for one kind of topic, plus an incrementally
+     * maintained list of the top topics.
+     *
+     * Each use of a topic offers its new windowed count to the top list, which
+     * only has to touch the list's few entries; a use that neither beats last
+     * place nor is already listed is turned away without taking the lock. The
+     * list is rebuilt from every counter once per minute, when the oldest
+     * bucket leaves the window and counts can drop; that pass also forgets
+     * topics that went idle.
+     */
+    static class TopicCounters {
+        private static final Comparator<TrendingTopic> MOST_USED_FIRST = Comparator
+                .comparingLong(TrendingTopic::getCount).reversed()
+                .thenComparing(TrendingTopic::getTopic);
+
+        private final Map<String, SlidingWindowCounter> counters = new ConcurrentHashMap<>();
+        private final int windowMinutes;
+        private final int trackedTopics;
+        /**
+         * Copy-on-write top list, so readers never take a lock.
+         */
+        private volatile List<TrendingTopic> topTopics = Collections.emptyList();
+        /**
+         * The topics in topTopics, replaced together with it.
+         */
+        private volatile Set<String> topTopicNames = Collections.emptySet();
+        private volatile long topTopicsMinute = -1;
+
+        TopicCounters(int windowMinutes, int trackedTopics) {
+            this.windowMinutes = windowMinutes;
+            this.trackedTopics = trackedTopics;
+        }
+
+        void record(String topic, long minute) {
+            SlidingWindowCounter counter;
+            do {
+                counter = counters.computeIfAbsent(topic, key -> new SlidingWindowCounter(windowMinutes));
+                counter.increment(minute);
+                // Count again if rebuild dropped the counter as idle before the increment
+            } while (counters.get(topic) != counter);
+            long count = counter.sum(minute);
+
+            if (minute == topTopicsMinute && !isCandidate(topic, count)) {
+                return;
+            }
+            synchronized (this) {
+                if (minute != topTopicsMinute) {
+                    rebuild(minute);
+                } else {
+                    offer(topic, count);
+                }
+            }
+        }
+
+        List<TrendingTopic> top(int limit, long minute) {
+            if (minute != topTopicsMinute) {
+                synchronized (this) {
+                    if (minute != topTopicsMinute) {
+                        rebuild(minute);
+                    }
+                }
+            }
+            List<TrendingTopic> top = topTopics;
+            return top.subList(0, Math.min(limit, top.size()));
+        }
+
+        /**
+         * @return whether a topic with this count belongs in the top list: it is
+         *         already listed, or the list has room, or it beats last place.
+         */
+        private boolean isCandidate(String topic, long count) {
+            List<TrendingTopic> current = topTopics;
+            return current.size() < trackedTopics || count > current.get(current.size() - 1).getCount()
+                    || topTopicNames.contains(topic);
+        }
+
+        /**
+         * Updates the top list with a topic's latest count. Must hold the lock.
+         */
+        private void offer(String topic, long count) {
+            // Checked again under the lock, as the list may have changed
+            if (!isCandidate(topic, count)) {
+                return;
+            }
+            List<TrendingTopic> current = topTopics;
+            List<TrendingTopic> top = new ArrayList<>(current.size() + 1);
+            for (TrendingTopic existing : current) {
+                if (!existing.getTopic().equals(topic)) {
+                    top.add(existing);
+                }
+            }
+            top.add(new TrendingTopic(topic, count));
+            top.sort(MOST_USED_FIRST);
+            if (top.size() > trackedTopics) {
+                top.remove(top.size() - 1);
+            }
+            publish(top);
+        }
+
+        /**
+         * Recomputes the top list from every counter. Must hold the lock.
+         */
+        private void rebuild(long minute) {
+            List<TrendingTopic> top = new ArrayList<>();
+            for (Map.Entry<String, SlidingWindowCounter> entry : counters.entrySet()) {
+                long count = entry.getValue().sum(minute);
+                if (count == 0) {
+                    // Re-checked atomically, in case a use was counted since
+                    counters.computeIfPresent(entry.getKey(),
+                            (key, counter) -> counter.sum(minute) == 0 ? null : counter);
+                } else {
+                    top.add(new TrendingTopic(entry.getKey(), count));
+                }
+            }
+            top.sort(MOST_USED_FIRST);
+            publish(new ArrayList<>(top.subList(0, Math.min(trackedTopics, top.size()))));
+            topTopicsMinute = minute;
+        }
+
+        /**
+         * Replaces the top list and its topic names. Must hold the lock.
+         */
+        private void publish(List<TrendingTopic> top) {
+            Set<String> names = new HashSet<>();
+            for (TrendingTopic topic : top) {
+                names.add(topic.getTopic());
+            }
+            topTopicNames = names;
+            topTopics = Collections.unmodifiableList(top);
+        }
+    }
+}
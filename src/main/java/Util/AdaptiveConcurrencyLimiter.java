@@ -0,0 +1,154 @@
+package Util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of calls in flight, adjusting the cap with additive
+ * increase / multiplicative decrease (AIMD) based on how long calls take.
+ *
+ * While calls finish within the latency target and the limit is being used,
+ * the limit grows by one. When a call takes longer than the target, the
+ * database is assumed to be saturated and the limit is cut by the backoff
+ * ratio. Either change happens at most once per sampling window: calls that
+ * started before the last change measured the old limit, so their samples do
+ * not change it again, and a burst of fast calls grows the limit by one rather
+ * than by one per call. Calls
+ * arriving while the limit is reached are rejected immediately with a
+ * LoadSheddingException instead of queueing.
+ *
+ * The limit is kept in an atomic and updated without locks, since every call
+ * reads it.
+ *
+ * Settings are read from AppConfig as "concurrency.{name}.initial_limit",
+ * "concurrency.{name}.min_limit", "concurrency.{name}.max_limit" and
+ * "concurrency.{name}.latency_target_ms".
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejections;
+    private final Metrics.Timer latency;
+    /**
+     * The bits of the current limit as a double. Kept fractional so that
+     * backoff from small limits is gradual.
+     */
+    private final AtomicLong limit = new AtomicLong();
+    /**
+     * When the limit was last cut, in System.nanoTime().
+     */
+    private final AtomicLong lastBackoff = new AtomicLong(System.nanoTime());
+    /**
+     * When the limit last grew, in System.nanoTime().
+     */
+    private final AtomicLong lastIncrease = new AtomicLong(lastBackoff.get());
+
+    /**
+     * Creates a limiter configured under "concurrency.{name}".
+     *
+     * @param name the limiter name used for settings and metrics, such as "read".
+     */
+    public AdaptiveConcurrencyLimiter(String name) {
+        this(name,
+                AppConfig.getInt("concurrency." + name + ".initial_limit", 20),
+                AppConfig.getInt("concurrency." + name + ".min_limit", 1),
+                AppConfig.getInt("concurrency." + name + ".max_limit", 200),
+                AppConfig.getLong("concurrency." + name + ".latency_target_ms", 50));
+    }
+
+    /**
+     * @param name            the limiter name used for metrics.
+     * @param initialLimit    the limit before any calls have been measured.
+     * @param minLimit        the limit never drops below this.
+     * @param maxLimit        the limit never grows above this.
+     * @param latencyTargetMs calls slower than this shrink the limit.
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+            long latencyTargetMs) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+        this.limit.set(Double.doubleToLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        this.rejections = Metrics.counter("concurrency." + name + ".rejected");
+        this.latency = Metrics.timer("concurrency." + name + ".latency");
+        Metrics.gauge("concurrency." + name + ".limit", this::getLimit);
+        Metrics.gauge("concurrency." + name + ".in_flight", inFlight::get);
+    }
+
+    /**
+     * Runs a call if the limit allows it, and measures it to adjust the limit.
+     *
+     * @param call the call to run, usually one or more DAO methods.
+     * @return the call's result.
+     * @throws LoadSheddingException if the limit has been reached.
+     */
+    public <T> T call(Supplier<T> call) {
+        int current = inFlight.incrementAndGet();
+        if (current > getLimit()) {
+            inFlight.decrementAndGet();
+            rejections.increment();
+            throw new LoadSheddingException(name);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            latency.record(elapsed);
+            onSample(start, elapsed, current);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the current limit, rounded down to whole calls.
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * Adjusts the limit after a call completes.
+     *
+     * @param startNanos      when the call began, in System.nanoTime().
+     * @param elapsedNanos    how long the call took.
+     * @param inFlightAtStart calls in flight, including this one, when it began.
+     */
+    private void onSample(long startNanos, long elapsedNanos, int inFlightAtStart) {
+        if (elapsedNanos > latencyTargetNanos) {
+            long last = lastBackoff.get();
+            // Only the first slow call to start after the last cut cuts again
+            if (startNanos - last > 0 && lastBackoff.compareAndSet(last, startNanos + elapsedNanos)) {
+                update(current -> Math.max(minLimit, current * BACKOFF_RATIO));
+            }
+        }
+        // Only grow when the limit is actually in use, so idle periods don't inflate it
+        else if (inFlightAtStart * 2 >= Double.longBitsToDouble(limit.get())) {
+            long last = lastIncrease.get();
+            // Only the first fast call to start after the last change grows it again
+            if (startNanos - last > 0 && startNanos - lastBackoff.get() > 0
+                    && lastIncrease.compareAndSet(last, startNanos + elapsedNanos)) {
+                update(current -> Math.min(maxLimit, current + 1));
+            }
+        }
+    }
+
+    private void update(DoubleUnaryOperator change) {
+        long bits;
+        do {
+            bits = limit.get();
+        } while (!limit.compareAndSet(bits,
+                Double.doubleToLongBits(change.applyAsDouble(Double.longBitsToDouble(bits)))));
+    }
+}
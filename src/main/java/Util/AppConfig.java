@@ -0,0 +1,148 @@
+package Util;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Reads tunable settings for the application. A setting such as
+ * "feed.celebrity_threshold" is looked up first as a JVM system property
+ * (-Dfeed.celebrity_threshold=500), then as an environment variable
+ * (FEED_CELEBRITY_THRESHOLD=500) and then in the config file. If none of them
+ * set it, the supplied default is used.
+ *
+ * The config file is a Java properties file named by the "config.file"
+ * system property or CONFIG_FILE environment variable, or "app.properties" in
+ * the working directory if that exists.
+ */
+public class AppConfig {
+    private static volatile Properties fileProperties;
+
+    /**
+     * Fetches the raw String value of a setting.
+     *
+     * @param key          the dotted name of the setting.
+     * @param defaultValue value returned when the setting is not configured.
+     * @return the configured value, or defaultValue if none was found.
+     */
+    public static String getString(String key, String defaultValue) {
+        // System properties take priority over environment variables
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        if (value == null) {
+            value = fileProperties().getProperty(key);
+        }
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Fetches an integer setting.
+     *
+     * @param key          the dotted name of the setting.
+     * @param defaultValue value returned when the setting is not configured or
+     *                     is not a valid integer.
+     * @return the configured value, or defaultValue if none was found.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Fetches a long setting.
+     *
+     * @param key          the dotted name of the setting.
+     * @param defaultValue value returned when the setting is not configured or
+     *                     is not a valid long.
+     * @return the configured value, or defaultValue if none was found.
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid long for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Fetches a boolean setting.
+     *
+     * @param key          the dotted name of the setting.
+     * @param defaultValue value returned when the setting is not configured.
+     * @return true if the setting is "true" (ignoring case), false if it is set
+     *         to anything else, or defaultValue if none was found.
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Reads settings from a properties file, replacing any file read before.
+     *
+     * @param path the properties file to read.
+     * @throws IOException if the file could not be read.
+     */
+    public static void loadFile(String path) throws IOException {
+        Properties properties = new Properties();
+        FileReader reader = new FileReader(path);
+        try {
+            properties.load(reader);
+        } finally {
+            reader.close();
+        }
+        fileProperties = properties;
+    }
+
+    /**
+     * Loads the config file on first use. A missing default file is not an
+     * error; a missing or unreadable named file is reported and ignored.
+     */
+    private static Properties fileProperties() {
+        Properties properties = fileProperties;
+        if (properties != null) {
+            return properties;
+        }
+        synchronized (AppConfig.class) {
+            if (fileProperties == null) {
+                String path = System.getProperty("config.file", System.getenv("CONFIG_FILE"));
+                Path defaultPath = Paths.get("app.properties");
+                fileProperties = new Properties();
+                try {
+                    if (path != null) {
+                        loadFile(path);
+                    } else if (Files.isRegularFile(defaultPath)) {
+                        loadFile(defaultPath.toString());
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not read config file " + path + ": " + e.getMessage());
+                }
+            }
+            return fileProperties;
+        }
+    }
+}
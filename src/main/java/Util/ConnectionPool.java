@@ -0,0 +1,280 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * Keeps idle database connections open for reuse, and gives each of them a
+ * bounded LRU cache of prepared statements keyed by SQL text.
+ *
+ * Callers get a new proxy Connection for every checkout. Closing it returns
+ * the underlying connection to the pool instead of closing it; the proxy then
+ * stays closed, so closing it twice, or using it after closing it, cannot
+ * touch the connection once another caller has checked it out. prepareStatement
+ * returns a
+ * cached statement for SQL the connection has prepared before, so the
+ * database does not parse and plan the same query again. Closing a cached
+ * statement only clears its parameters; statements are really closed when
+ * they are evicted from the cache or their connection is discarded.
+ *
+ * Connections are never handed out twice at once, so the caches need no
+ * locking. Callers must finish reading a statement's results before preparing
+ * the same SQL again on the same connection.
+ *
+ * Settings are read from AppConfig as "connections.max_idle" (default 10) and
+ * "connections.statement_cache_size" (default 32, 0 disables the cache).
+ */
+public class ConnectionPool {
+    private final DataSource dataSource;
+    private final BlockingQueue<PooledConnection> idle;
+    private final int statementCacheSize;
+    private final AtomicInteger active = new AtomicInteger();
+
+    public ConnectionPool(DataSource dataSource) {
+        this(dataSource, AppConfig.getInt("connections.max_idle", 10),
+                AppConfig.getInt("connections.statement_cache_size", 32));
+    }
+
+    /**
+     * @param dataSource         source of new physical connections.
+     * @param maxIdle            the number of idle connections kept open.
+     * @param statementCacheSize the number of prepared statements cached per
+     *                           connection.
+     */
+    public ConnectionPool(DataSource dataSource, int maxIdle, int statementCacheSize) {
+        this.dataSource = dataSource;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Takes an idle connection, or opens a new one if none is idle.
+     *
+     * @return a connection that returns to the pool when closed.
+     * @throws SQLException if a new connection could not be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        PooledConnection connection = idle.poll();
+        if (connection != null) {
+            Metrics.counter("connections.reused").increment();
+        } else {
+            Metrics.counter("connections.opened").increment();
+            connection = new PooledConnection(dataSource.getConnection());
+        }
+        active.incrementAndGet();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new Checkout(connection));
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of connections handed out and not yet closed.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Closes every idle connection, for example after the database has been
+     * recreated.
+     */
+    public void clear() {
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.discard();
+        }
+    }
+
+    /**
+     * Invocation handler behind the Connection proxy of one checkout. Once
+     * closed it refuses every call, so a late close or call cannot reach the
+     * physical connection after it has been checked out again.
+     */
+    private class Checkout implements InvocationHandler {
+        private final PooledConnection connection;
+        private boolean closed;
+
+        Checkout(PooledConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        connection.checkIn();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || connection.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && statementCacheSize > 0
+                    && connection.isCacheable(method)) {
+                return connection.prepareCached(this, args);
+            }
+            return delegate(connection.physical, method, args);
+        }
+    }
+
+    /**
+     * A physical connection and its statement cache, kept while the
+     * connection is idle or checked out.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private final int defaultIsolation;
+        private final Map<String, PreparedStatement> statements;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            this.defaultIsolation = physical.getTransactionIsolation();
+            // Access-ordered, so iteration starts at the least recently used statement
+            this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        /**
+         * Only prepareStatement(String) and prepareStatement(String, int
+         * autoGeneratedKeys) are cached; the DAO uses nothing else.
+         */
+        private boolean isCacheable(Method method) {
+            Class<?>[] types = method.getParameterTypes();
+            return types.length == 1 || (types.length == 2 && types[1] == int.class);
+        }
+
+        private PreparedStatement prepareCached(Checkout checkout, Object[] args) throws SQLException {
+            String sql = (String) args[0];
+            int autoGeneratedKeys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+            String key = autoGeneratedKeys + ":" + sql;
+
+            PreparedStatement statement = statements.get(key);
+            if (statement != null && !statement.isClosed()) {
+                Metrics.counter("connections.statement_cache.hits").increment();
+                // A batch can be left over if the previous user failed before executing it
+                statement.clearBatch();
+                statement.clearParameters();
+                return wrap(checkout, statement);
+            }
+
+            Metrics.counter("connections.statement_cache.misses").increment();
+            statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            statements.put(key, statement);
+            if (statements.size() > statementCacheSize) {
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                closeQuietly(eldest.next());
+                eldest.remove();
+                Metrics.counter("connections.statement_cache.evictions").increment();
+            }
+            return wrap(checkout, statement);
+        }
+
+        /**
+         * Wraps a cached statement so that closing it leaves it open for reuse,
+         * and so that it can't be used once its checkout has been closed.
+         */
+        private PreparedStatement wrap(Checkout checkout, PreparedStatement statement) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                        if (checkout.closed) {
+                            if (method.getName().equals("close")) {
+                                return null;
+                            }
+                            throw new SQLException("Connection has been returned to the pool");
+                        }
+                        if (method.getName().equals("close")) {
+                            statement.clearParameters();
+                            return null;
+                        }
+                        return delegate(statement, method, args);
+                    });
+        }
+
+        /**
+         * Resets the connection and puts it back in the idle queue, or closes it
+         * if the queue is full or the connection is unusable.
+         */
+        private void checkIn() {
+            active.decrementAndGet();
+            try {
+                if (physical.isClosed()) {
+                    return;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (physical.getTransactionIsolation() != defaultIsolation) {
+                    physical.setTransactionIsolation(defaultIsolation);
+                }
+                physical.clearWarnings();
+            } catch (SQLException e) {
+                discard();
+                return;
+            }
+            if (!idle.offer(this)) {
+                discard();
+            }
+        }
+
+        /**
+         * Closes the physical connection and its cached statements.
+         */
+        void discard() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -1,50 +1,102 @@
 package Util;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.sql.DataSource;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
 
 /**
  * The ConnectionUtil class will be utilized to create an active connection to
- * our database. This class utilizes the singleton design pattern. We will be
- * utilizing an in-memory called h2database for the sql demos.
+ * our database. This class utilizes the singleton design pattern.
+ *
+ * The database is chosen by the "db.backend" setting (see AppConfig):
+ * <ul>
+ * <li>file (default): embedded H2 stored at "db.path" (default ./h2/db).</li>
+ * <li>mem: embedded in-memory H2 named "db.name" (default socialmedia), kept
+ * until the JVM exits. Fast, but nothing survives a restart.</li>
+ * <li>server: an H2 server at "db.host":"db.port" (default localhost:9092)
+ * serving the database "db.path".</li>
+ * <li>postgres: a PostgreSQL server at "db.host":"db.port" (default
+ * localhost:5432) serving the database "db.name".</li>
+ * </ul>
+ * For the H2 backends, "db.h2.cache_size_kb" sets the MVStore page cache and
+ * "db.h2.lock_timeout_ms" how long a write waits for a row lock. "db.url"
+ * replaces the generated URL entirely. Credentials are "db.user" and
+ * "db.password" (default sa/sa).
+ *
+ * "db.replicas" lists the JDBC URLs of read-only replicas, separated by
+ * commas. Reads that may be served slightly stale use getReplicaConnection,
+ * which is balanced across healthy replicas by a ReplicaRouter. Replicas are
+ * health checked every "db.replicas.health_check_ms" (default 1000).
+ *
+ * "db.shards" lists the JDBC URLs of additional message shards, separated by
+ * commas. Shard 0 is the primary database, which also holds every table other
+ * than the message tables. The number of shards is part of every message_id
+ * (see prepareMessageShard), so it cannot change once messages exist.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * The tables are created by Schema.sql, and on the other shards by
+ * ShardSchema.sql (see ensureSchema). SQL scripts are read from the classpath
+ * once and kept in memory.
  */
 public class ConnectionUtil {
 
 	/**
-	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * url will represent our connection string, built from the configured backend.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = jdbcUrl();
 	/**
-	 * Default username for connecting to h2
+	 * Username for connecting to the database
 	 */
-	private static String username = "sa";
+	private static String username = AppConfig.getString("db.user", "sa");
 	/**
-	 * Default password for connecting to h2
+	 * Password for connecting to the database
 	 */
-	private static String password = "sa";
+	private static String password = AppConfig.getString("db.password", "sa");
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource that opens new physical connections for the pool.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static DataSource dataSource = createDataSource(url);
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * Pool that reuses closed connections and caches their prepared statements.
+	 * Replaced by useDataSource.
 	 */
+	private static volatile ConnectionPool pool = new ConnectionPool(dataSource);
+
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		Metrics.gauge("connections.idle", () -> pool.getIdleCount());
+		Metrics.gauge("connections.active", () -> pool.getActiveCount());
 	}
 
+	/**
+	 * Pools for every message shard; shard 0 is the primary pool.
+	 */
+	private static volatile List<ConnectionPool> shardPools = createShardPools();
+
+	/**
+	 * Router over the configured read replicas, or null if there are none.
+	 */
+	private static ReplicaRouter replicaRouter = createReplicaRouter();
+
 	/**
 	 * @return an active connection to the database
 	 */
@@ -59,16 +111,435 @@ public class ConnectionUtil {
 	}
 
 	/**
-	 * For the purpose of testing, we will need to drop and recreate our database
-	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * Switches the primary database to another DataSource, for example a fresh
+	 * in-memory database for each test. Connections already handed out keep
+	 * using the previous database; its idle connections are closed.
+	 *
+	 * @param newDataSource the primary database from now on.
+	 */
+	public static synchronized void useDataSource(DataSource newDataSource) {
+		ConnectionPool previous = pool;
+		dataSource = newDataSource;
+		pool = new ConnectionPool(newDataSource);
+		shardPools.set(0, pool);
+		previous.clear();
+	}
+
+	/**
+	 * Switches the primary database and every other message shard to other
+	 * DataSources, for example fresh in-memory databases for a test of a
+	 * sharded setup. Idle connections to the previous databases are closed.
+	 *
+	 * @param newDataSource    the primary database from now on.
+	 * @param shardDataSources the other message shards from now on, in order.
+	 */
+	public static synchronized void useDataSources(DataSource newDataSource, List<DataSource> shardDataSources) {
+		List<ConnectionPool> previous = shardPools;
+		dataSource = newDataSource;
+		pool = new ConnectionPool(newDataSource);
+		List<ConnectionPool> pools = new ArrayList<>();
+		pools.add(pool);
+		for (DataSource shardDataSource : shardDataSources) {
+			pools.add(new ConnectionPool(shardDataSource));
+		}
+		shardPools = pools;
+		for (ConnectionPool previousPool : previous) {
+			previousPool.clear();
+		}
+	}
+
+	/**
+	 * @return the number of message shards, 1 if messages are not sharded.
+	 */
+	public static int getShardCount() {
+		return shardPools.size();
+	}
+
+	/**
+	 * @param shard a shard number from 0 to getShardCount() - 1.
+	 * @return an active connection to the message shard; shard 0 is the
+	 *         primary database.
+	 */
+	public static Connection getShardConnection(int shard) {
+		if (shard == 0) {
+			return getConnection();
+		}
+		try {
+			return shardPools.get(shard).getConnection();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a connection for a read that does not need to see the latest
+	 * writes.
+	 *
+	 * @return a connection to a healthy replica, or to the primary database if
+	 *         no replicas are configured or none are healthy.
+	 */
+	public static Connection getReplicaConnection() {
+		if (replicaRouter != null) {
+			Connection connection = replicaRouter.getConnection();
+			if (connection != null) {
+				Metrics.counter("replicas.reads").increment();
+				return connection;
+			}
+			Metrics.counter("replicas.fallbacks").increment();
+		}
+		return getConnection();
+	}
+
+	/**
+	 * Builds the JDBC URL for the configured backend.
+	 *
+	 * @return the "db.url" setting if there is one, otherwise a URL for
+	 *         "db.backend".
+	 * @throws IllegalArgumentException if the backend is unknown.
+	 */
+	public static String jdbcUrl() {
+		String configuredUrl = AppConfig.getString("db.url", null);
+		if (configuredUrl != null) {
+			return configuredUrl;
+		}
+		String backend = AppConfig.getString("db.backend", "file");
+		switch (backend) {
+			// Embedded databases are closed by shutdown, after the server has drained, not by H2's own exit hook
+			case "file":
+				return "jdbc:h2:" + AppConfig.getString("db.path", "./h2/db") + ";DB_CLOSE_ON_EXIT=FALSE;"
+						+ h2Settings();
+			case "mem":
+				return "jdbc:h2:mem:" + AppConfig.getString("db.name", "socialmedia")
+						+ ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;" + h2Settings();
+			case "server":
+				return "jdbc:h2:tcp://" + AppConfig.getString("db.host", "localhost") + ":"
+						+ AppConfig.getInt("db.port", 9092) + "/" + AppConfig.getString("db.path", "./h2/db") + ";"
+						+ h2Settings();
+			case "postgres":
+				return "jdbc:postgresql://" + AppConfig.getString("db.host", "localhost") + ":"
+						+ AppConfig.getInt("db.port", 5432) + "/" + AppConfig.getString("db.name", "socialmedia");
+			default:
+				throw new IllegalArgumentException("Unknown db.backend: " + backend);
+		}
+	}
+
+	/**
+	 * @return the H2 URL settings for the configured tuning options, each
+	 *         followed by ';'.
+	 */
+	private static String h2Settings() {
+		StringBuilder settings = new StringBuilder();
+		int cacheSizeKb = AppConfig.getInt("db.h2.cache_size_kb", 0);
+		if (cacheSizeKb > 0) {
+			settings.append("CACHE_SIZE=").append(cacheSizeKb).append(';');
+		}
+		int lockTimeoutMs = AppConfig.getInt("db.h2.lock_timeout_ms", 0);
+		if (lockTimeoutMs > 0) {
+			settings.append("LOCK_TIMEOUT=").append(lockTimeoutMs).append(';');
+		}
+		return settings.toString();
+	}
+
+	/**
+	 * @param jdbcUrl the URL of the database.
+	 * @return an H2 DataSource for H2 URLs, otherwise one that goes through
+	 *         DriverManager, using the configured credentials.
+	 */
+	public static DataSource createDataSource(String jdbcUrl) {
+		if (!jdbcUrl.startsWith("jdbc:h2:")) {
+			return new DriverManagerDataSource(jdbcUrl, username, password);
+		}
+		JdbcDataSource h2DataSource = new JdbcDataSource();
+		h2DataSource.setURL(jdbcUrl);
+		h2DataSource.setUser(username);
+		h2DataSource.setPassword(password);
+		return h2DataSource;
+	}
+
+	/**
+	 * @return a router over the "db.replicas" URLs, or null if none are set.
+	 */
+	private static ReplicaRouter createReplicaRouter() {
+		String replicaUrls = AppConfig.getString("db.replicas", null);
+		if (replicaUrls == null) {
+			return null;
+		}
+		List<DataSource> replicas = new ArrayList<>();
+		for (String replicaUrl : replicaUrls.split(",")) {
+			replicas.add(createDataSource(replicaUrl.trim()));
+		}
+		return new ReplicaRouter(replicas, AppConfig.getLong("db.replicas.health_check_ms", 1000));
+	}
+
+	/**
+	 * @return the primary pool followed by a pool for each "db.shards" URL.
+	 */
+	private static List<ConnectionPool> createShardPools() {
+		List<ConnectionPool> pools = new ArrayList<>();
+		pools.add(pool);
+		for (DataSource shardDataSource : configuredShardDataSources()) {
+			pools.add(new ConnectionPool(shardDataSource));
+		}
+		return pools;
+	}
+
+	/**
+	 * @return a DataSource for each "db.shards" URL, in order.
+	 */
+	public static List<DataSource> configuredShardDataSources() {
+		List<DataSource> shardDataSources = new ArrayList<>();
+		String shardUrls = AppConfig.getString("db.shards", null);
+		if (shardUrls != null) {
+			for (String shardUrl : shardUrls.split(",")) {
+				shardDataSources.add(createDataSource(shardUrl.trim()));
+			}
+		}
+		return shardDataSources;
+	}
+
+	/**
+	 * The tables created by Schema.sql, in an order they can be dropped in.
+	 */
+	private static final String[] TABLES = { "follow", "message_hashtag", "message_mention", "message", "account",
+			"schema_version" };
+
+	/**
+	 * SQL scripts by resource name, read once.
+	 */
+	private static final Map<String, String> scripts = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates any missing tables in the primary database, and the message
+	 * tables of every other shard from ShardSchema.sql. Once a script has been
+	 * applied, the database is stamped with its checksum, so later starts run a
+	 * single query per database and no DDL until the script changes.
+	 *
+	 * The scripts create tables and indexes that do not exist, then migrate
+	 * tables made by older scripts in place (such as widening int message_id
+	 * columns to bigint), so they keep existing data. Each statement must be
+	 * safe to run again on a database that is already current.
+	 *
+	 * When messages are sharded, every shard's message_id column is then set up
+	 * to generate only the shard's own ids (see prepareMessageShard), unless it
+	 * already is.
+	 *
+	 * @return true if a script was run or a shard was prepared, false if every
+	 *         database was already current or could not be checked.
+	 */
+	public static boolean ensureSchema() {
+		boolean changed = false;
+		for (int shard = 0; shard < getShardCount(); shard++) {
+			Connection connection = getShardConnection(shard);
+			try {
+				changed |= applySchema(connection, shard == 0 ? "Schema.sql" : "ShardSchema.sql");
+				if (getShardCount() > 1 && messageIdIncrement(connection) != getShardCount()) {
+					prepareMessageShard(connection, shard, getShardCount());
+					changed = true;
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+			} finally {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @param connection a connection to the database.
+	 * @param name       the schema script for the database.
+	 * @return true if the script was run, false if the schema was already
+	 *         current.
+	 * @throws SQLException if the schema could not be created.
+	 */
+	private static boolean applySchema(Connection connection, String name) throws SQLException {
+		String schema = script(name);
+		long checksum = checksum(schema);
+		if (schemaChecksum(connection) == checksum) {
+			Metrics.counter("schema.checks_skipped").increment();
+			return false;
+		}
+		RunScript.execute(connection, new StringReader(schema));
+		connection.createStatement().execute("DELETE FROM schema_version");
+		PreparedStatement preparedStatement = connection
+				.prepareStatement("INSERT INTO schema_version (checksum) VALUES (?)");
+		preparedStatement.setLong(1, checksum);
+		preparedStatement.executeUpdate();
+		Metrics.counter("schema.applied").increment();
+		return true;
+	}
+
+	/**
+	 * @param connection a connection to a message shard.
+	 * @return how far apart the message_id identity column generates ids, 1
+	 *         until the shard has been prepared.
+	 * @throws SQLException if the column could not be read.
+	 */
+	private static long messageIdIncrement(Connection connection) throws SQLException {
+		ResultSet resultSet = connection.createStatement().executeQuery("SELECT identity_increment"
+				+ " FROM information_schema.columns WHERE table_schema = CURRENT_SCHEMA"
+				+ " AND LOWER(table_name) = 'message' AND LOWER(column_name) = 'message_id'");
+		return resultSet.next() ? resultSet.getLong(1) : 1;
+	}
+
+	/**
+	 * @param connection a connection to the database.
+	 * @return the checksum of the schema script last applied, or -1 if none
+	 *         was.
+	 */
+	private static long schemaChecksum(Connection connection) {
+		try {
+			ResultSet resultSet = connection.createStatement().executeQuery("SELECT checksum FROM schema_version");
+			return resultSet.next() ? resultSet.getLong(1) : -1;
+		} catch (SQLException e) {
+			// No schema_version table yet
+			return -1;
+		}
+	}
+
+	private static long checksum(String script) {
+		CRC32 crc = new CRC32();
+		crc.update(script.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+	/**
+	 * @param name the name of an SQL script in the classpath root.
+	 * @return the script's text.
+	 * @throws IllegalStateException if the script could not be read.
+	 */
+	private static String script(String name) {
+		return scripts.computeIfAbsent(name, key -> {
+			InputStream inputStream = ConnectionUtil.class.getResourceAsStream("/" + key);
+			if (inputStream == null) {
+				throw new IllegalStateException("Missing SQL script " + key);
+			}
+			try {
+				try {
+					return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+				} finally {
+					inputStream.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read SQL script " + key, e);
+			}
+		});
+	}
+
+	/**
+	 * Sets up a shard's message_id identity column so the shard number can be
+	 * read back from any id: shard s only generates ids that are s + 1 modulo
+	 * the shard count. With a single shard, ids are generated as usual.
+	 *
+	 * @param connection a connection to the shard's database.
+	 * @param shard      the shard number.
+	 * @param shardCount the total number of shards.
+	 * @throws SQLException if the column could not be altered.
+	 */
+	public static void prepareMessageShard(Connection connection, int shard, int shardCount) throws SQLException {
+		ResultSet resultSet = connection.createStatement()
+				.executeQuery("SELECT COALESCE(MAX(message_id), 0) FROM message");
+		resultSet.next();
+		long maxId = resultSet.getLong(1);
+		// The smallest id above every existing one that belongs to this shard
+		long nextId = maxId - Math.floorMod(maxId, (long) shardCount) + shard + 1;
+		if (nextId <= maxId) {
+			nextId += shardCount;
+		}
+		connection.createStatement().execute(
+				"ALTER TABLE message ALTER COLUMN message_id SET INCREMENT BY " + shardCount);
+		connection.createStatement().execute(
+				"ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + nextId);
+	}
+
+	/**
+	 * Closes the pooled connections of the primary database and every shard,
+	 * and stops the replica health checks. Embedded H2 file databases are shut
+	 * down, and compacted first if compact is true, so the next start opens a
+	 * small, cleanly closed file. Call once no more requests are served.
+	 *
+	 * @param compact whether to compact embedded H2 file databases.
+	 */
+	public static synchronized void shutdown(boolean compact) {
+		for (ConnectionPool shardPool : shardPools) {
+			try {
+				Connection connection = shardPool.getConnection();
+				String jdbcUrl = connection.getMetaData().getURL();
+				// Server, in-memory and non-H2 databases are left running
+				if (jdbcUrl.startsWith("jdbc:h2:") && !jdbcUrl.startsWith("jdbc:h2:mem:")
+						&& !jdbcUrl.startsWith("jdbc:h2:tcp:") && !jdbcUrl.startsWith("jdbc:h2:ssl:")) {
+					long start = System.nanoTime();
+					connection.createStatement().execute(compact ? "SHUTDOWN COMPACT" : "SHUTDOWN");
+					Metrics.timer("connections.shutdown").recordSince(start);
+				}
+				connection.close();
+			} catch (SQLException e) {
+				System.out.println("Could not shut down database: " + e.getMessage());
+			}
+			shardPool.clear();
+		}
+		if (replicaRouter != null) {
+			replicaRouter.close();
+		}
+	}
+
+	/**
+	 * For the purpose of testing, we will need to empty our database tables and
+	 * load the test data to keep it consistent across all tests. The tables are
+	 * only dropped and recreated if Schema.sql has changed since they were
+	 * created; otherwise SocialMedia.sql just deletes their rows and restarts
+	 * their ids. This will be performed before every test.
+	 *
+	 * In "memory" storage mode the store's files are deleted as well, so the
+	 * next InMemorySocialMediaDAO imports the freshly reset database.
 	 */
 	public static void resetTestDatabase() {
 		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+			Connection connection = getConnection();
+			if (schemaChecksum(connection) != checksum(script("Schema.sql"))) {
+				for (String table : TABLES) {
+					connection.createStatement().execute("DROP TABLE IF EXISTS " + table);
+				}
+				applySchema(connection, "Schema.sql");
+			}
+			RunScript.execute(connection, new StringReader(script("SocialMedia.sql")));
+			if (getShardCount() > 1) {
+				prepareMessageShard(connection, 0, getShardCount());
+			}
+			connection.close();
+
+			for (int shard = 1; shard < getShardCount(); shard++) {
+				connection = getShardConnection(shard);
+				RunScript.execute(connection, new StringReader(script("SocialMediaShard.sql")));
+				prepareMessageShard(connection, shard, getShardCount());
+				connection.close();
+			}
+		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+
+		if (AppConfig.getString("storage.mode", "database").equals("memory")) {
+			Path storeDirectory = Paths.get(AppConfig.getString("storage.dir", "store"));
+			try {
+				if (Files.isDirectory(storeDirectory)) {
+					DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory);
+					try {
+						for (Path file : files) {
+							Files.delete(file);
+						}
+					} finally {
+						files.close();
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 }
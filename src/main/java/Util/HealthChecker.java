@@ -0,0 +1,315 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks the application's dependencies on a background thread every
+ * "health.check_interval_ms" (default 1000) and keeps the latest result, so
+ * health and readiness probes are answered from memory and never wait on the
+ * database.
+ *
+ * Each check tests a connection to the primary database and every shard,
+ * allowing "health.db_timeout_seconds" (default 2) each, and reads the
+ * replica, connection pool, concurrency limiter, queue and cache metrics. The
+ * result is serialized once per check. A result older than
+ * "health.max_age_ms" (default 5000) means the checker itself is stuck, for
+ * example on a hung database, and is treated as unhealthy.
+ *
+ * A concurrency limit at capacity in one check is normal under a burst, so
+ * readiness only fails for saturation once "health.saturation_checks"
+ * (default 3) checks in a row have found a limit saturated, and only recovers
+ * once as many checks in a row have found none. A single sample never moves
+ * the application in or out of rotation.
+ */
+public class HealthChecker {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final long intervalMillis;
+    private final long maxAgeMillis;
+    private final int timeoutSeconds;
+    private final int saturationChecks;
+    private final LongSupplier clock;
+    private ScheduledExecutorService scheduler;
+    private volatile Result result;
+    // Whether readiness counts the app as saturated, and how many checks in a row have disagreed
+    private final Object saturationLock = new Object();
+    private boolean saturated;
+    private int saturationStreak;
+
+    public HealthChecker() {
+        this(AppConfig.getLong("health.check_interval_ms", 1000), AppConfig.getLong("health.max_age_ms", 5000),
+                AppConfig.getInt("health.db_timeout_seconds", 2), AppConfig.getInt("health.saturation_checks", 3),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param intervalMillis   how often to check.
+     * @param maxAgeMillis     how old a result may be before it is unhealthy.
+     * @param timeoutSeconds   how long each database may take to answer.
+     * @param saturationChecks how many checks in a row must agree before
+     *                         readiness fails or recovers for saturation.
+     * @param clock            source of the current time in milliseconds.
+     */
+    public HealthChecker(long intervalMillis, long maxAgeMillis, int timeoutSeconds, int saturationChecks,
+            LongSupplier clock) {
+        this.intervalMillis = intervalMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.timeoutSeconds = timeoutSeconds;
+        this.saturationChecks = Math.max(1, saturationChecks);
+        this.clock = clock;
+    }
+
+    /**
+     * Checks once, then keeps checking in the background until closed.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        check();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            // An exception would cancel the schedule, leaving the result to go stale
+            try {
+                check();
+            } catch (RuntimeException e) {
+                System.out.println("Health check failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background checks. The last result is kept.
+     */
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Checks every dependency now and replaces the kept result.
+     */
+    public void check() {
+        long start = System.nanoTime();
+        Map<String, Object> report = new LinkedHashMap<>();
+        long checkedAt = clock.getAsLong();
+
+        boolean databaseUp = true;
+        List<Map<String, Object>> databases = new ArrayList<>();
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            Map<String, Object> database = checkDatabase(shard);
+            databaseUp &= database.get("status").equals("UP");
+            databases.add(database);
+        }
+
+        Map<String, Object> metrics = Metrics.snapshot();
+        // Replicas are checked by their ReplicaRouter; report its view of them
+        Map<String, Object> replicas = new LinkedHashMap<>();
+        metrics.forEach((name, value) -> {
+            if (name.startsWith("replicas.") && name.endsWith(".healthy")) {
+                replicas.put(name.substring("replicas.".length(), name.length() - ".healthy".length()),
+                        value.equals(1) ? "UP" : "DOWN");
+            }
+        });
+        Map<String, Object> connections = new LinkedHashMap<>();
+        copy(metrics, "connections.active", connections, "active");
+        copy(metrics, "connections.idle", connections, "idle");
+
+        boolean sampleSaturated = false;
+        Map<String, Object> concurrency = new LinkedHashMap<>();
+        for (String limiter : new String[] { "read", "write" }) {
+            Object inFlight = metrics.get("concurrency." + limiter + ".in_flight");
+            Object limit = metrics.get("concurrency." + limiter + ".limit");
+            if (inFlight != null && limit != null) {
+                boolean limiterSaturated = ((Number) inFlight).longValue() >= ((Number) limit).longValue();
+                sampleSaturated |= limiterSaturated;
+                Map<String, Object> limiterReport = new LinkedHashMap<>();
+                limiterReport.put("in_flight", inFlight);
+                limiterReport.put("limit", limit);
+                limiterReport.put("saturated", limiterSaturated);
+                concurrency.put(limiter, limiterReport);
+            }
+        }
+
+        Map<String, Object> queues = new LinkedHashMap<>();
+        copy(metrics, "passwords.queue_depth", queues, "password_hashing");
+        copy(metrics, "stream.subscribers", queues, "stream_subscribers");
+        copy(metrics, "storage.wal_bytes_used", queues, "wal_bytes_used");
+
+        Map<String, Object> caches = new LinkedHashMap<>();
+        copy(metrics, "service.cache.entries", caches, "service_entries");
+        copy(metrics, "service.cache.hits", caches, "service_hits");
+        copy(metrics, "service.cache.misses", caches, "service_misses");
+        copy(metrics, "idempotency.entries", caches, "idempotency_entries");
+        copy(metrics, "sessions.active", caches, "sessions");
+
+        report.put("status", databaseUp ? "UP" : "DOWN");
+        report.put("checked_at", checkedAt);
+        report.put("check_us", (System.nanoTime() - start) / 1000);
+        report.put("databases", databases);
+        if (!replicas.isEmpty()) {
+            report.put("replicas", replicas);
+        }
+        report.put("connections", connections);
+        boolean saturatedNow = updateSaturation(sampleSaturated);
+        report.put("saturated", saturatedNow);
+        report.put("concurrency", concurrency);
+        report.put("queues", queues);
+        report.put("caches", caches);
+
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(report);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize health report", e);
+        }
+        result = new Result(json, checkedAt, databaseUp, saturatedNow);
+        Metrics.timer("health.check").recordSince(start);
+    }
+
+    /**
+     * @return the latest result, or null before the first check.
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return why the application should not receive traffic now, or null if
+     *         it should.
+     */
+    public String getProblem() {
+        Result current = result;
+        if (current == null) {
+            return "Not checked yet";
+        }
+        if (clock.getAsLong() - current.checkedAt > maxAgeMillis) {
+            return "Health check is stale";
+        }
+        if (!current.databaseUp) {
+            return "Database unreachable";
+        }
+        if (current.saturated) {
+            return "Saturated";
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the latest result is recent and every database answered.
+     */
+    public boolean isHealthy() {
+        Result current = result;
+        return current != null && current.databaseUp && clock.getAsLong() - current.checkedAt <= maxAgeMillis;
+    }
+
+    /**
+     * Moves in or out of the saturated state once enough checks in a row
+     * disagree with it.
+     *
+     * @param sampleSaturated whether this check found a limit saturated.
+     * @return whether the application counts as saturated now.
+     */
+    private boolean updateSaturation(boolean sampleSaturated) {
+        synchronized (saturationLock) {
+            if (sampleSaturated == saturated) {
+                saturationStreak = 0;
+            } else if (++saturationStreak >= saturationChecks) {
+                saturated = sampleSaturated;
+                saturationStreak = 0;
+            }
+            return saturated;
+        }
+    }
+
+    private Map<String, Object> checkDatabase(int shard) {
+        Map<String, Object> database = new LinkedHashMap<>();
+        database.put("shard", shard);
+        long start = System.nanoTime();
+        Connection connection = ConnectionUtil.getShardConnection(shard);
+        try {
+            if (connection == null) {
+                throw new SQLException("Could not connect");
+            }
+            if (!connection.isValid(timeoutSeconds)) {
+                throw new SQLException("Connection is not valid");
+            }
+            database.put("status", "UP");
+        } catch (SQLException e) {
+            database.put("status", "DOWN");
+            database.put("error", e.getMessage());
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+        database.put("latency_us", (System.nanoTime() - start) / 1000);
+        return database;
+    }
+
+    private static void copy(Map<String, Object> metrics, String metric, Map<String, Object> section, String name) {
+        Object value = metrics.get(metric);
+        if (value != null) {
+            section.put(name, value);
+        }
+    }
+
+    /**
+     * One check's outcome, with its report already serialized.
+     */
+    public static class Result {
+        private final byte[] json;
+        private final long checkedAt;
+        private final boolean databaseUp;
+        private final boolean saturated;
+
+        Result(byte[] json, long checkedAt, boolean databaseUp, boolean saturated) {
+            this.json = json;
+            this.checkedAt = checkedAt;
+            this.databaseUp = databaseUp;
+            this.saturated = saturated;
+        }
+
+        /**
+         * @return the report as JSON; shared by every probe, so it must not be
+         *         modified.
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+
+        public boolean isDatabaseUp() {
+            return databaseUp;
+        }
+
+        public boolean isSaturated() {
+            return saturated;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the responses to requests sent with an Idempotency-Key header, so
+ * that retries of the same request can be answered without running it again.
+ *
+ * The first request with a key claims it and later completes it with its
+ * response; duplicates that arrive while it is still running wait for that
+ * response instead of running in parallel.
+ *
+ * Entries are spread across shards by key hash, like SessionStore, so claims
+ * for different keys rarely contend. Each shard keeps its entries in
+ * insertion order, drops them after "idempotency.ttl_minutes" (default 1440)
+ * and holds its share of "idempotency.max_entries" (default 10000) across
+ * "idempotency.shards" (default 16). Beyond that the oldest completed entries
+ * are evicted; entries whose request is still running are never evicted, as
+ * that would let a duplicate run in parallel. A claim that finds its shard
+ * full of running requests is rejected with a LoadSheddingException.
+ */
+public class IdempotencyStore {
+    private final Shard[] shards;
+    private final int maxEntriesPerShard;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    public IdempotencyStore() {
+        this(AppConfig.getInt("idempotency.max_entries", 10_000),
+                AppConfig.getInt("idempotency.shards", 16),
+                TimeUnit.MINUTES.toMillis(AppConfig.getLong("idempotency.ttl_minutes", 1440)),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxEntries the most responses to remember.
+     * @param shardCount the number of shards to spread entries across.
+     * @param ttlMillis  how long to remember a response.
+     * @param clock      source of the current time in milliseconds.
+     */
+    public IdempotencyStore(int maxEntries, int shardCount, long ttlMillis, LongSupplier clock) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        this.maxEntriesPerShard = Math.max(1, (maxEntries + shardCount - 1) / shardCount);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        Metrics.gauge("idempotency.entries", this::size);
+    }
+
+    /**
+     * Claims a key for a request, or finds the request that already claimed it.
+     *
+     * @param key         the idempotency key, scoped by the caller to a route.
+     * @param fingerprint identifies the request body, so a key reused for a
+     *                    different request can be detected.
+     * @return a claim on a new entry, which the caller must complete or abandon,
+     *         or on the existing entry for the key.
+     * @throws LoadSheddingException if the key's shard is full of requests that
+     *                               are still running.
+     */
+    public Claim claim(String key, String fingerprint) {
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            long now = clock.getAsLong();
+            shard.evictExpired(now);
+
+            Entry existing = shard.entries.get(key);
+            if (existing != null) {
+                return new Claim(existing, false);
+            }
+            if (!shard.evictCompleted(maxEntriesPerShard - 1)) {
+                Metrics.counter("idempotency.rejected").increment();
+                throw new LoadSheddingException("idempotency");
+            }
+            Entry entry = new Entry(key, fingerprint, now + ttlMillis);
+            shard.entries.put(key, entry);
+            return new Claim(entry, true);
+        }
+    }
+
+    /**
+     * Forgets an entry whose request failed, so that a retry runs it again.
+     *
+     * @param entry an entry owned by the caller.
+     */
+    public void abandon(Entry entry) {
+        Shard shard = shardFor(entry.key);
+        synchronized (shard) {
+            shard.entries.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * @return the number of entries held, including expired ones not yet
+     *         evicted.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Shard shardFor(String key) {
+        return shards[Math.floorMod(key.hashCode(), shards.length)];
+    }
+
+    /**
+     * One shard of the entries, in insertion order. Guarded by its own lock.
+     */
+    private static class Shard {
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        /**
+         * Removes expired entries from the head of the map. Entries are
+         * inserted with the same TTL, so the head is always the first to
+         * expire.
+         */
+        void evictExpired(long now) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAtMillis > now) {
+                    return;
+                }
+                iterator.remove();
+            }
+        }
+
+        /**
+         * Evicts the oldest entries whose request has completed, skipping
+         * those still running, until at most a number of entries remain.
+         *
+         * @return whether the shard is now down to that number.
+         */
+        boolean evictCompleted(int maxRemaining) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() > maxRemaining && iterator.hasNext()) {
+                if (iterator.next().response.isDone()) {
+                    iterator.remove();
+                    Metrics.counter("idempotency.evicted").increment();
+                }
+            }
+            return entries.size() <= maxRemaining;
+        }
+    }
+
+    /**
+     * The result of claiming a key: the entry, and whether the caller created it
+     * and is therefore responsible for running the request.
+     */
+    public static class Claim {
+        public final Entry entry;
+        public final boolean owner;
+
+        private Claim(Entry entry, boolean owner) {
+            this.entry = entry;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * An idempotency key and the eventual response to its request.
+     */
+    public static class Entry {
+        final String key;
+        final long expiresAtMillis;
+        private final String fingerprint;
+        private final CompletableFuture<StoredResponse> response = new CompletableFuture<>();
+
+        private Entry(String key, String fingerprint, long expiresAtMillis) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public CompletableFuture<StoredResponse> getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * The parts of a response needed to replay it byte for byte.
+     */
+    public static class StoredResponse {
+        public final int status;
+        public final String contentType;
+        public final byte[] body;
+
+        public StoredResponse(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps token buckets in a ConcurrentHashMap on this server only. Each bucket
+ * is an immutable state swapped in with compare-and-set, so acquiring a token
+ * never blocks. Buckets that have been idle long enough to refill completely
+ * are indistinguishable from new ones, and are swept out of the map.
+ */
+public class InMemoryRateLimiterBackend implements RateLimiterBackend {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Map<String, AtomicReference<Bucket>> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos;
+    private final LongSupplier clock;
+
+    public InMemoryRateLimiterBackend() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock source of monotonic time in nanoseconds.
+     */
+    public InMemoryRateLimiterBackend(LongSupplier clock) {
+        this.clock = clock;
+        this.lastSweepNanos = new AtomicLong(clock.getAsLong());
+    }
+
+    @Override
+    public long tryAcquire(String key, long capacity, double refillPerSecond) {
+        long now = clock.getAsLong();
+        sweepIfDue(now);
+
+        AtomicReference<Bucket> reference = buckets.computeIfAbsent(key,
+                k -> new AtomicReference<>(new Bucket(capacity, now, now)));
+        while (true) {
+            Bucket current = reference.get();
+            double tokens = Math.min(capacity,
+                    current.tokens + (now - current.updatedNanos) * refillPerSecond / 1e9);
+            if (tokens < 1) {
+                // Not enough tokens; report how long until one is refilled
+                return (long) Math.ceil((1 - tokens) * 1e9 / refillPerSecond);
+            }
+            long fullAtNanos = now + (long) ((capacity - tokens + 1) * 1e9 / refillPerSecond);
+            if (reference.compareAndSet(current, new Bucket(tokens - 1, now, fullAtNanos))) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return the number of buckets currently held in memory.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Removes buckets that have refilled completely, at most once per sweep
+     * interval. Only the caller that wins the race on lastSweepNanos sweeps.
+     */
+    private void sweepIfDue(long now) {
+        long lastSweep = lastSweepNanos.get();
+        if (now - lastSweep < SWEEP_INTERVAL_NANOS || !lastSweepNanos.compareAndSet(lastSweep, now)) {
+            return;
+        }
+        Iterator<AtomicReference<Bucket>> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get().fullAtNanos <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Immutable token bucket state.
+     */
+    private static class Bucket {
+        final double tokens;
+        final long updatedNanos;
+        /**
+         * When the bucket will be full again if left idle.
+         */
+        final long fullAtNanos;
+
+        Bucket(double tokens, long updatedNanos, long fullAtNanos) {
+            this.tokens = tokens;
+            this.updatedNanos = updatedNanos;
+            this.fullAtNanos = fullAtNanos;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package Util;
+
+/**
+ * Thrown when a request is rejected because too many requests are already
+ * waiting on the database. The controller turns it into a 503 response.
+ */
+public class LoadSheddingException extends RuntimeException {
+
+    /**
+     * @param limiterName the name of the concurrency limit that was reached.
+     */
+    public LoadSheddingException(String limiterName) {
+        super("Concurrency limit reached for " + limiterName);
+    }
+}
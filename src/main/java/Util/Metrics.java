@@ -0,0 +1,112 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of counters, gauges and latency timers. Every metric
+ * is identified by a dotted name, and the whole registry can be read as a
+ * snapshot map for the GET /metrics endpoint.
+ */
+public class Metrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Fetches the counter with the given name, creating it if needed.
+     *
+     * @param name dotted metric name.
+     * @return a counter that can be incremented from any thread.
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Fetches the timer with the given name, creating it if needed.
+     *
+     * @param name dotted metric name.
+     * @return a timer that can record latencies from any thread.
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Registers a gauge whose value is read each time a snapshot is taken.
+     * Registering the same name again replaces the previous gauge.
+     *
+     * @param name  dotted metric name.
+     * @param value supplier of the current value.
+     */
+    public static void gauge(String name, Supplier<? extends Number> value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reads every registered metric. Timers are reported as count, mean and max
+     * latency in microseconds.
+     *
+     * @return a sorted map of metric names to their current values.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        timers.forEach((name, timer) -> {
+            snapshot.put(name + ".count", timer.getCount());
+            snapshot.put(name + ".mean_us", timer.getMeanMicros());
+            snapshot.put(name + ".max_us", timer.getMaxMicros());
+        });
+        return snapshot;
+    }
+
+    /**
+     * Accumulates latency samples without locking.
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records a single latency sample.
+         *
+         * @param nanos elapsed time in nanoseconds.
+         */
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * Records the time elapsed since startNanos, as read from
+         * System.nanoTime().
+         *
+         * @param startNanos start time of the measured operation.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMeanMicros() {
+            long samples = count.sum();
+            return samples == 0 ? 0 : totalNanos.sum() / samples / 1000;
+        }
+
+        public long getMaxMicros() {
+            return maxNanos.get() / 1000;
+        }
+    }
+}
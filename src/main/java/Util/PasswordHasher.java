@@ -0,0 +1,156 @@
+package Util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2-HMAC-SHA256.
+ *
+ * Hashes are stored as "pbkdf2${iterations}${salt}${hash}", so the work
+ * factor can be raised later and old hashes upgraded on login. Stored values
+ * without the "pbkdf2$" prefix are treated as legacy plaintext passwords.
+ *
+ * Hashing is deliberately slow, so it runs on a dedicated pool of
+ * "passwords.threads" threads (default: one per core) with a queue of at most
+ * "passwords.queue_size" waiting jobs (default 64). When the queue is full,
+ * new hashing work is rejected with a LoadSheddingException instead of
+ * tying up more HTTP threads. The work factor is "passwords.iterations"
+ * (default 120000).
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+
+    public PasswordHasher() {
+        this(AppConfig.getInt("passwords.iterations", 120_000),
+                AppConfig.getInt("passwords.threads", Runtime.getRuntime().availableProcessors()),
+                AppConfig.getInt("passwords.queue_size", 64));
+    }
+
+    /**
+     * @param iterations the PBKDF2 work factor for new hashes.
+     * @param threads    the number of threads hashing concurrently.
+     * @param queueSize  the number of hashing jobs allowed to wait for a thread.
+     */
+    public PasswordHasher(int iterations, int threads, int queueSize) {
+        this.iterations = iterations;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        Metrics.gauge("passwords.queue_depth", () -> executor.getQueue().size());
+    }
+
+    /**
+     * Hashes a password with a new random salt at the configured work factor.
+     *
+     * @param password the plaintext password.
+     * @return the encoded hash to store.
+     * @throws LoadSheddingException if the hashing queue is full.
+     */
+    public String hash(String password) {
+        return submit(() -> hashNow(password));
+    }
+
+    /**
+     * Checks a password against a stored hash or legacy plaintext password.
+     *
+     * @param password the plaintext password to check.
+     * @param stored   the stored value for the account.
+     * @return true if the password matches.
+     * @throws LoadSheddingException if the hashing queue is full.
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(), stored.getBytes());
+        }
+        return submit(() -> {
+            String[] parts = stored.split("\\$");
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, Integer.parseInt(parts[1])));
+        });
+    }
+
+    /**
+     * @param stored the stored value for an account.
+     * @return true if the value is plaintext or was hashed with fewer iterations
+     *         than currently configured.
+     */
+    public boolean needsUpgrade(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return true;
+        }
+        return Integer.parseInt(stored.split("\\$")[1]) < iterations;
+    }
+
+    /**
+     * Hashes on the calling thread. Used by the hashing pool and by benchmarks.
+     *
+     * @param password the plaintext password.
+     * @return the encoded hash.
+     */
+    public String hashNow(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    private <T> T submit(Callable<T> job) {
+        Future<T> future;
+        try {
+            future = executor.submit(job);
+        } catch (RejectedExecutionException e) {
+            Metrics.counter("passwords.rejected").increment();
+            throw new LoadSheddingException("passwords");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
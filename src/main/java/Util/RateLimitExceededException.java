@@ -0,0 +1,22 @@
+package Util;
+
+/**
+ * Thrown when a request is over its rate limit. The controller turns it into
+ * a 429 response with a Retry-After header.
+ */
+public class RateLimitExceededException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    /**
+     * @param key               the rate limit key that was exceeded.
+     * @param retryAfterSeconds how long the client should wait before retrying.
+     */
+    public RateLimitExceededException(String key, long retryAfterSeconds) {
+        super("Rate limit exceeded for " + key);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,126 @@
+package Util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket rate limits for write requests, applied per account
+ * (posted_by), per client IP and across all clients. Each limit has a
+ * capacity (the largest burst allowed) and a refill rate (the sustained
+ * requests per second allowed), configured through AppConfig as
+ * "ratelimit.{account|ip|global}.capacity" and
+ * "ratelimit.{account|ip|global}.refill_per_second". A capacity of 0 turns
+ * that limit off.
+ *
+ * The global bucket is charged last, after the request's IP and account
+ * buckets have let it through, so a client over its own limits cannot spend
+ * the tokens every other client shares.
+ */
+public class RateLimiter {
+    private final RateLimiterBackend backend;
+    private final Limit accountLimit;
+    private final Limit ipLimit;
+    private final Limit globalLimit;
+    private final LongAdder rejections = Metrics.counter("ratelimit.rejected");
+
+    /**
+     * Creates a RateLimiter with configured limits and a local in-memory backend.
+     */
+    public RateLimiter() {
+        this(new InMemoryRateLimiterBackend());
+    }
+
+    /**
+     * Creates a RateLimiter with configured limits.
+     *
+     * @param backend where token buckets are stored.
+     */
+    public RateLimiter(RateLimiterBackend backend) {
+        this(backend,
+                Limit.configured("account", 20, 5),
+                Limit.configured("ip", 50, 20),
+                Limit.configured("global", 0, 0));
+    }
+
+    /**
+     * @param backend     where token buckets are stored.
+     * @param accountLimit limit applied to each posted_by account.
+     * @param ipLimit      limit applied to each client IP address.
+     * @param globalLimit  limit shared by all write requests.
+     */
+    public RateLimiter(RateLimiterBackend backend, Limit accountLimit, Limit ipLimit, Limit globalLimit) {
+        this.backend = backend;
+        this.accountLimit = accountLimit;
+        this.ipLimit = ipLimit;
+        this.globalLimit = globalLimit;
+    }
+
+    /**
+     * Takes a token from the client's IP bucket.
+     *
+     * @param ip the client IP address.
+     * @throws RateLimitExceededException if the bucket is empty.
+     */
+    public void acquireForIp(String ip) {
+        acquire(ipLimit, "ip:" + ip);
+    }
+
+    /**
+     * Takes a token from an account's bucket, then from the global bucket.
+     * Called once the IP bucket has let the request through.
+     *
+     * @param account_id the account_id the write is made for.
+     * @throws RateLimitExceededException if either bucket is empty.
+     */
+    public void acquireForAccount(int account_id) {
+        acquire(accountLimit, "account:" + account_id);
+        acquire(globalLimit, "global");
+    }
+
+    /**
+     * Takes a token from the bucket identified by key.
+     *
+     * @param limit the bucket's capacity and refill rate; a capacity of 0
+     *              allows every request.
+     * @param key   identifies the bucket.
+     * @throws RateLimitExceededException if the bucket is empty.
+     */
+    public void acquire(Limit limit, String key) {
+        if (limit.capacity <= 0) {
+            return;
+        }
+        long waitNanos = backend.tryAcquire(key, limit.capacity, limit.refillPerSecond);
+        if (waitNanos > 0) {
+            rejections.increment();
+            // Retry-After is in whole seconds, so round up
+            long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            throw new RateLimitExceededException(key, retryAfterSeconds);
+        }
+    }
+
+    /**
+     * A bucket capacity and refill rate.
+     */
+    public static class Limit {
+        final long capacity;
+        final double refillPerSecond;
+
+        public Limit(long capacity, double refillPerSecond) {
+            if (capacity > 0 && refillPerSecond <= 0) {
+                throw new IllegalArgumentException("refillPerSecond must be positive when capacity is set");
+            }
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
+        /**
+         * Reads "ratelimit.{name}.capacity" and
+         * "ratelimit.{name}.refill_per_second".
+         */
+        public static Limit configured(String name, long defaultCapacity, double defaultRefillPerSecond) {
+            long capacity = AppConfig.getLong("ratelimit." + name + ".capacity", defaultCapacity);
+            String refill = AppConfig.getString("ratelimit." + name + ".refill_per_second", null);
+            return new Limit(capacity, refill == null ? defaultRefillPerSecond : Double.parseDouble(refill));
+        }
+    }
+}
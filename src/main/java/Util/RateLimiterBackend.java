@@ -0,0 +1,23 @@
+package Util;
+
+/**
+ * Storage for token buckets. The default backend keeps buckets in local
+ * memory; a distributed backend (for example one backed by a shared cache)
+ * can implement this interface so that limits are enforced across every
+ * server instance.
+ */
+public interface RateLimiterBackend {
+
+    /**
+     * Tries to take one token from the bucket identified by key, refilling it
+     * for the time elapsed since it was last used. A bucket that does not exist
+     * yet starts full.
+     *
+     * @param key              identifies the bucket, for example "account:1".
+     * @param capacity         the maximum number of tokens the bucket holds.
+     * @param refillPerSecond  the number of tokens added back per second.
+     * @return 0 if a token was taken, otherwise the number of nanoseconds until
+     *         a token will be available.
+     */
+    long tryAcquire(String key, long capacity, double refillPerSecond);
+}
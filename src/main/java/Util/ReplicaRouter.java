@@ -0,0 +1,155 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * Spreads reads across read-only replica databases.
+ *
+ * Each replica has its own ConnectionPool. A read goes to the healthy replica
+ * with the fewest connections currently handed out, so a slow replica
+ * naturally receives less work; ties go round robin. A background thread
+ * checks every replica each health check interval and takes replicas that
+ * fail the check out of rotation until they pass again.
+ */
+public class ReplicaRouter {
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param dataSources       one DataSource per replica.
+     * @param healthCheckMillis how often replicas are checked, or 0 to only
+     *                          check when checkHealth is called.
+     */
+    public ReplicaRouter(List<DataSource> dataSources, long healthCheckMillis) {
+        for (int i = 0; i < dataSources.size(); i++) {
+            Replica replica = new Replica(i, new ConnectionPool(dataSources.get(i)));
+            replicas.add(replica);
+            Metrics.gauge("replicas." + i + ".healthy", () -> replica.healthy ? 1 : 0);
+            Metrics.gauge("replicas." + i + ".active", replica.pool::getActiveCount);
+        }
+        checkHealth();
+
+        if (healthCheckMillis > 0 && !replicas.isEmpty()) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Opens a connection to the least busy healthy replica.
+     *
+     * @return a pooled replica connection, or null if no replica is healthy or
+     *         the chosen one could not be reached.
+     */
+    public Connection getConnection() {
+        Replica chosen = null;
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.healthy
+                    && (chosen == null || replica.pool.getActiveCount() < chosen.pool.getActiveCount())) {
+                chosen = replica;
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        try {
+            return chosen.pool.getConnection();
+        } catch (SQLException e) {
+            // Don't wait for the next health check to stop sending reads there
+            markUnhealthy(chosen, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks every replica with a short validity test, updating which ones
+     * receive reads.
+     */
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            Connection connection = null;
+            try {
+                connection = replica.pool.getConnection();
+                if (!connection.isValid(1)) {
+                    throw new SQLException("Connection is not valid");
+                }
+                if (!replica.healthy) {
+                    System.out.println("Replica " + replica.index + " is healthy");
+                }
+                replica.healthy = true;
+            } catch (SQLException e) {
+                markUnhealthy(replica, e);
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        System.out.println(e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of replicas currently receiving reads.
+     */
+    public int getHealthyCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Stops the background health checks.
+     */
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    private void markUnhealthy(Replica replica, SQLException e) {
+        if (replica.healthy) {
+            System.out.println("Replica " + replica.index + " is unhealthy: " + e.getMessage());
+            Metrics.counter("replicas.marked_unhealthy").increment();
+        }
+        replica.healthy = false;
+        // Idle connections to a failed replica are likely broken too
+        replica.pool.clear();
+    }
+
+    private static class Replica {
+        final int index;
+        final ConnectionPool pool;
+        volatile boolean healthy;
+
+        Replica(int index, ConnectionPool pool) {
+            this.index = index;
+            this.pool = pool;
+        }
+    }
+}
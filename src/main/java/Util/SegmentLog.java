@@ -0,0 +1,495 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongFunction;
+
+/**
+ * An append-only log of newline-terminated records, stored in segment files.
+ *
+ * Every record gets the next offset, starting at 1. Records are written to
+ * the active segment file until it would grow past the segment size, then a
+ * new segment named after its first offset is started; beyond the retention
+ * limit the oldest segments are deleted. Because records are stored back to
+ * back, any run of records is one contiguous byte range of a segment file, so
+ * readers can send it straight from the file without decoding it.
+ *
+ * The byte position of every record is kept in memory and rebuilt by scanning
+ * the files when a log is opened, which also drops a record left half written
+ * by a crash. Records are written to the operating system by append; callers
+ * that must not lose a record wait for awaitDurable, which uses group commit
+ * like WriteAheadLog: the first waiter forces the active segment for every
+ * record appended so far, and waiters that arrive meanwhile share the next
+ * force.
+ */
+public class SegmentLog {
+    private static final String SUFFIX = ".log";
+    /**
+     * Logs opened with open(), by directory. Guards references as well.
+     */
+    private static final Map<Path, SegmentLog> open = new HashMap<>();
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private Segment active;
+    private long nextOffset = 1;
+    private long durableOffset;
+    private boolean forcing;
+    /**
+     * The number of open() calls not yet matched by close().
+     */
+    private int references = 1;
+
+    /**
+     * Opens the log in a directory once per process; later calls for the same
+     * directory share it, and the log stays open until every caller has closed
+     * it.
+     *
+     * @param directory    where the segment files are kept.
+     * @param segmentBytes the size at which a new segment is started.
+     * @param maxSegments  the number of segments kept, or 0 to keep all.
+     * @return the log for the directory.
+     */
+    public static SegmentLog open(Path directory, long segmentBytes, int maxSegments) {
+        Path path = directory.toAbsolutePath().normalize();
+        synchronized (open) {
+            SegmentLog log = open.get(path);
+            if (log != null) {
+                log.references++;
+                return log;
+            }
+            try {
+                log = new SegmentLog(path, segmentBytes, maxSegments);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open log in " + path, e);
+            }
+            open.put(path, log);
+            return log;
+        }
+    }
+
+    /**
+     * @param directory    where the segment files are kept; created if missing.
+     * @param segmentBytes the size at which a new segment is started.
+     * @param maxSegments  the number of segments kept, or 0 to keep all.
+     * @throws IOException if the existing segments could not be read.
+     */
+    public SegmentLog(Path directory, long segmentBytes, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+
+        List<Path> files = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX);
+        try {
+            stream.forEach(files::add);
+        } finally {
+            stream.close();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            segments.put(baseOffset, Segment.recover(baseOffset, file));
+        }
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            active = segments.lastEntry().getValue();
+            nextOffset = active.baseOffset + active.count;
+            durableOffset = nextOffset - 1;
+            // Only the active segment is ever written again
+            for (Segment segment : segments.headMap(active.baseOffset).values()) {
+                segment.closeChannel();
+            }
+        }
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param record builds the record from its offset; it must not contain a
+     *               newline.
+     * @return the offset of the appended record; it is not durable until
+     *         awaitDurable returns for it.
+     * @throws IOException if the record could not be written.
+     */
+    public long append(LongFunction<byte[]> record) throws IOException {
+        List<Waiter> ready;
+        long offset;
+        synchronized (this) {
+            offset = nextOffset;
+            byte[] bytes = record.apply(offset);
+            if (active.size > 0 && active.size + bytes.length + 1 > segmentBytes) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1).put(bytes).put((byte) '\n');
+            buffer.flip();
+            long position = active.size;
+            while (buffer.hasRemaining()) {
+                active.channel.write(buffer, position + buffer.position());
+            }
+            active.addRecord(position, bytes.length + 1);
+            nextOffset++;
+
+            ready = new ArrayList<>();
+            waiters.removeIf(waiter -> waiter.afterOffset < offset && ready.add(waiter));
+        }
+        Metrics.counter("segment_log.appended").increment();
+        // Complete outside the lock; waiters may run their callbacks right here
+        for (Waiter waiter : ready) {
+            waiter.future.complete(null);
+        }
+        return offset;
+    }
+
+    /**
+     * Waits until every record up to an offset is forced to disk.
+     *
+     * @param offset an offset returned by append.
+     * @throws IOException if the records could not be forced, or the log was
+     *                     closed before they were.
+     */
+    public void awaitDurable(long offset) throws IOException {
+        while (true) {
+            FileChannel channel;
+            long target;
+            synchronized (this) {
+                while (forcing && durableOffset < offset) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the log");
+                    }
+                }
+                if (durableOffset >= offset) {
+                    return;
+                }
+                if (active.channel == null) {
+                    throw new ClosedChannelException();
+                }
+                // Lead a force covering everything appended so far
+                forcing = true;
+                channel = active.channel;
+                target = nextOffset - 1;
+            }
+            boolean forced = false;
+            try {
+                // Without the lock, so writers can keep appending and form the next group
+                channel.force(false);
+                forced = true;
+                Metrics.counter("segment_log.fsyncs").increment();
+            } catch (ClosedChannelException e) {
+                // roll() or close() forced the segment before closing it; check again
+            } finally {
+                synchronized (this) {
+                    if (forced) {
+                        durableOffset = Math.max(durableOffset, target);
+                    }
+                    forcing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the records after an offset, up to a limit and never past the end
+     * of one segment.
+     *
+     * @param afterOffset the offset of the last record already read, or 0.
+     * @param maxRecords  the most records to return.
+     * @return the records, possibly none if there are no newer records yet; or
+     *         null if records after the offset have been deleted.
+     */
+    public synchronized Slice read(long afterOffset, int maxRecords) {
+        long first = afterOffset + 1;
+        if (first < segments.firstKey()) {
+            return null;
+        }
+        if (first >= nextOffset) {
+            return new Slice(null, 0, 0, 0, afterOffset);
+        }
+        Segment segment = segments.floorEntry(first).getValue();
+        int from = (int) (first - segment.baseOffset);
+        int to = (int) Math.min(segment.count, (long) from + maxRecords);
+        long start = segment.positions[from];
+        long end = to < segment.count ? segment.positions[to] : segment.size;
+        return new Slice(segment.file, start, end - start, to - from, segment.baseOffset + to - 1);
+    }
+
+    /**
+     * @param afterOffset an offset the caller has read up to.
+     * @return a future completed once a record after the offset exists.
+     */
+    public synchronized CompletableFuture<Void> awaitAfter(long afterOffset) {
+        if (afterOffset < nextOffset - 1) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Waiter waiter = new Waiter(afterOffset);
+        waiters.add(waiter);
+        // Forget callers that stopped waiting
+        waiter.future.whenComplete((result, e) -> removeWaiter(waiter));
+        return waiter.future;
+    }
+
+    /**
+     * @return the offset of the newest record, or 0 if there are none.
+     */
+    public synchronized long getLastOffset() {
+        return nextOffset - 1;
+    }
+
+    /**
+     * Completes every pending awaitAfter future, as if a record had been
+     * appended, so long polls answer now instead of waiting out their timeout.
+     */
+    public void releaseWaiters() {
+        List<Waiter> released;
+        synchronized (this) {
+            released = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (Waiter waiter : released) {
+            waiter.future.complete(null);
+        }
+    }
+
+    /**
+     * Releases the log. A log from open() is only closed once every caller
+     * that opened it has closed it; it is then forgotten, so the next open()
+     * reads the files again. Closing forces the active segment to disk.
+     */
+    public void close() {
+        synchronized (open) {
+            if (--references > 0) {
+                return;
+            }
+            open.remove(directory, this);
+        }
+        synchronized (this) {
+            try {
+                forceActive();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            active.closeChannel();
+            notifyAll();
+        }
+    }
+
+    private synchronized void removeWaiter(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    /**
+     * Starts a new active segment and deletes segments beyond the retention
+     * limit. Must hold the lock.
+     */
+    private void roll() throws IOException {
+        if (active != null) {
+            forceActive();
+            active.closeChannel();
+        }
+        Path file = directory.resolve(String.format("%020d%s", nextOffset, SUFFIX));
+        active = new Segment(nextOffset, file, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(nextOffset, active);
+
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            // Readers that already opened the file can finish reading it
+            Files.deleteIfExists(oldest.file);
+            Metrics.counter("segment_log.segments_deleted").increment();
+        }
+    }
+
+    /**
+     * Forces the active segment to disk, making every record appended so far
+     * durable. Must hold the lock.
+     */
+    private void forceActive() throws IOException {
+        if (active.channel == null) {
+            return;
+        }
+        active.channel.force(false);
+        durableOffset = nextOffset - 1;
+        Metrics.counter("segment_log.fsyncs").increment();
+    }
+
+    /**
+     * A run of consecutive records in one segment file.
+     */
+    public static class Slice {
+        private final Path file;
+        private final long position;
+        private final long byteCount;
+        private final int recordCount;
+        private final long lastOffset;
+
+        Slice(Path file, long position, long byteCount, int recordCount, long lastOffset) {
+            this.file = file;
+            this.position = position;
+            this.byteCount = byteCount;
+            this.recordCount = recordCount;
+            this.lastOffset = lastOffset;
+        }
+
+        /**
+         * @return the total size of the records, including their newlines.
+         */
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return the offset of the last record in the slice, or the offset read
+         *         after if the slice is empty.
+         */
+        public long getLastOffset() {
+            return lastOffset;
+        }
+
+        /**
+         * Maps the records into memory straight from the file, so they can be
+         * written to a socket without copying them through the heap.
+         *
+         * @return a read-only buffer over the records.
+         * @throws NoSuchFileException if the segment was deleted meanwhile.
+         * @throws IOException         if the file could not be mapped.
+         */
+        public MappedByteBuffer map() throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                // The mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, byteCount);
+            } finally {
+                channel.close();
+            }
+        }
+
+        /**
+         * Copies the records to a channel, letting the operating system move the
+         * bytes directly when the target supports it.
+         *
+         * @param target where to write the records.
+         * @throws NoSuchFileException if the segment was deleted meanwhile.
+         * @throws IOException         if the records could not be copied.
+         */
+        public void transferTo(WritableByteChannel target) throws IOException {
+            if (byteCount == 0) {
+                return;
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long transferred = 0;
+                while (transferred < byteCount) {
+                    transferred += channel.transferTo(position + transferred, byteCount - transferred, target);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * One segment file and the byte position of each of its records.
+     */
+    private static class Segment {
+        final long baseOffset;
+        final Path file;
+        FileChannel channel;
+        long[] positions = new long[64];
+        int count;
+        long size;
+
+        Segment(long baseOffset, Path file, FileChannel channel) {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * Indexes an existing segment file, cutting off a trailing record
+         * without its newline.
+         */
+        static Segment recover(long baseOffset, Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(baseOffset, file, channel);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = 0;
+            long recordStart = 0;
+            int read;
+            while ((read = channel.read(buffer, position)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        long recordEnd = position + i + 1;
+                        segment.addRecord(recordStart, recordEnd - recordStart);
+                        recordStart = recordEnd;
+                    }
+                }
+                position += read;
+                buffer.clear();
+            }
+            if (recordStart < position) {
+                channel.truncate(recordStart);
+            }
+            return segment;
+        }
+
+        void addRecord(long position, long length) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+            size = position + length;
+        }
+
+        void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    private static class Waiter {
+        final long afterOffset;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long afterOffset) {
+            this.afterOffset = afterOffset;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package Util;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps login sessions in memory, so that authenticated requests can be
+ * checked without a database lookup.
+ *
+ * Tokens are opaque random ids. Sessions are spread across shards by token
+ * hash; a lookup touches one shard and expired sessions are dropped when they
+ * are looked up. In addition, one shard at a time is swept for expired
+ * sessions, so that abandoned sessions do not pile up.
+ *
+ * Settings are read from AppConfig as "sessions.ttl_minutes" (default 60) and
+ * "sessions.shards" (default 16).
+ */
+public class SessionStore {
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session>[] shards;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final AtomicLong lastSweepMillis;
+    private final AtomicInteger nextShardToSweep = new AtomicInteger();
+
+    public SessionStore() {
+        this(AppConfig.getInt("sessions.shards", 16),
+                TimeUnit.MINUTES.toMillis(AppConfig.getLong("sessions.ttl_minutes", 60)),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param shardCount the number of shards to spread sessions across.
+     * @param ttlMillis  how long a session stays valid after login.
+     * @param clock      source of the current time in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public SessionStore(int shardCount, long ttlMillis, LongSupplier clock) {
+        this.shards = new Map[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.lastSweepMillis = new AtomicLong(clock.getAsLong());
+        Metrics.gauge("sessions.active", this::size);
+    }
+
+    /**
+     * Starts a new session for an account.
+     *
+     * @param account_id the account that logged in.
+     * @return the session token to hand to the client.
+     */
+    public String create(int account_id) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        long now = clock.getAsLong();
+        shardFor(token).put(token, new Session(account_id, now + ttlMillis));
+        sweepIfDue(now);
+        return token;
+    }
+
+    /**
+     * Looks up the account a session belongs to.
+     *
+     * @param token a session token, may be null.
+     * @return the account_id of the session, or null if the token is unknown or
+     *         the session has expired.
+     */
+    public Integer getAccountId(String token) {
+        if (token == null) {
+            return null;
+        }
+        Map<String, Session> shard = shardFor(token);
+        Session session = shard.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (session.expiresAtMillis <= clock.getAsLong()) {
+            shard.remove(token, session);
+            return null;
+        }
+        return session.account_id;
+    }
+
+    /**
+     * Ends a session.
+     *
+     * @param token the session token to invalidate.
+     * @return true if the session existed.
+     */
+    public boolean remove(String token) {
+        return token != null && shardFor(token).remove(token) != null;
+    }
+
+    /**
+     * @return the number of sessions held, including expired ones not yet swept.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, Session> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Map<String, Session> shardFor(String token) {
+        return shards[Math.floorMod(token.hashCode(), shards.length)];
+    }
+
+    /**
+     * Removes expired sessions from the next shard in turn, at most once per
+     * sweep interval.
+     */
+    private void sweepIfDue(long now) {
+        long lastSweep = lastSweepMillis.get();
+        if (now - lastSweep < SWEEP_INTERVAL_MILLIS || !lastSweepMillis.compareAndSet(lastSweep, now)) {
+            return;
+        }
+        int shard = Math.floorMod(nextShardToSweep.getAndIncrement(), shards.length);
+        shards[shard].values().removeIf(session -> session.expiresAtMillis <= now);
+    }
+
+    private static class Session {
+        final int account_id;
+        final long expiresAtMillis;
+
+        Session(int account_id, long expiresAtMillis) {
+            this.account_id = account_id;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events over a sliding window of whole minutes using a ring of
+ * LongAdder buckets, one per minute. Incrementing never blocks, and a bucket
+ * is reset when the ring wraps around to it in a later minute.
+ *
+ * A bucket reset can race with a concurrent increment from the previous lap
+ * of the ring, so counts are approximate by at most a handful of events at
+ * minute boundaries.
+ */
+public class SlidingWindowCounter {
+    private final LongAdder[] buckets;
+    /**
+     * The minute each bucket currently holds counts for.
+     */
+    private final AtomicLongArray bucketMinutes;
+
+    /**
+     * @param windowMinutes the number of most recent minutes to count over.
+     */
+    public SlidingWindowCounter(int windowMinutes) {
+        buckets = new LongAdder[windowMinutes];
+        bucketMinutes = new AtomicLongArray(windowMinutes);
+        for (int i = 0; i < windowMinutes; i++) {
+            buckets[i] = new LongAdder();
+            bucketMinutes.set(i, -1);
+        }
+    }
+
+    /**
+     * Counts one event in the given minute.
+     *
+     * @param minute minutes since the epoch.
+     */
+    public void increment(long minute) {
+        int index = (int) (minute % buckets.length);
+        long bucketMinute = bucketMinutes.get(index);
+        // The first writer to reach a stale bucket in a new minute clears it
+        if (bucketMinute != minute && bucketMinutes.compareAndSet(index, bucketMinute, minute)) {
+            buckets[index].reset();
+        }
+        buckets[index].increment();
+    }
+
+    /**
+     * Sums the events in the window ending at the given minute.
+     *
+     * @param minute minutes since the epoch.
+     * @return the number of events counted in the last windowMinutes minutes.
+     */
+    public long sum(long minute) {
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            long bucketMinute = bucketMinutes.get(i);
+            if (bucketMinute > minute - buckets.length && bucketMinute <= minute) {
+                total += buckets[i].sum();
+            }
+        }
+        return total;
+    }
+}
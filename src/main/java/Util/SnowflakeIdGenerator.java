@@ -0,0 +1,102 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates unique, time-ordered 64-bit ids without a database round trip.
+ *
+ * An id is laid out as 41 bits of milliseconds since 2022-12-01 UTC, 10 bits
+ * of node id and 12 bits of sequence, so ids from one node increase with time
+ * and ids from different nodes never collide. Generation is lock-free: the
+ * last timestamp and sequence are packed into one AtomicLong and advanced by
+ * compare-and-set.
+ *
+ * To work with sharding, the generator keeps one sequence per shard, and
+ * shard s only uses sequence numbers congruent to s + 1 modulo the shard
+ * count. Because the shard count must divide 4096, the whole id is then also
+ * congruent to s + 1, which is how Sharding finds a message's shard from its
+ * id. Each shard can issue 4096 / shardCount ids per millisecond per node;
+ * beyond that the generator borrows from the next millisecond rather than
+ * waiting.
+ */
+public class SnowflakeIdGenerator {
+    /**
+     * 2022-12-01T00:00:00Z, shortly before the first messages.
+     */
+    public static final long EPOCH_MILLIS = 1669852800000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+    private final int shardCount;
+    private final LongSupplier clock;
+    /**
+     * Per shard: the timestamp of the last id shifted left by SEQUENCE_BITS,
+     * plus its sequence number.
+     */
+    private final AtomicLong[] lastIds;
+
+    /**
+     * @param nodeId     this process's node id, unique among running nodes,
+     *                   from 0 to 1023.
+     * @param shardCount the number of shards; must be a power of two no larger
+     *                   than 4096.
+     * @param clock      source of the current time in milliseconds.
+     */
+    public SnowflakeIdGenerator(long nodeId, int shardCount, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        if (shardCount < 1 || Integer.bitCount(shardCount) != 1 || shardCount > SEQUENCE_MASK + 1) {
+            throw new IllegalArgumentException("Shard count must be a power of two up to 4096: " + shardCount);
+        }
+        this.nodeId = nodeId;
+        this.shardCount = shardCount;
+        this.clock = clock;
+        this.lastIds = new AtomicLong[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            lastIds[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @param shard the shard the id is for.
+     * @return a new id, greater than every id this generator issued before for
+     *         the shard, that Sharding maps to the shard.
+     */
+    public long nextId(int shard) {
+        long firstSequence = (shard + 1) % shardCount;
+        AtomicLong lastId = lastIds[shard];
+        while (true) {
+            long last = lastId.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long timestamp = clock.getAsLong() - EPOCH_MILLIS;
+            long sequence;
+            if (timestamp > lastTimestamp) {
+                sequence = firstSequence;
+            } else {
+                // Same millisecond, or the clock went backwards: continue from the last id
+                timestamp = lastTimestamp;
+                sequence = (last & SEQUENCE_MASK) + shardCount;
+                if (sequence > SEQUENCE_MASK) {
+                    timestamp++;
+                    sequence = firstSequence;
+                }
+            }
+            if (lastId.compareAndSet(last, (timestamp << SEQUENCE_BITS) | sequence)) {
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    /**
+     * @param id an id issued by a SnowflakeIdGenerator.
+     * @return the time the id was issued, in milliseconds since the Unix epoch.
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
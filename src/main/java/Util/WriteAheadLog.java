@@ -0,0 +1,215 @@
+package Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size, memory-mapped write-ahead log of binary records.
+ *
+ * Each record is stored as its length, a CRC32 of its payload and the payload.
+ * Appending only copies into the mapped file; durability is requested
+ * separately with awaitDurable, which uses group commit: the first waiter
+ * forces the file to disk for every record written so far, and waiters that
+ * arrive meanwhile are covered by the next force, so concurrent writers share
+ * fsyncs instead of queueing one each.
+ *
+ * Reading stops at the first record that is missing or fails its checksum, so
+ * a record torn by a crash is ignored. Once its contents are saved elsewhere
+ * (for example in a snapshot) the log is emptied with clear().
+ */
+public class WriteAheadLog {
+    private static final int HEADER_BYTES = 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean fsync;
+    /**
+     * Bytes appended and bytes known to be on disk since the log was opened.
+     * They only grow, so waiters can compare them across clear().
+     */
+    private long written;
+    private long durable;
+    private boolean forcing;
+
+    /**
+     * Opens or creates a log file and positions it after its last valid record.
+     *
+     * @param file     the log file.
+     * @param capacity the size of the file in bytes.
+     * @param fsync    whether awaitDurable forces records to disk; if false,
+     *                 records are left to the operating system to write.
+     * @throws IOException if the file could not be opened or mapped.
+     */
+    public WriteAheadLog(Path file, int capacity, boolean fsync) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.fsync = fsync;
+        forEach(record -> {
+        });
+        // Wipe what a crash left after the last valid record, so it can't reappear behind new records
+        boolean wiped = false;
+        for (int i = buffer.position(); i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                wiped = true;
+            }
+        }
+        if (wiped) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Reads every valid record from the start of the log, and leaves the log
+     * positioned after the last one.
+     *
+     * @param reader called with each record's payload.
+     */
+    public synchronized void forEach(Consumer<ByteBuffer> reader) {
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - HEADER_BYTES) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length);
+            if (checksum(payload.slice()) != buffer.getInt(position + 4)) {
+                break;
+            }
+            reader.accept(payload.slice().asReadOnlyBuffer());
+            position += HEADER_BYTES + length;
+        }
+        buffer.position(position);
+    }
+
+    /**
+     * @param length the payload length of a record.
+     * @return whether a record of that length fits in the remaining space.
+     */
+    public synchronized boolean hasRoom(int length) {
+        return buffer.remaining() >= HEADER_BYTES + length;
+    }
+
+    /**
+     * Appends a record. The record is not durable until awaitDurable returns
+     * for the returned position.
+     *
+     * @param payload the record.
+     * @return the log position just after the record.
+     * @throws IllegalStateException if the record does not fit.
+     */
+    public synchronized long append(byte[] payload) {
+        if (!hasRoom(payload.length)) {
+            throw new IllegalStateException("Write-ahead log is full");
+        }
+        int position = buffer.position();
+        buffer.putInt(0).putInt(checksum(ByteBuffer.wrap(payload))).put(payload);
+        // Write the length last, so a torn record never looks complete
+        buffer.putInt(position, payload.length);
+        written += HEADER_BYTES + payload.length;
+        Metrics.counter("wal.appends").increment();
+        return written;
+    }
+
+    /**
+     * Waits until every record up to a position is on disk.
+     *
+     * @param position a position returned by append.
+     */
+    public void awaitDurable(long position) {
+        if (!fsync) {
+            return;
+        }
+        while (true) {
+            long target;
+            synchronized (this) {
+                while (forcing && durable < position) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+                    }
+                }
+                if (durable >= position) {
+                    return;
+                }
+                // Lead a force covering everything written so far
+                forcing = true;
+                target = written;
+            }
+            boolean forced = false;
+            try {
+                // Without the lock, so writers can keep appending and form the next group
+                buffer.force();
+                forced = true;
+                Metrics.counter("wal.fsyncs").increment();
+            } finally {
+                synchronized (this) {
+                    if (forced) {
+                        durable = Math.max(durable, target);
+                    }
+                    forcing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the log. Callers must have saved its records elsewhere first;
+     * every record written so far counts as durable afterwards.
+     */
+    public synchronized void clear() {
+        // Zero every used byte, so no old record can follow the new ones
+        int used = buffer.position();
+        int i = 0;
+        for (; i + 8 <= used; i += 8) {
+            buffer.putLong(i, 0);
+        }
+        for (; i < used; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+        buffer.position(0);
+        durable = written;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of bytes of records in the log.
+     */
+    public synchronized int size() {
+        return buffer.position();
+    }
+
+    public synchronized int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Closes the log file. Records already appended stay in the mapping and
+     * reach the file.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
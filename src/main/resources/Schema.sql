@@ -0,0 +1,40 @@
+create table if not exists account (
+    account_id int generated by default as identity primary key,
+    username varchar(255) unique,
+    password varchar(255)
+);
+create table if not exists message (
+    message_id bigint generated by default as identity primary key,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    foreign key (posted_by) references  account(account_id)
+);
+create table if not exists follow (
+    follower_id int,
+    followed_id int,
+    primary key (follower_id, followed_id),
+    foreign key (follower_id) references account(account_id),
+    foreign key (followed_id) references account(account_id)
+);
+create index if not exists follow_followed_id on follow(followed_id);
+create index if not exists message_posted_by_message_id on message(posted_by, message_id);
+create table if not exists message_hashtag (
+    message_id bigint,
+    hashtag varchar(255),
+    primary key (message_id, hashtag),
+    foreign key (message_id) references message(message_id) on delete cascade
+);
+create table if not exists message_mention (
+    message_id bigint,
+    username varchar(255),
+    primary key (message_id, username),
+    foreign key (message_id) references message(message_id) on delete cascade
+);
+create table if not exists schema_version (
+    checksum bigint
+);
+-- Databases created before message ids were 64-bit still have int columns
+alter table message_hashtag alter column message_id set data type bigint;
+alter table message_mention alter column message_id set data type bigint;
+alter table message alter column message_id set data type bigint;
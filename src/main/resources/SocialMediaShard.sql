@@ -0,0 +1,21 @@
+drop table if exists message_hashtag;
+drop table if exists message_mention;
+drop table if exists message;
+create table message (
+    message_id bigint generated by default as identity primary key,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint
+);
+create table message_hashtag (
+    message_id bigint,
+    hashtag varchar(255),
+    primary key (message_id, hashtag),
+    foreign key (message_id) references message(message_id) on delete cascade
+);
+create table message_mention (
+    message_id bigint,
+    username varchar(255),
+    primary key (message_id, username),
+    foreign key (message_id) references message(message_id) on delete cascade
+);
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.ChangeEvent;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.SegmentLog;
+import io.javalin.Javalin;
+
+public class ChangeDataCaptureTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+    String authorization;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    String savedChangesDir;
+
+    /**
+     * Before every test, reset the database, point the change log at an empty directory, restart the Javalin app,
+     * and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        TestHarness.isolateDatabase();
+        savedChangesDir = System.setProperty("changes.dir", folder.newFolder("changes").toString());
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+        authorization = TestHarness.authorization(baseUrl);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        // Put back the build's per-fork change log directory, if it set one
+        if (savedChangesDir == null) {
+            System.clearProperty("changes.dir");
+        } else {
+            System.setProperty("changes.dir", savedChangesDir);
+        }
+    }
+
+    /**
+     * Posting, editing and deleting a message publishes one change each, in order, and GET localhost:8080/changes
+     * returns the changes after the given offset.
+     */
+    @Test
+    public void writesPublishOrderedChanges() throws IOException, InterruptedException {
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"hello\",\"time_posted_epoch\":1669947800}");
+        send("PATCH", "/messages/2", "{\"message_text\":\"hello again\"}");
+        send("DELETE", "/messages/2", null);
+
+        HttpResponse<String> response = send("GET", "/changes", null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("3", response.headers().firstValue("Changes-Last-Offset").orElse(null));
+        List<ChangeEvent> changes = parse(response.body());
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals(new ChangeEvent(1, ChangeEvent.CREATED, new Message(2, 1, "hello", 1669947800)),
+                changes.get(0));
+        Assert.assertEquals(new ChangeEvent(2, ChangeEvent.UPDATED, new Message(2, 1, "hello again", 1669947800)),
+                changes.get(1));
+        Assert.assertEquals(new ChangeEvent(3, ChangeEvent.DELETED, new Message(2, 1, "hello again", 1669947800)),
+                changes.get(2));
+
+        List<ChangeEvent> afterTwo = parse(send("GET", "/changes?since=2", null).body());
+        Assert.assertEquals(1, afterTwo.size());
+        Assert.assertEquals(3, afterTwo.get(0).getOffset());
+
+        HttpResponse<String> limited = send("GET", "/changes?since=0&limit=2", null);
+        Assert.assertEquals(2, parse(limited.body()).size());
+        Assert.assertEquals("2", limited.headers().firstValue("Changes-Last-Offset").orElse(null));
+    }
+
+    /**
+     * Concurrent edits of one message are published in the order they committed, so the last change in the log
+     * holds the text the message ends up with.
+     */
+    @Test
+    public void concurrentEditsPublishInCommitOrder() throws Exception {
+        SocialMediaService service = new SocialMediaService();
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int writer = 0; writer < 8; writer++) {
+            int number = writer;
+            writers.add(CompletableFuture.runAsync(() -> {
+                for (int edit = 0; edit < 10; edit++) {
+                    service.updateMessageById(1, "edit " + number + "-" + edit);
+                }
+            }));
+        }
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        List<ChangeEvent> changes = parse(send("GET", "/changes?limit=1000", null).body());
+        Assert.assertEquals(80, changes.size());
+        Assert.assertEquals(service.getMessageById(1), changes.get(changes.size() - 1).getMessage());
+    }
+
+    /**
+     * A long poll with no newer changes is answered as soon as a change is published.
+     */
+    @Test
+    public void longPollReturnsNewChange() throws Exception {
+        CompletableFuture<HttpResponse<String>> poll = webClient.sendAsync(
+                HttpRequest.newBuilder().uri(URI.create(baseUrl + "/changes?since=0&wait_ms=10000")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Thread.sleep(200);
+        Assert.assertFalse(poll.isDone());
+
+        long start = System.currentTimeMillis();
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"ping\",\"time_posted_epoch\":1669947800}");
+        HttpResponse<String> response = poll.get();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(200, response.statusCode());
+        List<ChangeEvent> changes = parse(response.body());
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals("ping", changes.get(0).getMessage().getMessage_text());
+    }
+
+    /**
+     * A long poll that times out is answered with no changes, and invalid parameters are rejected.
+     */
+    @Test
+    public void longPollTimesOutAndParametersAreValidated() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "/changes?since=0&wait_ms=200", null);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+        Assert.assertEquals("0", response.headers().firstValue("Changes-Last-Offset").orElse(null));
+
+        Assert.assertEquals(400, send("GET", "/changes?since=-1", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/changes?limit=0", null).statusCode());
+        Assert.assertEquals(400, send("GET", "/changes?wait_ms=60000", null).statusCode());
+    }
+
+    /**
+     * Records roll over into new segments, old segments are deleted beyond the retention limit, and reopening
+     * the log keeps its offsets and drops a half-written record.
+     */
+    @Test
+    public void segmentsRollRetainAndRecover() throws IOException {
+        Path directory = folder.newFolder("segments").toPath();
+        SegmentLog log = new SegmentLog(directory, 20, 2);
+        for (int i = 1; i <= 5; i++) {
+            String record = "record-" + i;
+            Assert.assertEquals(i, log.append(offset -> record.getBytes(StandardCharsets.UTF_8)));
+        }
+        // 9 bytes per record with its newline, so each 20 byte segment holds two
+        Assert.assertNull(log.read(0, 10));
+        SegmentLog.Slice slice = log.read(2, 10);
+        Assert.assertEquals(2, slice.getRecordCount());
+        Assert.assertEquals(4, slice.getLastOffset());
+        Assert.assertEquals("record-3\nrecord-4\n", StandardCharsets.UTF_8.decode(slice.map()).toString());
+        Assert.assertEquals(0, log.read(5, 10).getRecordCount());
+        log.close();
+
+        Files.write(directory.resolve(String.format("%020d.log", 5)), "partial".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        SegmentLog reopened = new SegmentLog(directory, 20, 2);
+        Assert.assertEquals(5, reopened.getLastOffset());
+        Assert.assertEquals(6, reopened.append(offset -> "record-6".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("record-5\nrecord-6\n",
+                StandardCharsets.UTF_8.decode(reopened.read(4, 10).map()).toString());
+        reopened.close();
+    }
+
+    /**
+     * A log opened twice for the same directory stays usable until both have closed it, and appended records
+     * can be made durable.
+     */
+    @Test
+    public void sharedLogStaysOpenUntilEveryOwnerCloses() throws IOException {
+        Path directory = folder.newFolder("shared").toPath();
+        SegmentLog first = SegmentLog.open(directory, 1024, 4);
+        SegmentLog second = SegmentLog.open(directory, 1024, 4);
+        Assert.assertSame(first, second);
+
+        first.close();
+        long offset = second.append(next -> "after-close".getBytes(StandardCharsets.UTF_8));
+        second.awaitDurable(offset);
+        second.close();
+
+        SegmentLog reopened = SegmentLog.open(directory, 1024, 4);
+        Assert.assertNotSame(first, reopened);
+        Assert.assertEquals(offset, reopened.getLastOffset());
+        reopened.close();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<ChangeEvent> parse(String body) throws IOException {
+        List<ChangeEvent> changes = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isEmpty()) {
+                changes.add(objectMapper.readValue(line, ChangeEvent.class));
+            }
+        }
+        return changes;
+    }
+}
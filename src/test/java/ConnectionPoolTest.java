@@ -0,0 +1,158 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.Metrics;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a pool over a fresh in-memory database holding
+     * one table.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pool" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 2, 2);
+
+        Connection connection = pool.getConnection();
+        connection.createStatement().execute("CREATE TABLE item (id int primary key auto_increment, name varchar(255))");
+        connection.createStatement().execute("INSERT INTO item (name) VALUES ('first')");
+        connection.close();
+    }
+
+    /**
+     * A closed connection goes back to the pool and is handed out again, behind a new proxy.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        long reused = Metrics.counter("connections.reused").sum();
+        Connection first = pool.getConnection();
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        Assert.assertThrows(SQLException.class, () -> first.prepareStatement("SELECT 1"));
+
+        Connection second = pool.getConnection();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(reused + 2, Metrics.counter("connections.reused").sum());
+        Assert.assertFalse(second.isClosed());
+        second.close();
+    }
+
+    /**
+     * Closing a connection again, or using a statement from it, after the pool handed the same physical connection
+     * to someone else neither returns it to the pool nor touches it.
+     */
+    @Test
+    public void lateCloseDoesNotReturnAnotherCheckout() throws SQLException {
+        Connection first = pool.getConnection();
+        PreparedStatement stale = first.prepareStatement("SELECT name FROM item WHERE id = ?");
+        first.close();
+
+        Connection second = pool.getConnection();
+        Assert.assertEquals(0, pool.getIdleCount());
+        second.setAutoCommit(false);
+        first.close();
+        Assert.assertThrows(SQLException.class, () -> stale.setInt(1, 1));
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+        Assert.assertFalse(second.isClosed());
+        Assert.assertFalse(second.getAutoCommit());
+
+        second.close();
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * Preparing the same SQL twice on a connection reuses the cached statement,
+     * even after the first one was closed.
+     */
+    @Test
+    public void samePreparedStatementIsReused() throws SQLException {
+        long hits = Metrics.counter("connections.statement_cache.hits").sum();
+        Connection connection = pool.getConnection();
+
+        PreparedStatement first = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+        first.setInt(1, 1);
+        ResultSet resultSet = first.executeQuery();
+        Assert.assertTrue(resultSet.next());
+        Assert.assertEquals("first", resultSet.getString(1));
+        first.close();
+
+        PreparedStatement second = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+        second.setInt(1, 2);
+        Assert.assertFalse(second.executeQuery().next());
+        Assert.assertEquals(hits + 1, Metrics.counter("connections.statement_cache.hits").sum());
+        connection.close();
+    }
+
+    /**
+     * Statements prepared to return generated keys are cached separately and
+     * still return their keys.
+     */
+    @Test
+    public void generatedKeysStatementsAreCached() throws SQLException {
+        Connection connection = pool.getConnection();
+        for (int i = 2; i <= 3; i++) {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO item (name) VALUES (?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, "item " + i);
+            statement.executeUpdate();
+            ResultSet keys = statement.getGeneratedKeys();
+            Assert.assertTrue(keys.next());
+            Assert.assertEquals(i, keys.getInt(1));
+        }
+        connection.close();
+    }
+
+    /**
+     * The least recently used statement is evicted once the cache is full.
+     */
+    @Test
+    public void leastRecentlyUsedStatementIsEvicted() throws SQLException {
+        long evictions = Metrics.counter("connections.statement_cache.evictions").sum();
+        Connection connection = pool.getConnection();
+        connection.prepareStatement("SELECT 1");
+        connection.prepareStatement("SELECT 2");
+        connection.prepareStatement("SELECT 1");
+        connection.prepareStatement("SELECT 3");
+        Assert.assertEquals(evictions + 1, Metrics.counter("connections.statement_cache.evictions").sum());
+
+        long hits = Metrics.counter("connections.statement_cache.hits").sum();
+        // "SELECT 2" was the least recently used, so "SELECT 1" is still cached
+        connection.prepareStatement("SELECT 1");
+        Assert.assertEquals(hits + 1, Metrics.counter("connections.statement_cache.hits").sum());
+        connection.close();
+    }
+
+    /**
+     * An uncommitted transaction is rolled back when its connection is returned.
+     */
+    @Test
+    public void returnedConnectionIsRolledBack() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+        connection.prepareStatement("DELETE FROM item").executeUpdate();
+        connection.close();
+
+        connection = pool.getConnection();
+        Assert.assertTrue(connection.getAutoCommit());
+        ResultSet resultSet = connection.prepareStatement("SELECT COUNT(*) FROM item").executeQuery();
+        resultSet.next();
+        Assert.assertEquals(1, resultSet.getInt(1));
+        connection.close();
+    }
+}
@@ -13,7 +13,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
 import Model.Message;
-import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 public class CreateMessageTest {
@@ -21,6 +20,7 @@ public class CreateMessageTest {
     HttpClient webClient;
     ObjectMapper objectMapper;
     Javalin app;
+    String baseUrl;
 
     /**
      * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
@@ -29,13 +29,12 @@ public class CreateMessageTest {
      */
     @Before
     public void setUp() throws InterruptedException {
-        ConnectionUtil.resetTestDatabase();
+        TestHarness.isolateDatabase();
         socialMediaController = new SocialMediaController();
         app = socialMediaController.startAPI();
         webClient = HttpClient.newHttpClient();
         objectMapper = new ObjectMapper();
-        app.start(8080);
-        Thread.sleep(1000);
+        baseUrl = TestHarness.start(app);
     }
 
     @After
@@ -56,12 +55,13 @@ public class CreateMessageTest {
     @Test
     public void createMessageSuccessful() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .POST(HttpRequest.BodyPublishers.ofString("{"+
                         "\"posted_by\":1, " +
                         "\"message_text\": \"hello message\", " +
                         "\"time_posted_epoch\": 1669947792}"))
                 .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
                 .build();
         HttpResponse response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -84,7 +84,7 @@ public class CreateMessageTest {
     @Test
     public void createMessageMessageTextBlank() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .POST(HttpRequest.BodyPublishers.ofString("{"+
                         "\"posted_by\":1, " +
                         "\"message_text\": \"\", " +
@@ -109,7 +109,7 @@ public class CreateMessageTest {
     @Test
     public void createMessageMessageGreaterThan255() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .POST(HttpRequest.BodyPublishers.ofString("{"+
                         "\"posted_by\":1, " +
                         "\"message_text\": \"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\", " +
@@ -134,7 +134,7 @@ public class CreateMessageTest {
     @Test
     public void createMessageUserNotInDb() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .POST(HttpRequest.BodyPublishers.ofString("{"+
                         "\"posted_by\":3, " +
                         "\"message_text\": \"message test\", " +
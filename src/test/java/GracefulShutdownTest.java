@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import Controller.GracefulShutdown;
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Service.ForwardingSocialMedia;
+import Service.SocialMedia;
+import Service.SocialMediaService;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class GracefulShutdownTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    String savedChangesDir;
+    SocialMediaService service;
+    Blocking blocking;
+    SocialMediaController controller;
+    Javalin app;
+    HttpClient webClient;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database and start an app whose GET /messages blocks until released.
+     */
+    @Before
+    public void setUp() throws IOException {
+        TestHarness.isolateDatabase();
+        // The service's change log is closed on shutdown, so keep it apart from other tests
+        savedChangesDir = System.setProperty("changes.dir", folder.newFolder("changes").toString());
+        service = new SocialMediaService(SocialMediaDAO.create());
+        blocking = new Blocking(service);
+        controller = new SocialMediaController(blocking);
+        app = controller.startAPI();
+        webClient = HttpClient.newHttpClient();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        blocking.release.countDown();
+        // Most tests have already stopped the app by shutting down
+        if (app.jettyServer().server().isStarted()) {
+            app.stop();
+        }
+        if (savedChangesDir == null) {
+            System.clearProperty("changes.dir");
+        } else {
+            System.setProperty("changes.dir", savedChangesDir);
+        }
+    }
+
+    /**
+     * GET /ready answers 503 once shutdown begins, while GET /live and other requests are still served.
+     */
+    @Test
+    public void readinessFailsOnceShutdownBegins() throws IOException, InterruptedException {
+        Assert.assertEquals(200, get("/live").statusCode());
+        Assert.assertEquals(200, get("/ready").statusCode());
+
+        controller.beginShutdown();
+        HttpResponse<String> ready = get("/ready");
+        Assert.assertEquals(503, ready.statusCode());
+        Assert.assertEquals("Shutting down", ready.body());
+        Assert.assertEquals(200, get("/live").statusCode());
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+    }
+
+    /**
+     * Shutdown stops accepting connections but waits for the request in flight, which completes normally.
+     */
+    @Test
+    public void shutdownDrainsRequestsInFlight() throws Exception {
+        CompletableFuture<HttpResponse<String>> inFlight = sendAsync("/messages");
+        Assert.assertTrue(blocking.entered.await(5, TimeUnit.SECONDS));
+        long timeouts = Metrics.counter("shutdown.drain_timeouts").sum();
+
+        Thread shutdown = new Thread(new GracefulShutdown(app, controller, service, null, 0, 10_000, true));
+        shutdown.start();
+        awaitRefused();
+        Assert.assertTrue("Shutdown should wait for the request in flight", shutdown.isAlive());
+
+        blocking.release.countDown();
+        HttpResponse<String> response = inFlight.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().contains("test message 1"));
+        shutdown.join(5000);
+        Assert.assertFalse(shutdown.isAlive());
+        Assert.assertEquals(timeouts, Metrics.counter("shutdown.drain_timeouts").sum());
+    }
+
+    /**
+     * A request still running at the drain deadline is cut off, so shutdown finishes on time.
+     */
+    @Test
+    public void shutdownCutsOffRequestsAtDeadline() throws Exception {
+        sendAsync("/messages");
+        Assert.assertTrue(blocking.entered.await(5, TimeUnit.SECONDS));
+        long timeouts = Metrics.counter("shutdown.drain_timeouts").sum();
+
+        long start = System.currentTimeMillis();
+        new GracefulShutdown(app, controller, service, null, 0, 200, true).run();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(timeouts + 1, Metrics.counter("shutdown.drain_timeouts").sum());
+    }
+
+    /**
+     * Live message streams are closed before draining, so they do not hold shutdown up until the deadline.
+     */
+    @Test
+    public void shutdownClosesMessageStreams() throws Exception {
+        CompletableFuture<HttpResponse<Stream<String>>> stream = webClient.sendAsync(
+                HttpRequest.newBuilder().uri(URI.create(baseUrl + "/messages/stream"))
+                        .header("Accept", "text/event-stream").build(),
+                HttpResponse.BodyHandlers.ofLines());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((Number) Metrics.snapshot().get("stream.subscribers")).intValue() == 0) {
+            Assert.assertTrue("The stream should be subscribed", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        long start = System.currentTimeMillis();
+        new GracefulShutdown(app, controller, service, null, 0, 10_000, true).run();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        // The stream has ended, so reading it to the end returns
+        stream.get(5, TimeUnit.SECONDS).body().count();
+        Assert.assertEquals(0, ((Number) Metrics.snapshot().get("stream.subscribers")).intValue());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create(baseUrl + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(String path) {
+        return webClient.sendAsync(HttpRequest.newBuilder().uri(URI.create(baseUrl + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Waits until the server refuses new connections.
+     */
+    private void awaitRefused() throws InterruptedException {
+        HttpClient freshClient = HttpClient.newHttpClient();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                freshClient.send(HttpRequest.newBuilder().uri(URI.create(baseUrl + "/live")).build(),
+                        HttpResponse.BodyHandlers.discarding());
+            } catch (IOException e) {
+                return;
+            }
+            Assert.assertTrue("The server should stop accepting connections", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Holds GET /messages until released.
+     */
+    static class Blocking extends ForwardingSocialMedia {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Blocking(SocialMedia delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+            if (operation.equals("getAllMessages")) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return invocation.get();
+        }
+    }
+}
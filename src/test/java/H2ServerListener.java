@@ -0,0 +1,31 @@
+import java.sql.SQLException;
+
+import org.h2.tools.Server;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Starts a local H2 TCP server before the tests run and stops it afterwards,
+ * standing in for an external database server. Used by the "h2-server" Maven
+ * profile, which points the application at it with db.backend=server.
+ *
+ * The server listens on "db.port" (default 9092) and keeps its databases
+ * under target/h2-server.
+ */
+public class H2ServerListener extends RunListener {
+    private Server server;
+
+    @Override
+    public void testRunStarted(Description description) throws SQLException {
+        server = Server.createTcpServer("-tcpPort", System.getProperty("db.port", "9092"),
+                "-ifNotExists", "-baseDir", "target/h2-server").start();
+    }
+
+    @Override
+    public void testRunFinished(Result result) {
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
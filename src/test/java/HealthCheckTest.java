@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+import Util.HealthChecker;
+import Util.IdempotencyStore;
+import Util.Metrics;
+import Util.RateLimiter;
+import Util.SessionStore;
+import io.javalin.Javalin;
+
+public class HealthCheckTest {
+    AtomicLong now;
+    HealthChecker healthChecker;
+    Javalin app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database and start an app whose health checker only checks when told to, on a
+     * clock the test controls.
+     */
+    @Before
+    public void setUp() {
+        TestHarness.isolateDatabase();
+        now = new AtomicLong(1_000_000);
+        healthChecker = new HealthChecker(3_600_000, 5000, 2, 3, now::get);
+        app = new SocialMediaController(new SocialMediaService(), new RateLimiter(), new SessionStore(),
+                new IdempotencyStore(), healthChecker).startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * GET /health reports every database and the pool, concurrency, queue and cache figures from the check made when
+     * the app started, serving the same bytes until the next check.
+     */
+    @Test
+    public void healthServesLatestCheck() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/health");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode report = objectMapper.readTree(response.body());
+        Assert.assertEquals("UP", report.get("status").asText());
+        Assert.assertEquals(1_000_000, report.get("checked_at").asLong());
+        Assert.assertEquals(ConnectionUtil.getShardCount(), report.get("databases").size());
+        Assert.assertEquals("UP", report.get("databases").get(0).get("status").asText());
+        Assert.assertTrue(report.get("connections").has("active"));
+        Assert.assertTrue(report.get("concurrency").get("read").has("limit"));
+        Assert.assertTrue(report.get("queues").has("password_hashing"));
+        Assert.assertTrue(report.get("caches").has("idempotency_entries"));
+        Assert.assertEquals(response.body(), get("/health").body());
+        Assert.assertEquals(200, get("/ready").statusCode());
+
+        now.addAndGet(1000);
+        healthChecker.check();
+        Assert.assertEquals(1_001_000, objectMapper.readTree(get("/health").body()).get("checked_at").asLong());
+    }
+
+    /**
+     * Probes keep answering from the last check while the database is unreachable, and report it once a check has
+     * found it so.
+     */
+    @Test
+    public void probesReportUnreachableDatabase() throws IOException, InterruptedException {
+        try {
+            ConnectionUtil.useDataSource(ConnectionUtil.createDataSource("jdbc:h2:tcp://localhost:1/unreachable"));
+            Assert.assertEquals(200, get("/health").statusCode());
+            Assert.assertEquals(200, get("/ready").statusCode());
+
+            healthChecker.check();
+            HttpResponse<String> health = get("/health");
+            Assert.assertEquals(503, health.statusCode());
+            JsonNode report = objectMapper.readTree(health.body());
+            Assert.assertEquals("DOWN", report.get("status").asText());
+            Assert.assertEquals("DOWN", report.get("databases").get(0).get("status").asText());
+            HttpResponse<String> ready = get("/ready");
+            Assert.assertEquals(503, ready.statusCode());
+            Assert.assertEquals("Database unreachable", ready.body());
+            Assert.assertEquals(200, get("/live").statusCode());
+        } finally {
+            ConnectionUtil.useDataSource(ConnectionUtil.createDataSource(ConnectionUtil.jdbcUrl()));
+        }
+    }
+
+    /**
+     * A check result older than the maximum age means the checker is stuck, so the probes fail until it checks again.
+     */
+    @Test
+    public void staleResultFailsProbes() throws IOException, InterruptedException {
+        now.addAndGet(5001);
+        Assert.assertEquals(503, get("/health").statusCode());
+        HttpResponse<String> ready = get("/ready");
+        Assert.assertEquals(503, ready.statusCode());
+        Assert.assertEquals("Health check is stale", ready.body());
+
+        healthChecker.check();
+        Assert.assertEquals(200, get("/health").statusCode());
+        Assert.assertEquals(200, get("/ready").statusCode());
+    }
+
+    /**
+     * Readiness only fails for saturation once three checks in a row find a limit saturated, and only recovers once
+     * three checks in a row find none, so a single sample never flips it.
+     */
+    @Test
+    public void readinessNeedsSustainedSaturation() throws IOException, InterruptedException {
+        AtomicLong inFlight = new AtomicLong();
+        // Replaced again by the next test's service
+        Metrics.gauge("concurrency.write.in_flight", inFlight::get);
+        Metrics.gauge("concurrency.write.limit", () -> 10);
+
+        inFlight.set(10);
+        healthChecker.check();
+        healthChecker.check();
+        Assert.assertEquals(200, get("/ready").statusCode());
+        JsonNode report = objectMapper.readTree(get("/health").body());
+        Assert.assertTrue(report.get("concurrency").get("write").get("saturated").asBoolean());
+        Assert.assertFalse(report.get("saturated").asBoolean());
+
+        inFlight.set(0);
+        healthChecker.check();
+        inFlight.set(10);
+        healthChecker.check();
+        healthChecker.check();
+        Assert.assertEquals("A calm check should restart the count", 200, get("/ready").statusCode());
+        healthChecker.check();
+        HttpResponse<String> ready = get("/ready");
+        Assert.assertEquals(503, ready.statusCode());
+        Assert.assertEquals("Saturated", ready.body());
+
+        inFlight.set(0);
+        healthChecker.check();
+        healthChecker.check();
+        Assert.assertEquals(503, get("/ready").statusCode());
+        healthChecker.check();
+        Assert.assertEquals(200, get("/ready").statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create(baseUrl + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.HealthChecker;
+import Util.IdempotencyStore;
+import Util.InMemoryRateLimiterBackend;
+import Util.LoadSheddingException;
+import Util.RateLimiter;
+import Util.SessionStore;
+import io.javalin.Javalin;
+
+public class IdempotencyKeyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending the same http request to POST localhost:8080/messages twice with the same Idempotency-Key
+     *
+     * Expected Response:
+     *  Status Code: 200 for both
+     *  Response Body: the same message for both, and only one new message in the database
+     */
+    @Test
+    public void postMessageReplayed() throws IOException, InterruptedException {
+        HttpResponse<String> first = postMessage("key-1", "hello message");
+        HttpResponse<String> second = postMessage("key-1", "hello message");
+
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertEquals(first.body(), second.body());
+        Assert.assertEquals("true", second.headers().firstValue("Idempotent-Replayed").orElse(null));
+        Assert.assertEquals(2, getAllMessages().size());
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages with different Idempotency-Keys
+     *
+     * Expected Response:
+     *  Status Code: 200 for both, and two new messages in the database
+     */
+    @Test
+    public void postMessageDifferentKeys() throws IOException, InterruptedException {
+        Assert.assertEquals(200, postMessage("key-1", "hello message").statusCode());
+        Assert.assertEquals(200, postMessage("key-2", "hello message").statusCode());
+        Assert.assertEquals(3, getAllMessages().size());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages reusing an Idempotency-Key with a different body
+     *
+     * Expected Response:
+     *  Status Code: 422
+     */
+    @Test
+    public void postMessageKeyReusedWithDifferentBody() throws IOException, InterruptedException {
+        postMessage("key-1", "hello message");
+        Assert.assertEquals(422, postMessage("key-1", "other message").statusCode());
+    }
+
+    /**
+     * Sending several identical http requests to POST localhost:8080/messages with the same Idempotency-Key at once
+     *
+     * Expected Response:
+     *  Status Code: 200 for all, with the same body, and only one new message in the database
+     */
+    @Test
+    public void postMessageConcurrentDuplicates() throws IOException, InterruptedException {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(webClient.sendAsync(postMessageRequest("key-1", "hello message"),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        String firstBody = responses.get(0).join().body();
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.join().statusCode());
+            Assert.assertEquals(firstBody, response.join().body());
+        }
+        Assert.assertEquals(2, getAllMessages().size());
+    }
+
+    /**
+     * Sending the same http request to POST localhost:8080/register twice with the same Idempotency-Key
+     *
+     * Expected Response:
+     *  Status Code: 200 for both, rather than 400 for the second because the username is taken
+     */
+    @Test
+    public void registerReplayed() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"user\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", "register-1")
+                .build();
+        HttpResponse<String> first = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> second = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertEquals(first.body(), second.body());
+    }
+
+    /**
+     * Two sessions for different accounts using the same Idempotency-Key with different bodies
+     *
+     * Expected Response:
+     *  Status Code: 200 for both, each with its own message, since keys are scoped to the caller
+     */
+    @Test
+    public void keysAreScopedToCaller() throws IOException, InterruptedException {
+        app.stop();
+        SessionStore sessionStore = new SessionStore();
+        app = new SocialMediaController(new SocialMediaService(), new RateLimiter(), sessionStore,
+                new IdempotencyStore(), new HealthChecker()).startAPI();
+        baseUrl = TestHarness.start(app);
+        HttpRequest register = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(register, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> first = webClient.send(postMessageRequest(1, "shared-key", "from account 1",
+                "Bearer " + sessionStore.create(1)), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> second = webClient.send(postMessageRequest(2, "shared-key", "from account 2",
+                "Bearer " + sessionStore.create(2)), HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertTrue(second.headers().firstValue("Idempotent-Replayed").isEmpty());
+        Assert.assertEquals("from account 2", objectMapper.readValue(second.body(), Message.class).getMessage_text());
+        Assert.assertEquals(3, getAllMessages().size());
+    }
+
+    /**
+     * Retrying a POST localhost:8080/messages with the same Idempotency-Key after the account's rate limit is used up
+     *
+     * Expected Response:
+     *  Status Code: 200 replayed for the retry, and 429 for a new key
+     */
+    @Test
+    public void replayNotRateLimited() throws IOException, InterruptedException {
+        app.stop();
+        RateLimiter rateLimiter = new RateLimiter(new InMemoryRateLimiterBackend(), new RateLimiter.Limit(1, 0.001),
+                new RateLimiter.Limit(0, 0), new RateLimiter.Limit(0, 0));
+        app = new SocialMediaController(new SocialMediaService(), rateLimiter, new SessionStore(),
+                new IdempotencyStore(), new HealthChecker()).startAPI();
+        baseUrl = TestHarness.start(app);
+
+        Assert.assertEquals(200, postMessage("key-1", "hello message").statusCode());
+        HttpResponse<String> retry = postMessage("key-1", "hello message");
+        Assert.assertEquals(200, retry.statusCode());
+        Assert.assertEquals("true", retry.headers().firstValue("Idempotent-Replayed").orElse(null));
+        Assert.assertEquals(429, postMessage("key-2", "another message").statusCode());
+        // The rejection was not remembered, so a retry is checked against the limit again
+        HttpResponse<String> rejectedRetry = postMessage("key-2", "another message");
+        Assert.assertEquals(429, rejectedRetry.statusCode());
+        Assert.assertTrue(rejectedRetry.headers().firstValue("Idempotent-Replayed").isEmpty());
+        Assert.assertEquals(2, getAllMessages().size());
+    }
+
+    private HttpRequest postMessageRequest(int posted_by, String idempotencyKey, String message_text,
+            String authorization) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", idempotencyKey)
+                .header("Authorization", authorization)
+                .build();
+    }
+
+    private HttpRequest postMessageRequest(String idempotencyKey, String message_text) {
+        return postMessageRequest(1, idempotencyKey, message_text, TestHarness.authorization(baseUrl));
+    }
+
+    private HttpResponse<String> postMessage(String idempotencyKey, String message_text)
+            throws IOException, InterruptedException {
+        return webClient.send(postMessageRequest(idempotencyKey, message_text), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> getAllMessages() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * A full store evicts the oldest completed entries but never one whose request is still running, and rejects new
+     * keys while every entry is running.
+     */
+    @Test
+    public void storeNeverEvictsRunningRequests() {
+        IdempotencyStore store = new IdempotencyStore(2, 1, 60_000, System::currentTimeMillis);
+        IdempotencyStore.Claim first = store.claim("first", "a");
+        IdempotencyStore.Claim second = store.claim("second", "b");
+        Assert.assertThrows(LoadSheddingException.class, () -> store.claim("third", "c"));
+
+        first.entry.getResponse().complete(new IdempotencyStore.StoredResponse(200, null, new byte[0]));
+        Assert.assertTrue(store.claim("third", "c").owner);
+        Assert.assertFalse(store.claim("second", "b").owner);
+        Assert.assertSame(second.entry, store.claim("second", "b").entry);
+        Assert.assertEquals(2, store.size());
+        // "first" was evicted, and the two running requests leave no room to claim it again
+        Assert.assertThrows(LoadSheddingException.class, () -> store.claim("first", "a"));
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.InMemorySocialMediaDAO;
+import DAO.UnitOfWorkException;
+import Model.Account;
+import Model.Message;
+import Util.WriteAheadLog;
+
+public class InMemoryStorageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        TestHarness.isolateDatabase();
+        directory = folder.newFolder("store").toPath();
+    }
+
+    /**
+     * An empty store starts from the database's contents, and every write survives a restart by replaying the log.
+     */
+    @Test
+    public void writesSurviveRestart() {
+        InMemorySocialMediaDAO dao = open(1 << 20);
+        Assert.assertEquals("testuser1", dao.getAccountById(1).getUsername());
+        Assert.assertEquals(1, dao.getAllMessages().size());
+
+        Account account = dao.insertNewAccount(new Account("testuser2", "password2"));
+        Assert.assertEquals(2, account.getAccount_id());
+        Assert.assertNull(dao.insertNewAccount(new Account("testuser2", "other")));
+        Message message = dao.insertNewMessage(new Message(2, "hello", 1669947800));
+        Assert.assertEquals(2, message.getMessage_id());
+        Assert.assertNull(dao.insertNewMessage(new Message(99, "nobody", 1669947800)));
+        dao.updateMessageById(1, "edited");
+        Assert.assertTrue(dao.insertFollow(1, 2));
+        Assert.assertFalse(dao.insertFollow(1, 2));
+        Assert.assertEquals(message, dao.deleteMessageById(2));
+        dao.updateAccountPassword(2, "changed");
+        dao.close();
+
+        InMemorySocialMediaDAO reopened = open(1 << 20);
+        Assert.assertEquals(new Account(2, "testuser2", "changed"), reopened.getAccountByUsername("testuser2"));
+        Assert.assertEquals(List.of(new Message(1, 1, "edited", 1669947792)), reopened.getAllMessages());
+        Assert.assertEquals(Map.of(2, 1), reopened.getFollowedAccountFollowerCounts(1));
+        Assert.assertEquals(List.of(1), reopened.getFollowerIds(2));
+        // Deleted ids are not reused
+        Assert.assertEquals(3, reopened.insertNewMessage(new Message(2, "again", 1669947801)).getMessage_id());
+        reopened.close();
+    }
+
+    /**
+     * Compaction moves the state into the snapshot and empties the log, also automatically when the log fills up,
+     * and a restart combines the snapshot with the records logged since.
+     */
+    @Test
+    public void compactionKeepsEveryWrite() throws IOException {
+        InMemorySocialMediaDAO dao = open(4096);
+        List<Message> expected = new ArrayList<>(dao.getAllMessages());
+        for (int i = 0; i < 200; i++) {
+            expected.add(dao.insertNewMessage(new Message(1, "message " + i, 1669947800 + i)));
+        }
+        dao.compact();
+        expected.add(dao.insertNewMessage(new Message(1, "after compaction", 1669948000)));
+        dao.close();
+
+        InMemorySocialMediaDAO reopened = open(4096);
+        Assert.assertEquals(expected, reopened.getAllMessages());
+        Assert.assertEquals(3, reopened.getRecentMessagesByAccountId(1, 3).size());
+        Assert.assertEquals("after compaction", reopened.getRecentMessagesByAccountId(1, 1).get(0).getMessage_text());
+        reopened.close();
+    }
+
+    /**
+     * A crash after a compaction switched log segments but before its snapshot was written leaves the old snapshot and
+     * two segments; startup replays them oldest first, so later edits win, and finishes the compaction.
+     */
+    @Test
+    public void interruptedCompactionReplaysBothSegments() throws IOException {
+        InMemorySocialMediaDAO dao = open(1 << 20);
+        Message first = dao.insertNewMessage(new Message(1, "first", 1669947800));
+        dao.insertNewMessage(new Message(1, "second", 1669947801));
+        // Keep the snapshot and the segment as they were before compacting
+        Path savedSnapshot = folder.newFile("snapshot.bin").toPath();
+        Files.copy(directory.resolve("snapshot.bin"), savedSnapshot, StandardCopyOption.REPLACE_EXISTING);
+        Path retired = null;
+        for (Path segment : List.of(directory.resolve("wal-0.log"), directory.resolve("wal-1.log"))) {
+            if (!isEmpty(segment)) {
+                retired = segment;
+            }
+        }
+        Assert.assertNotNull(retired);
+        Path savedSegment = folder.newFile("segment.log").toPath();
+        Files.copy(retired, savedSegment, StandardCopyOption.REPLACE_EXISTING);
+
+        dao.compact();
+        Assert.assertTrue("The compacted segment should be emptied", isEmpty(retired));
+        dao.updateMessageById(first.getMessage_id(), "edited");
+        dao.insertNewMessage(new Message(1, "third", 1669947802));
+        dao.close();
+        Files.copy(savedSnapshot, directory.resolve("snapshot.bin"), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(savedSegment, retired, StandardCopyOption.REPLACE_EXISTING);
+
+        InMemorySocialMediaDAO reopened = open(1 << 20);
+        List<String> texts = new ArrayList<>();
+        for (Message message : reopened.getAllMessages()) {
+            texts.add(message.getMessage_text());
+        }
+        Assert.assertEquals(List.of("test message 1", "edited", "second", "third"), texts);
+        Assert.assertTrue("Startup should finish the compaction", isEmpty(retired));
+        reopened.insertNewMessage(new Message(1, "fourth", 1669947803));
+        reopened.close();
+
+        InMemorySocialMediaDAO again = open(1 << 20);
+        Assert.assertEquals(5, again.getAllMessages().size());
+        again.close();
+    }
+
+    /**
+     * Concurrent writers all get distinct ids and their writes are all durable.
+     */
+    @Test
+    public void concurrentWritersShareTheLog() throws InterruptedException {
+        InMemorySocialMediaDAO dao = open(1 << 20);
+        Set<Long> ids = Collections.synchronizedSet(new HashSet<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    ids.add(dao.insertNewMessage(new Message(1, "concurrent", 1669947800)).getMessage_id());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(800, ids.size());
+        dao.close();
+        InMemorySocialMediaDAO reopened = open(1 << 20);
+        Assert.assertEquals(801, reopened.getAllMessages().size());
+        reopened.close();
+    }
+
+    /**
+     * A transaction that throws leaves no trace of its changes, in memory or after a restart.
+     */
+    @Test
+    public void failedTransactionIsUndone() {
+        InMemorySocialMediaDAO dao = open(1 << 20);
+        try {
+            dao.inTransaction(0, () -> {
+                dao.insertNewAccount(new Account("testuser2", "password2"));
+                dao.insertFollow(1, 2);
+                dao.insertNewMessage(new Message(2, "hello", 1669947800));
+                dao.updateMessageById(1, "edited");
+                dao.replaceMessageTags(1, List.of("tag"), List.of());
+                dao.deleteMessageById(1);
+                throw new SQLException("failed");
+            });
+            Assert.fail();
+        } catch (UnitOfWorkException e) {
+            Assert.assertEquals("failed", e.getCause().getMessage());
+        }
+        assertUndone(dao);
+        dao.close();
+
+        InMemorySocialMediaDAO reopened = open(1 << 20);
+        assertUndone(reopened);
+        Assert.assertNotNull(reopened.insertNewAccount(new Account("testuser2", "password2")));
+        reopened.close();
+    }
+
+    private void assertUndone(InMemorySocialMediaDAO dao) {
+        Assert.assertNull(dao.getAccountByUsername("testuser2"));
+        Assert.assertTrue(dao.getFollowerIds(2).isEmpty());
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), dao.getAllMessages());
+    }
+
+    /**
+     * Replay stops at a record whose checksum does not match, such as one torn by a crash.
+     */
+    @Test
+    public void tornRecordIsIgnored() throws IOException {
+        Path file = directory.resolve("test.log");
+        WriteAheadLog log = new WriteAheadLog(file, 1024, true);
+        log.append("first".getBytes(StandardCharsets.UTF_8));
+        log.awaitDurable(log.append("second".getBytes(StandardCharsets.UTF_8)));
+        log.close();
+
+        // Corrupt the last byte of the second record's payload
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.wrap(new byte[] { 'X' }), 8 + 5 + 8 + 5);
+        channel.close();
+
+        List<String> records = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(file, 1024, true);
+        reopened.forEach(record -> records.add(StandardCharsets.UTF_8.decode(record).toString()));
+        Assert.assertEquals(List.of("first"), records);
+        Assert.assertEquals(13, reopened.size());
+        reopened.close();
+    }
+
+    private static boolean isEmpty(Path segment) throws IOException {
+        for (byte b : Files.readAllBytes(segment)) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+        private InMemorySocialMediaDAO open(int walBytes) {
+        return new InMemorySocialMediaDAO(directory, walBytes, true, 0, null);
+    }
+}
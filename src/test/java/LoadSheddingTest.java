@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.AdaptiveConcurrencyLimiter;
+import Util.LoadSheddingException;
+import io.javalin.Javalin;
+
+public class LoadSheddingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/metrics after a read
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON map including the current read and write concurrency limits
+     */
+    @Test
+    public void getMetricsReportsConcurrencyLimits() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/metrics"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+
+        Map<String, Object> metrics = objectMapper.readValue(response.body(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertTrue(metrics.containsKey("concurrency.read.limit"));
+        Assert.assertTrue(metrics.containsKey("concurrency.write.limit"));
+        Assert.assertTrue(metrics.containsKey("concurrency.read.rejected"));
+    }
+
+    /**
+     * Calls beyond the current limit are rejected immediately rather than queued.
+     */
+    @Test
+    public void limiterShedsCallsOverLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test_shed", 2, 1, 2, 10_000);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(() -> limiter.call(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assert.assertThrows(LoadSheddingException.class, () -> limiter.call(() -> "rejected"));
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals("accepted", limiter.call(() -> "accepted"));
+    }
+
+    /**
+     * Calls slower than the latency target shrink the limit, and fast calls made while the limit is in use grow it.
+     */
+    @Test
+    public void limiterAdaptsToLatency() {
+        AdaptiveConcurrencyLimiter slow = new AdaptiveConcurrencyLimiter("test_slow", 10, 1, 20, 0);
+        slow.call(() -> {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        Assert.assertEquals(9, slow.getLimit());
+
+        AdaptiveConcurrencyLimiter fast = new AdaptiveConcurrencyLimiter("test_fast", 1, 1, 20, 10_000);
+        fast.call(() -> null);
+        Assert.assertEquals(2, fast.getLimit());
+    }
+
+    /**
+     * Slow calls that were already running when the limit was cut measured the old load, so a burst of them cuts the
+     * limit once; the next slow call started afterwards cuts it again.
+     */
+    @Test
+    public void limiterBacksOffOncePerWindow() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test_window", 10, 1, 20, 0);
+        CountDownLatch started = new CountDownLatch(5);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        for (int i = 0; i < 5; i++) {
+            executor.submit(() -> limiter.call(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(2);
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(9, limiter.getLimit());
+
+        limiter.call(() -> {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    /**
+     * A burst of fast calls measured one limit, so it grows the limit by one rather than by one per call; the next
+     * burst started afterwards grows it again.
+     */
+    @Test
+    public void limiterGrowsOncePerWindow() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test_grow", 6, 1, 20, 10_000);
+        runBurst(limiter, 5);
+        Assert.assertEquals(7, limiter.getLimit());
+        runBurst(limiter, 5);
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    /**
+     * Runs calls that are all in flight at once before any of them finishes.
+     */
+    private static void runBurst(AdaptiveConcurrencyLimiter limiter, int calls) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(calls);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(calls);
+        for (int i = 0; i < calls; i++) {
+            executor.submit(() -> limiter.call(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
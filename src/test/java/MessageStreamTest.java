@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.ChangeEvent;
+import Model.Message;
+import Service.MessageStream;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class MessageStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+    String authorization;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+        authorization = TestHarness.authorization(baseUrl);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Subscribers of GET localhost:8080/messages/stream receive posted, edited and deleted messages as server-sent
+     * events, and a subscriber filtering on another account receives none of them.
+     */
+    @Test
+    public void streamPushesMessageChanges() throws Exception {
+        BlockingQueue<String> everyMessage = subscribe("/messages/stream");
+        BlockingQueue<String> otherAccount = subscribe("/messages/stream?account_id=2");
+        Thread.sleep(500);
+
+        send("POST", "/messages", "{\"posted_by\":1,\"message_text\":\"live\",\"time_posted_epoch\":1669947800}");
+        send("PATCH", "/messages/2", "{\"message_text\":\"still live\"}");
+        send("DELETE", "/messages/2", null);
+
+        Assert.assertEquals("event: " + ChangeEvent.CREATED, everyMessage.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(new Message(2, 1, "live", 1669947800), readData(everyMessage));
+        Assert.assertEquals("event: " + ChangeEvent.UPDATED, everyMessage.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(new Message(2, 1, "still live", 1669947800), readData(everyMessage));
+        Assert.assertEquals("event: " + ChangeEvent.DELETED, everyMessage.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(new Message(2, 1, "still live", 1669947800), readData(everyMessage));
+        Assert.assertTrue(otherAccount.isEmpty());
+    }
+
+    /**
+     * Ten thousand subscribers each receive every event meant for them, all sharing one serialized copy per event.
+     */
+    @Test
+    public void broadcastReachesTenThousandSubscribers() throws InterruptedException {
+        MessageStream stream = new MessageStream(16, 4, 10_000);
+        int subscribers = 10_000;
+        int events = 10;
+        CountDownLatch delivered = new CountDownLatch(subscribers / 2 * events + subscribers / 100 * events);
+        List<List<byte[]>> received = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            List<byte[]> frames = new ArrayList<>();
+            received.add(frames);
+            // Half follow every message, the other half one of 100 accounts
+            stream.subscribe(i % 2 == 0 ? null : i % 100, new MessageStream.Sink() {
+                @Override
+                public void send(byte[] frame) {
+                    frames.add(frame);
+                    delivered.countDown();
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+        Assert.assertEquals(subscribers, stream.getSubscriberCount());
+
+        for (int i = 0; i < events; i++) {
+            stream.broadcast(ChangeEvent.CREATED, new Message(i + 1, 1, "event " + i, 1669947800));
+        }
+        Assert.assertTrue(delivered.await(30, TimeUnit.SECONDS));
+
+        byte[] first = received.get(0).get(0);
+        for (int i = 0; i < subscribers; i++) {
+            List<byte[]> frames = received.get(i);
+            if (i % 2 == 0) {
+                Assert.assertEquals(events, frames.size());
+                Assert.assertSame(first, frames.get(0));
+            } else if (i % 100 == 1) {
+                Assert.assertEquals(events, frames.size());
+            } else {
+                Assert.assertEquals(0, frames.size());
+            }
+        }
+    }
+
+    /**
+     * A subscriber that stops reading is disconnected once its buffer is full, without holding up the others.
+     */
+    @Test
+    public void slowSubscriberIsDisconnected() throws InterruptedException {
+        MessageStream stream = new MessageStream(4, 2, 10_000);
+        CountDownLatch stuck = new CountDownLatch(1);
+        AtomicBoolean slowClosed = new AtomicBoolean();
+        MessageStream.Subscription slow = stream.subscribe(null, new MessageStream.Sink() {
+            @Override
+            public void send(byte[] frame) throws IOException {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+                slowClosed.set(true);
+            }
+        });
+        CountDownLatch fastReceived = new CountDownLatch(20);
+        stream.subscribe(null, new MessageStream.Sink() {
+            @Override
+            public void send(byte[] frame) {
+                fastReceived.countDown();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        for (int i = 0; i < 20; i++) {
+            stream.broadcast(ChangeEvent.CREATED, new Message(i + 1, 1, "event " + i, 1669947800));
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(fastReceived.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(slow.isCancelled());
+        Assert.assertTrue(slowClosed.get());
+        Assert.assertEquals(1, stream.getSubscriberCount());
+        stuck.countDown();
+    }
+
+    /**
+     * A subscriber whose write blocks past the deadline is aborted, which frees the only writer thread for the
+     * other subscribers.
+     */
+    @Test
+    public void stalledWriteIsAborted() throws InterruptedException {
+        MessageStream stream = new MessageStream(16, 1, 200);
+        CountDownLatch aborted = new CountDownLatch(1);
+        MessageStream.Subscription stalled = stream.subscribe(null, new MessageStream.Sink() {
+            @Override
+            public void send(byte[] frame) throws IOException {
+                try {
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("Connection aborted");
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void abort() {
+                aborted.countDown();
+            }
+        });
+        CountDownLatch received = new CountDownLatch(1);
+        stream.subscribe(null, new MessageStream.Sink() {
+            @Override
+            public void send(byte[] frame) {
+                received.countDown();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        long timeouts = Metrics.counter("stream.write_timeouts").sum();
+
+        stream.broadcast(ChangeEvent.CREATED, new Message(2, 1, "event", 1669947800));
+        Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(stalled.isCancelled());
+        Assert.assertEquals(timeouts + 1, Metrics.counter("stream.write_timeouts").sum());
+        Assert.assertEquals(1, stream.getSubscriberCount());
+        stream.close(1000);
+    }
+
+    private BlockingQueue<String> subscribe(String path) {
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .header("Accept", "text/event-stream")
+                .build();
+        webClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+            Stream<String> body = response.body();
+            body.filter(line -> !line.isEmpty()).forEach(lines::add);
+        });
+        return lines;
+    }
+
+    private Message readData(BlockingQueue<String> lines) throws InterruptedException, IOException {
+        String line = lines.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(line);
+        Assert.assertTrue(line.startsWith("data: "));
+        return objectMapper.readValue(line.substring("data: ".length()), Message.class);
+    }
+
+    private HttpResponse<String> send(String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * Exercises every endpoint group against the native executable built by the native profile:
+ *
+ * mvn -Pnative verify
+ *
+ * The binary is started with an empty in-memory database, so the first account and message both get id 1. Skipped
+ * unless "native.binary" names the executable.
+ */
+public class NativeImageSmokeTest {
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Process server;
+    Path changes;
+    String baseUrl;
+    String authorization;
+
+    /**
+     * Before every test, start the native binary on a free port and wait until it answers.
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        String binary = System.getProperty("native.binary");
+        Assume.assumeTrue(binary != null && new File(binary).canExecute());
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        changes = Files.createTempDirectory("native-changes");
+        int port = freePort();
+        baseUrl = "http://localhost:" + port;
+        server = new ProcessBuilder(binary, "-Dserver.port=" + port, "-Ddb.backend=mem",
+                "-Dchanges.dir=" + changes)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            Assert.assertTrue("The native binary exited", server.isAlive());
+            try {
+                send("GET", "/messages", null);
+                return;
+            } catch (IOException e) {
+                Assert.assertTrue("The native binary did not start listening", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (server != null) {
+            server.destroy();
+            server.waitFor();
+            for (File file : changes.toFile().listFiles()) {
+                file.delete();
+            }
+            changes.toFile().delete();
+        }
+    }
+
+    /**
+     * Registration and login bind Account to and from JSON.
+     */
+    @Test
+    public void registerAndLogin() throws IOException, InterruptedException {
+        HttpResponse<String> registered = send("POST", "/register",
+                "{\"username\":\"native\",\"password\":\"password\"}");
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals(new Account(1, "native", "password"),
+                objectMapper.readValue(registered.body(), Account.class));
+        Assert.assertEquals(400, send("POST", "/register", "{\"username\":\"native\",\"password\":\"password\"}")
+                .statusCode());
+
+        HttpResponse<String> login = send("POST", "/login", "{\"username\":\"native\",\"password\":\"password\"}");
+        Assert.assertEquals(200, login.statusCode());
+        Assert.assertEquals(401, send("POST", "/login", "{\"username\":\"native\",\"password\":\"wrong\"}")
+                .statusCode());
+    }
+
+    /**
+     * Posting, reading, editing, searching and deleting a message bind Message to and from JSON and go through
+     * H2 and the pooled connection proxies.
+     */
+    @Test
+    public void messageLifecycle() throws IOException, InterruptedException {
+        send("POST", "/register", "{\"username\":\"native\",\"password\":\"password\"}");
+        authorization = TestHarness.authorization(baseUrl, "native", "password");
+        HttpResponse<String> posted = send("POST", "/messages",
+                "{\"posted_by\":1,\"message_text\":\"native hello\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(200, posted.statusCode());
+        Message expected = new Message(1, 1, "native hello", 1669947800);
+        Assert.assertEquals(expected, objectMapper.readValue(posted.body(), Message.class));
+
+        Assert.assertEquals(expected, objectMapper.readValue(send("GET", "/messages/1", null).body(), Message.class));
+        Assert.assertEquals(List.of(expected), readMessages(send("GET", "/messages", null)));
+        Assert.assertEquals(List.of(expected), readMessages(send("GET", "/accounts/1/messages", null)));
+        Assert.assertEquals(List.of(expected), readMessages(send("GET", "/messages/search?q=hello", null)));
+
+        HttpResponse<String> patched = send("PATCH", "/messages/1", "{\"message_text\":\"native edited\"}");
+        Assert.assertEquals(200, patched.statusCode());
+        Assert.assertEquals("native edited", objectMapper.readValue(patched.body(), Message.class).getMessage_text());
+
+        Assert.assertEquals(200, send("DELETE", "/messages/1", null).statusCode());
+        Assert.assertEquals("", send("GET", "/messages/1", null).body());
+        Assert.assertEquals(200, send("GET", "/changes", null).statusCode());
+        Assert.assertEquals(200, send("GET", "/metrics", null).statusCode());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {
+        });
+    }
+
+    private HttpResponse<String> send(String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
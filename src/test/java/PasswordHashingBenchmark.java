@@ -0,0 +1,41 @@
+import Util.PasswordHasher;
+
+/**
+ * Reports single-core login throughput (password verifications per second)
+ * for a range of PBKDF2 work factors. This is not a JUnit test; run it
+ * manually, for example:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=PasswordHashingBenchmark
+ *
+ * Multiply by the "passwords.threads" setting to estimate the login capacity
+ * of a server.
+ */
+public class PasswordHashingBenchmark {
+    public static void main(String[] args) {
+        int[] workFactors = { 10_000, 60_000, 120_000, 210_000, 600_000 };
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+
+        System.out.printf("%12s %14s %12s%n", "iterations", "logins/s/core", "ms/login");
+        for (int iterations : workFactors) {
+            PasswordHasher hasher = new PasswordHasher(iterations, 1, 1);
+            String stored = hasher.hashNow("correct horse battery staple");
+
+            // Warm up the JIT before measuring
+            long warmupDeadline = System.nanoTime() + (long) (seconds * 1e9 / 2);
+            while (System.nanoTime() < warmupDeadline) {
+                hasher.verify("correct horse battery staple", stored);
+            }
+
+            int logins = 0;
+            long start = System.nanoTime();
+            long deadline = start + (long) (seconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                hasher.verify("correct horse battery staple", stored);
+                logins++;
+            }
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%12d %14.1f %12.2f%n", iterations, logins / elapsedSeconds,
+                    elapsedSeconds * 1000 / logins);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Service.SocialMediaService;
+import io.javalin.Javalin;
+
+public class PasswordHashingTest {
+    SocialMediaController socialMediaController;
+    SocialMediaDAO socialMediaDAO;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app on a DAO of the configured storage mode that
+     * the test can read and change directly, and create a new webClient and ObjectMapper for interacting locally on
+     * the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaDAO = SocialMediaDAO.create();
+        socialMediaController = new SocialMediaController(new SocialMediaService(socialMediaDAO));
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        socialMediaDAO.close();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/register, then POST localhost:8080/login with the same
+     * credentials
+     *
+     * Expected Response:
+     *  Status Code: 200 for both
+     *  The password is stored as a salted hash, not as plaintext
+     */
+    @Test
+    public void registeredPasswordIsHashed() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("/register", "user", "password");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(response.body(), Account.class));
+
+        String stored = storedPassword("user");
+        Assert.assertTrue(stored.startsWith("pbkdf2$"));
+        Assert.assertFalse(stored.contains("password"));
+
+        response = send("/login", "user", "password");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Account(2, "user", "password"), objectMapper.readValue(response.body(), Account.class));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/login for an account whose password is stored as plaintext
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  The stored password is upgraded to a hash, and the same credentials still work afterwards
+     */
+    @Test
+    public void plaintextPasswordUpgradedOnLogin() throws IOException, InterruptedException {
+        Assert.assertEquals("password", storedPassword("testuser1"));
+
+        Assert.assertEquals(200, send("/login", "testuser1", "password").statusCode());
+        Assert.assertTrue(storedPassword("testuser1").startsWith("pbkdf2$"));
+
+        Assert.assertEquals(200, send("/login", "testuser1", "password").statusCode());
+        Assert.assertEquals(401, send("/login", "testuser1", "pass123").statusCode());
+    }
+
+    private HttpResponse<String> send(String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String storedPassword(String username) {
+        return socialMediaDAO.getAccountByUsername(username).getPassword();
+    }
+}
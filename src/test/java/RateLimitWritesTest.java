@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.InMemoryRateLimiterBackend;
+import Util.RateLimitExceededException;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+public class RateLimitWritesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("ratelimit.account.capacity", "2");
+        System.setProperty("ratelimit.account.refill_per_second", "0.1");
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("ratelimit.account.capacity");
+        System.clearProperty("ratelimit.account.refill_per_second");
+    }
+
+    /**
+     * Sending three http requests to POST localhost:8080/messages for the same account, with an account burst
+     * capacity of 2
+     *
+     * Expected Response:
+     *  Status Code: 200, 200, then 429
+     *  Retry-After header on the rejected response
+     */
+    @Test
+    public void postMessageOverAccountLimit() throws IOException, InterruptedException {
+        Assert.assertEquals(200, postMessage("first").statusCode());
+        Assert.assertEquals(200, postMessage("second").statusCode());
+
+        HttpResponse<String> response = postMessage("third");
+        Assert.assertEquals(429, response.statusCode());
+        long retryAfter = Long.parseLong(response.headers().firstValue("Retry-After").orElseThrow());
+        Assert.assertTrue(retryAfter >= 1);
+    }
+
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/1 after account 1 has used up its burst capacity
+     *
+     * Expected Response:
+     *  Status Code: 429
+     */
+    @Test
+    public void patchMessageOverAccountLimit() throws IOException, InterruptedException {
+        postMessage("first");
+        postMessage("second");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{" +
+                        "\"message_text\": \"updated message\" }"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(429, response.statusCode());
+    }
+
+    /**
+     * Reads are never rate limited.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     */
+    @Test
+    public void getMessagesNotLimited() throws IOException, InterruptedException {
+        postMessage("first");
+        postMessage("second");
+        postMessage("third");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * The in-memory backend refills buckets over time, keeps keys separate, and forgets buckets once they have
+     * refilled completely.
+     */
+    @Test
+    public void inMemoryBackendRefillsAndExpires() {
+        AtomicLong clock = new AtomicLong();
+        InMemoryRateLimiterBackend backend = new InMemoryRateLimiterBackend(clock::get);
+
+        Assert.assertEquals(0, backend.tryAcquire("account:1", 1, 1));
+        Assert.assertEquals(1_000_000_000, backend.tryAcquire("account:1", 1, 1));
+        Assert.assertEquals(0, backend.tryAcquire("account:2", 1, 1));
+
+        clock.addAndGet(500_000_000);
+        Assert.assertEquals(500_000_000, backend.tryAcquire("account:1", 1, 1));
+        clock.addAndGet(500_000_000);
+        Assert.assertEquals(0, backend.tryAcquire("account:1", 1, 1));
+
+        clock.addAndGet(60_000_000_000L);
+        backend.tryAcquire("account:3", 1, 1);
+        Assert.assertEquals(1, backend.size());
+    }
+
+    /**
+     * Requests rejected by their own IP or account bucket do not spend the global bucket's tokens, so other clients
+     * can still write.
+     */
+    @Test
+    public void rejectedRequestsLeaveGlobalTokens() {
+        RateLimiter rateLimiter = new RateLimiter(new InMemoryRateLimiterBackend(), new RateLimiter.Limit(1, 0.001),
+                new RateLimiter.Limit(1, 0.001), new RateLimiter.Limit(2, 0.001));
+
+        rateLimiter.acquireForIp("10.0.0.1");
+        rateLimiter.acquireForAccount(1);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertThrows(RateLimitExceededException.class, () -> rateLimiter.acquireForIp("10.0.0.1"));
+            Assert.assertThrows(RateLimitExceededException.class, () -> rateLimiter.acquireForAccount(1));
+        }
+
+        rateLimiter.acquireForIp("10.0.0.2");
+        rateLimiter.acquireForAccount(2);
+        RateLimitExceededException rejected = Assert.assertThrows(RateLimitExceededException.class,
+                () -> rateLimiter.acquireForAccount(3));
+        Assert.assertTrue(rejected.getMessage().contains("global"));
+    }
+
+    private HttpResponse<String> postMessage(String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
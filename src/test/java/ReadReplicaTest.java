@@ -0,0 +1,142 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Service.ReadYourWrites;
+import Service.SocialMediaService;
+import Util.Metrics;
+import Util.ReplicaRouter;
+
+public class ReadReplicaTest {
+    JdbcDataSource replicaA;
+    JdbcDataSource replicaB;
+    ReplicaRouter replicaRouter;
+
+    /**
+     * Before every test, create two in-memory H2 replicas that each know their own name, and a router over them
+     * that only checks health when asked.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        replicaA = createReplica("a");
+        replicaB = createReplica("b");
+        replicaRouter = new ReplicaRouter(Arrays.asList(replicaA, replicaB), 0);
+    }
+
+    @After
+    public void cleanUp() {
+        replicaRouter.close();
+    }
+
+    /**
+     * While one replica has a read in progress, the next read goes to the other one.
+     */
+    @Test
+    public void readsGoToLeastBusyReplica() throws SQLException {
+        Connection first = replicaRouter.getConnection();
+        Connection second = replicaRouter.getConnection();
+        Assert.assertNotEquals(replicaName(first), replicaName(second));
+
+        String secondName = replicaName(second);
+        second.close();
+        // Only the second replica is idle now, so it gets every new read
+        for (int i = 0; i < 3; i++) {
+            Connection connection = replicaRouter.getConnection();
+            Assert.assertEquals(secondName, replicaName(connection));
+            connection.close();
+        }
+        first.close();
+    }
+
+    /**
+     * A replica that fails its health check stops receiving reads, and the router reports when no replica is left.
+     */
+    @Test
+    public void unhealthyReplicaIsSkipped() throws SQLException {
+        Connection connection = replicaA.getConnection();
+        connection.createStatement().execute("SHUTDOWN");
+        replicaRouter.checkHealth();
+        Assert.assertEquals(1, replicaRouter.getHealthyCount());
+
+        for (int i = 0; i < 3; i++) {
+            connection = replicaRouter.getConnection();
+            Assert.assertEquals("b", replicaName(connection));
+            connection.close();
+        }
+
+        replicaB.getConnection().createStatement().execute("SHUTDOWN");
+        replicaRouter.checkHealth();
+        Assert.assertEquals(0, replicaRouter.getHealthyCount());
+        Assert.assertNull(replicaRouter.getConnection());
+    }
+
+    /**
+     * A written key is read from the primary until the read-your-writes window has passed.
+     */
+    @Test
+    public void recentWritesAreReadFromPrimary() {
+        AtomicLong now = new AtomicLong(1_000);
+        ReadYourWrites readYourWrites = new ReadYourWrites(5_000, now::get);
+        readYourWrites.written("message:1");
+
+        Assert.assertTrue(readYourWrites.isRecent("message:1"));
+        Assert.assertFalse(readYourWrites.isRecent("message:2"));
+        now.addAndGet(4_999);
+        Assert.assertTrue(readYourWrites.isRecent("message:1"));
+        now.addAndGet(1);
+        Assert.assertFalse(readYourWrites.isRecent("message:1"));
+    }
+
+    /**
+     * The list of all messages includes every message, so the client that wrote a message reads it from the primary
+     * within the window, while other clients keep reading it from a replica.
+     */
+    @Test
+    public void allMessagesAfterWriteAreReadFromPrimaryByTheWriter() {
+        TestHarness.isolateDatabase();
+        SocialMediaService service = new SocialMediaService();
+        try {
+            ReadYourWrites.setCaller("account:1");
+            long primaryReads = Metrics.counter("replicas.read_your_writes").sum();
+            service.getAllMessages();
+            Assert.assertEquals(primaryReads, Metrics.counter("replicas.read_your_writes").sum());
+
+            Message posted = service.postMessage(new Message(1, "just posted", 1669947800));
+            Assert.assertTrue(service.getAllMessages().contains(posted));
+            Assert.assertEquals(primaryReads + 1, Metrics.counter("replicas.read_your_writes").sum());
+
+            ReadYourWrites.setCaller("account:2");
+            service.getAllMessages();
+            Assert.assertEquals(primaryReads + 1, Metrics.counter("replicas.read_your_writes").sum());
+        } finally {
+            ReadYourWrites.clearCaller();
+        }
+    }
+
+    private static JdbcDataSource createReplica(String name) throws SQLException {
+        String url = "jdbc:h2:mem:replica_" + name + System.nanoTime();
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(url + ";DB_CLOSE_DELAY=-1");
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE TABLE replica (name varchar(10))");
+        connection.createStatement().execute("INSERT INTO replica VALUES ('" + name + "')");
+        // Once shut down, the replica must stay down rather than be recreated empty
+        dataSource.setURL(url + ";IFEXISTS=TRUE");
+        return dataSource;
+    }
+
+    private static String replicaName(Connection connection) throws SQLException {
+        ResultSet resultSet = connection.prepareStatement("SELECT name FROM replica").executeQuery();
+        resultSet.next();
+        return resultSet.getString(1);
+    }
+}
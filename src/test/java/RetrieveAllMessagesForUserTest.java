@@ -16,7 +16,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
 import Model.Message;
-import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 public class RetrieveAllMessagesForUserTest {
@@ -24,6 +23,7 @@ public class RetrieveAllMessagesForUserTest {
     HttpClient webClient;
     ObjectMapper objectMapper;
     Javalin app;
+    String baseUrl;
 
     /**
      * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
@@ -32,13 +32,12 @@ public class RetrieveAllMessagesForUserTest {
      */
     @Before
     public void setUp() throws InterruptedException {
-        ConnectionUtil.resetTestDatabase();
+        TestHarness.isolateDatabase();
         socialMediaController = new SocialMediaController();
         app = socialMediaController.startAPI();
         webClient = HttpClient.newHttpClient();
         objectMapper = new ObjectMapper();
-        app.start(8080);
-        Thread.sleep(1000);
+        baseUrl = TestHarness.start(app);
     }
 
     @After
@@ -56,7 +55,7 @@ public class RetrieveAllMessagesForUserTest {
     @Test
     public void getAllMessagesFromUserMessageExists() throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                .uri(URI.create(baseUrl + "/accounts/1/messages"))
                 .build();
         HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -79,7 +78,7 @@ public class RetrieveAllMessagesForUserTest {
     @Test
     public void getAllMessagesFromUserNoMessagesFound() throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/accounts/2/messages"))
+                .uri(URI.create(baseUrl + "/accounts/2/messages"))
                 .build();
         HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -89,4 +88,48 @@ public class RetrieveAllMessagesForUserTest {
         List<Message> actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
         Assert.assertTrue(actualResult.isEmpty());
     }
+    /**
+     * Sending http requests to GET localhost:8080/accounts/1/messages?limit=2, then again with before set to the
+     * last message_id of the page
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the two highest message_ids, then the remaining message
+     */
+    @Test
+    public void getMessagesFromUserPagesByMessageId() throws IOException, InterruptedException {
+        String authorization = TestHarness.authorization(baseUrl);
+        for (int i = 2; i <= 3; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"test message "
+                            + i + "\", \"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", authorization)
+                    .build();
+            Assert.assertEquals(200, webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/1/messages?limit=2"))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> firstPage = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(3, 1, "test message 3", 1669947792),
+                new Message(2, 1, "test message 2", 1669947792)), firstPage);
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/1/messages?limit=2&before=2"))
+                .build();
+        response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> secondPage = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), secondPage);
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/1/messages?limit=0"))
+                .build();
+        Assert.assertEquals(400, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
 }
@@ -3,9 +3,6 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,35 +15,40 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
 import Model.Message;
-import Util.ConnectionUtil;
+import Service.SocialMediaService;
 import io.javalin.Javalin;
 
 public class RetrieveAllMessagesTest {
     SocialMediaController socialMediaController;
+    SocialMediaDAO socialMediaDAO;
     HttpClient webClient;
     ObjectMapper objectMapper;
     Javalin app;
+    String baseUrl;
 
     /**
-     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
-     * for interacting locally on the web.
+     * Before every test, reset the database, restart the Javalin app on a DAO of the configured storage mode that
+     * the test can read and change directly, and create a new webClient and ObjectMapper for interacting locally on
+     * the web.
      * @throws InterruptedException
      */
     @Before
     public void setUp() throws InterruptedException {
-        ConnectionUtil.resetTestDatabase();
-        socialMediaController = new SocialMediaController();
+        TestHarness.isolateDatabase();
+        socialMediaDAO = SocialMediaDAO.create();
+        socialMediaController = new SocialMediaController(new SocialMediaService(socialMediaDAO));
         app = socialMediaController.startAPI();
         webClient = HttpClient.newHttpClient();
         objectMapper = new ObjectMapper();
-        app.start(8080);
-        Thread.sleep(1000);
+        baseUrl = TestHarness.start(app);
     }
 
     @After
     public void tearDown() {
         app.stop();
+        socialMediaDAO.close();
     }
 
 /**
@@ -59,7 +61,7 @@ public class RetrieveAllMessagesTest {
     @Test
     public void getAllMessagesMessagesAvailable() throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .build();
         HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -86,7 +88,7 @@ public class RetrieveAllMessagesTest {
         removeInitialMessage();
 
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages"))
+                .uri(URI.create(baseUrl + "/messages"))
                 .build();
         HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -100,14 +102,7 @@ public class RetrieveAllMessagesTest {
 
 
     private void removeInitialMessage(){
-        try {
-                Connection conn = ConnectionUtil.getConnection();
-                PreparedStatement ps = conn.prepareStatement("delete from message where message_id = ?");
-                ps.setInt(1, 1);
-                ps.executeUpdate();
-        } catch (SQLException e) {
-                e.printStackTrace();
-        }
+        socialMediaDAO.deleteMessageById(1);
     }
 
 }
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.FeedService;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class RetrieveFeedForUserTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("feed.celebrity_threshold");
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/feed when account 1 follows nobody
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of an empty list
+     */
+    @Test
+    public void getFeedNoFollows() throws IOException, InterruptedException {
+        HttpResponse<String> response = getFeed(1);
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> feed = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(feed.isEmpty());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/2/following/1, then GET localhost:8080/accounts/2/feed
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list containing the messages of account 1
+     */
+    @Test
+    public void getFeedAfterFollowSuccessful() throws IOException, InterruptedException {
+        registerSecondUser();
+        Assert.assertEquals(200, follow(2, 1).statusCode());
+
+        HttpResponse<String> response = getFeed(2);
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/1 (an account following itself)
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void followSelfUnsuccessful() throws IOException, InterruptedException {
+        Assert.assertEquals(400, follow(1, 1).statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/100 (account 100 does not exist)
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void followMissingAccountUnsuccessful() throws IOException, InterruptedException {
+        Assert.assertEquals(400, follow(1, 100).statusCode());
+    }
+
+    /**
+     * Posting a message after account 2's feed has been built, with account 1 below the celebrity threshold
+     * (fan-out on write)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list with the new message first
+     */
+    @Test
+    public void getFeedFanOutOnWrite() throws IOException, InterruptedException {
+        registerSecondUser();
+        follow(2, 1);
+        getFeed(2);
+        postMessage(1, "new message", 1669947800);
+
+        HttpResponse<String> response = getFeed(2);
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "new message", 1669947800));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Posting a message after account 2's feed has been built, with account 1 at the celebrity threshold
+     * (fan-out on read)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list with the new message first
+     */
+    @Test
+    public void getFeedFanOutOnRead() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("feed.celebrity_threshold", "1");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        baseUrl = TestHarness.start(app);
+
+        registerSecondUser();
+        follow(2, 1);
+        getFeed(2);
+        postMessage(1, "new message", 1669947800);
+
+        HttpResponse<String> response = getFeed(2);
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "new message", 1669947800));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Editing and then deleting a message after account 2's feed has been built
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list with the edited message, then of an empty list
+     */
+    @Test
+    public void getFeedAfterEditAndDelete() throws IOException, InterruptedException {
+        registerSecondUser();
+        follow(2, 1);
+        getFeed(2);
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited message\"}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(patch, HttpResponse.BodyHandlers.ofString());
+        List<Message> edited = objectMapper.readValue(getFeed(2).body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(1, 1, "edited message", 1669947792)), edited);
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/1"))
+                .DELETE()
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(delete, HttpResponse.BodyHandlers.ofString());
+        List<Message> deleted = objectMapper.readValue(getFeed(2).body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(deleted.isEmpty());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/feed with a limit out of range
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getFeedLimitOutOfRange() throws IOException, InterruptedException {
+        for (String limit : new String[] { "0", "101", "-1" }) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/accounts/1/feed?limit=" + limit))
+                    .build();
+            Assert.assertEquals(400, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/1/feed?limit=100"))
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * A message posted while a feed is being built from the database is not lost, even though the database read
+     * missed it.
+     */
+    @Test
+    public void postDuringHydrationIsKept() throws Exception {
+        SlowTimelines dao = new SlowTimelines();
+        FeedService feedService = new FeedService(dao, 1000, 800, 100);
+        Message posted = new Message(2, 1, "posted during hydration", 1669947800);
+
+        CompletableFuture<List<Message>> read = CompletableFuture.supplyAsync(() -> feedService.getFeed(2, 10));
+        Assert.assertTrue(dao.reading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> fanOut = CompletableFuture.runAsync(() -> feedService.onMessagePosted(posted));
+        dao.release.countDown();
+        read.get(5, TimeUnit.SECONDS);
+        fanOut.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(List.of(posted, new Message(1, 1, "test message 1", 1669947792)),
+                feedService.getFeed(2, 10));
+    }
+
+    /**
+     * At most the configured number of feeds are kept; an evicted feed is rebuilt when read again.
+     */
+    @Test
+    public void feedsBeyondLimitAreEvicted() {
+        SlowTimelines dao = new SlowTimelines();
+        dao.release.countDown();
+        FeedService feedService = new FeedService(dao, 1000, 800, 2);
+        long evictions = Metrics.counter("feed.evictions").sum();
+        for (int account_id = 2; account_id <= 4; account_id++) {
+            Assert.assertEquals(1, feedService.getFeed(account_id, 10).size());
+        }
+        Assert.assertEquals(2, ((Number) Metrics.snapshot().get("feed.materialized")).intValue());
+        Assert.assertEquals(evictions + 1, Metrics.counter("feed.evictions").sum());
+    }
+
+    private HttpResponse<String> getFeed(int account_id) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/" + account_id + "/feed"))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> follow(int account_id, int followed_id) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/accounts/" + account_id + "/following/" + followed_id))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void registerSecondUser() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"user\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int posted_by, String message_text, long time_posted_epoch)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": " + time_posted_epoch + "}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Every account follows account 1, whose timeline is read only once released.
+     */
+    static class SlowTimelines extends SocialMediaDAO {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Map<Integer, Integer> getFollowedAccountFollowerCounts(int follower_id) {
+            return Map.of(1, 1);
+        }
+
+        @Override
+        public List<Integer> getFollowerIds(int followed_id) {
+            return List.of(2, 3, 4);
+        }
+
+        @Override
+        public List<Message> getRecentMessagesByAccountId(int account_id, int limit) {
+            reading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(new Message(1, 1, "test message 1", 1669947792));
+        }
+    }
+}
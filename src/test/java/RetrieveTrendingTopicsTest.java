@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.TrendingTopic;
+import io.javalin.Javalin;
+
+public class RetrieveTrendingTopicsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending when no message has a hashtag
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of an empty list
+     */
+    @Test
+    public void getTrendingNoHashtags() throws IOException, InterruptedException {
+        HttpResponse<String> response = getTrending("");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<TrendingTopic> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertTrue(actualResult.isEmpty());
+    }
+
+    /**
+     * Posting and editing messages with hashtags, then sending an http request to GET localhost:8080/trending
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of hashtags, most used first, with repeats in one message counted once
+     */
+    @Test
+    public void getTrendingHashtags() throws IOException, InterruptedException {
+        postMessage("#Java is great #java");
+        postMessage("learning #java and #sql");
+        patchMessage(1, "first post #sql #java");
+
+        HttpResponse<String> response = getTrending("?limit=2");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<TrendingTopic> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertEquals(List.of(new TrendingTopic("java", 3), new TrendingTopic("sql", 2)), actualResult);
+    }
+
+    /**
+     * Editing a message again and again only counts the tags each edit adds, not the ones it already had
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of each hashtag counted once
+     */
+    @Test
+    public void getTrendingAfterRepeatedEdits() throws IOException, InterruptedException {
+        postMessage("learning #java");
+        patchMessage(2, "learning #java and #sql");
+        patchMessage(2, "still learning #java and #sql");
+
+        HttpResponse<String> response = getTrending("");
+        List<TrendingTopic> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertEquals(List.of(new TrendingTopic("java", 1), new TrendingTopic("sql", 1)), actualResult);
+    }
+
+    /**
+     * Posting a message with mentions, then sending an http request to GET localhost:8080/trending?type=mentions
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of the mentioned usernames
+     */
+    @Test
+    public void getTrendingMentions() throws IOException, InterruptedException {
+        postMessage("hello @testuser1");
+
+        HttpResponse<String> response = getTrending("?type=mentions");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<TrendingTopic> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertEquals(List.of(new TrendingTopic("testuser1", 1)), actualResult);
+    }
+
+    /**
+     * Posting a message with # and @ inside words, such as an issue number and an email address
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of only the tags that start a word
+     */
+    @Test
+    public void getTrendingIgnoresTagsInsideWords() throws IOException, InterruptedException {
+        postMessage("see issue#5 or mail bob@example.com, #real (@testuser1)");
+
+        List<TrendingTopic> hashtags = objectMapper.readValue(getTrending("").body(),
+                new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertEquals(List.of(new TrendingTopic("real", 1)), hashtags);
+        List<TrendingTopic> mentions = objectMapper.readValue(getTrending("?type=mentions").body(),
+                new TypeReference<List<TrendingTopic>>(){});
+        Assert.assertEquals(List.of(new TrendingTopic("testuser1", 1)), mentions);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending?type=words (unknown topic type)
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getTrendingInvalidType() throws IOException, InterruptedException {
+        Assert.assertEquals(400, getTrending("?type=words").statusCode());
+    }
+
+    private HttpResponse<String> getTrending(String queryString) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/trending" + queryString))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void patchMessage(int message_id, String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/" + message_id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{" +
+                        "\"message_text\": \"" + message_text + "\" }"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,84 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import DAO.MessageRowMapper;
+import Model.Message;
+
+/**
+ * Compares the per-row cost of mapping a large message scan by column name
+ * (the DAO's old SELECT * mapping) and with MessageRowMapper, which reads
+ * explicit columns by index. This is not a JUnit test; run it manually, for
+ * example:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=RowMappingBenchmark
+ *
+ * The first argument is the number of rows to scan (default 100000).
+ */
+public class RowMappingBenchmark {
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:rowmapping;DB_CLOSE_DELAY=-1");
+        Connection connection = dataSource.getConnection();
+        connection.createStatement().execute("CREATE TABLE message (message_id int primary key auto_increment, "
+                + "posted_by int, message_text varchar(255), time_posted_epoch bigint)");
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)");
+        for (int i = 0; i < rows; i++) {
+            insert.setInt(1, i % 1000);
+            insert.setString(2, "benchmark message number " + i);
+            insert.setLong(3, 1669947792L + i);
+            insert.addBatch();
+            if (i % 1000 == 999) {
+                insert.executeBatch();
+            }
+        }
+        insert.executeBatch();
+
+        PreparedStatement byName = connection.prepareStatement("SELECT * FROM message");
+        PreparedStatement byIndex = connection.prepareStatement(
+                "SELECT " + MessageRowMapper.COLUMNS + " FROM message");
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 5; i++) {
+            scanByName(byName);
+            MessageRowMapper.INSTANCE.mapAll(byIndex.executeQuery());
+        }
+
+        System.out.printf("%10s %12s %12s%n", "mapping", "ns/row", "rows/s");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int mapped = scanByName(byName).size();
+            report("by name", mapped, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            mapped = MessageRowMapper.INSTANCE.mapAll(byIndex.executeQuery()).size();
+            report("by index", mapped, System.nanoTime() - start);
+        }
+        connection.close();
+    }
+
+    private static List<Message> scanByName(PreparedStatement statement) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            messages.add(new Message(
+                    resultSet.getInt("message_id"),
+                    resultSet.getInt("posted_by"),
+                    resultSet.getString("message_text"),
+                    resultSet.getLong("time_posted_epoch")));
+        }
+        return messages;
+    }
+
+    private static void report(String mapping, int rows, long elapsedNanos) {
+        System.out.printf("%10s %12.1f %12.0f%n", mapping, (double) elapsedNanos / rows, rows / (elapsedNanos / 1e9));
+    }
+}
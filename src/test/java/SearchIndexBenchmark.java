@@ -0,0 +1,65 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import Model.Message;
+import Service.SearchIndex;
+
+/**
+ * Measures query latency of the message SearchIndex on a synthetic corpus.
+ * This is not a JUnit test; run it manually, for example:
+ *
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=SearchIndexBenchmark -Dexec.args=1000000
+ */
+public class SearchIndexBenchmark {
+    public static void main(String[] args) {
+        int corpusSize = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        Random random = new Random(42);
+
+        // Zipf-like vocabulary: a few very common words and a long tail of rare ones
+        String[] vocabulary = new String[50_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "w" + Integer.toString(i, 36);
+        }
+
+        SearchIndex searchIndex = new SearchIndex();
+        long start = System.nanoTime();
+        for (int id = 1; id <= corpusSize; id++) {
+            StringBuilder text = new StringBuilder();
+            int words = 5 + random.nextInt(15);
+            for (int w = 0; w < words; w++) {
+                text.append(vocabulary[zipf(random, vocabulary.length)]).append(' ');
+            }
+            searchIndex.index(new Message(id, 1 + id % 1000, text.toString(), 1669947792L + id));
+        }
+        System.out.printf("indexed %d messages in %d ms%n", corpusSize, (System.nanoTime() - start) / 1_000_000);
+
+        // Queries use words the way messages do; common words have the longest postings and cost the most
+        measure("zipf", searchIndex, vocabulary, queries, () -> zipf(random, vocabulary.length));
+        measure("common", searchIndex, vocabulary, queries, () -> random.nextInt(100));
+        measure("rare", searchIndex, vocabulary, queries, () -> 100 + random.nextInt(vocabulary.length - 100));
+    }
+
+    /**
+     * Runs two-word queries with words picked by the given rank supplier and
+     * prints their latency percentiles.
+     */
+    private static void measure(String label, SearchIndex searchIndex, String[] vocabulary, int queries,
+            IntSupplier rank) {
+        long[] latencies = new long[queries];
+        for (int q = 0; q < queries; q++) {
+            String query = vocabulary[rank.getAsInt()] + " " + vocabulary[rank.getAsInt()];
+            long queryStart = System.nanoTime();
+            searchIndex.search(query, 0, 20);
+            latencies[q] = System.nanoTime() - queryStart;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("search %s terms p50=%d us p99=%d us%n", label,
+                latencies[queries / 2] / 1000, latencies[queries * 99 / 100] / 1000);
+    }
+
+    private static int zipf(Random random, int size) {
+        return (int) Math.min(size - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(size))) - 1);
+    }
+}
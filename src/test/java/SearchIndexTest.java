@@ -0,0 +1,147 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.SearchIndex;
+
+public class SearchIndexTest {
+    private static final int VOCABULARY = 200;
+
+    /**
+     * The pruned search returns the same top k as scoring every message: its results are in score order, and no
+     * message left out scores higher than the last one returned.
+     */
+    @Test
+    public void prunedSearchMatchesExhaustiveScoring() {
+        Random random = new Random(7);
+        SearchIndex searchIndex = new SearchIndex();
+        List<String> texts = new ArrayList<>();
+        for (int id = 1; id <= 5000; id++) {
+            String text = randomText(random);
+            texts.add(text);
+            searchIndex.index(new Message(id, 1, text, 1669947792L));
+        }
+
+        for (int q = 0; q < 200; q++) {
+            String query = word(random) + " " + word(random) + (q % 3 == 0 ? " " + word(random) : "");
+            int offset = q % 4 == 0 ? 10 : 0;
+            long[] found = searchIndex.search(query, offset, 10);
+            double[] scores = exhaustiveScores(texts, query);
+
+            Assert.assertTrue(found.length <= 10);
+            Set<Long> returned = new HashSet<>();
+            for (int i = 0; i < found.length; i++) {
+                returned.add(found[i]);
+                Assert.assertTrue(scores[(int) found[i]] > 0);
+                if (i > 0) {
+                    Assert.assertTrue(scores[(int) found[i]] <= scores[(int) found[i - 1]] + 1e-9);
+                }
+            }
+            if (offset == 0 && found.length == 10) {
+                double last = scores[(int) found[9]];
+                for (int id = 1; id <= texts.size(); id++) {
+                    if (!returned.contains((long) id)) {
+                        Assert.assertTrue(query, scores[id] <= last + 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removed and replaced messages are never returned under their old text, including after the postings are
+     * compacted, and an index read back from writeTo answers exactly as the original.
+     */
+    @Test
+    public void removedMessagesAreNotFoundAndIndexSurvivesWriting() throws IOException {
+        Random random = new Random(11);
+        SearchIndex searchIndex = new SearchIndex();
+        for (int id = 1; id <= 2000; id++) {
+            searchIndex.index(new Message(id, 1, randomText(random), 1669947792L));
+        }
+        for (int id = 1; id <= 2000; id += 3) {
+            searchIndex.remove(id);
+        }
+        for (int id = 2; id <= 2000; id += 3) {
+            searchIndex.index(new Message(id, 1, "replaced", 1669947792L));
+        }
+        Assert.assertEquals(2000 - 667, searchIndex.size());
+
+        for (int q = 0; q < 50; q++) {
+            for (long message_id : searchIndex.search(word(random), 0, 100)) {
+                Assert.assertEquals(0, message_id % 3);
+            }
+        }
+        Assert.assertEquals(667, searchIndex.search("replaced", 0, 1000).length);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        searchIndex.writeTo(new DataOutputStream(bytes));
+        SearchIndex copy = SearchIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(searchIndex.size(), copy.size());
+        for (int q = 0; q < 50; q++) {
+            String query = word(random) + " " + word(random) + " replaced";
+            Assert.assertArrayEquals(searchIndex.search(query, 0, 50), copy.search(query, 0, 50));
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 3 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+            text.append(word(random)).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return a word from a Zipf-like vocabulary, so that some postings are long and some short.
+     */
+    private static String word(Random random) {
+        return "w" + (int) Math.min(VOCABULARY - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(VOCABULARY))) - 1);
+    }
+
+    /**
+     * @return the BM25 score of every message (by message_id, from 1) for the query.
+     */
+    private static double[] exhaustiveScores(List<String> texts, String query) {
+        List<Map<String, Integer>> frequencies = new ArrayList<>();
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        long totalTerms = 0;
+        for (String text : texts) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (String term : text.trim().split(" ")) {
+                counts.merge(term, 1, Integer::sum);
+                totalTerms++;
+            }
+            counts.keySet().forEach(term -> documentFrequencies.merge(term, 1, Integer::sum));
+            frequencies.add(counts);
+        }
+        double averageLength = (double) totalTerms / texts.size();
+        double[] scores = new double[texts.size() + 1];
+        for (String term : query.split(" ")) {
+            int documentFrequency = documentFrequencies.getOrDefault(term, 0);
+            double idf = Math.log(1 + (texts.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            for (int i = 0; i < texts.size(); i++) {
+                int frequency = frequencies.get(i).getOrDefault(term, 0);
+                if (frequency > 0) {
+                    int length = texts.get(i).trim().split(" ").length;
+                    scores[i + 1] += idf * frequency * 2.2 / (frequency + 1.2 * (0.25 + 0.75 * length / averageLength));
+                }
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=test (matches the initial message)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of a list containing the initial message
+     */
+    @Test
+    public void searchMessagesMatch() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("q=test");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=nothing (no message contains the word)
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of an empty list
+     */
+    @Test
+    public void searchMessagesNoMatch() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("q=nothing");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(actualResult.isEmpty());
+    }
+
+    /**
+     * Posting and then editing messages, then searching for words in them. Messages matching more of the query
+     * rank first, and edited text replaces the old text in the index.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON represenation of the ranked matches, one page at a time
+     */
+    @Test
+    public void searchMessagesRankedAndPaged() throws IOException, InterruptedException {
+        postMessage("hello world");
+        postMessage("hello there");
+        patchMessage(1, "goodbye world");
+
+        HttpResponse<String> response = search("q=hello%20world&limit=1");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> firstPage = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(List.of(new Message(2, 1, "hello world", 1669947792)), firstPage);
+
+        response = search("q=hello%20world&offset=1&limit=5");
+        List<Message> secondPage = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, secondPage.size());
+        Assert.assertTrue(secondPage.contains(new Message(3, 1, "hello there", 1669947792)));
+        Assert.assertTrue(secondPage.contains(new Message(1, 1, "goodbye world", 1669947792)));
+
+        response = search("q=test");
+        List<Message> edited = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertTrue(edited.isEmpty());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search with no query
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchMessagesNoQuery() throws IOException, InterruptedException {
+        Assert.assertEquals(400, search("q=").statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search for a page beyond the deepest result served
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchMessagesPageTooDeep() throws IOException, InterruptedException {
+        Assert.assertEquals(200, search("q=test&offset=900&limit=100").statusCode());
+        Assert.assertEquals(400, search("q=test&offset=901&limit=100").statusCode());
+        Assert.assertEquals(400, search("q=test&offset=2147483647&limit=100").statusCode());
+    }
+
+    private HttpResponse<String> search(String queryString) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/search?" + queryString))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void patchMessage(int message_id, String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/" + message_id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{" +
+                        "\"message_text\": \"" + message_text + "\" }"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import DAO.UnitOfWorkException;
+import Model.Message;
+import Service.CachingSocialMedia;
+import Service.ForwardingSocialMedia;
+import Service.MeteredSocialMedia;
+import Service.RateLimitedSocialMedia;
+import Service.RetryingSocialMedia;
+import Service.SocialMedia;
+import Service.SocialMediaService;
+import Util.InMemoryRateLimiterBackend;
+import Util.Metrics;
+import Util.RateLimitExceededException;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+public class ServiceDecoratorsTest {
+    SocialMediaService service;
+
+    /**
+     * Before every test, reset the database and create a service on it.
+     */
+    @Before
+    public void setUp() {
+        TestHarness.isolateDatabase();
+        service = new SocialMediaService(SocialMediaDAO.create());
+    }
+
+    /**
+     * Reads are served from the cache until they expire or a message is written through the cache.
+     */
+    @Test
+    public void cacheServesReadsUntilExpiryOrWrite() {
+        AtomicLong now = new AtomicLong();
+        Counting counting = new Counting(service);
+        CachingSocialMedia cache = new CachingSocialMedia(counting, 100, 1000, now::get);
+
+        Message message = cache.getMessageById(1);
+        Assert.assertEquals("test message 1", message.getMessage_text());
+        Assert.assertEquals(message, cache.getMessageById(1));
+        Assert.assertEquals(1, counting.reads.get());
+
+        now.set(1000);
+        cache.getMessageById(1);
+        Assert.assertEquals(2, counting.reads.get());
+
+        cache.updateMessageById(1, "updated through the cache");
+        Assert.assertEquals("updated through the cache", cache.getMessageById(1).getMessage_text());
+        Assert.assertEquals(List.of(cache.getMessageById(1)), cache.getAllMessages());
+        Assert.assertEquals(4, counting.reads.get());
+
+        // A message that is not found is not cached, so it is found once posted
+        Assert.assertNull(cache.getMessageById(2));
+        Message posted = cache.postMessage(new Message(1, "posted through the cache", 1669947800));
+        Assert.assertEquals(posted, cache.getMessageById(2));
+        Assert.assertEquals(2, cache.getAllMessages().size());
+    }
+
+    /**
+     * The cache keeps at most its configured number of reads, evicting the least recently used.
+     */
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() {
+        AtomicLong now = new AtomicLong();
+        Counting counting = new Counting(service);
+        CachingSocialMedia cache = new CachingSocialMedia(counting, 2, 60_000, now::incrementAndGet);
+        service.postMessage(new Message(1, "second", 1669947800));
+        service.postMessage(new Message(1, "third", 1669947801));
+
+        cache.getMessageById(1);
+        cache.getMessageById(2);
+        cache.getMessageById(1);
+        cache.getMessageById(3);
+        Assert.assertEquals(2, cache.size());
+        int reads = counting.reads.get();
+        cache.getMessageById(1);
+        cache.getMessageById(3);
+        Assert.assertEquals("The recently used entries should be kept", reads, counting.reads.get());
+    }
+
+    /**
+     * A write through the cache only invalidates the message it changed and the list of all messages, and the cached
+     * list cannot be modified by the callers sharing it.
+     */
+    @Test
+    public void writeInvalidatesOnlyItsMessage() {
+        Counting counting = new Counting(service);
+        CachingSocialMedia cache = new CachingSocialMedia(counting, 100, 60_000, System::currentTimeMillis);
+        Message other = service.postMessage(new Message(1, "other", 1669947800));
+        cache.getMessageById(1);
+        cache.getMessageById(other.getMessage_id());
+        List<Message> all = cache.getAllMessages();
+        try {
+            all.clear();
+            Assert.fail("The cached list should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            Assert.assertEquals(2, cache.getAllMessages().size());
+        }
+        Assert.assertEquals(3, counting.reads.get());
+
+        cache.updateMessageById(1, "edited");
+        Assert.assertEquals("other", cache.getMessageById(other.getMessage_id()).getMessage_text());
+        Assert.assertEquals(3, counting.reads.get());
+        Assert.assertEquals("edited", cache.getMessageById(1).getMessage_text());
+        Assert.assertEquals("edited", cache.getAllMessages().get(0).getMessage_text());
+        Assert.assertEquals(5, counting.reads.get());
+    }
+
+    /**
+     * Failed reads are retried with backoff; failed writes and rate limit rejections are not.
+     */
+    @Test
+    public void retriesOnlyIdempotentFailures() {
+        Failing failing = new Failing(service, 2);
+        SocialMedia retrying = new RetryingSocialMedia(failing, 3, 1);
+        long retries = Metrics.counter("service.retries").sum();
+
+        Assert.assertEquals("test message 1", retrying.getMessageById(1).getMessage_text());
+        Assert.assertEquals(3, failing.calls.get());
+        Assert.assertEquals(retries + 2, Metrics.counter("service.retries").sum());
+
+        failing = new Failing(service, 1);
+        retrying = new RetryingSocialMedia(failing, 3, 1);
+        try {
+            retrying.postMessage(new Message(1, "not retried", 1669947800));
+            Assert.fail("The write should not be retried");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(1, failing.calls.get());
+        }
+
+        SocialMedia limited = new RetryingSocialMedia(new RateLimitedSocialMedia(service,
+                new RateLimiter(new InMemoryRateLimiterBackend()), new RateLimiter.Limit(1, 0.001)), 3, 1);
+        limited.getAllMessages();
+        try {
+            limited.getAllMessages();
+            Assert.fail("The rate limit should reject the second call");
+        } catch (RateLimitExceededException e) {
+            Assert.assertTrue(e.getRetryAfterSeconds() >= 1);
+        }
+    }
+
+    /**
+     * Decorators are stacked from the configured list, innermost first, and each operation is timed.
+     */
+    @Test
+    public void decoratorsStackInConfiguredOrder() {
+        Assert.assertSame(service, Main.decorate(service, ""));
+        SocialMedia stacked = Main.decorate(service, "retry, cache,rate_limit,metrics");
+        Assert.assertTrue(stacked instanceof MeteredSocialMedia);
+
+        long timed = Metrics.timer("service.getMessageById").getCount();
+        Assert.assertEquals("test message 1", stacked.getMessageById(1).getMessage_text());
+        Assert.assertEquals(timed + 1, Metrics.timer("service.getMessageById").getCount());
+
+        try {
+            Main.decorate(service, "metrics,unknown");
+            Assert.fail("An unknown decorator should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Unknown service decorator: unknown", e.getMessage());
+        }
+    }
+
+    /**
+     * The controller serves a decorated service, and a rejection by the service's rate limit is a 429 response.
+     */
+    @Test
+    public void controllerServesDecoratedService() throws IOException, InterruptedException {
+        SocialMedia limited = new RateLimitedSocialMedia(service,
+                new RateLimiter(new InMemoryRateLimiterBackend()), new RateLimiter.Limit(1, 0.001));
+        Javalin app = new SocialMediaController(limited).startAPI();
+        try {
+            String baseUrl = TestHarness.start(app);
+            HttpClient webClient = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/messages/1")).build();
+            Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+            HttpResponse<String> rejected = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(429, rejected.statusCode());
+            Assert.assertTrue(rejected.headers().firstValue("Retry-After").isPresent());
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * A write whose transaction fails and is rolled back is a 500 response, not a 400, and is counted.
+     */
+    @Test
+    public void controllerAnswersFailedWriteWith500() throws IOException, InterruptedException {
+        SocialMedia failingWrites = new ForwardingSocialMedia(service) {
+            @Override
+            protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+                if (operation.equals("postMessage")) {
+                    throw new UnitOfWorkException(new SQLException("Disk full", "HY000"));
+                }
+                return invocation.get();
+            }
+        };
+        Javalin app = new SocialMediaController(failingWrites).startAPI();
+        try {
+            String baseUrl = TestHarness.start(app);
+            long failed = Metrics.counter("transactions.failed_requests").sum();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"posted_by\":1, \"message_text\": \"lost message\", \"time_posted_epoch\": 1669947800}"))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", TestHarness.authorization(baseUrl))
+                    .build();
+            HttpClient webClient = HttpClient.newHttpClient();
+            Assert.assertEquals(500, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+            Assert.assertEquals(failed + 1, Metrics.counter("transactions.failed_requests").sum());
+            Assert.assertEquals(1, service.getAllMessages().size());
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Counts the calls that reach the wrapped service.
+     */
+    static class Counting extends ForwardingSocialMedia {
+        final AtomicInteger reads = new AtomicInteger();
+
+        Counting(SocialMedia delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+            if (idempotent) {
+                reads.incrementAndGet();
+            }
+            return invocation.get();
+        }
+    }
+
+    /**
+     * Fails the first calls, then forwards.
+     */
+    static class Failing extends ForwardingSocialMedia {
+        final AtomicInteger calls = new AtomicInteger();
+        final int failures;
+
+        Failing(SocialMedia delegate, int failures) {
+            super(delegate);
+            this.failures = failures;
+        }
+
+        @Override
+        protected <T> T call(String operation, boolean idempotent, Supplier<T> invocation) {
+            if (calls.incrementAndGet() <= failures) {
+                throw new IllegalStateException("Failure " + calls.get());
+            }
+            return invocation.get();
+        }
+    }
+}
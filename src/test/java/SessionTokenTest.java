@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import io.javalin.Javalin;
+
+public class SessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    String baseUrl;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        TestHarness.isolateDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        baseUrl = TestHarness.start(app);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/login with valid credentials
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Session-Token header holding a new session token
+     */
+    @Test
+    public void loginIssuesSessionToken() throws IOException, InterruptedException {
+        HttpResponse<String> response = login();
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Session-Token").isPresent());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with a valid session token for the poster
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of message object
+     */
+    @Test
+    public void postMessageWithSessionSuccessful() throws IOException, InterruptedException {
+        String token = login().headers().firstValue("Session-Token").orElseThrow();
+
+        HttpResponse<String> response = postMessage(1, "Bearer " + token);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Message(2, 1, "hello message", 1669947792),
+                objectMapper.readValue(response.body(), Message.class));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with an unknown session token
+     *
+     * Expected Response:
+     *  Status Code: 401
+     */
+    @Test
+    public void postMessageWithInvalidSession() throws IOException, InterruptedException {
+        Assert.assertEquals(401, postMessage(1, "Bearer not-a-token").statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages with a session token for a different account than
+     * posted_by
+     *
+     * Expected Response:
+     *  Status Code: 401
+     */
+    @Test
+    public void postMessageForOtherAccount() throws IOException, InterruptedException {
+        String token = login().headers().firstValue("Session-Token").orElseThrow();
+        Assert.assertEquals(401, postMessage(2, "Bearer " + token).statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/logout, then POST localhost:8080/messages with the old token
+     *
+     * Expected Response:
+     *  Status Code: 200 for the logout, 401 for the message
+     */
+    @Test
+    public void postMessageAfterLogout() throws IOException, InterruptedException {
+        String token = login().headers().firstValue("Session-Token").orElseThrow();
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/logout"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token)
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(401, postMessage(1, "Bearer " + token).statusCode());
+    }
+
+    /**
+     * Sending an http request to DELETE localhost:8080/messages/1 with a session token for an account other than the
+     * poster, then with the poster's own token
+     *
+     * Expected Response:
+     *  Status Code: 401 for the other account, leaving the message in place; 200 for the poster
+     */
+    @Test
+    public void deleteMessageForOtherAccount() throws IOException, InterruptedException {
+        HttpRequest register = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser2\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(register, HttpResponse.BodyHandlers.ofString()).statusCode());
+        String foreignToken = login("testuser2").headers().firstValue("Session-Token").orElseThrow();
+
+        Assert.assertEquals(401, deleteMessage(1, "Bearer " + foreignToken).statusCode());
+        HttpRequest get = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/messages/1")).build();
+        Assert.assertTrue(webClient.send(get, HttpResponse.BodyHandlers.ofString()).body().contains("test message 1"));
+
+        String token = login().headers().firstValue("Session-Token").orElseThrow();
+        HttpResponse<String> response = deleteMessage(1, "Bearer " + token);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().contains("test message 1"));
+    }
+
+    /**
+     * Sending http requests to POST, PATCH and DELETE localhost:8080/messages without a session token, for the
+     * existing account 1 and its message
+     *
+     * Expected Response:
+     *  Status Code: 401 for each, leaving the message in place, since sessions are required by default
+     */
+    @Test
+    public void writesWithoutTokenAreRejected() throws IOException, InterruptedException {
+        HttpRequest post = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(401, webClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"taken over\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(401, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/1"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(401, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest get = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/messages/1")).build();
+        Assert.assertTrue(webClient.send(get, HttpResponse.BodyHandlers.ofString()).body().contains("test message 1"));
+    }
+
+    private HttpResponse<String> login() throws IOException, InterruptedException {
+        return login("testuser1");
+    }
+
+    private HttpResponse<String> login(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> deleteMessage(int message_id, String authorization)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages/" + message_id))
+                .DELETE()
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> postMessage(int posted_by, String authorization)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.RunScript;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.Sharding;
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+
+public class ShardingTest {
+    SocialMediaService socialMediaService;
+
+    /**
+     * Before every test, reset the database, including every configured shard.
+     */
+    @Before
+    public void setUp() {
+        TestHarness.isolateDatabase();
+        socialMediaService = new SocialMediaService();
+    }
+
+    /**
+     * Each shard only generates message ids that map back to it.
+     */
+    @Test
+    public void shardIdsEncodeTheirShard() throws Exception {
+        int shardCount = 3;
+        for (int shard = 0; shard < shardCount; shard++) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:shard" + shard + "_" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+            Connection connection = dataSource.getConnection();
+            RunScript.execute(connection, new FileReader("src/main/resources/SocialMediaShard.sql"));
+            ConnectionUtil.prepareMessageShard(connection, shard, shardCount);
+
+            for (int i = 0; i < 4; i++) {
+                connection.createStatement().executeUpdate(
+                        "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, 'text', 1)");
+            }
+            ResultSet resultSet = connection.createStatement().executeQuery("SELECT message_id FROM message");
+            while (resultSet.next()) {
+                Assert.assertEquals(shard, Sharding.shardForMessage(resultSet.getInt(1), shardCount));
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Accounts are spread evenly over the shards, starting with the first account on the primary.
+     */
+    @Test
+    public void accountsAreSpreadOverShards() {
+        Assert.assertEquals(0, Sharding.shardForAccount(1, 4));
+        Assert.assertEquals(1, Sharding.shardForAccount(2, 4));
+        Assert.assertEquals(3, Sharding.shardForAccount(4, 4));
+        Assert.assertEquals(0, Sharding.shardForAccount(5, 4));
+    }
+
+    /**
+     * Messages posted by accounts on different shards can all be read back by id, by account and as one merged
+     * list. Only runs when shards are configured, for example with mvn test -Psharded.
+     */
+    @Test
+    public void messagesRouteToTheirPostersShard() {
+        Assume.assumeTrue(ConnectionUtil.getShardCount() > 1);
+        Account second = socialMediaService.addAccount(new Account("second", "password"));
+        Assert.assertEquals(1, Sharding.shardForAccount(second.getAccount_id()));
+
+        Message first = socialMediaService.postMessage(new Message(1, "on the primary #a", 1669947793));
+        Message other = socialMediaService.postMessage(new Message(second.getAccount_id(), "on shard one #b", 1669947794));
+        Assert.assertEquals(0, Sharding.shardForMessage(first.getMessage_id()));
+        Assert.assertEquals(1, Sharding.shardForMessage(other.getMessage_id()));
+
+        Assert.assertEquals(other, socialMediaService.getMessageById(other.getMessage_id()));
+        Assert.assertEquals(Arrays.asList(other), socialMediaService.getAllMessagesByAccountId(second.getAccount_id()));
+
+        List<Message> all = socialMediaService.getAllMessages();
+        Assert.assertEquals(3, all.size());
+        Assert.assertTrue(all.containsAll(Arrays.asList(first, other)));
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue(all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+        }
+
+        Message updated = socialMediaService.updateMessageById(other.getMessage_id(), "edited #c");
+        Assert.assertEquals("edited #c", updated.getMessage_text());
+        Assert.assertEquals(updated, socialMediaService.deleteMessageById(other.getMessage_id()));
+        Assert.assertNull(socialMediaService.getMessageById(other.getMessage_id()));
+    }
+
+    /**
+     * Startup alone prepares fresh shards: ensureSchema creates each shard's tables and sets up its ids, so messages
+     * posted from accounts on two shards are stored apart and read back by id.
+     */
+    @Test
+    public void startupPreparesFreshShards() {
+        String name = "startup-" + UUID.randomUUID();
+        ConnectionUtil.useDataSources(
+                ConnectionUtil.createDataSource("jdbc:h2:mem:" + name + "-primary;DB_CLOSE_DELAY=-1"),
+                Arrays.asList(ConnectionUtil.createDataSource("jdbc:h2:mem:" + name + "-shard1;DB_CLOSE_DELAY=-1")));
+        try {
+            Assert.assertTrue(ConnectionUtil.ensureSchema());
+            Assert.assertFalse(ConnectionUtil.ensureSchema());
+
+            // Shards are a feature of the database storage mode, so use it whatever storage the build configures
+            SocialMediaService service = new SocialMediaService(new SocialMediaDAO());
+            Account first = service.addAccount(new Account("first", "password"));
+            Account second = service.addAccount(new Account("second", "password"));
+            Assert.assertEquals(0, Sharding.shardForAccount(first.getAccount_id()));
+            Assert.assertEquals(1, Sharding.shardForAccount(second.getAccount_id()));
+
+            Message onPrimary = service.postMessage(new Message(first.getAccount_id(), "on the primary", 1669947793));
+            Message onShard = service.postMessage(new Message(second.getAccount_id(), "on shard one", 1669947794));
+            Assert.assertEquals(0, Sharding.shardForMessage(onPrimary.getMessage_id()));
+            Assert.assertEquals(1, Sharding.shardForMessage(onShard.getMessage_id()));
+            Assert.assertEquals(onPrimary, service.getMessageById(onPrimary.getMessage_id()));
+            Assert.assertEquals(onShard, service.getMessageById(onShard.getMessage_id()));
+        } finally {
+            ConnectionUtil.useDataSources(ConnectionUtil.createDataSource(ConnectionUtil.jdbcUrl()),
+                    ConnectionUtil.configuredShardDataSources());
+        }
+    }
+
+    /**
+     * Resetting the database also resets every shard; with a single shard, ids are sequential as before.
+     */
+    @Test
+    public void singleShardKeepsSequentialIds() throws SQLException {
+        Assume.assumeTrue(ConnectionUtil.getShardCount() == 1);
+        Assert.assertEquals(2, socialMediaService.postMessage(new Message(1, "second", 1669947793)).getMessage_id());
+        Assert.assertEquals(3, socialMediaService.postMessage(new Message(1, "third", 1669947794)).getMessage_id());
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.Sharding;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.SnowflakeIdGenerator;
+
+public class SnowflakeIdGeneratorTest {
+
+    /**
+     * Ids increase with time, and carry the time they were issued.
+     */
+    @Test
+    public void idsAreTimeOrdered() {
+        AtomicLong now = new AtomicLong(1700000000000L);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5, 1, now::get);
+
+        long first = generator.nextId(0);
+        long second = generator.nextId(0);
+        now.addAndGet(1);
+        long third = generator.nextId(0);
+
+        Assert.assertTrue(first < second && second < third);
+        Assert.assertEquals(1700000000000L, SnowflakeIdGenerator.timestampMillis(first));
+        Assert.assertEquals(1700000000001L, SnowflakeIdGenerator.timestampMillis(third));
+    }
+
+    /**
+     * Ids keep increasing when the clock goes backwards or one millisecond's sequence runs out.
+     */
+    @Test
+    public void idsIncreaseDespiteClockAndSequenceLimits() {
+        AtomicLong now = new AtomicLong(1700000000000L);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(0, 1, now::get);
+
+        long previous = generator.nextId(0);
+        now.addAndGet(-1000);
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId(0);
+            Assert.assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    /**
+     * Concurrent callers never receive the same id.
+     */
+    @Test
+    public void idsAreUniqueAcrossThreads() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, 1, System::currentTimeMillis);
+        List<long[]> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long[] ids = new long[20_000];
+            results.add(ids);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = generator.nextId(0);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> unique = new HashSet<>();
+        for (long[] ids : results) {
+            for (long id : ids) {
+                Assert.assertTrue(unique.add(id));
+            }
+        }
+    }
+
+    /**
+     * Every id maps back to the shard it was generated for, and shard counts that don't divide the sequence
+     * space are rejected.
+     */
+    @Test
+    public void idsEncodeTheirShard() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3, 4, System::currentTimeMillis);
+        for (int i = 0; i < 5_000; i++) {
+            int shard = i % 4;
+            Assert.assertEquals(shard, Sharding.shardForMessage(generator.nextId(shard), 4));
+        }
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> new SnowflakeIdGenerator(0, 3, System::currentTimeMillis));
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> new SnowflakeIdGenerator(1024, 1, System::currentTimeMillis));
+    }
+
+    /**
+     * Messages inserted with generated ids get 64-bit ids that can be read back.
+     */
+    @Test
+    public void daoInsertsGeneratedIds() {
+        TestHarness.isolateDatabase();
+        SocialMediaDAO socialMediaDAO = new SocialMediaDAO(
+                new SnowflakeIdGenerator(7, ConnectionUtil.getShardCount(), System::currentTimeMillis));
+
+        Message first = socialMediaDAO.insertNewMessage(new Message(1, "first", 1669947793));
+        Message second = socialMediaDAO.insertNewMessage(new Message(1, "second", 1669947794));
+
+        Assert.assertTrue(first.getMessage_id() > Integer.MAX_VALUE);
+        Assert.assertTrue(second.getMessage_id() > first.getMessage_id());
+        Assert.assertEquals(first, socialMediaDAO.getMessageById(first.getMessage_id()));
+        Assert.assertEquals(3, socialMediaDAO.getAllMessages().size());
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures time to first request: how long after the JVM is launched Main
+ * answers GET /messages, both as usual and with an AppCDS archive of the
+ * classes loaded on startup, and the resident memory of the process at that
+ * point. If the native executable named by "startup.native_binary" exists, it
+ * is measured as well. This is not a JUnit test; run it with the "cds" profile,
+ * which launches it with the application's classpath:
+ *
+ * mvn -Pcds -DskipTests package exec:exec
+ *
+ * or, to build and compare the native executable too:
+ *
+ * mvn -Pnative,cds -DskipTests package exec:exec
+ *
+ * "startup.launches" is the number of launches timed in each mode (default
+ * 5, set with -Dstartup.launches=10). If the archive named by
+ * "startup.cds_archive" does not exist or is older than the application jar,
+ * a training launch creates it first; delete it after changing dependencies.
+ * Class data sharing only archives classes from jars, so Main is launched from
+ * the jar named by "startup.app_jar" rather than from target/classes. Each
+ * launch uses an in-memory database. Resident memory is read from /proc, so it
+ * is only reported on Linux.
+ */
+public class StartupBenchmark {
+    private static final HttpClient webClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(100))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        int launches = Integer.getInteger("startup.launches", 5);
+        Path archive = Paths.get(System.getProperty("startup.cds_archive", "target/app.jsa")).toAbsolutePath();
+
+        // The JVM ignores an archive made from a different jar
+        Path appJar = Paths.get(appJar());
+        if (!Files.exists(archive)
+                || Files.getLastModifiedTime(archive).compareTo(Files.getLastModifiedTime(appJar)) < 0) {
+            Files.deleteIfExists(archive);
+            train(archive);
+        }
+
+        System.out.printf("%10s %12s %12s %14s%n", "mode", "median ms", "min ms", "median rss kB");
+        report("default", time(launches, jvm(Collections.emptyList())));
+        report("appcds", time(launches, jvm(Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"))));
+        String nativeBinary = System.getProperty("startup.native_binary");
+        if (nativeBinary != null && Files.isExecutable(Paths.get(nativeBinary))) {
+            report("native", time(launches, Collections.singletonList(nativeBinary)));
+        }
+    }
+
+    /**
+     * Creates the archive from the classes loaded up to the first request.
+     * From JDK 13 the archive is written when the training JVM exits; before
+     * that, the class list is dumped and a separate JVM builds the archive.
+     */
+    private static void train(Path archive) throws Exception {
+        Files.createDirectories(archive.getParent());
+        if (Runtime.version().feature() >= 13) {
+            launchUntilFirstRequest(jvm(Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive)));
+        } else {
+            Path classList = archive.resolveSibling(archive.getFileName() + ".classlist");
+            launchUntilFirstRequest(jvm(Collections.singletonList("-XX:DumpLoadedClassList=" + classList)));
+            Process dump = new ProcessBuilder(java(), "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive, "-cp", appClasspath())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            dump.waitFor();
+        }
+        if (!Files.exists(archive)) {
+            throw new IllegalStateException("The training launch did not create " + archive);
+        }
+    }
+
+    /**
+     * @return the samples of each launch, sorted by milliseconds to first
+     *         response and by resident memory.
+     */
+    private static List<List<Long>> time(int launches, List<String> launcher) throws Exception {
+        List<Long> millis = new ArrayList<>();
+        List<Long> rssKb = new ArrayList<>();
+        for (int i = 0; i < launches; i++) {
+            long[] sample = launchUntilFirstRequest(launcher);
+            millis.add(sample[0]);
+            rssKb.add(sample[1]);
+        }
+        Collections.sort(millis);
+        Collections.sort(rssKb);
+        return Arrays.asList(millis, rssKb);
+    }
+
+    /**
+     * @return the command that launches Main on the JVM with the given
+     *         options, up to where the system properties go.
+     */
+    private static List<String> jvm(List<String> jvmOptions) {
+        List<String> launcher = new ArrayList<>();
+        launcher.add(java());
+        launcher.addAll(jvmOptions);
+        return launcher;
+    }
+
+    /**
+     * Launches Main, waits for its first successful response and stops it.
+     *
+     * @param launcher the java command and its options, or the native
+     *                 executable.
+     * @return the milliseconds from launch to the first response, and the
+     *         process's resident memory in kB at that point (-1 if unknown).
+     */
+    private static long[] launchUntilFirstRequest(List<String> launcher) throws Exception {
+        int port = freePort();
+        Path changes = Files.createTempDirectory("startup-changes");
+        List<String> command = new ArrayList<>(launcher);
+        command.add("-Dserver.port=" + port);
+        command.add("-Ddb.backend=mem");
+        command.add("-Dchanges.dir=" + changes);
+        if (launcher.get(0).equals(java())) {
+            command.add("-cp");
+            command.add(appClasspath());
+            command.add("Main");
+        }
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:" + port + "/messages"))
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Main exited with " + process.exitValue());
+                }
+                try {
+                    if (webClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return new long[] { (System.nanoTime() - start) / 1_000_000, residentKb(process.pid()) };
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(5);
+            }
+        } finally {
+            // A normal exit, so a training JVM writes its archive
+            process.destroy();
+            process.waitFor();
+            for (File file : changes.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(changes);
+        }
+    }
+
+    private static void report(String mode, List<List<Long>> samples) {
+        List<Long> millis = samples.get(0);
+        List<Long> rssKb = samples.get(1);
+        System.out.printf("%10s %12d %12d %14d%n", mode, millis.get(millis.size() / 2), millis.get(0),
+                rssKb.get(rssKb.size() / 2));
+    }
+
+    /**
+     * @return the VmRSS of a process in kB, or -1 if it cannot be read.
+     */
+    private static long residentKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or the process is gone
+        }
+        return -1;
+    }
+
+    /**
+     * @return the application jar followed by the jars on this JVM's
+     *         classpath; directories such as target/classes are left out.
+     */
+    private static String appClasspath() {
+        List<String> entries = new ArrayList<>();
+        entries.add(appJar());
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.endsWith(".jar")) {
+                entries.add(entry);
+            }
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static String appJar() {
+        return System.getProperty("startup.app_jar", "target/Challenges-1.1.jar");
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String java() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Model.Message;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+public class StartupTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    String savedChangesDir;
+
+    /**
+     * Before every test, reset the database and point the change log at an empty directory.
+     */
+    @Before
+    public void setUp() throws IOException {
+        TestHarness.isolateDatabase();
+        savedChangesDir = System.setProperty("changes.dir", folder.newFolder("changes").toString());
+    }
+
+    @After
+    public void tearDown() {
+        // Put back the build's per-fork change log directory, if it set one
+        if (savedChangesDir == null) {
+            System.clearProperty("changes.dir");
+        } else {
+            System.setProperty("changes.dir", savedChangesDir);
+        }
+    }
+
+    /**
+     * Checking a current schema runs no DDL, and a schema without its stamp is completed without losing data.
+     */
+    @Test
+    public void schemaCheckSkipsCurrentSchema() throws SQLException {
+        Assert.assertFalse(ConnectionUtil.ensureSchema());
+        Assert.assertFalse(ConnectionUtil.ensureSchema());
+
+        Connection connection = ConnectionUtil.getConnection();
+        connection.createStatement().execute("DELETE FROM schema_version");
+        Assert.assertTrue(ConnectionUtil.ensureSchema());
+        Assert.assertFalse(ConnectionUtil.ensureSchema());
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM account");
+        resultSet.next();
+        Assert.assertEquals(1, resultSet.getInt(1));
+        connection.close();
+    }
+
+    /**
+     * A database created with the original int message ids has its message_id columns widened to bigint, keeping
+     * its messages, identity and foreign keys.
+     */
+    @Test
+    public void schemaMigratesIntMessageIds() throws SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            for (String table : new String[] { "follow", "message_hashtag", "message_mention", "message", "account",
+                    "schema_version" }) {
+                connection.createStatement().execute("DROP TABLE IF EXISTS " + table);
+            }
+            // The tables as the original script created them
+            connection.createStatement().execute("CREATE TABLE account (account_id int primary key auto_increment,"
+                    + " username varchar(255) unique, password varchar(255))");
+            connection.createStatement().execute("CREATE TABLE message (message_id int primary key auto_increment,"
+                    + " posted_by int, message_text varchar(255), time_posted_epoch bigint,"
+                    + " foreign key (posted_by) references account(account_id))");
+            connection.createStatement().execute("CREATE TABLE message_hashtag (message_id int,"
+                    + " hashtag varchar(255), primary key (message_id, hashtag),"
+                    + " foreign key (message_id) references message(message_id) on delete cascade)");
+            connection.createStatement().execute("INSERT INTO account (username, password) VALUES ('testuser1', 'password')");
+            connection.createStatement().execute("INSERT INTO message (posted_by, message_text, time_posted_epoch)"
+                    + " VALUES (1, 'test message 1', 1669947792)");
+            connection.createStatement().execute("INSERT INTO message_hashtag VALUES (1, 'test')");
+
+            Assert.assertTrue(ConnectionUtil.ensureSchema());
+            for (String table : new String[] { "message", "message_hashtag", "message_mention" }) {
+                ResultSet resultSet = connection.createStatement().executeQuery("SELECT data_type"
+                        + " FROM information_schema.columns WHERE LOWER(table_name) = '" + table + "'"
+                        + " AND LOWER(column_name) = 'message_id'");
+                Assert.assertTrue(resultSet.next());
+                Assert.assertEquals("BIGINT", resultSet.getString(1));
+            }
+            connection.createStatement().execute("INSERT INTO message (message_id, posted_by, message_text,"
+                    + " time_posted_epoch) VALUES (4294967296, 1, 'test message 2', 1669947793)");
+            connection.createStatement().execute("INSERT INTO message_hashtag VALUES (4294967296, 'test')");
+            connection.createStatement().execute("INSERT INTO message (posted_by, message_text, time_posted_epoch)"
+                    + " VALUES (1, 'test message 3', 1669947794)");
+            connection.createStatement().execute("DELETE FROM message WHERE message_id = 1");
+            ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM message_hashtag");
+            resultSet.next();
+            Assert.assertEquals(1, resultSet.getInt(1));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * A service started from a snapshot serves the snapshot's search index and feeds, brought up to date with the
+     * changes made after the snapshot was saved.
+     */
+    @Test
+    public void snapshotWarmsCachesAndReplaysLaterChanges() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("startup.snapshot");
+        SocialMediaService service = new SocialMediaService(SocialMediaDAO.create());
+        Account author = service.addAccount(new Account("author", "password"));
+        Assert.assertTrue(service.followAccount(1, author.getAccount_id()));
+        Message saved = service.postMessage(new Message(author.getAccount_id(), "saved before restart", 1669947800));
+        Message edited = service.postMessage(new Message(author.getAccount_id(), "edited before restart", 1669947801));
+        Assert.assertEquals(2, service.getFeed(1, 10).size());
+        service.saveSnapshot(snapshot);
+
+        Message later = service.postMessage(new Message(author.getAccount_id(), "posted after restart", 1669947802));
+        service.updateMessageById(edited.getMessage_id(), "edited after restart");
+
+        long restored = Metrics.counter("startup.snapshots_restored").sum();
+        SocialMediaService restarted = new SocialMediaService(SocialMediaDAO.create(), snapshot);
+        Assert.assertEquals(restored + 1, Metrics.counter("startup.snapshots_restored").sum());
+        Assert.assertEquals(List.of(saved), restarted.searchMessages("saved", 0, 10));
+        Assert.assertEquals(List.of(later), restarted.searchMessages("posted", 0, 10));
+        List<Message> editedResults = restarted.searchMessages("edited", 0, 10);
+        Assert.assertEquals(1, editedResults.size());
+        Assert.assertEquals("edited after restart", editedResults.get(0).getMessage_text());
+        Assert.assertEquals(3, restarted.getFeed(1, 10).size());
+        Assert.assertEquals(later, restarted.getFeed(1, 10).get(0));
+    }
+
+    /**
+     * A corrupt snapshot is ignored and the caches are built from the database.
+     */
+    @Test
+    public void corruptSnapshotFallsBackToDatabase() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("startup.snapshot");
+        Files.write(snapshot, new byte[] { 1, 2, 3 });
+
+        SocialMediaService service = new SocialMediaService(SocialMediaDAO.create(), snapshot);
+        Assert.assertEquals(1, service.searchMessages("test message", 0, 10).size());
+    }
+}
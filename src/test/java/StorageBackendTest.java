@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+
+public class StorageBackendTest {
+    private static final String[] SETTINGS = { "db.url", "db.backend", "db.path", "db.name", "db.host", "db.port",
+            "db.h2.cache_size_kb", "db.h2.lock_timeout_ms" };
+
+    Properties savedSettings = new Properties();
+
+    /**
+     * Before every test, set aside the storage settings the build may have made, such as those of the
+     * h2-server profile.
+     */
+    @Before
+    public void setUp() {
+        for (String setting : SETTINGS) {
+            String value = System.clearProperty(setting);
+            if (value != null) {
+                savedSettings.setProperty(setting, value);
+            }
+        }
+    }
+
+    /**
+     * After every test, restore the storage settings and forget any config file it loaded.
+     */
+    @After
+    public void tearDown() throws IOException {
+        for (String setting : SETTINGS) {
+            System.clearProperty(setting);
+        }
+        savedSettings.forEach((setting, value) -> System.setProperty((String) setting, (String) value));
+        AppConfig.loadFile(writeConfigFile("").getPath());
+    }
+
+    /**
+     * Without configuration, the embedded H2 file database is used.
+     */
+    @Test
+    public void defaultBackendIsH2File() {
+        Assert.assertEquals("jdbc:h2:./h2/db;DB_CLOSE_ON_EXIT=FALSE;", ConnectionUtil.jdbcUrl());
+    }
+
+    /**
+     * The in-memory backend stays open until the JVM exits and carries H2 tuning settings.
+     */
+    @Test
+    public void memBackendWithTuning() {
+        System.setProperty("db.backend", "mem");
+        System.setProperty("db.h2.cache_size_kb", "65536");
+        System.setProperty("db.h2.lock_timeout_ms", "2000");
+        Assert.assertEquals(
+                "jdbc:h2:mem:socialmedia;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;CACHE_SIZE=65536;LOCK_TIMEOUT=2000;",
+                ConnectionUtil.jdbcUrl());
+    }
+
+    /**
+     * The server and postgres backends connect over TCP to the configured host and port.
+     */
+    @Test
+    public void networkBackends() {
+        System.setProperty("db.backend", "server");
+        System.setProperty("db.host", "db.internal");
+        Assert.assertEquals("jdbc:h2:tcp://db.internal:9092/./h2/db;", ConnectionUtil.jdbcUrl());
+
+        System.setProperty("db.backend", "postgres");
+        Assert.assertEquals("jdbc:postgresql://db.internal:5432/socialmedia", ConnectionUtil.jdbcUrl());
+    }
+
+    /**
+     * Settings are read from the config file, but system properties take priority.
+     */
+    @Test
+    public void configFileIsOverriddenBySystemProperties() throws IOException {
+        AppConfig.loadFile(writeConfigFile("db.backend=mem\ndb.name=fromfile\n").getPath());
+        Assert.assertEquals("jdbc:h2:mem:fromfile;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;", ConnectionUtil.jdbcUrl());
+
+        System.setProperty("db.url", "jdbc:h2:mem:override");
+        Assert.assertEquals("jdbc:h2:mem:override", ConnectionUtil.jdbcUrl());
+    }
+
+    /**
+     * An unknown backend is rejected rather than silently replaced.
+     */
+    @Test
+    public void unknownBackendIsRejected() {
+        System.setProperty("db.backend", "oracle");
+        Assert.assertThrows(IllegalArgumentException.class, ConnectionUtil::jdbcUrl);
+    }
+
+    private static File writeConfigFile(String contents) throws IOException {
+        File file = File.createTempFile("app", ".properties");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write(contents);
+        writer.close();
+        return file;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.UUID;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Isolates tests from each other, so that surefire can run test classes in parallel forks.
+ *
+ * With the in-memory backend (db.backend=mem, which mvn test uses), every test gets an in-memory H2 database of its
+ * own, holding the test data. Servers listen on an ephemeral port and are only used once they answer a request.
+ */
+public class TestHarness {
+    private static final HttpClient readinessClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(500))
+            .build();
+    /**
+     * Whether the current primary database was created by isolateDatabase, and can be shut down once replaced.
+     */
+    private static boolean ownsDatabase;
+
+    /**
+     * Gives the calling test a database with only the test data in it: a new in-memory database with the in-memory
+     * backend, or the configured database reset otherwise. Sharded setups keep their configured databases too, since
+     * their shards are prepared together.
+     */
+    public static synchronized void isolateDatabase() {
+        if (AppConfig.getString("db.backend", "file").equals("mem") && AppConfig.getString("db.url", null) == null
+                && ConnectionUtil.getShardCount() == 1) {
+            if (ownsDatabase) {
+                shutDownDatabase();
+            }
+            ConnectionUtil.useDataSource(ConnectionUtil.createDataSource(
+                    "jdbc:h2:mem:test-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+            ownsDatabase = true;
+        }
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Starts an app on an ephemeral port and waits until it serves requests.
+     *
+     * @param app the app to start.
+     * @return the app's base URL, such as http://localhost:41234.
+     */
+    public static String start(Javalin app) {
+        app.start(0);
+        String baseUrl = "http://localhost:" + app.port();
+        awaitReady(baseUrl);
+        return baseUrl;
+    }
+
+    /**
+     * Waits until a server answers GET /metrics, which needs no database.
+     *
+     * @param baseUrl the server's base URL.
+     * @throws IllegalStateException if it does not answer within 10 seconds.
+     */
+    public static void awaitReady(String baseUrl) {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(baseUrl + "/metrics")).build();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                if (readinessClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for " + baseUrl, e);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(baseUrl + " did not become ready");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for " + baseUrl, e);
+            }
+        }
+    }
+
+    /**
+     * Logs in as testuser1, the account that posted the test message, since message writes need a session token.
+     *
+     * @param baseUrl the server's base URL.
+     * @return an Authorization header value for testuser1.
+     */
+    public static String authorization(String baseUrl) {
+        return authorization(baseUrl, "testuser1", "password");
+    }
+
+    /**
+     * Logs in as an account.
+     *
+     * @param baseUrl  the server's base URL.
+     * @param username the account's username.
+     * @param password the account's password.
+     * @return an Authorization header value for the account.
+     * @throws IllegalStateException if the login fails.
+     */
+    public static String authorization(String baseUrl, String username, String password) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/login"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"username\": \"" + username + "\", \"password\": \"" + password + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        try {
+            HttpResponse<String> response = readinessClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return "Bearer " + response.headers().firstValue("Session-Token")
+                    .orElseThrow(() -> new IllegalStateException("Could not log in as " + username));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not log in as " + username, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while logging in as " + username, e);
+        }
+    }
+
+    /**
+     * Frees the memory of the previous test's database.
+     */
+    private static void shutDownDatabase() {
+        try {
+            Connection connection = ConnectionUtil.getConnection();
+            connection.createStatement().execute("SHUTDOWN");
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
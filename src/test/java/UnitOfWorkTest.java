@@ -0,0 +1,85 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.SocialMediaDAO;
+import DAO.UnitOfWork;
+import DAO.UnitOfWorkException;
+import Model.Account;
+import Model.Message;
+
+public class UnitOfWorkTest {
+    SocialMediaDAO socialMediaDAO;
+
+    /**
+     * Before every test, reset the database and create a new DAO.
+     */
+    @Before
+    public void setUp() {
+        TestHarness.isolateDatabase();
+        socialMediaDAO = new SocialMediaDAO();
+    }
+
+    /**
+     * Several DAO calls in one unit of work commit together, and can read each other's uncommitted writes.
+     */
+    @Test
+    public void unitOfWorkCommitsAllCalls() {
+        Message message = UnitOfWork.run(() -> {
+            Account account = socialMediaDAO.insertNewAccount(new Account("user", "password"));
+            socialMediaDAO.insertNewMessage(new Message(account.getAccount_id(), "hello message", 1669947792));
+            return socialMediaDAO.getMessageById(2);
+        });
+
+        Assert.assertEquals(new Message(2, 2, "hello message", 1669947792), message);
+        Assert.assertNotNull(socialMediaDAO.getAccountByUsername("user"));
+        Assert.assertEquals(2, socialMediaDAO.getAllMessages().size());
+    }
+
+    /**
+     * When one DAO call in a unit of work fails, every earlier call in it is rolled back.
+     */
+    @Test
+    public void unitOfWorkRollsBackOnFailure() {
+        Assert.assertThrows(UnitOfWorkException.class, () -> UnitOfWork.run(() -> {
+            socialMediaDAO.insertNewMessage(new Message(1, "hello message", 1669947792));
+            // posted_by 100 does not exist, so this insert violates the foreign key
+            socialMediaDAO.insertNewMessage(new Message(100, "orphan message", 1669947792));
+            return null;
+        }));
+
+        Assert.assertEquals(1, socialMediaDAO.getAllMessages().size());
+    }
+
+    /**
+     * A unit of work that fails with a lock timeout is retried, and commits once it succeeds.
+     */
+    @Test
+    public void unitOfWorkRetriesLockTimeout() {
+        AtomicInteger attempts = new AtomicInteger();
+        Message message = UnitOfWork.run(() -> {
+            Message inserted = socialMediaDAO.insertNewMessage(new Message(1, "hello message", 1669947792));
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("Timeout trying to lock table", "HYT00", 50200);
+            }
+            return inserted;
+        });
+
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertNotNull(message);
+        Assert.assertEquals(2, socialMediaDAO.getAllMessages().size());
+    }
+
+    /**
+     * Deleting a message returns the removed message, and the message is gone afterwards.
+     */
+    @Test
+    public void deleteMessageRemovesMessage() {
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), socialMediaDAO.deleteMessageById(1));
+        Assert.assertNull(socialMediaDAO.getMessageById(1));
+        Assert.assertNull(socialMediaDAO.deleteMessageById(1));
+    }
+}
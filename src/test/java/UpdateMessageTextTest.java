@@ -13,7 +13,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
 import Model.Message;
-import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 public class UpdateMessageTextTest {
@@ -21,6 +20,7 @@ public class UpdateMessageTextTest {
     HttpClient webClient;
     ObjectMapper objectMapper;
     Javalin app;
+    String baseUrl;
 
     /**
      * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
@@ -29,13 +29,12 @@ public class UpdateMessageTextTest {
      */
     @Before
     public void setUp() throws InterruptedException {
-        ConnectionUtil.resetTestDatabase();
+        TestHarness.isolateDatabase();
         socialMediaController = new SocialMediaController();
         app = socialMediaController.startAPI();
         webClient = HttpClient.newHttpClient();
         objectMapper = new ObjectMapper();
-        app.start(8080);
-        Thread.sleep(1000);
+        baseUrl = TestHarness.start(app);
     }
 
     @After
@@ -54,10 +53,11 @@ public class UpdateMessageTextTest {
     @Test
     public void updateMessageSuccessful() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages/1"))
+                .uri(URI.create(baseUrl + "/messages/1"))
                 .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
                         "\"message_text\": \"updated message\" }"))
                 .header("Content-Type", "application/json")
+                .header("Authorization", TestHarness.authorization(baseUrl))
                 .build();
         HttpResponse response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
         int status = response.statusCode();
@@ -82,7 +82,7 @@ public class UpdateMessageTextTest {
     @Test
     public void updateMessageMessageNotFound() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages/2"))
+                .uri(URI.create(baseUrl + "/messages/2"))
                 .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
                         "\"message_text\": \"updated message\" }"))
                 .header("Content-Type", "application/json")
@@ -105,7 +105,7 @@ public class UpdateMessageTextTest {
     @Test
     public void updateMessageMessageStringEmpty() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages/1"))
+                .uri(URI.create(baseUrl + "/messages/1"))
                 .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
                         "\"message_text\": \"\" }"))
                 .header("Content-Type", "application/json")
@@ -128,7 +128,7 @@ public class UpdateMessageTextTest {
     @Test
     public void updateMessageMessageTooLong() throws IOException, InterruptedException {
         HttpRequest postMessageRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/messages/1"))
+                .uri(URI.create(baseUrl + "/messages/1"))
                 .method("PATCH", HttpRequest.BodyPublishers.ofString("{"+
                         "\"message_text\": \"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\" }"))
                 .header("Content-Type", "application/json")
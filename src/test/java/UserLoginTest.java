@@ -13,7 +13,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
 import Model.Account;
-import Util.ConnectionUtil;
 import io.javalin.Javalin;
 
 public class UserLoginTest {
@@ -22,6 +21,7 @@ public class UserLoginTest {
     HttpClient webClient;
     ObjectMapper objectMapper;
     Javalin app;
+    String baseUrl;
 
     /**
      * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
@@ -30,13 +30,12 @@ public class UserLoginTest {
      */
     @Before
     public void setUp() throws InterruptedException {
-        ConnectionUtil.resetTestDatabase();
+        TestHarness.isolateDatabase();
         socialMediaController = new SocialMediaController();
         app = socialMediaController.startAPI();
         webClient = HttpClient.newHttpClient();
         objectMapper = new ObjectMapper();
-        app.start(8080);
-        Thread.sleep(1000);
+        baseUrl = TestHarness.start(app);
     }
 
     @After
@@ -54,7 +53,7 @@ public class UserLoginTest {
     @Test
     public void loginSuccessful() throws IOException, InterruptedException {
         HttpRequest postRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/login"))
+                .uri(URI.create(baseUrl + "/login"))
                 .POST(HttpRequest.BodyPublishers.ofString("{" +
                         "\"username\": \"testuser1\", " +
                         "\"password\": \"password\" }"))
@@ -81,7 +80,7 @@ public class UserLoginTest {
     @Test
     public void loginInvalidUsername() throws IOException, InterruptedException {
         HttpRequest postRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/login"))
+                .uri(URI.create(baseUrl + "/login"))
                 .POST(HttpRequest.BodyPublishers.ofString("{" +
                         "\"username\": \"testuser404\", " +
                         "\"password\": \"password\" }"))
@@ -106,7 +105,7 @@ public class UserLoginTest {
     @Test
     public void loginInvalidPassword() throws IOException, InterruptedException {
         HttpRequest postRequest = HttpRequest.newBuilder()
-                .uri(URI.create("http://localhost:8080/login"))
+                .uri(URI.create(baseUrl + "/login"))
                 .POST(HttpRequest.BodyPublishers.ofString("{" +
                         "\"username\": \"testuser1\", " +
                         "\"password\": \"pass123\" }"))